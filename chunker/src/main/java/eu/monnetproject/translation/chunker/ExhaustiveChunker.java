@@ -28,18 +28,23 @@ package eu.monnetproject.translation.chunker;
 
 import eu.monnetproject.translation.Chunk;
 import eu.monnetproject.translation.ChunkList;
-import eu.monnetproject.translation.Label;
+import eu.monnetproject.translation.IndexedTranslationSource;
 import eu.monnetproject.translation.LanguageModel;
-import eu.monnetproject.translation.TranslationPhraseChunker;
+import eu.monnetproject.translation.PruningTranslationPhraseChunker;
+import eu.monnetproject.translation.TranslationSource;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ListIterator;
 
 /**
+ * Chunks a label into all its contiguous spans. If the sources are given, 
+ * spans that no source may translate are left out, except single tokens which
+ * are always kept
  *
  * @author John McCrae
  */
-public class ExhaustiveChunker implements TranslationPhraseChunker {
+public class ExhaustiveChunker implements PruningTranslationPhraseChunker {
 
     private final LanguageModel lm;
 
@@ -81,6 +86,54 @@ public class ExhaustiveChunker implements TranslationPhraseChunker {
         return rval;
     }
 
+    @Override
+    public ChunkList chunk(List<String> tokens2, Iterable<TranslationSource> sources) {
+        final List<IndexedTranslationSource> indexes = new ArrayList<IndexedTranslationSource>();
+        int maxLength = 0;
+        for (TranslationSource source : sources) {
+            if (source instanceof IndexedTranslationSource) {
+                indexes.add((IndexedTranslationSource) source);
+                maxLength = Math.max(maxLength, ((IndexedTranslationSource) source).maxPhraseLength());
+            } else {
+                // Any chunk may be translated
+                return chunk(tokens2);
+            }
+        }
+        ChunkListImpl rval = new ChunkListImpl();
+        final String[] tokens = tokens2.toArray(new String[tokens2.size()]);
+        for (int i = 0; i < tokens.length; i++) {
+            for (int j = i + 1; j <= tokens.length && j - i <= Math.max(maxLength, 1); j++) {
+                final String phrase = build(tokens, i, j);
+                if (j == i + 1 || hasPhrase(indexes, phrase)) {
+                    rval.add(new ChunkImpl(phrase));
+                }
+                // No longer phrase can be translated
+                if (!hasPrefix(indexes, phrase)) {
+                    break;
+                }
+            }
+        }
+        return rval;
+    }
+
+    private static boolean hasPhrase(List<IndexedTranslationSource> indexes, String phrase) {
+        for (IndexedTranslationSource index : indexes) {
+            if (index.hasPhrase(phrase)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasPrefix(List<IndexedTranslationSource> indexes, String phrase) {
+        for (IndexedTranslationSource index : indexes) {
+            if (index.hasPrefix(phrase)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private String build(String[] str, int begin, int end) {
         final StringBuilder builder = new StringBuilder();
         for (int i = begin; i < end; i++) {
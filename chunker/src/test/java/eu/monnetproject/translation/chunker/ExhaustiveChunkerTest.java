@@ -0,0 +1,195 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.chunker;
+
+import eu.monnetproject.translation.Chunk;
+import eu.monnetproject.translation.ChunkList;
+import eu.monnetproject.translation.IndexedTranslationSource;
+import eu.monnetproject.translation.PhraseTable;
+import eu.monnetproject.translation.TranslationSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class ExhaustiveChunkerTest {
+
+    private static List<String> sources(ChunkList chunks) {
+        final List<String> sources = new ArrayList<String>();
+        for (Chunk chunk : chunks) {
+            sources.add(chunk.getSource());
+        }
+        return sources;
+    }
+
+    /**
+     * Test of chunk method, of class ExhaustiveChunker.
+     */
+    @Test
+    public void testChunk() {
+        System.out.println("chunk");
+        final ExhaustiveChunker instance = new ExhaustiveChunker(null);
+        assertEquals(Arrays.asList("a", "a b", "a b c", "b", "b c", "c"), sources(instance.chunk(Arrays.asList("a", "b", "c"))));
+    }
+
+    /**
+     * Test of chunk method with indexed sources, of class ExhaustiveChunker.
+     */
+    @Test
+    public void testChunkIndexed() {
+        System.out.println("chunkIndexed");
+        final ExhaustiveChunker instance = new ExhaustiveChunker(null);
+        final StubIndexedSource source1 = new StubIndexedSource(Integer.MAX_VALUE, "a b", "b c d");
+        final StubIndexedSource source2 = new StubIndexedSource(Integer.MAX_VALUE, "d");
+        final ChunkList result = instance.chunk(Arrays.asList("a", "b", "c", "d"), Arrays.<TranslationSource>asList(source1, source2));
+        assertEquals(Arrays.asList("a", "a b", "b", "b c d", "c", "d"), sources(result));
+    }
+
+    /**
+     * Test that chunks are no longer than the longest phrase, of class ExhaustiveChunker.
+     */
+    @Test
+    public void testChunkMaxPhraseLength() {
+        System.out.println("chunkMaxPhraseLength");
+        final ExhaustiveChunker instance = new ExhaustiveChunker(null);
+        // Knows every phrase but none longer than two tokens
+        final StubIndexedSource source = new StubIndexedSource(2);
+        final ChunkList result = instance.chunk(Arrays.asList("a", "b", "c", "d"), Arrays.<TranslationSource>asList(source));
+        assertEquals(Arrays.asList("a", "a b", "b", "b c", "c", "c d", "d"), sources(result));
+        for (String phrase : source.queried) {
+            assertTrue(phrase, phrase.split(" ").length <= 2);
+        }
+    }
+
+    /**
+     * Test that a span is not extended once no source has it as a prefix, of class ExhaustiveChunker.
+     */
+    @Test
+    public void testChunkPrefix() {
+        System.out.println("chunkPrefix");
+        final ExhaustiveChunker instance = new ExhaustiveChunker(null);
+        final StubIndexedSource source = new StubIndexedSource(Integer.MAX_VALUE, "b c");
+        final ChunkList result = instance.chunk(Arrays.asList("a", "b", "c", "d"), Arrays.<TranslationSource>asList(source));
+        assertEquals(Arrays.asList("a", "b", "b c", "c", "d"), sources(result));
+        assertEquals(new HashSet<String>(Arrays.asList("a", "b", "b c", "b c d", "c", "d")), new HashSet<String>(source.queried));
+    }
+
+    /**
+     * Test that single tokens are kept even if no source has them, of class ExhaustiveChunker.
+     */
+    @Test
+    public void testChunkSingleTokens() {
+        System.out.println("chunkSingleTokens");
+        final ExhaustiveChunker instance = new ExhaustiveChunker(null);
+        final StubIndexedSource source = new StubIndexedSource(Integer.MAX_VALUE, "w");
+        final ChunkList result = instance.chunk(Arrays.asList("x", "y", "z"), Arrays.<TranslationSource>asList(source));
+        assertEquals(Arrays.asList("x", "y", "z"), sources(result));
+    }
+
+    /**
+     * Test that all chunks are returned if a source is not indexed, of class ExhaustiveChunker.
+     */
+    @Test
+    public void testChunkNotIndexed() {
+        System.out.println("chunkNotIndexed");
+        final ExhaustiveChunker instance = new ExhaustiveChunker(null);
+        final StubIndexedSource source1 = new StubIndexedSource(1);
+        final TranslationSource source2 = new StubSource();
+        final List<String> tokens = Arrays.asList("a", "b", "c");
+        final ChunkList result = instance.chunk(tokens, Arrays.<TranslationSource>asList(source1, source2));
+        assertEquals(sources(instance.chunk(tokens)), sources(result));
+    }
+
+    private static class StubSource implements TranslationSource {
+
+        @Override
+        public String[] featureNames() {
+            return new String[0];
+        }
+
+        @Override
+        public PhraseTable candidates(Chunk label) {
+            throw new UnsupportedOperationException("Not expected");
+        }
+
+        @Override
+        public String getName() {
+            return "stub";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A source knowing the given phrases, or every phrase if none are given
+     */
+    private static class StubIndexedSource extends StubSource implements IndexedTranslationSource {
+
+        private final int maxPhraseLength;
+        private final Set<String> phrases;
+        private final List<String> queried = new ArrayList<String>();
+
+        public StubIndexedSource(int maxPhraseLength, String... phrases) {
+            this.maxPhraseLength = maxPhraseLength;
+            this.phrases = phrases.length == 0 ? null : new HashSet<String>(Arrays.asList(phrases));
+        }
+
+        @Override
+        public int maxPhraseLength() {
+            return maxPhraseLength;
+        }
+
+        @Override
+        public boolean hasPhrase(String phrase) {
+            queried.add(phrase);
+            return phrases == null || phrases.contains(phrase);
+        }
+
+        @Override
+        public boolean hasPrefix(String phrase) {
+            queried.add(phrase);
+            if (phrases == null) {
+                return true;
+            }
+            for (String p : phrases) {
+                if (p.equals(phrase) || p.startsWith(phrase + " ")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.controller.impl;
+
+import eu.monnetproject.translation.BatchTranslationSource;
+import eu.monnetproject.translation.Chunk;
+import eu.monnetproject.translation.PhraseTable;
+import eu.monnetproject.translation.TranslationSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The candidates of the chunks looked up during a single translation job. As
+ * labels share many chunks, each (source, chunk) pair is looked up only once
+ * and the result is shared by all the worker threads. If a thread requests a
+ * chunk that another thread is looking up, it waits for that result, and if
+ * that look up fails it looks the chunk up itself. The 
+ * memo holds at most a fixed number of chunks, after which the oldest are 
+ * forgotten.
+ *
+ * @author John McCrae
+ */
+public class CandidateMemo {
+
+    /** The maximum number of chunks to remember, zero disables the memo */
+    public static final String SIZE_PROPERTY = "eu.monnetproject.translation.controller.memo";
+    public static final int DEFAULT_SIZE = 100000;
+    private final int maxSize;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+    // Insertion order for eviction, entries that failed or were replaced are
+    // skipped when they reach the head
+    private final ConcurrentLinkedQueue<Entry> order = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong(), waits = new AtomicLong(), misses = new AtomicLong();
+
+    /**
+     * Create a memo with the size set by {@link #SIZE_PROPERTY}
+     */
+    public CandidateMemo() {
+        this(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+    }
+
+    /**
+     * Create a memo
+     *
+     * @param maxSize The maximum number of chunks to remember
+     */
+    public CandidateMemo(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the candidates for a chunk
+     *
+     * @param source The source to look the chunk up in
+     * @param chunk The chunk
+     * @return The candidates, which must not be modified
+     */
+    public PhraseTable candidates(TranslationSource source, Chunk chunk) {
+        if (maxSize <= 0) {
+            return source.candidates(chunk);
+        }
+        final Key key = new Key(source, chunk.getSource());
+        final Entry entry = entries.get(key);
+        if (entry != null) {
+            return found(entry, source, chunk);
+        }
+        final Entry created = new Entry(key);
+        final Entry previous = entries.putIfAbsent(key, created);
+        if (previous != null) {
+            return found(previous, source, chunk);
+        }
+        misses.incrementAndGet();
+        added(created);
+        boolean success = false;
+        try {
+            final PhraseTable candidates = source.candidates(chunk);
+            created.set(candidates);
+            success = true;
+            return candidates;
+        } finally {
+            if (!success) {
+                removed(created);
+                created.fail();
+            }
+        }
+    }
+
+    /**
+     * Get the candidates for many chunks. Only the chunks that no thread has
+     * looked up are passed to the source
+     *
+     * @param source The source to look the chunks up in
+     * @param chunks The chunks
+     * @return The candidates, such that the i-th element is the candidates of
+     * the i-th chunk, which must not be modified
+     */
+    public List<PhraseTable> candidates(BatchTranslationSource source, List<Chunk> chunks) {
+        if (maxSize <= 0) {
+            return source.candidates(chunks);
+        }
+        final Entry[] chunkEntries = new Entry[chunks.size()];
+        final boolean[] claimed = new boolean[chunks.size()];
+        final List<Chunk> claimedChunks = new ArrayList<Chunk>();
+        final List<Entry> claimedEntries = new ArrayList<Entry>();
+        for (int i = 0; i < chunks.size(); i++) {
+            final Key key = new Key(source, chunks.get(i).getSource());
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                final Entry created = new Entry(key);
+                entry = entries.putIfAbsent(key, created);
+                if (entry == null) {
+                    misses.incrementAndGet();
+                    added(created);
+                    claimedChunks.add(chunks.get(i));
+                    claimedEntries.add(created);
+                    chunkEntries[i] = created;
+                    claimed[i] = true;
+                    continue;
+                }
+            }
+            chunkEntries[i] = entry;
+        }
+        // Look up the claimed chunks before waiting for any other, as the
+        // same chunk may occur twice in the list
+        if (!claimedChunks.isEmpty()) {
+            boolean success = false;
+            try {
+                final List<PhraseTable> candidates = claimedChunks.size() == 1
+                        ? Collections.singletonList(source.candidates(claimedChunks.get(0)))
+                        : source.candidates(claimedChunks);
+                for (int i = 0; i < claimedEntries.size(); i++) {
+                    claimedEntries.get(i).set(candidates.get(i));
+                }
+                success = true;
+            } finally {
+                if (!success) {
+                    for (int i = 0; i < claimedEntries.size(); i++) {
+                        removed(claimedEntries.get(i));
+                        claimedEntries.get(i).fail();
+                    }
+                }
+            }
+        }
+        final List<PhraseTable> result = new ArrayList<PhraseTable>(chunks.size());
+        for (int i = 0; i < chunkEntries.length; i++) {
+            if (claimed[i]) {
+                result.add(chunkEntries[i].candidates());
+            } else {
+                result.add(found(chunkEntries[i], source, chunks.get(i)));
+            }
+        }
+        return result;
+    }
+
+    private PhraseTable found(Entry entry, TranslationSource source, Chunk chunk) {
+        if (entry.isDone()) {
+            hits.incrementAndGet();
+        } else {
+            waits.incrementAndGet();
+        }
+        if (entry.await()) {
+            return entry.candidates();
+        } else {
+            // The thread that looked the chunk up failed and removed the 
+            // entry, so try again, reporting any failure in this thread
+            return candidates(source, chunk);
+        }
+    }
+
+    private void added(Entry entry) {
+        order.add(entry);
+        int n = size.incrementAndGet();
+        while (n > maxSize) {
+            final Entry oldest = order.poll();
+            if (oldest == null) {
+                break;
+            }
+            // Only count the entry if it was not already removed
+            if (entries.remove(oldest.key, oldest)) {
+                n = size.decrementAndGet();
+            } else {
+                n = size.get();
+            }
+        }
+    }
+
+    private void removed(Entry entry) {
+        if (entries.remove(entry.key, entry)) {
+            size.decrementAndGet();
+        }
+    }
+
+    /**
+     * The number of look ups answered from the memo
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * The number of look ups that waited for another thread to look up the
+     * same chunk
+     */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    /**
+     * The number of look ups passed to the sources
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * The proportion of look ups that were not passed to the sources
+     */
+    public double getHitRate() {
+        final long found = hits.get() + waits.get();
+        final long total = found + misses.get();
+        return total == 0 ? 0.0 : (double) found / total;
+    }
+
+    /**
+     * The number of chunks currently remembered
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CandidateMemo{hits=%d, waits=%d, misses=%d, hitRate=%.1f%%, size=%d}",
+                hits.get(), waits.get(), misses.get(), 100.0 * getHitRate(), size());
+    }
+
+    private static final class Key {
+
+        private final TranslationSource source;
+        private final String chunk;
+
+        public Key(TranslationSource source, String chunk) {
+            this.source = source;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(source) + chunk.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return source == other.source && chunk.equals(other.chunk);
+        }
+    }
+
+    /**
+     * The candidates of a chunk, which may still be being looked up
+     */
+    private static final class Entry {
+
+        private final Key key;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile PhraseTable candidates;
+        private volatile boolean failed;
+
+        public Entry(Key key) {
+            this.key = key;
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        public void set(PhraseTable candidates) {
+            this.candidates = candidates;
+            done.countDown();
+        }
+
+        public void fail() {
+            this.failed = true;
+            done.countDown();
+        }
+
+        /**
+         * Wait for the look up to finish
+         * @return false if the look up failed
+         */
+        public boolean await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException x) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            return !failed;
+        }
+
+        public PhraseTable candidates() {
+            return candidates;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.controller.impl;
+
+import eu.monnetproject.translation.Decoder;
+import eu.monnetproject.translation.PhraseTable;
+import eu.monnetproject.translation.Translation;
+import eu.monnetproject.translation.monitor.Job;
+import eu.monnetproject.translation.monitor.Messages;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A group of entries that are prepared individually and then sent to the
+ * decoder in a single call
+ *
+ * @author John McCrae
+ */
+public class TranslationBatch implements Runnable {
+
+    private final List<TranslationThread> entries;
+    private final Decoder decoder;
+    private final List<String> features;
+    private final int nBest;
+    private final boolean fast;
+    private final Job job;
+
+    public TranslationBatch(List<TranslationThread> entries, Decoder decoder, List<String> features, int nBest, boolean fast, Job job) {
+        this.entries = entries;
+        this.decoder = decoder;
+        this.features = features;
+        this.nBest = nBest;
+        this.fast = fast;
+        this.job = job;
+    }
+
+    /**
+     * @return The number of entries in this batch
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void run() {
+        Messages.associateThread(job, Thread.currentThread());
+        final List<TranslationThread> prepared = new ArrayList<TranslationThread>(entries.size());
+        final List<List<String>> phrases = new ArrayList<List<String>>(entries.size());
+        final List<PhraseTable> phraseTables = new ArrayList<PhraseTable>(entries.size());
+        for (TranslationThread entry : entries) {
+            try {
+                if (entry.prepare()) {
+                    prepared.add(entry);
+                    phrases.add(entry.sourceTokens());
+                    phraseTables.add(entry.phraseTable());
+                }
+            } catch (Throwable x) {
+                entry.fail(x);
+            }
+        }
+        if (prepared.isEmpty()) {
+            return;
+        }
+        final List<List<Translation>> translations;
+        try {
+            translations = fast
+                    ? decoder.decodeBatchFast(phrases, phraseTables, features, nBest)
+                    : decoder.decodeBatch(phrases, phraseTables, features, nBest);
+        } catch (Throwable x) {
+            for (TranslationThread entry : prepared) {
+                entry.fail(x);
+            }
+            return;
+        }
+        for (int i = 0; i < prepared.size(); i++) {
+            try {
+                prepared.get(i).complete(translations.get(i));
+            } catch (Throwable x) {
+                prepared.get(i).fail(x);
+            }
+        }
+    }
+}
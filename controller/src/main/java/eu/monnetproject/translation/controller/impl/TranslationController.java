@@ -50,8 +50,6 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
 import eu.monnetproject.lemon.model.LexicalSense;
 import eu.monnetproject.ontology.AnnotationProperty;
 import eu.monnetproject.ontology.DatatypeProperty;
@@ -68,9 +66,6 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.SynchronousQueue;
 
 /**
  *
@@ -108,6 +103,9 @@ public class TranslationController implements OntologyTranslator {
         monitors.add(monitor);
     }
     private final int numThreads = Integer.parseInt(System.getProperty("eu.monnetproject.translation.controller.threads", "10"));
+    private final int batchSize = Integer.parseInt(System.getProperty("eu.monnetproject.translation.controller.batch", "8"));
+    private final int queueSize = Integer.parseInt(System.getProperty("eu.monnetproject.translation.controller.queue", Integer.toString(4 * numThreads)));
+    private final TranslationScheduler scheduler = new TranslationScheduler(numThreads, queueSize);
 
     @Override
     public void translate(Ontology ontology,
@@ -157,12 +155,7 @@ public class TranslationController implements OntologyTranslator {
 
 
         for (Lexicon sourceLexicon : sourceLexicons) {
-            final Job job = Messages.beginTranslation(sourceLexicon.getEntrys().size());
             //final Collection<Entity> entities = ontology.getEntities();
-            final ThreadPoolExecutor threadPool = numThreads == 1 ? null : new ThreadPoolExecutor(numThreads - 1, numThreads - 1, 10, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
-            if (threadPool != null) {
-                threadPool.setRejectedExecutionHandler(new Wait()/*new ThreadPoolExecutor.CallerRunsPolicy()*/);
-            }
             final Language sourceLanguage = Language.get(sourceLexicon.getLanguage());
 
             final Script[] knownScriptsForLanguage = Script.getKnownScriptsForLanguage(sourceLanguage);
@@ -187,6 +180,10 @@ public class TranslationController implements OntologyTranslator {
                 Messages.warning("Skipping translation from " + sourceLanguage + " to " + targetLanguage + " as no sources available");
                 continue;
             }
+            // Only begin the job once it can run, as it is ended after translation
+            final Job job = Messages.beginTranslation(sourceLexicon.getEntrys().size());
+            final TranslationScheduler.JobHandle handle = scheduler.open(job);
+            final CandidateMemo memo = new CandidateMemo();
             final Set<Language> extraLangs = new HashSet<Language>(availLangs);
             extraLangs.remove(sourceLanguage);
             extraLangs.remove(targetLanguage);
@@ -196,6 +193,7 @@ public class TranslationController implements OntologyTranslator {
             final Decoder decoder = getDecoder(new LanguagePair(sourceLanguage, targetLanguage), languageModel);
 
             //log.info("Translating " + sourceLexicon.getEntrys().size() + " entries");
+            List<TranslationThread> batch = new ArrayList<TranslationThread>(batchSize);
             for (LexicalEntry entry : sourceLexicon.getEntrys()) {
                 Messages.translationStart(entry.getURI());
                 if (entry.getSenses() == null) {
@@ -211,27 +209,30 @@ public class TranslationController implements OntologyTranslator {
                         Messages.warning(sense.getReference()+ " not found in ontology, assuming class");
                         entity = ontology.getFactory().makeClass(sense.getReference());
                     }
-                    final TranslationThread thread = new TranslationThread(entity, entry, nBest, sourceLanguage, targetLexicon, namePrefix, chunkers, translationSources, featurizers, decoder, tokenizer, verbose, monitors, confidence, decodeFast, trueCaser, features, job);
+                    final TranslationThread thread = new TranslationThread(entity, entry, nBest, sourceLanguage, targetLexicon, namePrefix, chunkers, translationSources, featurizers, decoder, tokenizer, verbose, monitors, confidence, decodeFast, trueCaser, features, job, memo);
+
+                    batch.add(thread);
 
                     // Dispatch translations
-                    if (threadPool != null) {
-                        threadPool.execute(thread);
-                    } else {
-                        thread.run();
+                    if (batch.size() >= batchSize) {
+                        dispatch(handle, batch, decoder, features, nBest, decodeFast, job);
+                        batch = new ArrayList<TranslationThread>(batchSize);
                     }
                 }
             }
+            if (!batch.isEmpty()) {
+                dispatch(handle, batch, decoder, features, nBest, decodeFast, job);
+            }
             Messages.info("Cleaning up");
             // Await the threads
             try {
-                if (threadPool != null) {
-                    Messages.info("Awaiting translation threads");
-                    threadPool.shutdown();
-                    threadPool.awaitTermination(5, TimeUnit.MINUTES);
-                }
+                Messages.info("Awaiting translation threads");
+                handle.await();
             } catch (InterruptedException x) {
-                throw new RuntimeException("The thread pool was interrupted or timed out");
+                throw new RuntimeException("The translation scheduler was interrupted");
             }
+            Messages.info("Translated " + handle.completed() + " entries (mean " + String.format("%.1f", handle.meanLatency()) + "ms, max " + String.format("%.1f", handle.maxLatency()) + "ms per entry)");
+            Messages.info("Chunk candidates: " + memo);
             Messages.info("Closing sources");
             for (TranslationSource source : translationSources) {
                 try {
@@ -257,6 +258,18 @@ public class TranslationController implements OntologyTranslator {
                 sources.remove(lp);
             }
             Messages.info("Translation complete");
+            Messages.endTranslation(job);
+        }
+    }
+
+    private void dispatch(TranslationScheduler.JobHandle handle, List<TranslationThread> batch, Decoder decoder, List<String> features, int nBest, boolean decodeFast, Job job) {
+        final Runnable task = batch.size() == 1
+                ? batch.get(0)
+                : new TranslationBatch(batch, decoder, features, nBest, decodeFast, job);
+        try {
+            handle.submit(task, batch.size());
+        } catch (InterruptedException x) {
+            throw new RuntimeException("The translation scheduler was interrupted");
         }
     }
 
@@ -565,33 +578,4 @@ public class TranslationController implements OntologyTranslator {
             return sb.deleteCharAt(sb.length() - 1).append(" }").toString();
         }
     }
-
-    private static class Wait implements RejectedExecutionHandler {
-
-        private final HashSet<Runnable> waiting = new HashSet<Runnable>();
-
-        @Override
-        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
-            if (waiting.contains(r)) {
-                throw new RejectedExecutionException();
-            }
-            while (true) {
-                waiting.add(r);
-                try {
-                    synchronized(this) {
-                        this.wait(200);
-                    }
-                } catch (InterruptedException x) {
-                }
-                try {
-                    if(executor.getActiveCount() < executor.getPoolSize()) {
-                        executor.submit(r);
-                        waiting.remove(r);
-                        return;
-                    }
-                } catch (RejectedExecutionException ree) {
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,244 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.controller.impl;
+
+import eu.monnetproject.translation.monitor.Job;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-lived scheduler for translation tasks. A single pool of worker
+ * threads is shared between all translation jobs, the number of queued tasks
+ * is bounded so that the dispatching thread blocks (rather than spins) when
+ * the workers are saturated, and each job is tracked by a {@link JobHandle}
+ * that waits for every submitted task to complete.
+ *
+ * @author John McCrae
+ */
+public class TranslationScheduler {
+
+    private final ThreadPoolExecutor executor;
+    private final Semaphore slots;
+
+    /**
+     * Create a scheduler
+     *
+     * @param numThreads The number of worker threads, if this is one or less
+     * tasks are run on the dispatching thread
+     * @param queueSize The maximum number of tasks waiting for a worker
+     */
+    public TranslationScheduler(int numThreads, int queueSize) {
+        if (numThreads <= 1) {
+            this.executor = null;
+            this.slots = null;
+        } else {
+            this.executor = new ThreadPoolExecutor(numThreads, numThreads, 10, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)), new WorkerFactory());
+            this.executor.allowCoreThreadTimeOut(true);
+            // One permit per worker and per queue slot, hence execute never rejects
+            this.slots = new Semaphore(numThreads + Math.max(queueSize, 1));
+        }
+    }
+
+    /**
+     * Start tracking a new translation job
+     *
+     * @param job The job as returned by the message system
+     * @return The handle to submit tasks to
+     */
+    public JobHandle open(Job job) {
+        return new JobHandle(job);
+    }
+
+    /**
+     * Stop all worker threads. Tasks already submitted are still completed.
+     */
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The tasks associated with a single translation job (i.e., a single source
+     * lexicon)
+     */
+    public final class JobHandle {
+
+        private final Job job;
+        private final Object lock = new Object();
+        private int pending = 0;
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private JobHandle(Job job) {
+            this.job = job;
+        }
+
+        public Job getJob() {
+            return job;
+        }
+
+        /**
+         * Submit a task to this job. This blocks while the scheduler queue is
+         * full.
+         *
+         * @param task The task
+         * @throws InterruptedException If interrupted while waiting for a free
+         * slot in the queue
+         */
+        public void submit(final Runnable task) throws InterruptedException {
+            submit(task, 1);
+        }
+
+        /**
+         * Submit a task that translates several entries. This blocks while the
+         * scheduler queue is full.
+         *
+         * @param task The task
+         * @param entries The number of entries the task translates, used to
+         * report the latency per entry
+         * @throws InterruptedException If interrupted while waiting for a free
+         * slot in the queue
+         */
+        public void submit(final Runnable task, int entries) throws InterruptedException {
+            synchronized (lock) {
+                pending++;
+            }
+            if (executor == null) {
+                new TimedTask(task, entries).run();
+            } else {
+                try {
+                    slots.acquire();
+                } catch (InterruptedException x) {
+                    done();
+                    throw x;
+                }
+                executor.execute(new TimedTask(task, entries));
+            }
+        }
+
+        /**
+         * Wait until every task submitted to this job has completed. Unlike
+         * {@code ThreadPoolExecutor.awaitTermination} there is no time out, so
+         * no task is silently dropped.
+         *
+         * @throws InterruptedException If interrupted while waiting
+         */
+        public void await() throws InterruptedException {
+            synchronized (lock) {
+                while (pending > 0) {
+                    lock.wait();
+                }
+            }
+        }
+
+        /**
+         * @return The number of entries that have finished
+         */
+        public int completed() {
+            return completed.get();
+        }
+
+        /**
+         * @return The mean time per entry in milliseconds
+         */
+        public double meanLatency() {
+            final int n = completed.get();
+            return n == 0 ? 0.0 : (double) totalNanos.get() / n / 1e6;
+        }
+
+        /**
+         * @return The longest time per entry of a single task in milliseconds
+         */
+        public double maxLatency() {
+            return (double) maxNanos.get() / 1e6;
+        }
+
+        private void done() {
+            synchronized (lock) {
+                pending--;
+                if (pending == 0) {
+                    lock.notifyAll();
+                }
+            }
+        }
+
+        private void record(long nanos, int entries) {
+            completed.addAndGet(entries);
+            totalNanos.addAndGet(nanos);
+            nanos /= Math.max(entries, 1);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        private final class TimedTask implements Runnable {
+
+            private final Runnable task;
+            private final int entries;
+
+            public TimedTask(Runnable task, int entries) {
+                this.task = task;
+                this.entries = entries;
+            }
+
+            @Override
+            public void run() {
+                final long start = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    record(System.nanoTime() - start, entries);
+                    if (executor != null) {
+                        slots.release();
+                    }
+                    done();
+                }
+            }
+        }
+    }
+
+    private static final class WorkerFactory implements ThreadFactory {
+
+        private final AtomicInteger n = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "translation-worker-" + n.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
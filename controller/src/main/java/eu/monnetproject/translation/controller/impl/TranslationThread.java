@@ -74,8 +74,11 @@ public class TranslationThread implements Runnable {
     private final TrueCaser trueCaser;
     private final List<String> features;
     private final Job job;
+    private final CandidateMemo memo;
+    private List<String> srcTokens;
+    private PhraseTable rerankedTable;
 
-    public TranslationThread(Entity entity, LexicalEntry entry, int nBest, Language sourceLanguage, Lexicon targetLexicon, String namePrefix, List<TranslationPhraseChunker> chunkers, Iterable<TranslationSource> sources, List<TranslationFeaturizer> featurizers, Decoder decoder, Tokenizer tokenizer, boolean verbose, Iterable<TranslationMonitor> monitors, TranslationConfidence confidence, boolean fast, TrueCaser trueCaser, List<String> features, Job job) {
+    public TranslationThread(Entity entity, LexicalEntry entry, int nBest, Language sourceLanguage, Lexicon targetLexicon, String namePrefix, List<TranslationPhraseChunker> chunkers, Iterable<TranslationSource> sources, List<TranslationFeaturizer> featurizers, Decoder decoder, Tokenizer tokenizer, boolean verbose, Iterable<TranslationMonitor> monitors, TranslationConfidence confidence, boolean fast, TrueCaser trueCaser, List<String> features, Job job, CandidateMemo memo) {
         this.entity = entity;
         this.entry = entry;
         this.nBest = nBest;
@@ -94,115 +97,168 @@ public class TranslationThread implements Runnable {
         this.trueCaser = trueCaser;
         this.features = features;
         this.job = job;
+        this.memo = memo;
     }
 
     @Override
     public void run() {
     	    Messages.associateThread(job,Thread.currentThread());
         try {
-            if (entity == null) {
-                Messages.severe("Translating null entity");
+            if (!prepare()) {
                 return;
             }
-            final Label srcLabel = getLabel(entry);
-            if (srcLabel == null) {
-                return;
-            }
-            final Language targetLang = Language.get(targetLexicon.getLanguage());
-            
-            // Step 0: Tokenization and true-casing
-            List<String> srcTokens = tokenize(srcLabel);
-            for(TranslationPhraseChunker chunker : chunkers) {
-                srcTokens = chunker.preCase(srcTokens);
-            }
-            
-            // Step 1: Chunking
-            final ChunkListImpl chunkList = new ChunkListImpl();
-            for (TranslationPhraseChunker chunker : chunkers) {
-                chunkList.addAll(chunker.chunk(srcTokens));
-            }
-
-            // Step 2: Sourcing translations
-            final PhraseTableImpl phraseTable = new PhraseTableImpl(sourceLanguage, targetLang, "Personal Table", 0, features);
-            for (TranslationSource source : sources) {
-                for (Chunk chunk : chunkList) {
-                    phraseTable.addAll(source.candidates(chunk));
-                }
-            }
-            
-            // Step 3: Re-evaluating features semantically
-            PhraseTable rerankedTable = phraseTable;
-            for (TranslationFeaturizer featurizer : featurizers) {
-                rerankedTable = featurizer.featurize(rerankedTable, entity);
-            }
 
             // Step 4: Decode
             final List<Translation> initialTranslations = fast
                     ? decoder.decodeFast(srcTokens, rerankedTable, features, nBest)
                     : decoder.decode(srcTokens, rerankedTable, features, nBest);
 
-            // Step 4.1: Removal of trailing punctuation
-
-            List<Translation> tempList = new ArrayList<Translation>();
-            for (Translation translation : initialTranslations) {
-                String trgLabel = translation.getTargetLabel().asString().replaceFirst("^[\\p{P}&&[^\\p{Pi}\\p{Ps}]]+\\s", "").replaceAll("\\s[\\p{P}&&[^\\p{Pf}\\p{Pe}]]+$", "");
-                List<String> tokens = tokenizer.tokenize(trgLabel);
-                StringBuilder finalLabel = new StringBuilder();
-                final String[] trueTokens;
-                String[] arrayTokens = new String[tokens.size()];
-                for (int i = 0; i < tokens.size(); i++) {
-                    arrayTokens[i] = tokens.get(i);
+            complete(initialTranslations);
+        } catch (Throwable x) {
+            fail(x);
+        }
+    }
+
+    /**
+     * Execute all steps prior to decoding
+     *
+     * @return false if this entry cannot be translated
+     */
+    boolean prepare() {
+        if (entity == null) {
+            Messages.severe("Translating null entity");
+            return false;
+        }
+        final Label srcLabel = getLabel(entry);
+        if (srcLabel == null) {
+            return false;
+        }
+        final Language targetLang = Language.get(targetLexicon.getLanguage());
+
+        // Step 0: Tokenization and true-casing
+        srcTokens = tokenize(srcLabel);
+        for(TranslationPhraseChunker chunker : chunkers) {
+            srcTokens = chunker.preCase(srcTokens);
+        }
+
+        // Step 1: Chunking
+        final ChunkListImpl chunkList = new ChunkListImpl();
+        for (TranslationPhraseChunker chunker : chunkers) {
+            if (chunker instanceof PruningTranslationPhraseChunker) {
+                chunkList.addAll(((PruningTranslationPhraseChunker) chunker).chunk(srcTokens, sources));
+            } else {
+                chunkList.addAll(chunker.chunk(srcTokens));
+            }
+        }
+
+        // Step 2: Sourcing translations
+        final PhraseTableImpl phraseTable = new PhraseTableImpl(sourceLanguage, targetLang, "Personal Table", 0, features);
+        for (TranslationSource source : sources) {
+            if (source instanceof BatchTranslationSource && chunkList.size() > 1) {
+                for (PhraseTable candidates : memo.candidates((BatchTranslationSource) source, chunkList)) {
+                    phraseTable.addAll(candidates);
                 }
-                if (trueCaser != null) {
-                    trueTokens = trueCaser.trueCase(arrayTokens, 1);
-                } else {
-                    trueTokens = arrayTokens;
+            } else {
+                for (Chunk chunk : chunkList) {
+                    phraseTable.addAll(memo.candidates(source, chunk));
                 }
+            }
+        }
+
+        // Step 3: Re-evaluating features semantically
+        rerankedTable = phraseTable;
+        for (TranslationFeaturizer featurizer : featurizers) {
+            rerankedTable = featurizer.featurize(rerankedTable, entity);
+        }
+        return true;
+    }
+
+    /**
+     * @return The tokens to decode, only valid after {@link #prepare()}
+     */
+    List<String> sourceTokens() {
+        return srcTokens;
+    }
+
+    /**
+     * @return The phrase table to decode with, only valid after {@link #prepare()}
+     */
+    PhraseTable phraseTable() {
+        return rerankedTable;
+    }
+
+    /**
+     * Report that the translation of this entry failed
+     */
+    void fail(Throwable x) {
+        Messages.translationFail(entity == null ? null : entity.getURI(), x);
+    }
+
+    /**
+     * Execute all steps after decoding
+     *
+     * @param initialTranslations The translations returned by the decoder
+     */
+    void complete(List<Translation> initialTranslations) {
+        // Step 4.1: Removal of trailing punctuation
 
-                for (String token : trueTokens) {
-                    if (finalLabel.length() == 0) {
-                        finalLabel.append(token);
-                    } else if (token.toString().matches("[\\p{P}&&[^\\p{Pi}\\p{Ps}]].*") 
-                            || finalLabel.toString().matches(".*[\\p{Pi}\\p{Ps}]")) { 
-                        finalLabel.append(token);
-                    } else {
-                        finalLabel.append(" ").append(token);
-                    }
+        List<Translation> tempList = new ArrayList<Translation>();
+        for (Translation translation : initialTranslations) {
+            String trgLabel = translation.getTargetLabel().asString().replaceFirst("^[\\p{P}&&[^\\p{Pi}\\p{Ps}]]+\\s", "").replaceAll("\\s[\\p{P}&&[^\\p{Pf}\\p{Pe}]]+$", "");
+            List<String> tokens = tokenizer.tokenize(trgLabel);
+            StringBuilder finalLabel = new StringBuilder();
+            final String[] trueTokens;
+            String[] arrayTokens = new String[tokens.size()];
+            for (int i = 0; i < tokens.size(); i++) {
+                arrayTokens[i] = tokens.get(i);
+            }
+            if (trueCaser != null) {
+                trueTokens = trueCaser.trueCase(arrayTokens, 1);
+            } else {
+                trueTokens = arrayTokens;
+            }
+
+            for (String token : trueTokens) {
+                if (finalLabel.length() == 0) {
+                    finalLabel.append(token);
+                } else if (token.toString().matches("[\\p{P}&&[^\\p{Pi}\\p{Ps}]].*") 
+                        || finalLabel.toString().matches(".*[\\p{Pi}\\p{Ps}]")) { 
+                    finalLabel.append(token);
+                } else {
+                    finalLabel.append(" ").append(token);
                 }
-                final String finalLabelStr = finalLabel.toString().replaceAll("\\s?@?-@\\s?","-");
-                Translation trans = new TranslationImpl(translation.getEntity() == null ? entity.getURI() : translation.getEntity(), translation.getSourceLabel().asString(), translation.getSourceLabel().getLanguage(), finalLabelStr, translation.getTargetLabel().getLanguage(), translation.getScore(), translation.getFeatures());
-                tempList.add(trans);
             }
+            final String finalLabelStr = finalLabel.toString().replaceAll("\\s?@?-@\\s?","-");
+            Translation trans = new TranslationImpl(translation.getEntity() == null ? entity.getURI() : translation.getEntity(), translation.getSourceLabel().asString(), translation.getSourceLabel().getLanguage(), finalLabelStr, translation.getTargetLabel().getLanguage(), translation.getScore(), translation.getFeatures());
+            tempList.add(trans);
+        }
 
-            final List<Translation> translations = tempList;
+        final List<Translation> translations = tempList;
 
-            // Step 5: Insert into lexicon
-            for (Translation translation : translations) {
-                insertIntoLexicon(translation, targetLexicon, namePrefix);
-            }
+        // Step 5: Insert into lexicon
+        for (Translation translation : translations) {
+            insertIntoLexicon(translation, targetLexicon, namePrefix);
+        }
 
-            if (!translations.isEmpty()) {
-            	    Messages.translationSuccess(entity.getURI(),translations.get(0).getTargetLabel());
-               // if (verbose) {
-                 //   for (Translation translation : translations) {
-                   //     System.out.println(translation.getTargetLabel().asString());
-                   //     System.err.println("Score: " + translation.getScore());
-                    //    for (Feature feature : translation.getFeatures()) {
-                     //       System.err.print(feature.name + " = " + feature.score + " ");
-                     //   }
-                     //   System.err.println();
-                   // }
-                //}
-                for (Translation translation : translations) {
-                    for (TranslationMonitor monitor : monitors) {
-                        monitor.recordTranslation(translation);
-                    }
+        if (!translations.isEmpty()) {
+        	    Messages.translationSuccess(entity.getURI(),translations.get(0).getTargetLabel());
+           // if (verbose) {
+             //   for (Translation translation : translations) {
+               //     System.out.println(translation.getTargetLabel().asString());
+               //     System.err.println("Score: " + translation.getScore());
+                //    for (Feature feature : translation.getFeatures()) {
+                 //       System.err.print(feature.name + " = " + feature.score + " ");
+                 //   }
+                 //   System.err.println();
+               // }
+            //}
+            for (Translation translation : translations) {
+                for (TranslationMonitor monitor : monitors) {
+                    monitor.recordTranslation(translation);
                 }
-            } else {
-                Messages.translationFail(entity.getURI(),"Found no translations for " + entity.getURI());
             }
-        } catch (Throwable x) {
-            Messages.translationFail(entity.getURI(),x);
+        } else {
+            Messages.translationFail(entity.getURI(),"Found no translations for " + entity.getURI());
         }
     }
 
@@ -0,0 +1,258 @@
+package eu.monnetproject.translation.controller.impl;
+
+import eu.monnetproject.lang.Language;
+import eu.monnetproject.translation.BatchTranslationSource;
+import eu.monnetproject.translation.Chunk;
+import eu.monnetproject.translation.PhraseTable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class CandidateMemoTest {
+
+    /**
+     * Test of candidates method, of class CandidateMemo.
+     */
+    @Test
+    public void testCandidates() {
+        System.err.println("candidates");
+        final CountingSource source = new CountingSource(0);
+        final CandidateMemo memo = new CandidateMemo(100);
+        final PhraseTable first = memo.candidates(source, new ChunkImpl("das ist"));
+        Assert.assertEquals("das ist", first.getName());
+        Assert.assertSame(first, memo.candidates(source, new ChunkImpl("das ist")));
+        memo.candidates(source, new ChunkImpl("klein"));
+        Assert.assertEquals(2, source.lookups.get());
+        Assert.assertEquals(1, memo.getHitCount());
+        Assert.assertEquals(2, memo.getMissCount());
+        Assert.assertEquals(1.0 / 3.0, memo.getHitRate(), 1e-6);
+        // Each source has its own candidates
+        final CountingSource source2 = new CountingSource(0);
+        memo.candidates(source2, new ChunkImpl("das ist"));
+        Assert.assertEquals(1, source2.lookups.get());
+    }
+
+    /**
+     * Test of candidates method for batches, of class CandidateMemo.
+     */
+    @Test
+    public void testCandidatesBatch() {
+        System.err.println("candidatesBatch");
+        final CountingSource source = new CountingSource(0);
+        final CandidateMemo memo = new CandidateMemo(100);
+        memo.candidates(source, new ChunkImpl("das"));
+        final List<Chunk> chunks = Arrays.<Chunk>asList(new ChunkImpl("das"), new ChunkImpl("ist"), new ChunkImpl("das ist"), new ChunkImpl("ist"));
+        final List<PhraseTable> result = memo.candidates(source, chunks);
+        Assert.assertEquals(4, result.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            Assert.assertEquals(chunks.get(i).getSource(), result.get(i).getName());
+        }
+        Assert.assertSame(result.get(1), result.get(3));
+        Assert.assertEquals(Arrays.asList("ist", "das ist"), source.batches.get(0));
+        Assert.assertEquals(3, source.lookups.get());
+        Assert.assertEquals(3, memo.getMissCount());
+    }
+
+    /**
+     * Test that threads requesting the same chunks look each up only once
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        System.err.println("concurrent");
+        final CountingSource source = new CountingSource(20);
+        final CandidateMemo memo = new CandidateMemo(100);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final boolean batch = t % 2 == 0;
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException x) {
+                        return;
+                    }
+                    for (String chunk : new String[]{"das", "ist", "klein"}) {
+                        if (batch) {
+                            memo.candidates(source, Collections.<Chunk>singletonList(new ChunkImpl(chunk)));
+                        } else {
+                            memo.candidates(source, new ChunkImpl(chunk));
+                        }
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(3, source.lookups.get());
+        Assert.assertEquals(3, memo.getMissCount());
+        Assert.assertEquals(21, memo.getHitCount() + memo.getWaitCount());
+    }
+
+    /**
+     * Test that the memo forgets the oldest chunks
+     */
+    @Test
+    public void testBounded() {
+        System.err.println("bounded");
+        final CountingSource source = new CountingSource(0);
+        final CandidateMemo memo = new CandidateMemo(2);
+        for (String chunk : new String[]{"das", "ist", "klein", "das"}) {
+            memo.candidates(source, new ChunkImpl(chunk));
+        }
+        Assert.assertEquals(2, memo.size());
+        Assert.assertEquals(4, source.lookups.get());
+        final CandidateMemo disabled = new CandidateMemo(0);
+        disabled.candidates(source, new ChunkImpl("das"));
+        disabled.candidates(source, new ChunkImpl("das"));
+        Assert.assertEquals(6, source.lookups.get());
+        Assert.assertEquals(0, disabled.size());
+    }
+
+    /**
+     * Test that a failed look up does not take a place in the memo
+     */
+    @Test
+    public void testFailure() {
+        System.err.println("failure");
+        final CountingSource source = new CountingSource(0);
+        final CandidateMemo memo = new CandidateMemo(2);
+        source.failing.add("kaputt");
+        try {
+            memo.candidates(source, new ChunkImpl("kaputt"));
+            Assert.fail("Look up should fail");
+        } catch (RuntimeException x) {
+        }
+        Assert.assertEquals(0, memo.size());
+        source.failing.clear();
+        memo.candidates(source, new ChunkImpl("kaputt"));
+        memo.candidates(source, new ChunkImpl("das"));
+        Assert.assertEquals(2, memo.size());
+        memo.candidates(source, new ChunkImpl("kaputt"));
+        Assert.assertEquals(2, source.lookups.get());
+        // The failed entry must not evict the entry that replaced it
+        memo.candidates(source, new ChunkImpl("ist"));
+        Assert.assertEquals(2, memo.size());
+        memo.candidates(source, new ChunkImpl("das"));
+        memo.candidates(source, new ChunkImpl("ist"));
+        Assert.assertEquals(3, source.lookups.get());
+    }
+
+    /**
+     * Test that a thread waiting for a look up that fails looks the chunk up 
+     * itself
+     */
+    @Test
+    public void testFailureWhileWaiting() throws Exception {
+        System.err.println("failureWhileWaiting");
+        final CountingSource source = new CountingSource(500);
+        final CandidateMemo memo = new CandidateMemo(100);
+        source.failingOnce.add("kaputt");
+        final AtomicInteger failures = new AtomicInteger();
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    memo.candidates(source, new ChunkImpl("kaputt"));
+                } catch (RuntimeException x) {
+                    failures.incrementAndGet();
+                }
+            }
+        };
+        thread.start();
+        Thread.sleep(100);
+        final PhraseTable candidates = memo.candidates(source, Collections.<Chunk>singletonList(new ChunkImpl("kaputt"))).get(0);
+        thread.join();
+        Assert.assertEquals("kaputt", candidates.getName());
+        Assert.assertEquals(1, failures.get());
+        Assert.assertEquals(1, memo.getWaitCount());
+        Assert.assertEquals(1, source.lookups.get());
+        Assert.assertSame(candidates, memo.candidates(source, new ChunkImpl("kaputt")));
+    }
+
+    private static final class ChunkImpl implements Chunk {
+
+        private final String source;
+
+        public ChunkImpl(String source) {
+            this.source = source;
+        }
+
+        @Override
+        public String getSource() {
+            return source;
+        }
+    }
+
+    /**
+     * Returns an empty table named after the chunk, or fails for the chunks
+     * in {@code failing} and the first look up of those in {@code failingOnce}
+     */
+    private static final class CountingSource implements BatchTranslationSource {
+
+        private final AtomicInteger lookups = new AtomicInteger();
+        private final List<List<String>> batches = Collections.synchronizedList(new ArrayList<List<String>>());
+        private final Set<String> failing = Collections.synchronizedSet(new HashSet<String>());
+        private final Set<String> failingOnce = Collections.synchronizedSet(new HashSet<String>());
+        private final long delay;
+
+        public CountingSource(long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public PhraseTable candidates(Chunk label) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException x) {
+            }
+            if (failing.contains(label.getSource()) || failingOnce.remove(label.getSource())) {
+                throw new RuntimeException("Failed to look up " + label.getSource());
+            }
+            lookups.incrementAndGet();
+            return new PhraseTableImpl(Language.GERMAN, Language.ENGLISH, label.getSource(), 1, Arrays.asList("p(t|f)"));
+        }
+
+        @Override
+        public List<PhraseTable> candidates(List<Chunk> chunks) {
+            final List<String> batch = new ArrayList<String>();
+            final List<PhraseTable> result = new ArrayList<PhraseTable>();
+            for (Chunk chunk : chunks) {
+                batch.add(chunk.getSource());
+                result.add(candidates(chunk));
+            }
+            batches.add(batch);
+            return result;
+        }
+
+        @Override
+        public String[] featureNames() {
+            return new String[]{"p(t|f)"};
+        }
+
+        @Override
+        public String getName() {
+            return "counting";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -50,4 +50,22 @@ public interface Decoder {
      * @return The translations ranked by score
      */
     List<Translation> decodeFast(List<String> phrase, PhraseTable phraseTable, List<String> featureNames, int nBest);
+    /**
+     * Decode a batch of phrases. This is equivalent to calling {@link #decode(java.util.List, eu.monnetproject.translation.PhraseTable, java.util.List, int)}
+     * for each phrase, but allows the decoder to share its set up (vocabulary,
+     * weights, language model look-ups) across the batch
+     * @param phrases The source phrases
+     * @param phraseTables The phrase table for each source phrase (must be the same length as phrases)
+     * @param nBest The maximum number of translations to return per phrase
+     * @return The translations ranked by score, for each phrase in order
+     */
+    List<List<Translation>> decodeBatch(List<List<String>> phrases, List<PhraseTable> phraseTables, List<String> featureNames, int nBest);
+    /**
+     * Decode a batch of phrases, but optimize for speed
+     * @param phrases The source phrases
+     * @param phraseTables The phrase table for each source phrase (must be the same length as phrases)
+     * @param nBest The maximum number of translations to return per phrase
+     * @return The translations ranked by score, for each phrase in order
+     */
+    List<List<Translation>> decodeBatchFast(List<List<String>> phrases, List<PhraseTable> phraseTables, List<String> featureNames, int nBest);
 }
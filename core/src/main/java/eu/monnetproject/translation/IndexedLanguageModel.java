@@ -0,0 +1,78 @@
+/**********************************************************************************
+ * Copyright (c) 2011, Monnet Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Monnet Project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+package eu.monnetproject.translation;
+
+/**
+ * A language model that can be queried by vocabulary ids instead of strings.
+ * Words in the model's vocabulary have ids from 1 to {@link #maxWordId()},
+ * a decoder may use these ids as its own target vocabulary and number any
+ * other words from {@code maxWordId() + 1}, so that queries need no 
+ * conversion back to strings.
+ * 
+ * @author John McCrae
+ */
+public interface IndexedLanguageModel extends LanguageModel {
+    /**
+     * @param token A token
+     * @return The id of the token in the model's vocabulary or -1 if it is not
+     * in the vocabulary
+     */
+    int wordId(String token);
+    
+    /**
+     * @return The largest id of a word in the vocabulary
+     */
+    int maxWordId();
+    
+    /**
+     * Score a sequence of word ids, as {@link #score(java.util.List)}. Ids that
+     * are not in the vocabulary are scored as unknown words.
+     * @param ids The buffer containing the ids
+     * @param offset The index of the first id in the sequence
+     * @param length The length of the sequence
+     * @return The score
+     */
+    double score(int[] ids, int offset, int length);
+    
+    /**
+     * @return A new state with no context
+     */
+    LanguageModelState newState();
+    
+    /**
+     * Score a word following a context and give the context after this word.
+     * This is equivalent to scoring the sequence of the context and the word
+     * but as the state holds the back-off weights of the context, needs at most
+     * one look-up for each order of the model.
+     * @param state The context
+     * @param word The id of the word
+     * @param out A state (not the same as the context) that is set to the 
+     * context following the word
+     * @return The score
+     */
+    double score(LanguageModelState state, int word, LanguageModelState out);
+}
@@ -0,0 +1,58 @@
+/**********************************************************************************
+ * Copyright (c) 2011, Monnet Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Monnet Project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+package eu.monnetproject.translation;
+
+/**
+ * A source of translations that can cheaply tell which phrases it may know,
+ * so that chunks it cannot translate need not be requested. The tests may 
+ * give false positives but never false negatives
+ * 
+ * @author John McCrae
+ */
+public interface IndexedTranslationSource extends TranslationSource {
+    
+    /**
+     * The greatest number of tokens in a foreign phrase
+     * @return The length or Integer.MAX_VALUE if it is not known
+     */
+    int maxPhraseLength();
+    
+    /**
+     * May this source have translations for a phrase
+     * @param phrase The tokens of the phrase separated by single spaces
+     * @return false if there are no translations
+     */
+    boolean hasPhrase(String phrase);
+    
+    /**
+     * May this source have translations for some phrase that starts with 
+     * these tokens (including the phrase itself)
+     * @param phrase The tokens of the phrase separated by single spaces
+     * @return false if no phrase in this source starts with this phrase
+     */
+    boolean hasPrefix(String phrase);
+}
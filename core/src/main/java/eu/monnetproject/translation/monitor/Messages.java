@@ -28,6 +28,7 @@ package eu.monnetproject.translation.monitor;
 
 import eu.monnetproject.translation.Label;
 import java.net.URI;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -40,7 +41,7 @@ import java.util.Random;
  */
 public final class Messages {
 
-    private static Map<Long, JobImpl> jobs = new HashMap<Long, JobImpl>();
+    private static final Map<Long, JobImpl> jobs = Collections.synchronizedMap(new HashMap<Long, JobImpl>());
     public static List<MessageHandler> handlers = new LinkedList<MessageHandler>();
 
     public static Job beginTranslation(int size) {
@@ -61,10 +62,12 @@ public final class Messages {
             final Message msg = new Message(MessageType.SEVERE, "Job did not close cleanly", jobs.get(Thread.currentThread().getId()));
             fire(msg);
         }
-        final Iterator<Map.Entry<Long, JobImpl>> iter = jobs.entrySet().iterator();
-        while (iter.hasNext()) {
-            if (iter.next().getValue() == job) {
-                iter.remove();
+        synchronized (jobs) {
+            final Iterator<Map.Entry<Long, JobImpl>> iter = jobs.entrySet().iterator();
+            while (iter.hasNext()) {
+                if (iter.next().getValue() == job) {
+                    iter.remove();
+                }
             }
         }
         for (MessageHandler handler : handlers) {
@@ -0,0 +1,438 @@
+/**********************************************************************************
+ * Copyright (c) 2011, Monnet Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Monnet Project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+package eu.monnetproject.translation.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of JDBC connections shared by the threads of an SQL-backed source.
+ * Connections are opened as they are needed up to the size of the pool, after
+ * which threads wait, for a limited time, for a connection to be returned. Each connection caches
+ * its prepared statements, and a connection that has been idle for a while is
+ * validated before it is handed out again.
+ * <p>
+ * Usage:
+ * <pre>
+ * final ConnectionPool.PooledConnection conn = pool.getConnection();
+ * try {
+ *     final PreparedStatement stat = conn.prepareStatement(sql);
+ *     ...
+ * } catch(SQLException x) {
+ *     conn.invalidate();
+ *     ...
+ * } finally {
+ *     conn.close();
+ * }
+ * </pre>
+ * A pool may be shared by several sources on the same database, each of which
+ * calls {@link #share()} before using it and {@link #close()} when done.
+ *
+ * @author John McCrae
+ */
+public class ConnectionPool {
+
+    /**
+     * The system property giving the largest number of open connections
+     */
+    public static final String POOL_SIZE_PROPERTY = "eu.monnetproject.translation.sql.poolSize";
+    public static final int DEFAULT_POOL_SIZE = 4;
+    /**
+     * The system property giving the number of prepared statements cached for
+     * each connection
+     */
+    public static final String STATEMENT_CACHE_PROPERTY = "eu.monnetproject.translation.sql.statementCache";
+    public static final int DEFAULT_STATEMENT_CACHE = 32;
+    /**
+     * The system property giving the longest time in milliseconds to wait for
+     * a connection when the pool is exhausted
+     */
+    public static final String WAIT_PROPERTY = "eu.monnetproject.translation.sql.poolWait";
+    public static final long DEFAULT_WAIT = 30000;
+    // Validate connections idle for more than this many milliseconds
+    private static final long VALIDATE_IDLE = 30000;
+    // Timeout in seconds of the validation
+    private static final int VALIDATE_TIMEOUT = 5;
+    private final String url;
+    private final Properties info;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private final long maxWait;
+    private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+    private int open = 0;
+    private boolean closed = false;
+    private int users = 1;
+    private long borrowCount, waitCount, createCount, invalidCount;
+    private final AtomicLong statementHits = new AtomicLong(), statementMisses = new AtomicLong();
+
+    /**
+     * Create a pool with the size given by the system properties
+     * @param url The JDBC url of the database
+     * @param info The connection properties, e.g., user and password
+     */
+    public ConnectionPool(String url, Properties info) {
+        this(url, info, Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE), Integer.getInteger(STATEMENT_CACHE_PROPERTY, DEFAULT_STATEMENT_CACHE), Long.getLong(WAIT_PROPERTY, DEFAULT_WAIT));
+    }
+
+    /**
+     * Create a pool with the wait given by the system properties
+     * @param url The JDBC url of the database
+     * @param info The connection properties, e.g., user and password
+     * @param maxSize The largest number of open connections
+     * @param statementCacheSize The number of prepared statements cached for each connection
+     */
+    public ConnectionPool(String url, Properties info, int maxSize, int statementCacheSize) {
+        this(url, info, maxSize, statementCacheSize, Long.getLong(WAIT_PROPERTY, DEFAULT_WAIT));
+    }
+
+    /**
+     * Create a pool
+     * @param url The JDBC url of the database
+     * @param info The connection properties, e.g., user and password
+     * @param maxSize The largest number of open connections
+     * @param statementCacheSize The number of prepared statements cached for each connection
+     * @param maxWait The longest time in milliseconds to wait for a connection
+     */
+    public ConnectionPool(String url, Properties info, int maxSize, int statementCacheSize, long maxWait) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive");
+        }
+        if (maxWait <= 0) {
+            throw new IllegalArgumentException("Wait must be positive");
+        }
+        this.url = url;
+        this.info = info == null ? new Properties() : info;
+        this.maxSize = maxSize;
+        this.statementCacheSize = Math.max(1, statementCacheSize);
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * Take a connection from the pool, opening a new one if none are idle and
+     * waiting if the pool is exhausted. The connection must be returned by 
+     * calling {@link PooledConnection#close()}
+     * @return The connection
+     * @throws SQLException If a new connection could not be opened, no 
+     * connection was returned within the wait or the pool is closed
+     */
+    public PooledConnection getConnection() throws SQLException {
+        final long deadline = System.currentTimeMillis() + maxWait;
+        while (true) {
+            PooledConnection conn = null;
+            synchronized (this) {
+                while (true) {
+                    if (closed) {
+                        throw new SQLException("Connection pool is closed");
+                    }
+                    if (!idle.isEmpty()) {
+                        // Most recently used first, so that surplus connections go stale
+                        conn = idle.removeLast();
+                        break;
+                    } else if (open < maxSize) {
+                        open++;
+                        break;
+                    } else {
+                        final long remaining = deadline - System.currentTimeMillis();
+                        if (remaining <= 0) {
+                            throw new SQLException("Timed out waiting for connection after " + maxWait + "ms");
+                        }
+                        waitCount++;
+                        try {
+                            wait(remaining);
+                        } catch (InterruptedException x) {
+                            Thread.currentThread().interrupt();
+                            throw new SQLException("Interrupted waiting for connection");
+                        }
+                    }
+                }
+                borrowCount++;
+            }
+            if (conn == null) {
+                try {
+                    conn = new PooledConnection(DriverManager.getConnection(url, info));
+                } catch (SQLException x) {
+                    synchronized (this) {
+                        open--;
+                        notify();
+                    }
+                    throw x;
+                }
+                synchronized (this) {
+                    createCount++;
+                }
+                conn.borrowed = true;
+                return conn;
+            } else if (System.currentTimeMillis() - conn.lastUsed < VALIDATE_IDLE || conn.isValid()) {
+                conn.borrowed = true;
+                return conn;
+            } else {
+                conn.invalidate();
+                release(conn);
+            }
+        }
+    }
+
+    private void release(PooledConnection conn) {
+        final boolean discard;
+        synchronized (this) {
+            discard = closed || conn.invalid;
+            if (discard) {
+                open--;
+                if (conn.invalid) {
+                    invalidCount++;
+                }
+            } else {
+                conn.lastUsed = System.currentTimeMillis();
+                idle.addLast(conn);
+            }
+            notify();
+        }
+        if (discard) {
+            conn.closeQuietly();
+        }
+    }
+
+    /**
+     * Add a user of this pool, who must later call {@link #close()}
+     * @return false if the pool is already closed and cannot be shared
+     */
+    public synchronized boolean share() {
+        if (closed) {
+            return false;
+        }
+        users++;
+        return true;
+    }
+
+    /**
+     * Close the pool once its last user has closed it. Idle connections are 
+     * closed now and borrowed connections are closed as they are returned.
+     */
+    public void close() {
+        final List<PooledConnection> toClose;
+        synchronized (this) {
+            if (closed || --users > 0) {
+                return;
+            }
+            closed = true;
+            toClose = new ArrayList<PooledConnection>(idle);
+            open -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+        for (PooledConnection conn : toClose) {
+            conn.closeQuietly();
+        }
+    }
+
+    /**
+     * The largest number of open connections
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * The number of connections currently open
+     */
+    public synchronized int getOpenCount() {
+        return open;
+    }
+
+    /**
+     * The number of connections currently open and not in use
+     */
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * The number of times a connection was taken from the pool
+     */
+    public synchronized long getBorrowCount() {
+        return borrowCount;
+    }
+
+    /**
+     * The number of times a thread had to wait for a connection
+     */
+    public synchronized long getWaitCount() {
+        return waitCount;
+    }
+
+    /**
+     * The number of connections opened
+     */
+    public synchronized long getCreateCount() {
+        return createCount;
+    }
+
+    /**
+     * The number of connections discarded as invalid
+     */
+    public synchronized long getInvalidCount() {
+        return invalidCount;
+    }
+
+    /**
+     * The number of prepared statements found in a connection's cache
+     */
+    public long getStatementHitCount() {
+        return statementHits.get();
+    }
+
+    /**
+     * The number of prepared statements that had to be prepared
+     */
+    public long getStatementMissCount() {
+        return statementMisses.get();
+    }
+
+    @Override
+    public synchronized String toString() {
+        // Not the URL as it may contain a password
+        return "ConnectionPool{" + "open=" + open + ", idle=" + idle.size() + ", maxSize=" + maxSize
+                + ", borrows=" + borrowCount + ", waits=" + waitCount + ", created=" + createCount
+                + ", invalid=" + invalidCount + ", statementHits=" + statementHits.get()
+                + ", statementMisses=" + statementMisses.get() + '}';
+    }
+
+    /**
+     * A connection taken from the pool. This should only be used by one thread
+     * until it is returned by {@link #close()}.
+     */
+    public final class PooledConnection {
+
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > statementCacheSize) {
+                    try {
+                        eldest.getValue().close();
+                    } catch (SQLException x) {
+                        // Ignore
+                    }
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+        };
+        private long lastUsed = System.currentTimeMillis();
+        private boolean invalid = false;
+        private boolean borrowed = false;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * The underlying connection. This should not be closed, and statements
+         * created with it should be closed before the connection is returned
+         */
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Get a prepared statement from this connection's cache, preparing it
+         * if necessary. The statement should not be closed.
+         * @param sql The SQL of the statement
+         */
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statementMisses.incrementAndGet();
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            } else {
+                statementHits.incrementAndGet();
+            }
+            return statement;
+        }
+
+        /**
+         * Mark this connection as broken, so that it is closed instead of 
+         * being returned to the pool. Call this if a statement failed in a way
+         * that may have left the connection unusable
+         */
+        public void invalidate() {
+            invalid = true;
+        }
+
+        private boolean isValid() {
+            try {
+                return connection.isValid(VALIDATE_TIMEOUT);
+            } catch (SQLException x) {
+                return false;
+            } catch (AbstractMethodError x) {
+                // Pre-JDBC 4 driver
+                try {
+                    return !connection.isClosed();
+                } catch (SQLException x2) {
+                    return false;
+                }
+            }
+        }
+
+        private void closeQuietly() {
+            for (PreparedStatement statement : statements.values()) {
+                try {
+                    statement.close();
+                } catch (SQLException x) {
+                    // Ignore
+                }
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException x) {
+                // Ignore
+            }
+        }
+
+        /**
+         * Return this connection to the pool. Further calls have no effect
+         */
+        public void close() {
+            if (borrowed) {
+                borrowed = false;
+                release(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**********************************************************************************
+ * Copyright (c) 2011, Monnet Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Monnet Project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+package eu.monnetproject.translation.util;
+
+import eu.monnetproject.config.Configurator;
+import eu.monnetproject.lang.Language;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * The number of translations a translation source returns for each foreign 
+ * phrase. Translations are ranked by the sum of their scores weighted by the 
+ * decoder weights, so that sources may discard all but the best before 
+ * creating any phrase table entries.
+ *
+ * @author John McCrae
+ */
+public class TranslationLimit {
+
+    /**
+     * The system property giving the number of translations, zero or less 
+     * for no limit
+     */
+    public static final String TOPK_PROPERTY = "eu.monnetproject.translation.topk";
+    /**
+     * By default all translations are kept, so pruning must be enabled with
+     * the system property
+     */
+    public static final int DEFAULT_TOPK = 0;
+    private final int k;
+    private final double[] weights;
+
+    /**
+     * Create the limit given by the system property for the features of a 
+     * source, weighted as the decoder weights of the language pair in 
+     * eu.monnetproject.translation.wts.l1-l2, or if there are none in
+     * eu.monnetproject.translation.wts. If no features are weighted all have
+     * weight one.
+     * @param featureNames The names of the features of the source
+     * @param srcLang The source language
+     * @param trgLang The target language
+     */
+    public TranslationLimit(String[] featureNames, Language srcLang, Language trgLang) {
+        this(Integer.getInteger(TOPK_PROPERTY, DEFAULT_TOPK), configuredWeights(featureNames, srcLang, trgLang));
+    }
+
+    /**
+     * Create a limit
+     * @param k The number of translations to keep, zero or less for all
+     * @param weights The weight of each feature
+     */
+    public TranslationLimit(int k, double[] weights) {
+        this.k = k;
+        this.weights = weights;
+    }
+
+    private static double[] configuredWeights(String[] featureNames, Language srcLang, Language trgLang) {
+        Properties config = Configurator.getConfig("eu.monnetproject.translation.wts." + srcLang + "-" + trgLang);
+        if (config.isEmpty()) {
+            config = Configurator.getConfig("eu.monnetproject.translation.wts");
+        }
+        final double[] weights = new double[featureNames.length];
+        boolean weighted = false;
+        for (int i = 0; i < featureNames.length; i++) {
+            final String value = config.containsKey(featureNames[i]) ? config.getProperty(featureNames[i])
+                    : config.getProperty("TM:" + featureNames[i]);
+            if (value != null) {
+                weights[i] = Double.parseDouble(value);
+                weighted = weighted || weights[i] != 0.0;
+            }
+        }
+        if (!weighted) {
+            Arrays.fill(weights, 1.0);
+        }
+        return weights;
+    }
+
+    /**
+     * The number of translations to keep, zero or less for all
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Is a number of translations more than the limit
+     */
+    public boolean exceeds(int n) {
+        return k > 0 && n > k;
+    }
+
+    /**
+     * The weighted score of a translation
+     * @param scores The feature scores of the translation
+     */
+    public double score(double[] scores) {
+        double s = 0.0;
+        for (int i = 0; i < scores.length && i < weights.length; i++) {
+            s += weights[i] * scores[i];
+        }
+        return s;
+    }
+
+    /**
+     * Select the best translations
+     * @param scores The weighted score of each translation
+     * @param n The number of translations
+     * @return Whether each translation is kept, null if all are kept
+     */
+    public boolean[] select(double[] scores, int n) {
+        if (!exceeds(n)) {
+            return null;
+        }
+        final double[] sorted = Arrays.copyOf(scores, n);
+        Arrays.sort(sorted);
+        final double threshold = sorted[n - k];
+        // Keep all above the threshold and the first of those equal to it
+        int equal = 0;
+        for (int i = n - k; i < n && sorted[i] == threshold; i++) {
+            equal++;
+        }
+        final boolean[] keep = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (scores[i] > threshold) {
+                keep[i] = true;
+            } else if (scores[i] == threshold && equal > 0) {
+                keep[i] = true;
+                equal--;
+            }
+        }
+        return keep;
+    }
+}
@@ -0,0 +1,14 @@
+package eu.monnetproject.nlp.stl;
+/**
+ * A termbase that can find all the terms that start at some point in a text
+ * in a single pass
+ * 
+ * @author John McCrae
+ */
+public interface PrefixTermbase extends Termbase {
+    /**
+     * find all terms that are a prefix of text.substring(offset)
+     * @return the end offsets of the terms in ascending order
+     */
+    int[] prefixes(String text, int offset);
+}
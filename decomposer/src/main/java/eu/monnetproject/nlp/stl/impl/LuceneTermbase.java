@@ -1,12 +1,16 @@
 package eu.monnetproject.nlp.stl.impl;
 
 import eu.monnetproject.nlp.stl.Termbase;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 import java.util.logging.Logger;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermQuery;
@@ -70,6 +74,41 @@ public class LuceneTermbase implements Termbase, Iterable<String> {
         return (hits.length > 0);
     }
 
+    /**
+     * Are terms converted to lower case before they are looked up
+     */
+    public boolean isLowerCaseSearch() {
+        return lowerCaseSearch;
+    }
+
+    /**
+     * All the terms that {@link #lookup(java.lang.String)} can find. Unlike 
+     * the iterator, which returns the stored documents, these are the terms 
+     * indexed for the lookup field
+     */
+    public List<String> indexedTerms() throws IOException {
+        final List<String> terms = new ArrayList<String>();
+        final TermEnum termEnum = reader.terms(new Term(lookupfield, ""));
+        final TermDocs termDocs = reader.termDocs();
+        try {
+            do {
+                final Term term = termEnum.term();
+                if (term == null || !term.field().equals(lookupfield)) {
+                    break;
+                }
+                // Skips deleted documents
+                termDocs.seek(term);
+                if (termDocs.next()) {
+                    terms.add(term.text());
+                }
+            } while (termEnum.next());
+        } finally {
+            termDocs.close();
+            termEnum.close();
+        }
+        return terms;
+    }
+
     @Override
     public Iterator<String> iterator() {
         try {
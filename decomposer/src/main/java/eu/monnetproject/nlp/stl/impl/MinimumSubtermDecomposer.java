@@ -2,6 +2,7 @@ package eu.monnetproject.nlp.stl.impl;
 
 import eu.monnetproject.lang.Language;
 import eu.monnetproject.nlp.stl.Decomposer;
+import eu.monnetproject.nlp.stl.PrefixTermbase;
 import eu.monnetproject.nlp.stl.Termbase;
 import java.io.File;
 import java.util.Arrays;
@@ -36,15 +37,40 @@ public class MinimumSubtermDecomposer implements Decomposer, eu.monnetproject.tr
     public static final ArrayList<String> EMPTY_DECOMP = new ArrayList<String>(0);
     public static final String ONE_OR_TWO_LETTER_TO_WORD_BOUNDARY = "..?\\b.*";
     public static final Pattern COMPOUND_INSERTION = Pattern.compile("(s|e|en|er|n)(.*)");
+    private static final Pattern ONE_OR_TWO_LETTER_PATTERN = Pattern.compile(ONE_OR_TWO_LETTER_TO_WORD_BOUNDARY);
+    // The characters matched by \s
+    private static final String SPACE = " \t\n\u000B\f\r";
+    private static final List<String> EMPTY_LIST = Collections.emptyList();
+    /**
+     * The system property giving the largest number of decompositions kept 
+     * for each part of a term
+     */
+    public static final String MAX_DECOMPOSITIONS_PROPERTY = "eu.monnetproject.nlp.stl.maxDecompositions";
+    public static final int DEFAULT_MAX_DECOMPOSITIONS = 1000;
     //private final Integer currentmindecomp;
     public final Termbase global;
+    private final int maxDecompositions;
     //private final List<String> local = new LinkedList<String>();
 
     public MinimumSubtermDecomposer(Termbase termbase) {
+        this(termbase, Integer.getInteger(MAX_DECOMPOSITIONS_PROPERTY, DEFAULT_MAX_DECOMPOSITIONS));
+    }
+
+    /**
+     * Create a decomposer
+     *
+     * @param termbase The termbase of subterms
+     * @param maxDecompositions The largest number of decompositions kept for
+     * each part of a term, those with the fewest subterms are kept
+     */
+    public MinimumSubtermDecomposer(Termbase termbase, int maxDecompositions) {
         if (termbase == null) {
             throw new IllegalArgumentException("Termbase is null");
+        } else if (maxDecompositions <= 0) {
+            throw new IllegalArgumentException("Must keep at least one decomposition");
         } else {
             this.global = termbase;
+            this.maxDecompositions = maxDecompositions;
             // add local tokens
             //      String[] localTermbaseArray = {" "};
             //    local.addAll(Arrays.asList(localTermbaseArray));
@@ -131,15 +157,7 @@ public class MinimumSubtermDecomposer implements Decomposer, eu.monnetproject.tr
         // score decompositions
         final Map<List<String>, Double> scoremap = new HashMap<List<String>, Double>();
         for (List<String> decomposition : decompositions) {
-            double cnt = 0;
-            for (String subterm : decomposition) {
-                if (subterm.equals(".") || subterm.equals(" ")) {
-                    cnt = cnt + 0.1;
-                } else {
-                    cnt = cnt + 1;
-                }
-            }
-            double score = 1 / cnt;
+            double score = 1 / cost(decomposition);
             scoremap.put(recase(decomposition, term), score);
 
         }
@@ -249,67 +267,174 @@ public class MinimumSubtermDecomposer implements Decomposer, eu.monnetproject.tr
         //Termbase termbaseFiltered = this.global;//filterTerms(this.global, term);
 //System.out.println(term+" -> "+termbaseFiltered);
         //return analyze(term, 0, 0, 0, new LinkedListString>(), new HashSet<List<String>>(), 100, termbaseFiltered, currentmindecomp);
-        final Set<String> subterms = filterTerms(term);
-        return decompose(term, subterms);
+        final Set<List<String>> decompositions = new Lattice(term.toLowerCase()).decompose(0);
+        // Results are shared in the lattice so copy them
+        final Set<List<String>> copy = new HashSet<List<String>>();
+        for (List<String> decomposition : decompositions) {
+            copy.add(new LinkedList<String>(decomposition));
+        }
+        return copy;
     }
 
     /**
-     * Recursively find all subterms
-     *
-     * @param term
-     * @param subterms
-     * @return
+     * The decompositions of every suffix of a term. As the decompositions of a
+     * suffix depend only on the suffix, they are calculated once for each 
+     * offset into the term. Subterms are looked up in the termbase only when
+     * the search reaches them.
      */
-    private Set<List<String>> decompose(String term, Set<String> subterms) {
-        if (term.length() == 0) {
-            return Collections.singleton((List<String>) new LinkedList<String>());
+    private final class Lattice {
+
+        private final String lcTerm;
+        private final Map<String, Boolean> lookups = new HashMap<String, Boolean>();
+        private final Map<Integer, Set<List<String>>> memo = new HashMap<Integer, Set<List<String>>>();
+
+        public Lattice(String lcTerm) {
+            this.lcTerm = lcTerm;
         }
-        final Set<List<String>> decompositions = new HashSet<List<String>>();
 
-        final String lcTerm = term.toLowerCase();
+        /**
+         * Is this string in {@link #filterTerms(java.lang.String)} for the term
+         */
+        private boolean isSubterm(String subterm) {
+            if (subterm.length() < MIN_TERM_LENGTH) {
+                return false;
+            }
+            final int firstIndex = lcTerm.indexOf(subterm);
+            if (firstIndex < 0 || firstIndex >= lcTerm.length() - MIN_TERM_LENGTH) {
+                return false;
+            }
+            Boolean found = lookups.get(subterm);
+            if (found == null) {
+                found = global.lookup(subterm);
+                lookups.put(subterm, found);
+            }
+            return found;
+        }
 
-        for (String subterm : subterms) {
-            if (lcTerm.startsWith(subterm)) {
+        /**
+         * The ends of the subterms that may start at offset. If the termbase
+         * supports it these are found in a single pass, otherwise every end is
+         * tried
+         */
+        private int[] ends(int offset) {
+            if (global instanceof PrefixTermbase) {
+                return ((PrefixTermbase) global).prefixes(lcTerm, offset);
+            }
+            final int[] ends = new int[Math.max(0, lcTerm.length() - offset - MIN_TERM_LENGTH + 1)];
+            for (int i = 0; i < ends.length; i++) {
+                ends[i] = offset + MIN_TERM_LENGTH + i;
+            }
+            return ends;
+        }
+
+        // As replaceAll("^\\s+","")
+        private int skipSpaces(int offset) {
+            while (offset < lcTerm.length() && SPACE.indexOf(lcTerm.charAt(offset)) >= 0) {
+                offset++;
+            }
+            return offset;
+        }
+
+        /**
+         * Find all decompositions of the suffix of the term
+         *
+         * @param offset The start of the suffix
+         * @return The decompositions, which must not be modified
+         */
+        public Set<List<String>> decompose(int offset) {
+            if (offset >= lcTerm.length()) {
+                return Collections.singleton(EMPTY_LIST);
+            }
+            final Set<List<String>> cached = memo.get(offset);
+            if (cached != null) {
+                return cached;
+            }
+            final Set<List<String>> decompositions = new HashSet<List<String>>();
+            for (int end : ends(offset)) {
+                final String subterm = lcTerm.substring(offset, end);
+                if (!isSubterm(subterm)) {
+                    continue;
+                }
                 final String subterm2;
-                final String restterm = lcTerm.substring(subterm.length()).replaceAll("^\\s+", "");
-                Set<List<String>> decompsOfRestOfTerm = decompose(restterm, subterms);
-                Matcher ciMatcher = null;
-                // Hack that if we are only two characters away from the end of a word we assume
-                // it is just an inflectional ending and can be ignored
-                if (decompsOfRestOfTerm.isEmpty() && restterm.matches(ONE_OR_TWO_LETTER_TO_WORD_BOUNDARY)) {
-                    if (restterm.length() >= 2 && Character.isLetter(restterm.charAt(1))) {
-                        decompsOfRestOfTerm = decompose(restterm.substring(2).replaceAll("^\\s+", ""), subterms);
-                        if(!subterms.contains(subterm + restterm.substring(0,2))) {
-                            subterm2 = subterm;// + restterm.substring(0, 2);
+                final int rest = skipSpaces(end);
+                Set<List<String>> decompsOfRestOfTerm = decompose(rest);
+                if (decompsOfRestOfTerm.isEmpty()) {
+                    final String restterm = lcTerm.substring(rest);
+                    Matcher ciMatcher = null;
+                    // Hack that if we are only two characters away from the end of a word we assume
+                    // it is just an inflectional ending and can be ignored
+                    if (ONE_OR_TWO_LETTER_PATTERN.matcher(restterm).matches()) {
+                        final int n = restterm.length() >= 2 && Character.isLetter(restterm.charAt(1)) ? 2 : 1;
+                        decompsOfRestOfTerm = decompose(skipSpaces(rest + n));
+                        if (!isSubterm(subterm + restterm.substring(0, n))) {
+                            subterm2 = subterm;
                         } else {
-                            subterm2 = subterm + restterm.substring(0, 2);
+                            subterm2 = subterm + restterm.substring(0, n);
                         }
-                    } else {
-                        decompsOfRestOfTerm = decompose(restterm.substring(1).replaceAll("^\\s+", ""), subterms);
-                        if(!subterms.contains(subterm + restterm.substring(0,1))) {
-                            subterm2 = subterm;// + restterm.substring(0, 1);
+                    } else if ((ciMatcher = COMPOUND_INSERTION.matcher(restterm)).matches()) {
+                        decompsOfRestOfTerm = decompose(rest + ciMatcher.group(1).length());
+                        if (!isSubterm(subterm + ciMatcher.group(1))) {
+                            subterm2 = subterm;
                         } else {
-                            subterm2 = subterm + restterm.substring(0, 1);
+                            subterm2 = subterm + ciMatcher.group(1);
                         }
-                    }
-                } else if(decompsOfRestOfTerm.isEmpty() && (ciMatcher = COMPOUND_INSERTION.matcher(restterm)).matches()) {
-                    final String restterm2 = ciMatcher.group(2);
-                    decompsOfRestOfTerm = decompose(restterm2, subterms);
-                    if(!subterms.contains(subterm + ciMatcher.group(1))) {
-                        subterm2 = subterm;// + ciMatcher.group(1);
                     } else {
-                        subterm2 = subterm + ciMatcher.group(1);
+                        subterm2 = subterm;
                     }
                 } else {
                     subterm2 = subterm;
                 }
                 for (List<String> decompOfRestOfTerm : decompsOfRestOfTerm) {
-                    decompOfRestOfTerm.add(0, subterm2);
+                    final List<String> decomposition = new ArrayList<String>(decompOfRestOfTerm.size() + 1);
+                    decomposition.add(subterm2);
+                    decomposition.addAll(decompOfRestOfTerm);
+                    decompositions.add(decomposition);
                 }
-                decompositions.addAll(decompsOfRestOfTerm);
+            }
+            final Set<List<String>> result = decompositions.size() > maxDecompositions ? best(decompositions) : decompositions;
+            memo.put(offset, result);
+            return result;
+        }
+
+        /**
+         * Keep only the decompositions with the fewest subterms
+         */
+        private Set<List<String>> best(Set<List<String>> decompositions) {
+            final List<List<String>> sorted = new ArrayList<List<String>>(decompositions);
+            Collections.sort(sorted, new Comparator<List<String>>() {
+                @Override
+                public int compare(List<String> o1, List<String> o2) {
+                    final double c1 = cost(o1), c2 = cost(o2);
+                    if (c1 != c2) {
+                        return c1 < c2 ? -1 : +1;
+                    }
+                    for (int i = 0; i < o1.size() && i < o2.size(); i++) {
+                        final int c = o1.get(i).compareTo(o2.get(i));
+                        if (c != 0) {
+                            return c;
+                        }
+                    }
+                    return o1.size() - o2.size();
+                }
+            });
+            return new HashSet<List<String>>(sorted.subList(0, maxDecompositions));
+        }
+    }
+
+    /**
+     * The number of subterms in a decomposition as counted by 
+     * {@link #decomposeRanked(java.lang.String)}
+     */
+    private static double cost(List<String> decomposition) {
+        double cnt = 0;
+        for (String subterm : decomposition) {
+            if (subterm.equals(".") || subterm.equals(" ")) {
+                cnt = cnt + 0.1;
+            } else {
+                cnt = cnt + 1;
             }
         }
-        return decompositions;
+        return cnt;
     }
 
     // This method is awfully slow
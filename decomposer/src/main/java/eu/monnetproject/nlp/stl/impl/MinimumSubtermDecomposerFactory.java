@@ -3,7 +3,6 @@ package eu.monnetproject.nlp.stl.impl;
 import eu.monnetproject.nlp.stl.DecomposerFactory;
 import eu.monnetproject.config.Configurator;
 import eu.monnetproject.lang.Language;
-import eu.monnetproject.nlp.stl.Termbase;
 import eu.monnetproject.translation.Decomposer;
 import eu.monnetproject.translation.monitor.Messages;
 import java.io.File;
@@ -21,6 +20,7 @@ public class MinimumSubtermDecomposerFactory implements DecomposerFactory, eu.mo
     private final Logger log = Logger.getLogger(MinimumSubtermDecomposerFactory.class.getName());
     private static final String LUCENE_INDEX_PROP = "termbase.lucene.index.";
     private static final String SIMPLE_INDEX_PROP = "termbase.simple.index.";
+    private static final String TRIE_PROP = "termbase.trie";
 
     public String getLuceneIndexDir(String lang) {
         final Properties config = Configurator.getConfig("eu.monnetproject.nlp.stl");
@@ -40,6 +40,14 @@ public class MinimumSubtermDecomposerFactory implements DecomposerFactory, eu.mo
         }
     }
 
+    /**
+     * Should the termbase be loaded into an in-memory trie
+     */
+    public boolean isTrie() {
+        final Properties config = Configurator.getConfig("eu.monnetproject.nlp.stl");
+        return Boolean.parseBoolean(config.getProperty(TRIE_PROP, "false"));
+    }
+
     @Override
     public MinimumSubtermDecomposer makeDecomposer(String lang) {
 
@@ -49,6 +57,11 @@ public class MinimumSubtermDecomposerFactory implements DecomposerFactory, eu.mo
             if ((new File(luceneIndexDir)).exists()) {
                 try {
                     LuceneTermbase termbase = new LuceneTermbase(luceneIndexDir, lang);
+                    if (isTrie()) {
+                        final TrieTermbase trie = TrieTermbase.fromLucene(termbase);
+                        Messages.info("Loaded termbase " + luceneIndexDir + " into memory: " + trie);
+                        return new MinimumSubtermDecomposer(trie);
+                    }
                     return new MinimumSubtermDecomposer(termbase);
                 } catch (Exception x) {
                     //Exception e = new Exception("No decomposer model for language " + lang + " available");
@@ -64,7 +77,10 @@ public class MinimumSubtermDecomposerFactory implements DecomposerFactory, eu.mo
         } else if (simpleIndexDir != null) {
             if ((new File(simpleIndexDir)).exists()) {
                 try {
-                    final Termbase termbase = TermbaseImpl.fromFile(new File(simpleIndexDir), lang);
+                    final TermbaseImpl termbase = TermbaseImpl.fromFile(new File(simpleIndexDir), lang);
+                    if (isTrie()) {
+                        return new MinimumSubtermDecomposer(new TrieTermbase(termbase, lang, false));
+                    }
                     return new MinimumSubtermDecomposer(termbase);
                 } catch (Exception x) {
                     //Exception e = new Exception("No decomposer model for language " + lang + " available");
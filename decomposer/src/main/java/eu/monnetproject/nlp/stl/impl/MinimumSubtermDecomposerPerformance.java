@@ -0,0 +1,127 @@
+package eu.monnetproject.nlp.stl.impl;
+
+import eu.monnetproject.nlp.stl.Termbase;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time to decompose a list of German compounds and the number of
+ * termbase lookups needed, compared to looking up every substring as
+ * {@link MinimumSubtermDecomposer#filterTerms(java.lang.String)} does, and
+ * compares this with the same termbase loaded into a {@link TrieTermbase}. Then
+ * measures the time to decompose ever longer synthetic compounds, which grows
+ * exponentially without memoization. Usage: MinimumSubtermDecomposerPerformance
+ * [lucene-index compound-list], by default the German test index and the 500 
+ * longest terms of the STW thesaurus.
+ *
+ * @author John McCrae
+ */
+public class MinimumSubtermDecomposerPerformance {
+
+    private static final int ROUNDS = 5;
+    private static final int MAX_REPEATS = 12;
+
+    /**
+     * Counts the lookups into a termbase
+     */
+    private static class CountingTermbase implements Termbase {
+
+        private final Termbase termbase;
+        private long lookups = 0;
+
+        public CountingTermbase(Termbase termbase) {
+            this.termbase = termbase;
+        }
+
+        @Override
+        public boolean lookup(String term) {
+            lookups++;
+            return termbase.lookup(term);
+        }
+
+        @Override
+        public String getLanguage() {
+            return termbase.getLanguage();
+        }
+
+        @Override
+        public int size() {
+            return termbase.size();
+        }
+    }
+
+    /**
+     * The average time in milliseconds to decompose a compound, after a round
+     * of warm-up
+     */
+    private static double time(MinimumSubtermDecomposer decomposer, List<String> compounds) {
+        long time = 0;
+        for (int round = 0; round <= ROUNDS; round++) {
+            final long start = System.nanoTime();
+            for (String compound : compounds) {
+                decomposer.decomposeRanked(compound);
+            }
+            if (round > 0) {
+                time += System.nanoTime() - start;
+            }
+        }
+        return (double) time / ROUNDS / compounds.size() / 1e6;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String indexDir = args.length > 1 ? args[0] : "src/test/resources/index/de";
+        final File compoundFile = new File(args.length > 1 ? args[1] : "src/test/resources/txt/de/stw500longest");
+        final List<String> compounds = new ArrayList<String>();
+        final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(compoundFile), "UTF-8"));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.trim().length() > 0) {
+                compounds.add(line.trim());
+            }
+        }
+        in.close();
+
+        final LuceneTermbase lucene = new LuceneTermbase(indexDir, "de");
+        final CountingTermbase termbase = new CountingTermbase(lucene);
+        final MinimumSubtermDecomposer decomposer = new MinimumSubtermDecomposer(termbase);
+        long allSubterms = 0;
+        for (String compound : compounds) {
+            decomposer.filterTerms(compound);
+        }
+        allSubterms = termbase.lookups;
+        termbase.lookups = 0;
+        int decomposed = 0;
+        for (String compound : compounds) {
+            if (decomposer.decomposeRanked(compound).size() > 0) {
+                decomposed++;
+            }
+        }
+        final long lookups = termbase.lookups;
+        final double time = time(decomposer, compounds);
+        System.err.println(String.format("%d compounds, %d decomposed: %.3f ms/compound, %d lookups/compound (all substrings: %d)",
+                compounds.size(), decomposed, time, lookups / compounds.size(), allSubterms / compounds.size()));
+
+        final long trieStart = System.nanoTime();
+        final TrieTermbase trie = TrieTermbase.fromLucene(lucene);
+        System.err.println(String.format("Built %s in %.1f ms", trie, (System.nanoTime() - trieStart) / 1e6));
+        System.err.println(String.format("Trie termbase: %.3f ms/compound", time(new MinimumSubtermDecomposer(trie), compounds)));
+
+        // Every split point of a repeated compound gives another decomposition
+        final TermbaseImpl synthetic = new TermbaseImpl("de");
+        for (String term : new String[]{"dampf", "schiff", "fahrt", "dampfschiff", "schifffahrt", "dampfschifffahrt", "ff", "fa"}) {
+            synthetic.add(term);
+        }
+        final MinimumSubtermDecomposer syntheticDecomposer = new MinimumSubtermDecomposer(synthetic);
+        final StringBuilder compound = new StringBuilder();
+        for (int repeats = 1; repeats <= MAX_REPEATS; repeats++) {
+            compound.append("dampfschifffahrt");
+            final long start = System.nanoTime();
+            final int n = syntheticDecomposer.decompose(compound.toString()).size();
+            System.err.println(String.format("%3d characters: %8d decompositions in %.3f ms", compound.length(), n, (System.nanoTime() - start) / 1e6));
+        }
+    }
+}
@@ -1,71 +1,67 @@
 package eu.monnetproject.nlp.stl.impl;
 import eu.monnetproject.nlp.stl.Termbase;
+import eu.monnetproject.translation.util.ConnectionPool;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.sql.Connection;
+import java.util.List;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.DriverManager;
-import org.apache.commons.dbutils.ResultSetIterator;
 /**
  * A SQL termbase implementation to lookup terms
  * 
  * @author Tobias Wunner
  */
 public class SQLTermbase implements Termbase, Iterable<String> {
-    Connection conn = null;
-    private Iterator<Object[]> it;
+    ConnectionPool pool = null;
+    String tableName = null;
     String language = "en";
     String columnName = null;
     int size = 0;
-    public SQLTermbase(Connection conn, String tableName, String columnName, String language) {
+    public SQLTermbase(ConnectionPool pool, String tableName, String columnName, String language) {
       this.language = language;
       //System.out.println("constructor sql termbase lang "+this.language);
-      this.conn = conn;
+      this.pool = pool;
+      this.tableName = tableName;
       this.columnName = columnName;
+      ConnectionPool.PooledConnection conn = null;
       try {
+        conn = pool.getConnection();
         // query mysql table size
         String select0 = "count(distinct "+columnName+")";
         this.size = new Integer(querydbforvalue(conn.prepareStatement("select "+select0+" from " + tableName),select0).toString());
-        // set iterator on mysql rowdata
-        ResultSet rs = querydb(conn.prepareStatement("select distinct "+columnName+" from " + tableName));
-        
-        it = new ResultSetIterator(rs);//ResultSetIterator.iterable(rs).iterator(); 
       } catch (SQLException e) {
+        if(conn != null)
+          conn.invalidate();
         throw new RuntimeException(e);
+      } finally {
+        if(conn != null)
+          conn.close();
       }
     }
     private Object querydbforvalue(PreparedStatement statement,String param) throws SQLException{
-      ResultSet rs = querydb(statement);
-      rs.next();
-      return rs.getString(param);
-    }
-    private ResultSet querydb(PreparedStatement statement) {
-      ResultSet rs = null;
+      ResultSet rs = statement.executeQuery();
       try {
-        rs = statement.executeQuery();
-        return rs;
-      } catch (SQLException x) {
-        throw new RuntimeException(x);
+        rs.next();
+        return rs.getString(param);
       } finally {
-        if(rs != null) {
-          //try {
-          //  rs.close();
-          //} catch(Exception x) {
-          //  x.printStackTrace();
-          //}
-        }
+        rs.close();
       }
     }
     @Override
     public boolean lookup(String term) {
       ResultSet rs = null;
+      ConnectionPool.PooledConnection conn = null;
       try {
-        PreparedStatement lookup_statement = conn.prepareStatement("select "+columnName+" from test_de where "+columnName+"=\""+term+"\"");
+        conn = pool.getConnection();
+        PreparedStatement lookup_statement = conn.prepareStatement("select "+columnName+" from "+tableName+" where "+columnName+"=?");
+        lookup_statement.setString(1, term);
         rs = lookup_statement.executeQuery();
         while (rs.next())
           return true;
       } catch (SQLException x) {
+        if(conn != null)
+          conn.invalidate();
         throw new RuntimeException(x);
       } finally {
         if(rs != null) {
@@ -75,16 +71,44 @@ public class SQLTermbase implements Termbase, Iterable<String> {
             x.printStackTrace();
           }
         }
+        if(conn != null)
+          conn.close();
       }
       return false;
     }
+    /**
+     * Iterate over the terms. The terms are read when the iterator is created,
+     * so that the connection is returned to the pool even if the iteration 
+     * stops early
+     */
     @Override
     public Iterator<String> iterator() {
-      return new Iterator<String>() {
-        public boolean hasNext() { return it.hasNext(); } 
-        public String next() { Object[] rowdata = it.next(); String firstColumn = (String)rowdata[0]; return firstColumn.toLowerCase().substring(0,firstColumn.length()-1); }
-        public void remove() { }
-      };
+      final List<String> terms = new ArrayList<String>(size);
+      ResultSet rs = null;
+      ConnectionPool.PooledConnection conn = null;
+      try {
+        conn = pool.getConnection();
+        rs = conn.prepareStatement("select distinct "+columnName+" from " + tableName).executeQuery();
+        while (rs.next()) {
+          String firstColumn = rs.getString(1);
+          terms.add(firstColumn.toLowerCase().substring(0,firstColumn.length()-1));
+        }
+      } catch (SQLException x) {
+        if(conn != null)
+          conn.invalidate();
+        throw new RuntimeException(x);
+      } finally {
+        if(rs != null) {
+          try {
+            rs.close();
+          } catch(Exception x) {
+            x.printStackTrace();
+          }
+        }
+        if(conn != null)
+          conn.close();
+      }
+      return terms.iterator();
     }
     @Override
     public String getLanguage() {
@@ -98,14 +122,8 @@ public class SQLTermbase implements Termbase, Iterable<String> {
       //String dbname = "test";
       //String user = "monnet";
       //String pass = "translation";
-      Connection conn = null;
-      try {
-        conn = DriverManager.getConnection("jdbc:mysql://localhost/test?user=monnet&password=translation");
-      } catch (SQLException x) {
-        System.err.println("Can't connect to mysql db "+x);
-        return;
-      }
-      SQLTermbase sqltermbase = new SQLTermbase(conn,"test_de","forin","en");
+      ConnectionPool pool = new ConnectionPool("jdbc:mysql://localhost/test?user=monnet&password=translation", null);
+      SQLTermbase sqltermbase = new SQLTermbase(pool,"test_de","forin","en");
       System.out.println("termbase size "+sqltermbase.size());
       System.out.println("lookup familien "+sqltermbase.lookup("familien"));
       System.out.println("lookup familiensteuer "+sqltermbase.lookup("familiensteuer"));
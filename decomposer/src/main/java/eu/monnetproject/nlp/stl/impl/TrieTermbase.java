@@ -0,0 +1,242 @@
+package eu.monnetproject.nlp.stl.impl;
+
+import eu.monnetproject.nlp.stl.PrefixTermbase;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An in-memory termbase stored as a double-array trie. This is built once
+ * from another termbase (e.g., a Lucene index) and then answers both lookups
+ * and prefix queries without accessing the index.
+ *
+ * @author John McCrae
+ */
+public class TrieTermbase implements PrefixTermbase {
+
+    private static final int ROOT = 1;
+    private static final int[] NO_PREFIXES = new int[0];
+    private final String language;
+    private final boolean lowerCaseSearch;
+    private final int size;
+    // Maps a character to its code (1..alphabet size) or 0 if it is not in any term
+    private final char[] alphabet;
+    private final int[] codes;
+    // The transition from s on code c goes to t = base[s] + c if check[t] == s
+    private int[] base;
+    private int[] check;
+    private final BitSet terminal = new BitSet();
+    private int nextCheckPos = ROOT + 1;
+
+    /**
+     * Create a trie termbase
+     *
+     * @param terms The terms
+     * @param language The language of the terms
+     * @param lowerCaseSearch Convert terms to lower case before looking them up
+     */
+    public TrieTermbase(Iterable<String> terms, String language, boolean lowerCaseSearch) {
+        this.language = language;
+        this.lowerCaseSearch = lowerCaseSearch;
+        final List<String> sorted = new ArrayList<String>();
+        for (String term : terms) {
+            sorted.add(term);
+        }
+        Collections.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            if (i == 0 || !sorted.get(i).equals(sorted.get(n - 1))) {
+                sorted.set(n++, sorted.get(i));
+            }
+        }
+        final List<String> uniq = sorted.subList(0, n);
+        this.size = n;
+
+        final BitSet chars = new BitSet();
+        for (String term : uniq) {
+            for (int i = 0; i < term.length(); i++) {
+                chars.set(term.charAt(i));
+            }
+        }
+        this.alphabet = new char[chars.cardinality()];
+        this.codes = new int[chars.length()];
+        int code = 0;
+        for (int c = chars.nextSetBit(0); c >= 0; c = chars.nextSetBit(c + 1)) {
+            alphabet[code] = (char) c;
+            codes[c] = ++code;
+        }
+
+        final int capacity = Math.max(1024, n * 2);
+        this.base = new int[capacity];
+        this.check = new int[capacity];
+        check[ROOT] = -1;
+        if (n > 0) {
+            insert(uniq, 0, n, 0, ROOT);
+        }
+        int last = check.length - 1;
+        while (last > ROOT && check[last] == 0) {
+            last--;
+        }
+        this.base = Arrays.copyOf(base, last + 1);
+        this.check = Arrays.copyOf(check, last + 1);
+    }
+
+    /**
+     * Load a Lucene termbase into memory
+     */
+    public static TrieTermbase fromLucene(LuceneTermbase termbase) throws IOException {
+        return new TrieTermbase(termbase.indexedTerms(), termbase.getLanguage(), termbase.isLowerCaseSearch());
+    }
+
+    /**
+     * Load a SQL termbase into memory. As the SQL termbase is not case
+     * sensitive, neither is the trie
+     */
+    public static TrieTermbase fromSQL(SQLTermbase termbase) {
+        return new TrieTermbase(termbase, termbase.getLanguage(), true);
+    }
+
+    private int code(char c) {
+        return c < codes.length ? codes[c] : 0;
+    }
+
+    private void ensureCapacity(int index) {
+        if (index >= check.length) {
+            final int capacity = Math.max(index + 1, check.length + check.length / 2);
+            base = Arrays.copyOf(base, capacity);
+            check = Arrays.copyOf(check, capacity);
+        }
+    }
+
+    /**
+     * Add the terms in terms[lo,hi) to the trie, all of which share the prefix
+     * of length depth that leads to state
+     */
+    private void insert(List<String> terms, int lo, int hi, int depth, int state) {
+        // Terms are sorted, so a term ending here is always first
+        if (terms.get(lo).length() == depth) {
+            terminal.set(state);
+            lo++;
+        }
+        if (lo == hi) {
+            return;
+        }
+        // Group the remaining terms by their next character
+        final List<Integer> starts = new ArrayList<Integer>();
+        final List<Integer> childCodes = new ArrayList<Integer>();
+        for (int i = lo; i < hi; i++) {
+            final int c = code(terms.get(i).charAt(depth));
+            if (childCodes.isEmpty() || childCodes.get(childCodes.size() - 1) != c) {
+                starts.add(i);
+                childCodes.add(c);
+            }
+        }
+        starts.add(hi);
+
+        // Find the first base at which all the children are free
+        final int first = childCodes.get(0);
+        int pos = Math.max(first + 1, nextCheckPos) - 1;
+        int occupied = 0;
+        boolean firstFree = true;
+        int begin;
+        search:
+        while (true) {
+            pos++;
+            ensureCapacity(pos);
+            if (check[pos] != 0) {
+                occupied++;
+                continue;
+            } else if (firstFree) {
+                nextCheckPos = pos;
+                firstFree = false;
+            }
+            begin = pos - first;
+            ensureCapacity(begin + childCodes.get(childCodes.size() - 1));
+            for (int i = 1; i < childCodes.size(); i++) {
+                if (check[begin + childCodes.get(i)] != 0) {
+                    continue search;
+                }
+            }
+            break;
+        }
+        // Skip over densely filled regions in later searches
+        if (occupied > 0 && (double) occupied / (pos - nextCheckPos + 1) >= 0.95) {
+            nextCheckPos = pos;
+        }
+
+        base[state] = begin;
+        for (int c : childCodes) {
+            check[begin + c] = state;
+        }
+        for (int i = 0; i < childCodes.size(); i++) {
+            insert(terms, starts.get(i), starts.get(i + 1), depth + 1, begin + childCodes.get(i));
+        }
+    }
+
+    private int next(int state, char c) {
+        final int code = code(c);
+        if (code == 0) {
+            return 0;
+        }
+        final int t = base[state] + code;
+        return t < check.length && check[t] == state ? t : 0;
+    }
+
+    @Override
+    public boolean lookup(String term) {
+        if (lowerCaseSearch) {
+            term = term.toLowerCase();
+        }
+        int state = ROOT;
+        for (int i = 0; i < term.length() && state != 0; i++) {
+            state = next(state, term.charAt(i));
+        }
+        return state != 0 && terminal.get(state);
+    }
+
+    @Override
+    public int[] prefixes(String text, int offset) {
+        int[] ends = NO_PREFIXES;
+        int n = 0;
+        int state = ROOT;
+        for (int i = offset; i < text.length(); i++) {
+            // Convert each character so the ends are offsets in text
+            state = next(state, lowerCaseSearch ? Character.toLowerCase(text.charAt(i)) : text.charAt(i));
+            if (state == 0) {
+                break;
+            }
+            if (terminal.get(state)) {
+                if (n == ends.length) {
+                    ends = Arrays.copyOf(ends, Math.max(4, n * 2));
+                }
+                ends[n++] = i + 1;
+            }
+        }
+        return n == ends.length ? ends : Arrays.copyOf(ends, n);
+    }
+
+    @Override
+    public String getLanguage() {
+        return language;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * The number of cells in the double array
+     */
+    public int capacity() {
+        return check.length;
+    }
+
+    @Override
+    public String toString() {
+        return "TrieTermbase{" + "language=" + language + ", size=" + size + ", capacity=" + check.length + ", alphabet=" + alphabet.length + '}';
+    }
+}
@@ -7,6 +7,7 @@ import java.io.InputStreamReader;
 import java.io.BufferedReader;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -100,6 +101,25 @@ public class MinimumSubtermDecomposerTest {
       }
     }
 
+    /**
+     * Test decomposer with repeated compounds and a limited number of decompositions
+     */
+    @Test
+    public void testDecomposeMaxDecompositions() throws Exception {
+      System.out.println("Test decompose max decompositions");
+      String[] terms = {"dampf","schiff","fahrt","dampfschiff","schifffahrt","dampfschifffahrt"};
+      Termbase termbase = createTermbaseSimple("de",terms);
+      String term = "dampfschifffahrtdampfschifffahrtdampfschifffahrt";
+      Set<List<String>> all = new MinimumSubtermDecomposer(termbase).decompose(term);
+      Assert.assertEquals(64, all.size());
+      Assert.assertTrue(all.contains(Arrays.asList("dampf","schiff","fahrt","dampf","schiff","fahrt","dampf","schiff","fahrt")));
+      MinimumSubtermDecomposer decomposer = new MinimumSubtermDecomposer(termbase, 4);
+      Set<List<String>> best = decomposer.decompose(term);
+      Assert.assertEquals(4, best.size());
+      Assert.assertTrue(best.contains(Arrays.asList("dampfschifffahrt","dampfschifffahrt","dampfschifffahrt")));
+      Assert.assertEquals(Arrays.asList("Dampfschifffahrt","Dampfschifffahrt","Dampfschifffahrt"), decomposer.decomposeBest("Dampfschifffahrtdampfschifffahrtdampfschifffahrt"));
+    }
+
     @Test
     public void testRecase() throws Exception {
         final List<String> expResult1 = Arrays.asList("DAMPF","SCHIFF","FAHRT");
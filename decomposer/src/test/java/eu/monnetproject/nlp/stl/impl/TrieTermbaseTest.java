@@ -0,0 +1,80 @@
+package eu.monnetproject.nlp.stl.impl;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class TrieTermbaseTest {
+
+  public static final String TXTDIR = "src/test/resources/txt";
+
+  /**
+   * Test of lookup method, of class TrieTermbase.
+   */
+  @Test
+  public void testLookup() {
+    System.out.println("lookup");
+    TrieTermbase termbase = new TrieTermbase(Arrays.asList("dampf","schiff","fahrt","dampfschiff","schifffahrt","dampf"), "de", true);
+    Assert.assertEquals(5, termbase.size());
+    Assert.assertTrue(termbase.lookup("dampf"));
+    Assert.assertTrue(termbase.lookup("Dampfschiff"));
+    Assert.assertFalse(termbase.lookup("dampfs"));
+    Assert.assertFalse(termbase.lookup("damp"));
+    Assert.assertFalse(termbase.lookup("wasser"));
+    Assert.assertFalse(termbase.lookup(""));
+    TrieTermbase caseSensitive = new TrieTermbase(Arrays.asList("Dampf"), "de", false);
+    Assert.assertTrue(caseSensitive.lookup("Dampf"));
+    Assert.assertFalse(caseSensitive.lookup("dampf"));
+  }
+
+  /**
+   * Test of prefixes method, of class TrieTermbase.
+   */
+  @Test
+  public void testPrefixes() {
+    System.out.println("prefixes");
+    TrieTermbase termbase = new TrieTermbase(Arrays.asList("dampf","schiff","fahrt","dampfschiff","schifffahrt"), "de", true);
+    Assert.assertArrayEquals(new int[] { 5, 11 }, termbase.prefixes("dampfschifffahrt", 0));
+    Assert.assertArrayEquals(new int[] { 11, 16 }, termbase.prefixes("DampfSchifffahrt", 5));
+    Assert.assertArrayEquals(new int[0], termbase.prefixes("dampfschifffahrt", 1));
+    Assert.assertArrayEquals(new int[0], termbase.prefixes("dampfschifffahrt", 16));
+  }
+
+  /**
+   * Test the trie agrees with the Lucene index it is built from
+   */
+  @Test
+  public void testFromLucene() throws Exception {
+    System.out.println("fromLucene");
+    LuceneTermbase lucene = new LuceneTermbase("src/test/resources/index/de", "de");
+    TrieTermbase trie = TrieTermbase.fromLucene(lucene);
+    MinimumSubtermDecomposer luceneDecomposer = new MinimumSubtermDecomposer(lucene);
+    MinimumSubtermDecomposer trieDecomposer = new MinimumSubtermDecomposer(trie);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(TXTDIR+"/de/stw100longest"), "UTF-8"));
+    String term;
+    while( (term = reader.readLine()) != null ) {
+      String lcTerm = term.toLowerCase();
+      for(int i = 0; i < lcTerm.length(); i++) {
+        int p = 0;
+        int[] prefixes = trie.prefixes(lcTerm, i);
+        for(int j = i + 1; j <= lcTerm.length(); j++) {
+          boolean found = lucene.lookup(lcTerm.substring(i, j));
+          Assert.assertEquals(lcTerm.substring(i, j), found, trie.lookup(lcTerm.substring(i, j)));
+          if(found) {
+            Assert.assertEquals(j, prefixes[p++]);
+          }
+        }
+        Assert.assertEquals(prefixes.length, p);
+      }
+      Assert.assertEquals(luceneDecomposer.decompose(term), trieDecomposer.decompose(term));
+    }
+    reader.close();
+  }
+}
@@ -25,6 +25,8 @@
  */
 package eu.monnetproject.translation.fidel;
 
+import java.util.Arrays;
+
 /**
  * This is a bit of manual memory management as Java doesn't seem to be competent in doing it
  * by itself :(
@@ -39,7 +41,8 @@ public class BufferCache {
     public BufferCache(int N, int M) {
         this.N = N;
         this.M = M;
-        this.bufs = new int[N][M];
+        // Buffers are only created when first needed
+        this.bufs = new int[N][];
         this.locks = new Object[N];
     }
     
@@ -47,6 +50,9 @@ public class BufferCache {
         for(int i = 0; i < N; i++) {
             if(locks[i] == null) {
                 locks[i] = lock;
+                if(bufs[i] == null) {
+                    bufs[i] = new int[M];
+                }
                 return bufs[i];
             }
         }
@@ -60,6 +66,20 @@ public class BufferCache {
             }
         }
     }
+
+    /**
+     * Release all the buffers
+     */
+    public void clear() {
+        Arrays.fill(locks, null);
+    }
+
+    /**
+     * Is this cache N buffers of at least length M
+     */
+    public boolean fits(int N, int M) {
+        return this.N == N && this.M >= M;
+    }
  
     
     public static class NoFreeLocksException extends RuntimeException {
@@ -0,0 +1,91 @@
+/**
+ * *******************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.fidel;
+
+import eu.monnetproject.translation.LanguageModelState;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import java.util.Arrays;
+
+/**
+ * A language model that remembers every score it has looked up. This is used
+ * to share language model queries across a batch of decodes; it is not
+ * thread-safe and should not outlive the batch.
+ *
+ * @author John McCrae
+ */
+public class CachingIntegerLanguageModel implements IntegerLanguageModel {
+
+    private final IntegerLanguageModel languageModel;
+    private final Object2ObjectOpenHashMap<Phrase, double[]> cache = new Object2ObjectOpenHashMap<Phrase, double[]>();
+
+    public CachingIntegerLanguageModel(IntegerLanguageModel languageModel) {
+        this.languageModel = languageModel;
+    }
+
+    @Override
+    public double[] get(Phrase phrase) {
+        double[] score = cache.get(phrase);
+        if (score == null && !cache.containsKey(phrase)) {
+            score = languageModel.get(phrase);
+            // The phrase may be a view on the decoder's working buffer, so copy it
+            cache.put(new Phrase(Arrays.copyOfRange(phrase.p, phrase.l, phrase.l + phrase.n)), score);
+        }
+        return score;
+    }
+
+    @Override
+    public LanguageModelState newState() {
+        return languageModel.newState();
+    }
+
+    @Override
+    public double score(LanguageModelState state, int word, LanguageModelState out) {
+        if (state instanceof WindowLanguageModelState) {
+            // Window queries go through the cache
+            return WindowLanguageModelState.score(this, state, word, out);
+        } else {
+            return languageModel.score(state, word, out);
+        }
+    }
+
+    @Override
+    public int order() {
+        return languageModel.order();
+    }
+
+    @Override
+    public Object2IntMap<String> wordMap() {
+        return languageModel.wordMap();
+    }
+
+    @Override
+    public Int2ObjectMap<String> invWordMap() {
+        return languageModel.invWordMap();
+    }
+}
@@ -0,0 +1,305 @@
+/*********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.fidel;
+
+import eu.monnetproject.translation.LanguageModelState;
+import static eu.monnetproject.translation.fidel.FidelDecoder.*;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A search that keeps a stack of solutions for each number of source words
+ * translated, and fills each stack by cube pruning: for every span ending at
+ * the stack, the solutions of the stack at its start (best first) and the
+ * translations of the span with each distortion (ordered by their phrase
+ * table and distortion score) form a grid, whose cells are scored with the
+ * language model in best-first order of their estimated score until the
+ * pop limit is reached.
+ *
+ * @author John McCrae
+ */
+public class CubePruningDecoder {
+
+    private static final boolean verbose = Boolean.parseBoolean(System.getProperty("fidel.verbose", "false"));
+
+    /**
+     * A translation of a span, with the distortion to insert it at
+     */
+    private static final class Move implements Comparable<Move> {
+
+        // Null for an unknown word
+        final PhraseTranslation candidate;
+        final int d;
+        final double estimate;
+
+        public Move(PhraseTranslation candidate, int d, double estimate) {
+            this.candidate = candidate;
+            this.d = d;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public int compareTo(Move o) {
+            return Double.compare(o.estimate, estimate);
+        }
+    }
+
+    /**
+     * The cell of a grid, ordered by its estimated score
+     */
+    private static final class Cell implements Comparable<Cell> {
+
+        final int grid, soln, move;
+        final double estimate;
+
+        public Cell(int grid, int soln, int move, double estimate) {
+            this.grid = grid;
+            this.soln = soln;
+            this.move = move;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public int compareTo(Cell o) {
+            return Double.compare(o.estimate, estimate);
+        }
+    }
+
+    /**
+     *
+     * @param src The source phrase
+     * @param phraseTable The phrase table. Scores should already be logarithmic
+     * @param languageModel The language model. Scores should already be
+     * logarithmic
+     * @param lmN The n in the language model
+     * @param weights Of the form { UNK, DIST, LM, PT1, ... PTN }
+     * @param distortionLimit The maximum distortion to consider
+     * @param nBest The nBest results to return
+     * @param beamSize The size of each stack
+     * @param popLimit The number of cells scored to fill each stack
+     * @param wordMap The words of the target ids, used only for verbose output
+     * (may be null)
+     * @return The best solutions
+     */
+    public static Solution[] decode(int[] src,
+            Object2ObjectMap<Phrase, Collection<PhraseTranslation>> phraseTable,
+            IntegerLanguageModel languageModel,
+            int lmN,
+            double[] weights,
+            int distortionLimit,
+            int nBest,
+            int beamSize,
+            int popLimit,
+            Int2ObjectMap<String> wordMap) {
+        final double[] futureCosts = futureCosts(calcPartialScore(src, phraseTable, weights, languageModel, lmN));
+        final OptionGrid options = new OptionGrid(src, phraseTable);
+        final HeapBeam[] stacks = new HeapBeam[src.length + 1];
+        for (int k = 0; k <= src.length; k++) {
+            stacks[k] = new HeapBeam(k == src.length ? Math.max(beamSize, nBest) : beamSize);
+        }
+        stacks[0].add(new SolutionImpl(0, new int[0], new int[0], futureCosts[0], futureCosts[0], new double[weights.length]));
+
+        final int[] buf = new int[src.length * 32];
+        final LanguageModelState[] lmScratch = new LanguageModelState[]{languageModel.newState(), languageModel.newState()};
+        final double[] tptScore = new double[weights.length + 1];
+        LanguageModelState spareLmState = languageModel.newState();
+        final Solution[][] solns = new Solution[src.length + 1][];
+
+        for (int j = 1; j <= src.length; j++) {
+            // The grids that fill this stack, one per start of the span
+            final List<Solution[]> gridSolns = new ObjectArrayList<Solution[]>();
+            final List<Move[]> gridMoves = new ObjectArrayList<Move[]>();
+            final IntArrayList gridStarts = new IntArrayList();
+            final PriorityQueue<Cell> queue = new PriorityQueue<Cell>();
+            for (int i = 0; i < j; i++) {
+                if (solns[i] == null) {
+                    solns[i] = stacks[i].toArray();
+                }
+                final Move[] moves = moves(options, src, i, j, weights, distortionLimit);
+                if (solns[i].length == 0 || moves.length == 0) {
+                    continue;
+                }
+                final int g = gridSolns.size();
+                gridSolns.add(solns[i]);
+                gridMoves.add(moves);
+                gridStarts.add(i);
+                queue.add(new Cell(g, 0, 0, estimate(solns[i][0], moves[0], futureCosts[j])));
+            }
+            final LongOpenHashSet seen = new LongOpenHashSet();
+            final HeapBeam stack = stacks[j];
+            int pops = 0;
+            while (!queue.isEmpty() && pops < popLimit) {
+                final Cell cell = queue.poll();
+                pops++;
+                final Solution[] cellSolns = gridSolns.get(cell.grid);
+                final Move[] moves = gridMoves.get(cell.grid);
+                final SolutionImpl soln = (SolutionImpl) cellSolns[cell.soln];
+                final Move move = moves[cell.move];
+
+                final Solution newSoln;
+                if (move.candidate == null) {
+                    newSoln = unknown(soln, src[gridStarts.getInt(cell.grid)], move.d, j, futureCosts[j], weights, distortionLimit, buf);
+                } else if (move.d == 0) {
+                    final int pos = soln.soln.length;
+                    System.arraycopy(soln.soln, 0, buf, 0, pos);
+                    appendTranslation(move.candidate, weights, buf, pos, lmState(soln, languageModel, lmN), lmScratch, spareLmState, languageModel, tptScore);
+                    final LanguageModelState lmState;
+                    if (move.candidate.words.length == 0) {
+                        lmState = soln.lmState;
+                    } else {
+                        lmState = spareLmState;
+                    }
+                    newSoln = translation(soln, move, j, futureCosts[j], weights, buf, tptScore, lmState);
+                    if (newSoln != null && lmState == spareLmState) {
+                        // The solution keeps the spare state
+                        spareLmState = languageModel.newState();
+                    }
+                } else if (distortionAllowed(soln, move.d, distortionLimit)) {
+                    final int pos = soln.soln.length;
+                    System.arraycopy(soln.soln, 0, buf, 0, pos);
+                    tryPutTranslation(move.candidate, weights, buf, pos, languageModel, lmN, move.d, tptScore);
+                    newSoln = translation(soln, move, j, futureCosts[j], weights, buf, tptScore, null);
+                } else {
+                    newSoln = null;
+                }
+                if (newSoln != null && stack.add(newSoln) && verbose) {
+                    System.err.print("Adding ");
+                    newSoln.printSoln(wordMap);
+                }
+                // Move to the neighbouring cells
+                if (cell.soln + 1 < cellSolns.length && seen.add(key(cell.grid, cell.soln + 1, cell.move))) {
+                    queue.add(new Cell(cell.grid, cell.soln + 1, cell.move, estimate(cellSolns[cell.soln + 1], move, futureCosts[j])));
+                }
+                if (cell.move + 1 < moves.length && seen.add(key(cell.grid, cell.soln, cell.move + 1))) {
+                    queue.add(new Cell(cell.grid, cell.soln, cell.move + 1, estimate(soln, moves[cell.move + 1], futureCosts[j])));
+                }
+            }
+        }
+        final Solution[] complete = stacks[src.length].toArray();
+        return complete.length > nBest ? Arrays.copyOf(complete, nBest) : complete;
+    }
+
+    private static long key(int grid, int soln, int move) {
+        return ((long) grid << 42) | ((long) soln << 21) | move;
+    }
+
+    private static double estimate(Solution soln, Move move, double futureCost) {
+        final SolutionImpl s = (SolutionImpl) soln;
+        return s.score - s.futureCost + futureCost + move.estimate;
+    }
+
+    /**
+     * The translations of a span with each distortion, best first
+     */
+    private static Move[] moves(OptionGrid options, int[] src, int i, int j, double[] weights, int distortionLimit) {
+        final Collection<PhraseTranslation> candidates = options.get(i, j);
+        final List<Move> moves = new ObjectArrayList<Move>();
+        if (candidates == null) {
+            if (j == i + 1) {
+                for (int d = 0; d < distortionLimit; d++) {
+                    moves.add(new Move(null, d, weights[UNK] + deltaDist(null, 1, d, weights)));
+                }
+            }
+        } else {
+            for (PhraseTranslation candidate : candidates) {
+                double ptScore = 0.0;
+                for (int k = 0; k < candidate.scores.length; k++) {
+                    ptScore += weights[PT + k] * candidate.scores[k];
+                }
+                for (int d = 0; d < distortionLimit; d++) {
+                    moves.add(new Move(candidate, d, ptScore + deltaDist(null, candidate.words.length, d, weights)));
+                }
+            }
+        }
+        Collections.sort(moves);
+        return moves.toArray(new Move[moves.size()]);
+    }
+
+    /**
+     * Can a phrase be inserted d words back from the end of a solution without
+     * pushing an existing word over the distortion limit
+     */
+    private static boolean distortionAllowed(SolutionImpl soln, int d, int distortionLimit) {
+        final int pos = soln.soln.length;
+        if (d >= distortionLimit || d > pos) {
+            return false;
+        }
+        for (int e = 1; e <= d; e++) {
+            if (soln.dist[pos - e] + d > distortionLimit) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Solution unknown(SolutionImpl soln, int word, int d, int j, double futureCost, double[] weights, int distortionLimit, int[] buf) {
+        if (!distortionAllowed(soln, d, distortionLimit)) {
+            return null;
+        }
+        final int pos = soln.soln.length;
+        final double score = weights[UNK]
+                + soln.score
+                + futureCost
+                - soln.futureCost
+                + deltaDist(soln.dist, 1, d, weights);
+        if (Double.isNaN(score) || Double.isInfinite(score)) {
+            return null;
+        }
+        System.arraycopy(soln.soln, 0, buf, 0, pos);
+        rightShiftBuffer(buf, d, pos - d);
+        buf[pos - d] = -word;
+        final double[] newFeatures = Arrays.copyOf(soln.features, soln.features.length);
+        newFeatures[UNK]++;
+        return new SolutionImpl(j, Arrays.copyOfRange(buf, 0, pos + 1), recalcDist(soln.dist, 1, d), score, futureCost, newFeatures);
+    }
+
+    private static Solution translation(SolutionImpl soln, Move move, int j, double futureCost, double[] weights, int[] buf, double[] tptScore, LanguageModelState lmState) {
+        final double ddScore = deltaDist(soln.dist, move.candidate.words.length, move.d, weights);
+        final double score = tptScore[0]
+                + soln.score
+                + futureCost
+                - soln.futureCost
+                + ddScore;
+        if (Double.isNaN(score) || Double.isInfinite(score)) {
+            return null;
+        }
+        final double[] newFeatures = Arrays.copyOf(soln.features, soln.features.length);
+        for (int f = 0; f < newFeatures.length; f++) {
+            newFeatures[f] += tptScore[f + 1];
+        }
+        newFeatures[DIST] += ddScore / weights[DIST];
+        final int pos = soln.soln.length;
+        return new SolutionImpl(j, Arrays.copyOfRange(buf, 0, pos + move.candidate.words.length), recalcDist(soln.dist, move.candidate.words.length, move.d), score, futureCost, newFeatures, lmState);
+    }
+}
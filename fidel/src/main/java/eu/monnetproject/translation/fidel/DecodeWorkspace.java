@@ -0,0 +1,109 @@
+/*********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.fidel;
+
+import eu.monnetproject.translation.LanguageModelState;
+import java.lang.ref.WeakReference;
+
+/**
+ * The working memory of a decode, which is kept by each thread and reused by
+ * its next decode if the sizes agree
+ *
+ * @author John McCrae
+ */
+class DecodeWorkspace {
+
+    private static final ThreadLocal<DecodeWorkspace> workspaces = new ThreadLocal<DecodeWorkspace>() {
+        @Override
+        protected DecodeWorkspace initialValue() {
+            return new DecodeWorkspace();
+        }
+    };
+    HeapBeam beam, solns;
+    int[] buf;
+    BufferCache bufferCache;
+    double[] score;
+    // Weak, so that a model is not kept alive by the threads that used it
+    private WeakReference<IntegerLanguageModel> languageModel;
+    private LanguageModelState[] lmStates;
+
+    private DecodeWorkspace() {
+    }
+
+    /**
+     * Get this thread's workspace, emptied and sized for a decode
+     *
+     * @param bufferLength The length of the translation buffers
+     * @param beamSize The size of the beam
+     * @param nBest The size of the solution beam
+     * @param scoreLength The length of the score array
+     * @return The workspace
+     */
+    public static DecodeWorkspace get(int bufferLength, int beamSize, int nBest, int scoreLength) {
+        final DecodeWorkspace ws = workspaces.get();
+        if (ws.beam == null || ws.beam.beamSize() != beamSize) {
+            ws.beam = new HeapBeam(beamSize);
+        } else {
+            ws.beam.clear();
+        }
+        if (ws.solns == null || ws.solns.beamSize() != nBest) {
+            ws.solns = new HeapBeam(nBest);
+        } else {
+            ws.solns.clear();
+        }
+        // The decoder's buffer must be exactly the right length as its shifts
+        // act on the whole buffer, lazy solutions only shift what they use
+        if (ws.buf == null || ws.buf.length != bufferLength) {
+            ws.buf = new int[bufferLength];
+        }
+        if (ws.bufferCache == null || !ws.bufferCache.fits(beamSize + 5, bufferLength)) {
+            ws.bufferCache = new BufferCache(beamSize + 5, bufferLength);
+        } else {
+            ws.bufferCache.clear();
+        }
+        if (ws.score == null || ws.score.length != scoreLength) {
+            ws.score = new double[scoreLength];
+        }
+        return ws;
+    }
+
+    /**
+     * Get this thread's scratch states of a language model. The first is a
+     * state with no context that must not be written to, the others are 
+     * working space for the states between words
+     *
+     * @param languageModel The language model
+     * @return The states
+     */
+    public static LanguageModelState[] lmStates(IntegerLanguageModel languageModel) {
+        final DecodeWorkspace ws = workspaces.get();
+        if (ws.languageModel == null || ws.languageModel.get() != languageModel) {
+            ws.languageModel = new WeakReference<IntegerLanguageModel>(languageModel);
+            ws.lmStates = new LanguageModelState[]{languageModel.newState(), languageModel.newState(), languageModel.newState()};
+        }
+        return ws.lmStates;
+    }
+}
@@ -26,8 +26,8 @@
  */
 package eu.monnetproject.translation.fidel;
 
+import eu.monnetproject.translation.LanguageModelState;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import java.util.Arrays;
 import java.util.Collection;
@@ -44,8 +44,6 @@ public class FidelDecoder {
     public static final int LM = 2;
     public static final int PT = 3;
     private static final Random r = new Random();
-    public static Int2ObjectMap<String> wordMap;
-    public static Object2IntMap<String> srcWordMap;
     private static final boolean verbose = Boolean.parseBoolean(System.getProperty("fidel.verbose", "false"));
 //    private static final PrintWriter log;
 
@@ -59,7 +57,7 @@ public class FidelDecoder {
 //        log.println("ITERS,SOLN_ITER,N,SCORE");
 //    }
 
-    public static void printPhrase(int[] p) {
+    public static void printPhrase(int[] p, Int2ObjectMap<String> wordMap) {
         for (int i = 0; i < p.length; i++) {
             if (wordMap != null) {
                 System.err.print(wordMap.get(p[i]) + " ");
@@ -91,17 +89,43 @@ public class FidelDecoder {
             int nBest,
             int beamSize,
             boolean useLazy) {
-        final double[] scorePartial = calcPartialScore(src, phraseTable, weights, languageModel, lmN);
+        return decode(src, phraseTable, languageModel, lmN, weights, distortionLimit, nBest, beamSize, useLazy, null);
+    }
 
-        final Beam beam = new Beam(beamSize);
-        final Beam solns = new Beam(nBest);
-        // Add null solution
-        beam.add(new SolutionImpl(0, new int[0], new int[0], sum(scorePartial), sum(scorePartial),new double[weights.length]));
+    /**
+     * As {@link #decode(int[], it.unimi.dsi.fastutil.objects.Object2ObjectMap, eu.monnetproject.translation.fidel.IntegerLanguageModel, int, double[], int, int, int, boolean)}
+     *
+     * @param wordMap The words of the target ids, used only for verbose output
+     * (may be null)
+     */
+    public static Solution[] decode(int[] src,
+            Object2ObjectMap<Phrase, Collection<PhraseTranslation>> phraseTable,
+            IntegerLanguageModel languageModel,
+            int lmN,
+            double[] weights,
+            int distortionLimit,
+            int nBest,
+            int beamSize,
+            boolean useLazy,
+            Int2ObjectMap<String> wordMap) {
+        final double[] scorePartial = calcPartialScore(src, phraseTable, weights, languageModel, lmN);
+        final double[] futureCosts = futureCosts(scorePartial);
+        final OptionGrid options = new OptionGrid(src, phraseTable);
 
         // Potential code bug here if the maximum translation length is greater
         // than 32 times large than the source
-        final int[] buf = new int[src.length * 32];
-        final BufferCache bufferCache = new BufferCache(beamSize+5, src.length * 32);
+        final DecodeWorkspace ws = DecodeWorkspace.get(src.length * 32, beamSize, nBest, weights.length + 1);
+        final HeapBeam beam = ws.beam;
+        final HeapBeam solns = ws.solns;
+        // Add null solution
+        beam.add(new SolutionImpl(0, new int[0], new int[0], futureCosts[0], futureCosts[0],new double[weights.length]));
+
+        final int[] buf = ws.buf;
+        final BufferCache bufferCache = ws.bufferCache;
+        final LanguageModelState[] lmScratch = new LanguageModelState[]{languageModel.newState(), languageModel.newState()};
+        // Expansions are scored into these and only copied if the beam accepts them
+        final double[] tptScore = ws.score;
+        LanguageModelState spareLmState = languageModel.newState();
 
         int iterationNo = 0;
         int solnFound = 0;
@@ -113,7 +137,7 @@ public class FidelDecoder {
             if (solnTmp instanceof SolutionImpl) {
                 soln = (SolutionImpl) solnTmp;
             } else if (solnTmp instanceof LazyDistortedSolution) {
-                soln = ((LazyDistortedSolution) solnTmp).evaluate(weights, languageModel, lmN);
+                soln = ((LazyDistortedSolution) solnTmp).evaluate(weights, languageModel, lmN, lmScratch, tptScore);
             } else {
                 throw new RuntimeException("Unreachable");
             }
@@ -141,11 +165,11 @@ public class FidelDecoder {
             // j indicates the end of the phrase (in src)
             PHRASE_END:
             for (int j = i + 1; j <= src.length; j++) {
-                final double futureCost = sum(scorePartial, j);
+                final double futureCost = futureCosts[j];
                 if (Double.isNaN(futureCost) || Double.isInfinite(futureCost)) {
                     throw new RuntimeException("Infinite future cost");
                 }
-                final Collection<PhraseTranslation> candidates = phraseTable.get(new Phrase(Arrays.copyOfRange(src, i, j)));
+                final Collection<PhraseTranslation> candidates = options.get(i, j);
                 // No candidate
                 if (candidates == null || candidates.isEmpty()) {
                     if (j == i + 1) {
@@ -204,12 +228,9 @@ public class FidelDecoder {
                             }
                             final double ddScore = deltaDist(soln.dist, candidate.words.length, d, weights);
                             if (useLazy) {
-                                double[] newFeatures = Arrays.copyOf(soln.features,soln.features.length);
-                                newFeatures[DIST] += ddScore / weights[DIST];
                                 double ptScore2 = 0.0;
                                 for (int k = 0; k < candidate.scores.length; k++) {
                                     ptScore2 += weights[PT + k] * candidate.scores[k];
-                                    newFeatures[PT + k] += candidate.scores[k];
                                 }
                                 double score = ptScore2
                                         + soln.score
@@ -218,13 +239,17 @@ public class FidelDecoder {
                                         + ddScore;
 
                                 if (!Double.isInfinite(score) && (!beam.isFull() || score > beam.leastScore())) {
-                                    final LazyDistortedSolution lds = new LazyDistortedSolution(candidate, soln, buf, pos, d, j, futureCost, ddScore, ptScore2, weights, bufferCache, newFeatures);
-                                    if(beam.add(lds)) {
-                                        beam.addRemovalListener(lds);
-                                    }
+                                    final LazyDistortedSolution lds = new LazyDistortedSolution(candidate, soln, buf, pos, d, j, futureCost, ddScore, ptScore2, weights, bufferCache);
+                                    beam.add(lds, lds);
                                 }
                             } else {
-                                final double[] tptScore = tryPutTranslation(candidate, weights, buf, pos, languageModel, lmN, d);
+                                // Appending scores incrementally from the solution's state, 
+                                // otherwise the n-grams around the insertion are rescored
+                                if (d == 0) {
+                                    appendTranslation(candidate, weights, buf, pos, lmState(soln, languageModel, lmN), lmScratch, spareLmState, languageModel, tptScore);
+                                } else {
+                                    tryPutTranslation(candidate, weights, buf, pos, languageModel, lmN, d, tptScore);
+                                }
                                 // Get the score of the solution
                                 final double score = tptScore[0]
                                         + soln.score
@@ -250,7 +275,17 @@ public class FidelDecoder {
                                         newFeatures[f] += tptScore[f+1];
                                     }
                                     newFeatures[DIST] += ddScore / weights[DIST];
-                                    final Solution newSoln = new SolutionImpl(j, Arrays.copyOfRange(buf, 0, pos + candidate.words.length), recalcDist(soln.dist, candidate.words.length, d), score, futureCost,newFeatures);
+                                    final LanguageModelState lmState;
+                                    if (d != 0) {
+                                        lmState = null;
+                                    } else if (candidate.words.length == 0) {
+                                        lmState = soln.lmState;
+                                    } else {
+                                        // The solution keeps the spare state
+                                        lmState = spareLmState;
+                                        spareLmState = languageModel.newState();
+                                    }
+                                    final Solution newSoln = new SolutionImpl(j, Arrays.copyOfRange(buf, 0, pos + candidate.words.length), recalcDist(soln.dist, candidate.words.length, d), score, futureCost,newFeatures, lmState);
                                     // System.err.println(newSoln.toString());
                                     beam.add(newSoln);
                                     if (verbose) {
@@ -263,7 +298,9 @@ public class FidelDecoder {
 
                                 }
                                 // Undo damage by tryPutTranslation
-                                leftShiftBuffer(buf, candidate.words.length, pos - d);
+                                if (d > 0) {
+                                    leftShiftBuffer(buf, candidate.words.length, pos - d);
+                                }
                             }
                         }
                     }
@@ -272,7 +309,11 @@ public class FidelDecoder {
         }
 //        log.println(iterationNo + "," + solnFound + "," + src.length + "," + solns.bestScore());
 //        log.flush();
-        return solns.toArray();
+        final Solution[] rval = solns.toArray();
+        // Do not keep the solutions alive until this thread's next decode
+        beam.clear();
+        solns.clear();
+        return rval;
     }
 
     /**
@@ -288,36 +329,119 @@ public class FidelDecoder {
     public static double lmScore(int[] buf, int p,
             IntegerLanguageModel languageModel,
             int lmN, double unk) {
-        final Phrase ph = p >= lmN
-                ? new Phrase(buf, p - lmN, lmN)
-                : new Phrase(buf, 0, p);
-        /*final double[] lmScore = languageModel.get(ph);
-         if (lmScore != null) {
-         if(Double.isInfinite(lmScore[0])) {
-         return unk;
-         } else {
-         return lmScore[0];
-         }
-         } else if (lmN > 1) {
-         final Phrase boPh = new Phrase(buf, p - lmN, lmN - 1);
-         final double[] boScore = languageModel.get(boPh);
-         if (boScore != null && boScore.length > 0) {
-         final double scoreWithBO = boScore[1] + lmScore(buf, p, languageModel, lmN - 1, unk);
-         return scoreWithBO;
-         } else {
-         return lmScore(buf, p, languageModel, lmN - 1, unk);
-         }
-         } else {
-         return unk;
-         }*/
-        final double[] lmScore = languageModel.get(ph);
-        if (lmScore != null && !Double.isInfinite(lmScore[0])) {
-            return lmScore[0];
+        // Score the n-gram word by word from an empty context into this 
+        // thread's scratch states, rather than querying it as a phrase
+        final LanguageModelState[] states = DecodeWorkspace.lmStates(languageModel);
+        LanguageModelState in = states[0];
+        double lmScore = Double.NEGATIVE_INFINITY;
+        for (int i = Math.max(0, p - lmN); i < p; i++) {
+            final LanguageModelState next = in == states[1] ? states[2] : states[1];
+            lmScore = languageModel.score(in, buf[i], next);
+            in = next;
+        }
+        if (!Double.isInfinite(lmScore)) {
+            return lmScore;
         } else {
             return -100;
         }
     }
 
+    /**
+     * Calculate the LM score of a word following a context
+     *
+     * @param state The context
+     * @param word The word
+     * @param out The state to set to the context after the word
+     * @param languageModel The model
+     * @return log(p(w|context))
+     */
+    public static double lmScore(LanguageModelState state, int word, LanguageModelState out,
+            IntegerLanguageModel languageModel) {
+        final double lmScore = languageModel.score(state, word, out);
+        if (!Double.isInfinite(lmScore)) {
+            return lmScore;
+        } else {
+            return -100;
+        }
+    }
+
+    /**
+     * Get the language model state at the end of a solution, calculating it
+     * from the last words of the solution if it is not known
+     *
+     * @param soln The solution
+     * @param languageModel The model
+     * @param lmN The n in the language model
+     * @return The state
+     */
+    static LanguageModelState lmState(SolutionImpl soln, IntegerLanguageModel languageModel, int lmN) {
+        if (soln.lmState == null) {
+            // Only the final state is kept, the others are scratch states
+            final LanguageModelState[] states = DecodeWorkspace.lmStates(languageModel);
+            final LanguageModelState state = languageModel.newState();
+            LanguageModelState in = states[0];
+            for (int i = Math.max(0, soln.soln.length - lmN + 1); i < soln.soln.length; i++) {
+                final LanguageModelState next = i == soln.soln.length - 1 ? state
+                        : in == states[1] ? states[2] : states[1];
+                languageModel.score(in, soln.soln[i], next);
+                in = next;
+            }
+            soln.lmState = state;
+        }
+        return soln.lmState;
+    }
+
+    /**
+     * Append a translation to the end of the buffer, scoring the language 
+     * model incrementally from the state at the end of the buffer
+     *
+     * @param pt The translation
+     * @param weights The weights on the model
+     * @param buf The buffer
+     * @param pos The 'end' of the buffer
+     * @param state The language model state at {@code pos}
+     * @param scratch Two states used as working space
+     * @param out The state to set to the state after the translation (if it
+     * has any words)
+     * @param languageModel The language model
+     * @return The cost to do this, as {@link #tryPutTranslation(PhraseTranslation, double[], int[], int, IntegerLanguageModel, int, int)}
+     */
+    public static double[] appendTranslation(PhraseTranslation pt, double[] weights,
+            final int[] buf, int pos, LanguageModelState state, LanguageModelState[] scratch,
+            LanguageModelState out, IntegerLanguageModel languageModel) {
+        return appendTranslation(pt, weights, buf, pos, state, scratch, out, languageModel, new double[weights.length + 1]);
+    }
+
+    /**
+     * As {@link #appendTranslation(PhraseTranslation, double[], int[], int, LanguageModelState, LanguageModelState[], LanguageModelState, IntegerLanguageModel)}
+     * but writing the cost into an existing array
+     *
+     * @param score The array of length {@code weights.length + 1} to write to
+     * @return {@code score}
+     */
+    public static double[] appendTranslation(PhraseTranslation pt, double[] weights,
+            final int[] buf, int pos, LanguageModelState state, LanguageModelState[] scratch,
+            LanguageModelState out, IntegerLanguageModel languageModel, double[] score) {
+        Arrays.fill(score, 0.0);
+        for (int j = 0; j < pt.scores.length; j++) {
+            score[0] += weights[PT + j] * pt.scores[j];
+            score[1+PT+ j] += pt.scores[j];
+        }
+        LanguageModelState in = state;
+        for (int i = 0; i < pt.words.length; i++) {
+            buf[pos + i] = pt.words[i];
+            final LanguageModelState next = i == pt.words.length - 1 ? out : scratch[i % 2];
+            final double lm = lmScore(in, pt.words[i], next, languageModel);
+            score[0] += weights[LM] * lm;
+            score[1+LM] += lm;
+            in = next;
+        }
+        if(Double.isNaN(score[0])) {
+            score[0] = Double.NEGATIVE_INFINITY;
+        }
+        return score;
+    }
+
     /**
      * Attempt to append a translation to the end of the array
      *
@@ -353,7 +477,19 @@ public class FidelDecoder {
      * @param at The place to start shifting
      */
     public static void rightShiftBuffer(int[] buf, int shift, int at) {
-        for (int i = buf.length - 1; i > at && i - shift >= 0; i--) {
+        rightShiftBuffer(buf, shift, at, buf.length);
+    }
+
+    /**
+     * Move values right, within the start of the buffer only
+     *
+     * @param buf The buffer
+     * @param shift The amount to shift
+     * @param at The place to start shifting
+     * @param end The end of the values to keep after shifting
+     */
+    public static void rightShiftBuffer(int[] buf, int shift, int at, int end) {
+        for (int i = end - 1; i > at && i - shift >= 0; i--) {
             buf[i] = buf[i - shift];
         }
     }
@@ -420,7 +556,19 @@ public class FidelDecoder {
      */
     public static double[] tryPutTranslation(PhraseTranslation pt, double[] weights,
             final int[] buf, int pos, IntegerLanguageModel languageModel, int lmN, int dist) {
-        double[] score = new double[weights.length+1];
+        return tryPutTranslation(pt, weights, buf, pos, languageModel, lmN, dist, new double[weights.length + 1]);
+    }
+
+    /**
+     * As {@link #tryPutTranslation(PhraseTranslation, double[], int[], int, IntegerLanguageModel, int, int)}
+     * but writing the cost into an existing array
+     *
+     * @param score The array of length {@code weights.length + 1} to write to
+     * @return {@code score}
+     */
+    public static double[] tryPutTranslation(PhraseTranslation pt, double[] weights,
+            final int[] buf, int pos, IntegerLanguageModel languageModel, int lmN, int dist, double[] score) {
+        Arrays.fill(score, 0.0);
         for (int j = 0; j < pt.scores.length; j++) {
             score[0] += weights[PT + j] * pt.scores[j];
             score[1+PT+ j] += pt.scores[j];
@@ -455,12 +603,20 @@ public class FidelDecoder {
         return score;
     }
 
-    private static double sum(double[] ds) {
-        double n = 0.0;
-        for (double d : ds) {
-            n += d;
+    /**
+     * Calculate the future cost after each position of the source. Each is
+     * summed from the front, as it was per expansion, so that the scores do
+     * not change
+     *
+     * @param scorePartial The partial scores, as by {@link #calcPartialScore(int[], it.unimi.dsi.fastutil.objects.Object2ObjectMap, double[], eu.monnetproject.translation.fidel.IntegerLanguageModel, int)}
+     * @return The array of future costs, one longer than the source
+     */
+    static double[] futureCosts(double[] scorePartial) {
+        final double[] futureCosts = new double[scorePartial.length + 1];
+        for (int j = 0; j <= scorePartial.length; j++) {
+            futureCosts[j] = sum(scorePartial, j);
         }
-        return n;
+        return futureCosts;
     }
 
     private static double sum(double[] ds, int off) {
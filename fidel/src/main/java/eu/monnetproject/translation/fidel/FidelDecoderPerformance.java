@@ -26,10 +26,12 @@
  */
 package eu.monnetproject.translation.fidel;
 
+import eu.monnetproject.translation.LanguageModelState;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import java.lang.management.ManagementFactory;
 import java.util.Arrays;
 import java.util.Collection;
 import static java.lang.Math.*;
@@ -161,36 +163,197 @@ public class FidelDecoderPerformance {
         lm.put(new Phrase(new int[]{10, 14}), new double[]{-0.9798192});
     }
 
-    public static void main(String[] args) throws Exception {
-        System.in.read();
-        for (int i = 0; i < 10000; i++) {
-            int n = r.nextInt(4) + 2;
-            int[] src = new int[n];
-            for(int j = 0; j < n ; j++) {
-                src[j] = r.nextInt(6);
+    /**
+     * Simulate the beam of a lazy decode: solutions are offered in batches
+     * (the expansions of a solution), pruned against the worst score and the
+     * best is then taken, each with a removal listener.
+     */
+    private static long beamWorkload(int beamSize, boolean heap, long seed) {
+        final Random random = new Random(seed);
+        final Beam.RemovalListener listener = new Beam.RemovalListener() {
+            @Override
+            public boolean onRemove(Solution soln) {
+                return false;
             }
-            Object2ObjectMap<Phrase, Collection<PhraseTranslation>> phraseTable = pt;
-            Object2ObjectMap<Phrase, double[]> languageModel = lm;
-            class IntegerLanguageModelImpl implements IntegerLanguageModel {
-
-                public double[] get(Phrase phrase) {
-                    return lm.get(phrase);
+        };
+        final Beam beam = heap ? null : new Beam(beamSize);
+        final HeapBeam heapBeam = heap ? new HeapBeam(beamSize) : null;
+        final long start = System.nanoTime();
+        double score = 0.0;
+        for (int iter = 0; iter < 2000; iter++) {
+            for (int k = 0; k < 50; k++) {
+                final double s = score - random.nextDouble() * 10.0;
+                final SolutionImpl soln = new SolutionImpl(iter, new int[0], new int[0], s, s, new double[0]);
+                if (heap) {
+                    if (!heapBeam.isFull() || s > heapBeam.leastScore()) {
+                        heapBeam.add(soln, listener);
+                    }
+                } else if (!beam.isFull() || s > beam.leastScore()) {
+                    if (beam.add(soln)) {
+                        beam.addRemovalListener(listener);
+                    }
                 }
+            }
+            score = heap ? heapBeam.poll().score() : beam.poll().score();
+        }
+        return System.nanoTime() - start;
+    }
 
-                public int order() {
-                    return 2;
-                }
+    /**
+     * Compare the red-black tree beam with the heap beam
+     */
+    public static void compareBeams() {
+        for (int beamSize : new int[]{20, 50, 200}) {
+            // Warm up
+            for (int i = 0; i < 5; i++) {
+                beamWorkload(beamSize, false, i);
+                beamWorkload(beamSize, true, i);
+            }
+            long treeTime = 0, heapTime = 0;
+            for (int i = 0; i < 20; i++) {
+                treeTime += beamWorkload(beamSize, false, i);
+                heapTime += beamWorkload(beamSize, true, i);
+            }
+            System.err.println(String.format("Beam size %d: tree %.2fms heap %.2fms", beamSize, treeTime / 20e6, heapTime / 20e6));
+        }
+    }
 
-                public Int2ObjectMap<String> invWordMap() {
-                    throw new UnsupportedOperationException("Not supported yet.");
+    private static class IntegerLanguageModelImpl implements IntegerLanguageModel {
+
+        public double[] get(Phrase phrase) {
+            return lm.get(phrase);
+        }
+
+        public int order() {
+            return 2;
+        }
+
+        public LanguageModelState newState() {
+            return new WindowLanguageModelState(order());
+        }
+
+        public double score(LanguageModelState state, int word, LanguageModelState out) {
+            return WindowLanguageModelState.score(this, state, word, out);
+        }
+
+        public Int2ObjectMap<String> invWordMap() {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+
+        public Object2IntMap<String> wordMap() {
+            throw new UnsupportedOperationException("Not supported yet.");
+        }
+    }
+
+    private static int[] randomSource(Random random) {
+        int n = random.nextInt(4) + 2;
+        int[] src = new int[n];
+        for (int j = 0; j < n; j++) {
+            src[j] = random.nextInt(6);
+        }
+        return src;
+    }
+
+    /**
+     * Report the bytes allocated per decode, using the HotSpot thread bean
+     */
+    public static void measureAllocation() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("Allocation is not measurable on this JVM");
+            return;
+        }
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        final IntegerLanguageModel languageModel = new IntegerLanguageModelImpl();
+        final double[] weights = new double[]{1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0};
+        final int decodes = 10000;
+        for (boolean useLazy : new boolean[]{false, true}) {
+            for (int run = 0; run < 2; run++) {
+                // The first run is a warm up
+                final Random random = new Random(run);
+                final long before = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                for (int i = 0; i < decodes; i++) {
+                    FidelDecoder.decode(randomSource(random), pt, languageModel, 2, weights, 3, 1, 50, useLazy);
                 }
+                final long after = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                if (run == 1) {
+                    System.err.println(String.format("%s: %d bytes per decode", useLazy ? "Lazy" : "Eager", (after - before) / decodes));
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode the same random sources with each search and report the time
+     * and mean model score of the best solution
+     *
+     * @param search 0 for beam search, 1 for lazy beam search, 2 for cube
+     * pruning
+     */
+    private static String timeSearch(int search, int beamSize, int popLimit, int length) {
+        final IntegerLanguageModel languageModel = new IntegerLanguageModelImpl();
+        final double[] weights = new double[]{1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0};
+        final int decodes = 2000;
+        final Random random = new Random(length);
+        double totalScore = 0.0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < decodes; i++) {
+            final int[] src = new int[length];
+            for (int j = 0; j < length; j++) {
+                src[j] = random.nextInt(6);
+            }
+            final Solution[] solns = search == 2
+                    ? CubePruningDecoder.decode(src, pt, languageModel, 2, weights, 3, 1, beamSize, popLimit, null)
+                    : FidelDecoder.decode(src, pt, languageModel, 2, weights, 3, 1, beamSize, search == 1);
+            totalScore += solns[0].score();
+        }
+        final long time = System.nanoTime() - start;
+        return String.format("%-5s beam=%-3d pops=%-4s length=%-2d %.3fms per decode, mean score %.4f",
+                search == 0 ? "beam" : search == 1 ? "lazy" : "cube", beamSize, search == 2 ? Integer.toString(popLimit) : "-", length,
+                time / 1e6 / decodes, totalScore / decodes);
+    }
 
-                public Object2IntMap<String> wordMap() {
-                    throw new UnsupportedOperationException("Not supported yet.");
+    /**
+     * Compare cube pruning with the beam searches at equal beam sizes
+     */
+    public static void compareSearch() {
+        // The first run is a warm up
+        for (int run = 0; run < 2; run++) {
+            for (int length : new int[]{5, 10}) {
+                for (int beamSize : new int[]{20, 50}) {
+                    final String[] results = new String[]{
+                        timeSearch(0, beamSize, 0, length),
+                        timeSearch(1, beamSize, 0, length),
+                        timeSearch(2, beamSize, beamSize, length),
+                        timeSearch(2, beamSize, 4 * beamSize, length)
+                    };
+                    if (run == 1) {
+                        for (String result : results) {
+                            System.err.println(result);
+                        }
+                    }
                 }
-                
-                
             }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("-beam")) {
+            compareBeams();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-alloc")) {
+            measureAllocation();
+            return;
+        }
+        if (args.length > 0 && args[0].equals("-cube")) {
+            compareSearch();
+            return;
+        }
+        System.in.read();
+        for (int i = 0; i < 10000; i++) {
+            int[] src = randomSource(r);
+            Object2ObjectMap<Phrase, Collection<PhraseTranslation>> phraseTable = pt;
             int lmN = 2;
             double[] weights = new double[]{1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0};
             int distiortionLimit = 3;
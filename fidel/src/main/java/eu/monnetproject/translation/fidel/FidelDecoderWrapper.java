@@ -37,11 +37,7 @@ import eu.monnetproject.translation.Translation;
 import it.unimi.dsi.fastutil.doubles.DoubleRBTreeSet;
 import it.unimi.dsi.fastutil.doubles.DoubleSet;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntMaps;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import java.net.URI;
@@ -60,15 +56,18 @@ import java.util.TreeSet;
 public class FidelDecoderWrapper implements Decoder {
 
     private final IntegerLanguageModel languageModel;
-    private final Object2IntMap<String> srcWordMap, trgWordMap;
-    private final Int2ObjectMap<String> srcInvMap, invWordMap;
+    private final Object2IntMap<String> trgWordMap;
+    private final Int2ObjectMap<String> invWordMap;
+    // Source words are stored as negative ids in solutions, so start at 1
+    private final Vocabulary srcVocab = new Vocabulary(1);
     private final int distortionLimit = Integer.parseInt(System.getProperty("distortionlimit", "5"));
+    // If positive, search by cube pruning with this many language model
+    // evaluations per stack, instead of the (lazy) beam search
+    private final int popLimit = Integer.parseInt(System.getProperty("fidel.poplimit", "0"));
     private final DecoderWeights weights;
 
     public FidelDecoderWrapper(IntegerLanguageModel languageModel, DecoderWeights weights) {
         this.languageModel = languageModel;
-        this.srcWordMap = Object2IntMaps.synchronize(new Object2IntOpenHashMap<String>());
-        this.srcInvMap = Int2ObjectMaps.synchronize(new Int2ObjectOpenHashMap<String>());
         this.trgWordMap = languageModel.wordMap();
         this.invWordMap = languageModel.invWordMap();
         this.weights = weights;
@@ -84,12 +83,52 @@ public class FidelDecoderWrapper implements Decoder {
         return decode(phrase, phraseTable, featureNames, nBest, 20, true);
     }
 
+    @Override
+    public List<List<Translation>> decodeBatch(List<List<String>> phrases, List<PhraseTable> phraseTables, List<String> featureNames, int nBest) {
+        return decodeBatch(phrases, phraseTables, featureNames, nBest, 50, false);
+    }
+
+    @Override
+    public List<List<Translation>> decodeBatchFast(List<List<String>> phrases, List<PhraseTable> phraseTables, List<String> featureNames, int nBest) {
+        return decodeBatch(phrases, phraseTables, featureNames, nBest, 20, true);
+    }
+
     private List<Translation> decode(List<String> phrase, PhraseTable phraseTable, List<String> featureNames, int nBest, int beamSize, boolean useLazy) {
-        FidelDecoder.wordMap = invWordMap;
-        FidelDecoder.srcWordMap = srcWordMap;
+        return decode(phrase, phraseTable, featureNames, nBest, beamSize, useLazy, featureWeights(featureNames), languageModel);
+    }
+
+    private List<List<Translation>> decodeBatch(List<List<String>> phrases, List<PhraseTable> phraseTables, List<String> featureNames, int nBest, int beamSize, boolean useLazy) {
+        if (phrases.size() != phraseTables.size()) {
+            throw new IllegalArgumentException("Batch has " + phrases.size() + " phrases but " + phraseTables.size() + " phrase tables");
+        }
+        // Weights and language model queries are shared by every phrase in the batch
+        final double[] wts = featureWeights(featureNames);
+        final IntegerLanguageModel batchLM = new CachingIntegerLanguageModel(languageModel);
+        final List<List<Translation>> translations = new ArrayList<List<Translation>>(phrases.size());
+        for (int i = 0; i < phrases.size(); i++) {
+            translations.add(decode(phrases.get(i), phraseTables.get(i), featureNames, nBest, beamSize, useLazy, wts, batchLM));
+        }
+        return translations;
+    }
+
+    private List<Translation> decode(List<String> phrase, PhraseTable phraseTable, List<String> featureNames, int nBest, int beamSize, boolean useLazy, double[] wts, IntegerLanguageModel lm) {
         int[] src = convertPhrase(phrase);
         Object2ObjectMap<Phrase, Collection<PhraseTranslation>> pt = convertPT(phraseTable, trgWordMap, featureNames, beamSize+10);
-        int lmN = languageModel.order();
+        int lmN = lm.order();
+        final Solution[] translations = popLimit > 0
+                ? CubePruningDecoder.decode(src, pt, lm, lmN, wts, distortionLimit, nBest, beamSize, popLimit, invWordMap)
+                : FidelDecoder.decode(src, pt, lm, lmN, wts, distortionLimit, nBest, beamSize, useLazy, invWordMap);
+        final StringBuilder sb = new StringBuilder();
+        for (String w : phrase) {
+            if (sb.length() != 0) {
+                sb.append(" ");
+            }
+            sb.append(w);
+        }
+        return convertTranslations(translations, new StringLabel(sb.toString(), phraseTable.getForeignLanguage()), phraseTable.getTranslationLanguage(), featureNames);
+    }
+
+    private double[] featureWeights(List<String> featureNames) {
         double[] wts = new double[featureNames.size() + FidelDecoder.PT];
         int i = FidelDecoder.PT;
         //wts[FidelDecoder.UNK] = -100 * (weights.containsKey("UnknownWord") ? weights.get("UnknownWord") : 1.0);
@@ -100,33 +139,26 @@ public class FidelDecoderWrapper implements Decoder {
             wts[i++] = weights.containsKey(feat) ? weights.get(feat)
                     : (weights.containsKey("TM:" + feat) ? weights.get("TM:" + feat) : 0);
         }
-        final Solution[] translations = FidelDecoder.decode(src, pt, languageModel, lmN, wts, distortionLimit, nBest, beamSize, useLazy);
-        final StringBuilder sb = new StringBuilder();
-        for (String w : phrase) {
-            if (sb.length() != 0) {
-                sb.append(" ");
-            }
-            sb.append(w);
-        }
-        return convertTranslations(translations, new StringLabel(sb.toString(), phraseTable.getForeignLanguage()), phraseTable.getTranslationLanguage(), featureNames);
+        return wts;
     }
 
     private int[] convertPhrase(List<String> phrase) {
         final int[] p = new int[phrase.size()];
         int i = 0;
-        int W = srcWordMap.size();
         for (String s : phrase) {
-            if (srcWordMap.containsKey(s)) {
-                p[i++] = srcWordMap.getInt(s);
-            } else {
-                p[i++] = ++W;
-                srcWordMap.put(s, W);
-                srcInvMap.put(W, s);
-            }
+            p[i++] = srcVocab.id(s);
         }
         return p;
     }
 
+    private Phrase convertSrcPhrase(String[] phrase) {
+        final int[] p = new int[phrase.length];
+        for (int i = 0; i < phrase.length; i++) {
+            p[i] = srcVocab.id(phrase[i]);
+        }
+        return new Phrase(p);
+    }
+
     private Phrase convertPhrase(String[] phrase, Object2IntMap<String> dict) {
         final int[] p = new int[phrase.length];
         int i = 0;
@@ -136,10 +168,6 @@ public class FidelDecoderWrapper implements Decoder {
                 p[i++] = dict.getInt(s);
             } else {
                 p[i++] = ++W;
-                if (srcWordMap == dict) {
-                    dict.put(s, W);
-                    srcInvMap.put(W, s);
-                }
             }
         }
         return new Phrase(p);
@@ -149,10 +177,10 @@ public class FidelDecoderWrapper implements Decoder {
         final Object2ObjectOpenHashMap<Phrase, Collection<PhraseTranslation>> pt = new Object2ObjectOpenHashMap<Phrase, Collection<PhraseTranslation>>();
         final Object2ObjectOpenHashMap<Phrase, DoubleRBTreeSet> approxScores = new Object2ObjectOpenHashMap<Phrase, DoubleRBTreeSet>();
         for (PhraseTableEntry pte : phraseTable) {
-            final Phrase src;// = convertPhrase(FairlyGoodTokenizer.split(pte.getForeign().asString()), srcWordMap);
+            final Phrase src;
             final Phrase trg;// = convertPhrase(FairlyGoodTokenizer.split(pte.getTranslation().asString()), trgDict);
 
-            src = convertPhrase(FairlyGoodTokenizer.split(pte.getForeign().asString()), srcWordMap);
+            src = convertSrcPhrase(FairlyGoodTokenizer.split(pte.getForeign().asString()));
             if (maxSize > 0) {
                 if (!approxScores.containsKey(src)) {
                     approxScores.put(src, new DoubleRBTreeSet());
@@ -194,7 +222,7 @@ public class FidelDecoderWrapper implements Decoder {
                 i++;
             }
             if (soln != null) {
-                converted.add(new TranslationImpl(soln, srcLabel, trgLang, invWordMap, srcInvMap, features));
+                converted.add(new TranslationImpl(soln, srcLabel, trgLang, invWordMap, srcVocab, features));
             }
         }
         return converted;
@@ -221,7 +249,7 @@ public class FidelDecoderWrapper implements Decoder {
         final Label trgLabel;
         final Feature[] features;
 
-        public TranslationImpl(Solution solution, Label srcLabel, Language trgLang, Int2ObjectMap<String> invMap, Int2ObjectMap<String> srcInvMap, Feature[] features) {
+        public TranslationImpl(Solution solution, Label srcLabel, Language trgLang, Int2ObjectMap<String> invMap, Vocabulary srcVocab, Feature[] features) {
             this.solution = solution;
             this.srcLabel = srcLabel;
             this.features = features;
@@ -233,7 +261,7 @@ public class FidelDecoderWrapper implements Decoder {
                 if (w >= 0) {
                     sb.append(invMap.get(w));
                 } else {
-                    sb.append(srcInvMap.get(-w));
+                    sb.append(srcVocab.word(-w));
                 }
             }
             this.trgLabel = new StringLabel(sb.toString(), trgLang);
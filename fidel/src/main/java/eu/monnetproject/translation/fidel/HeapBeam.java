@@ -0,0 +1,269 @@
+/**
+ * *******************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.fidel;
+
+import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A bounded beam stored as a min-max heap in an array, so that both the best
+ * and the worst solution can be found in constant time and removed in
+ * logarithmic time. Each slot carries the removal listener of its solution,
+ * so the listener is called directly when the solution leaves the beam.
+ * Solutions that are equal are only added once, as in {@link Beam}.
+ *
+ * @author John McCrae
+ */
+public class HeapBeam {
+
+    private final int beamSize;
+    private Solution[] heap;
+    private Beam.RemovalListener[] listeners;
+    private int size = 0;
+    private final ObjectOpenHashSet<Solution> members = new ObjectOpenHashSet<Solution>();
+
+    public HeapBeam(int beamSize) {
+        if (beamSize <= 0) {
+            throw new IllegalArgumentException("Beam size must be positive");
+        }
+        this.beamSize = beamSize;
+        final int capacity = Math.min(beamSize, 64);
+        this.heap = new Solution[capacity];
+        this.listeners = new Beam.RemovalListener[capacity];
+    }
+
+    public int beamSize() {
+        return beamSize;
+    }
+
+    /**
+     * Remove all solutions, without calling their listeners
+     */
+    public void clear() {
+        Arrays.fill(heap, 0, size, null);
+        Arrays.fill(listeners, 0, size, null);
+        size = 0;
+        members.clear();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isFull() {
+        return size == beamSize;
+    }
+
+    /**
+     * The best solution in the beam
+     */
+    public Solution first() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return heap[0];
+    }
+
+    /**
+     * Remove and return the best solution in the beam
+     */
+    public Solution poll() {
+        final Solution rval = first();
+        removeAt(0);
+        return rval;
+    }
+
+    public double leastScore() {
+        return isEmpty() ? Double.NEGATIVE_INFINITY : heap[worst()].score();
+    }
+
+    public double bestScore() {
+        return isEmpty() ? Double.POSITIVE_INFINITY : heap[0].score();
+    }
+
+    public boolean add(Solution k) {
+        return add(k, null);
+    }
+
+    /**
+     * Add a solution to the beam, removing the worst solution if the beam is
+     * full
+     *
+     * @param k The solution
+     * @param listener Called when this solution is removed from the beam (may
+     * be null)
+     * @return true if the solution was added
+     */
+    public boolean add(Solution k, Beam.RemovalListener listener) {
+        if (size == beamSize) {
+            final int w = worst();
+            if (k.compareTo(heap[w]) >= 0 || members.contains(k)) {
+                return false;
+            }
+            removeAt(w);
+        } else if (members.contains(k)) {
+            return false;
+        }
+        if (size == heap.length) {
+            final int capacity = (int) Math.min((long) beamSize, 2l * heap.length);
+            heap = Arrays.copyOf(heap, capacity);
+            listeners = Arrays.copyOf(listeners, capacity);
+        }
+        members.add(k);
+        heap[size] = k;
+        listeners[size] = listener;
+        bubbleUp(size++);
+        return true;
+    }
+
+    /**
+     * The solutions in the beam, best first
+     */
+    public Solution[] toArray() {
+        final Solution[] solns = Arrays.copyOf(heap, size);
+        Arrays.sort(solns);
+        return solns;
+    }
+
+    // The best solution is at the root and the worst is one of its children
+    private int worst() {
+        if (size <= 2) {
+            return size - 1;
+        } else {
+            return heap[1].compareTo(heap[2]) >= 0 ? 1 : 2;
+        }
+    }
+
+    private void removeAt(int i) {
+        final Solution removed = heap[i];
+        final Beam.RemovalListener listener = listeners[i];
+        size--;
+        if (i < size) {
+            heap[i] = heap[size];
+            listeners[i] = listeners[size];
+            heap[size] = null;
+            listeners[size] = null;
+            // Only the root or its children are removed, so the moved
+            // solution need only be pushed down
+            trickleDown(i);
+        } else {
+            heap[size] = null;
+            listeners[size] = null;
+        }
+        members.remove(removed);
+        if (listener != null) {
+            listener.onRemove(removed);
+        }
+    }
+
+    private static boolean isMinLevel(int i) {
+        return (31 - Integer.numberOfLeadingZeros(i + 1)) % 2 == 0;
+    }
+
+    private boolean better(int i, int j) {
+        return heap[i].compareTo(heap[j]) < 0;
+    }
+
+    private void swap(int i, int j) {
+        final Solution s = heap[i];
+        heap[i] = heap[j];
+        heap[j] = s;
+        final Beam.RemovalListener l = listeners[i];
+        listeners[i] = listeners[j];
+        listeners[j] = l;
+    }
+
+    // Should i be nearer the root than j, on a best (resp. worst) level
+    private boolean above(int i, int j, boolean best) {
+        return best ? better(i, j) : better(j, i);
+    }
+
+    private void bubbleUp(int i) {
+        if (i == 0) {
+            return;
+        }
+        final int parent = (i - 1) / 2;
+        final boolean best = isMinLevel(i);
+        if (above(parent, i, best)) {
+            // i belongs on its parent's levels
+            swap(i, parent);
+            bubbleUp(parent, !best);
+        } else {
+            bubbleUp(i, best);
+        }
+    }
+
+    // Move i up through its grandparents, which are all best (resp. worst) nodes
+    private void bubbleUp(int i, boolean best) {
+        while (i > 2) {
+            final int grandparent = ((i - 1) / 2 - 1) / 2;
+            if (above(i, grandparent, best)) {
+                swap(i, grandparent);
+                i = grandparent;
+            } else {
+                break;
+            }
+        }
+    }
+
+    private void trickleDown(int i) {
+        final boolean best = isMinLevel(i);
+        while (true) {
+            final int child = 2 * i + 1;
+            if (child >= size) {
+                return;
+            }
+            // Find the best (resp. worst) of the children and grandchildren
+            int m = child;
+            if (child + 1 < size && above(child + 1, m, best)) {
+                m = child + 1;
+            }
+            for (int c = 2 * child + 1; c <= 2 * child + 4 && c < size; c++) {
+                if (above(c, m, best)) {
+                    m = c;
+                }
+            }
+            if (!above(m, i, best)) {
+                return;
+            }
+            swap(m, i);
+            if (m <= child + 1) {
+                return;
+            }
+            final int parent = (m - 1) / 2;
+            if (above(parent, m, best)) {
+                swap(m, parent);
+            }
+            i = m;
+        }
+    }
+}
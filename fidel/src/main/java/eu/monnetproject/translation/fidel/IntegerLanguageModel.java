@@ -26,6 +26,7 @@
  *********************************************************************************/
 package eu.monnetproject.translation.fidel;
 
+import eu.monnetproject.translation.LanguageModelState;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 
@@ -37,6 +38,22 @@ public interface IntegerLanguageModel {
 
     double[] get(Phrase phrase);
     
+    /**
+     * @return A state with no context
+     */
+    LanguageModelState newState();
+    
+    /**
+     * Score a word following a context, as {@link #get(Phrase)} would score 
+     * the n-gram ending at the word
+     * @param state The context
+     * @param word The word
+     * @param out A state (not the context) set to the context after the word
+     * @return The score, or negative infinity if there is none
+     * @see WindowLanguageModelState
+     */
+    double score(LanguageModelState state, int word, LanguageModelState out);
+    
     int order();
     
     Object2IntMap<String> wordMap();
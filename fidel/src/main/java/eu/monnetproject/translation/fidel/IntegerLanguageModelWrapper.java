@@ -26,7 +26,12 @@
  */
 package eu.monnetproject.translation.fidel;
 
+import eu.monnetproject.translation.IndexedLanguageModel;
 import eu.monnetproject.translation.LanguageModel;
+import eu.monnetproject.translation.LanguageModelState;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMaps;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
@@ -38,22 +43,35 @@ import java.util.List;
 import java.util.ListIterator;
 
 /**
+ * Wraps a language model for the decoder. If the model is an {@link 
+ * IndexedLanguageModel} the decoder shares the model's vocabulary ids and 
+ * queries are made directly on the ids (and may be made incrementally with
+ * the model's states), otherwise words are numbered as they are seen and 
+ * converted back to strings for each query.
  *
  * @author John McCrae
  */
 public class IntegerLanguageModelWrapper implements IntegerLanguageModel {
 
     private final LanguageModel languageModel;
-    private final Object2IntMap<String> wordMap = Object2IntMaps.synchronize(new WordMap());
+    private final IndexedLanguageModel indexedModel;
+    private final Object2IntMap<String> wordMap;
     private final Int2ObjectMap<String> invWordMap = Int2ObjectMaps.synchronize(new Int2ObjectOpenHashMap<String>());
+    // The id of the lower-cased form of each word that has one
+    private final Int2IntMap lowerCase = Int2IntMaps.synchronize(new Int2IntOpenHashMap());
     //private int W = 0;
 
     public IntegerLanguageModelWrapper(LanguageModel languageModel) {
         this.languageModel = languageModel;
+        this.indexedModel = languageModel instanceof IndexedLanguageModel ? (IndexedLanguageModel) languageModel : null;
+        this.wordMap = Object2IntMaps.synchronize(new WordMap());
     }
 
     @Override
     public double[] get(Phrase phrase) {
+        if (indexedModel != null) {
+            return getIndexed(phrase);
+        }
         final List<String> ls = new ArrayList<String>(phrase.p.length);
         for (int i = 0; i < phrase.n; i++) {
             ls.add(invWordMap.get(phrase.p[i + phrase.l]));
@@ -81,6 +99,50 @@ public class IntegerLanguageModelWrapper implements IntegerLanguageModel {
         }
     }
 
+    private double[] getIndexed(Phrase phrase) {
+        final double score = indexedModel.score(phrase.p, phrase.l, phrase.n);
+        if (Double.isInfinite(score) || Double.isNaN(score)) {
+            // Fallback case... try the lower-cased form
+            int[] lc = null;
+            for (int i = 0; i < phrase.n; i++) {
+                final int w = phrase.p[i + phrase.l];
+                if (lowerCase.containsKey(w)) {
+                    if (lc == null) {
+                        lc = new int[phrase.n];
+                        System.arraycopy(phrase.p, phrase.l, lc, 0, phrase.n);
+                    }
+                    lc[i] = lowerCase.get(w);
+                }
+            }
+            if (lc != null) {
+                return new double[]{indexedModel.score(lc, 0, lc.length)};
+            }
+        }
+        return new double[]{score};
+    }
+
+    @Override
+    public LanguageModelState newState() {
+        if (indexedModel != null) {
+            return indexedModel.newState();
+        } else {
+            return new WindowLanguageModelState(order());
+        }
+    }
+
+    @Override
+    public double score(LanguageModelState state, int word, LanguageModelState out) {
+        if (indexedModel == null) {
+            return WindowLanguageModelState.score(this, state, word, out);
+        }
+        final double score = indexedModel.score(state, word, out);
+        if ((Double.isInfinite(score) || Double.isNaN(score)) && lowerCase.containsKey(word)) {
+            return indexedModel.score(state, lowerCase.get(word), out);
+        } else {
+            return score;
+        }
+    }
+
     @Override
     public int order() {
         return languageModel.getOrder();
@@ -98,7 +160,7 @@ public class IntegerLanguageModelWrapper implements IntegerLanguageModel {
 
     private class WordMap extends Object2IntOpenHashMap<String> {
 
-        int W = 0;
+        int W = indexedModel == null ? 0 : indexedModel.maxWordId() + 1;
 
         @Override
         public boolean containsKey(Object k) {
@@ -110,6 +172,8 @@ public class IntegerLanguageModelWrapper implements IntegerLanguageModel {
             if (k instanceof String) {
                 if (super.containsKey((String) k)) {
                     return super.getInt(k);
+                } else if (indexedModel != null) {
+                    return intern((String) k);
                 } else {
                     synchronized(this) {
                         super.put((String) k, W);
@@ -122,6 +186,23 @@ public class IntegerLanguageModelWrapper implements IntegerLanguageModel {
             }
         }
 
+        private synchronized int intern(String k) {
+            if (super.containsKey(k)) {
+                return super.getInt(k);
+            }
+            int w = indexedModel.wordId(k);
+            if (w <= 0) {
+                w = W++;
+            }
+            super.put(k, w);
+            invWordMap.put(w, k);
+            final String lc = k.toLowerCase();
+            if (!lc.equals(k)) {
+                lowerCase.put(w, intern(lc));
+            }
+            return w;
+        }
+
         @Override
         public Integer get(Object ok) {
             return getInt(ok);
@@ -26,6 +26,7 @@
  */
 package eu.monnetproject.translation.fidel;
 
+import eu.monnetproject.translation.LanguageModelState;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import java.util.Arrays;
 
@@ -42,10 +43,10 @@ public class LazyDistortedSolution implements Solution, Beam.RemovalListener {
     private final double futureCost, ddScore, ptScore;
     private static final double LAZY_BONUS = 1.0;
     private final BufferCache bufferCache;
-    private final double[] features;
+    private final double[] weights;
 
     @SuppressWarnings("LeakingThisInConstructor")
-    public LazyDistortedSolution(PhraseTranslation candidate, SolutionImpl soln, int[] buf, int pos, int d, int j, double futureCost, double ddScore, double ptScore, double[] weights, BufferCache bufferCache, double[] features) {
+    public LazyDistortedSolution(PhraseTranslation candidate, SolutionImpl soln, int[] buf, int pos, int d, int j, double futureCost, double ddScore, double ptScore, double[] weights, BufferCache bufferCache) {
         this.candidate = candidate;
         this.soln = soln;
         this.buf = bufferCache.lock(this);
@@ -57,11 +58,22 @@ public class LazyDistortedSolution implements Solution, Beam.RemovalListener {
         this.ddScore = ddScore;
         this.ptScore = ptScore;
         this.bufferCache = bufferCache;
-        this.features = features;
+        this.weights = weights;
     }
     
-    public SolutionImpl evaluate(double[] weights, IntegerLanguageModel languageModel, int lmN) {
-        double tptScore = tryPutTranslation(candidate, weights, buf, pos, languageModel, lmN, d);
+    public SolutionImpl evaluate(double[] weights, IntegerLanguageModel languageModel, int lmN, LanguageModelState[] lmScratch, double[] scoreScratch) {
+        final double tptScore;
+        final LanguageModelState lmState;
+        if (d == 0) {
+            lmState = candidate.words.length == 0 ? soln.lmState : languageModel.newState();
+            final double[] appendScore = FidelDecoder.appendTranslation(candidate, weights, buf, pos, 
+                    FidelDecoder.lmState(soln, languageModel, lmN), lmScratch, lmState, languageModel, scoreScratch);
+            final double lmScore = weights[FidelDecoder.LM] * appendScore[1 + FidelDecoder.LM];
+            tptScore = Double.isNaN(lmScore) ? Double.NEGATIVE_INFINITY : lmScore;
+        } else {
+            lmState = null;
+            tptScore = tryPutTranslation(candidate, weights, buf, pos, languageModel, lmN, d);
+        }
         // Get the score of the solution
         final double score = tptScore
                 + soln.score
@@ -73,9 +85,10 @@ public class LazyDistortedSolution implements Solution, Beam.RemovalListener {
             return null;
         }
 
+        final double[] features = features();
         features[FidelDecoder.LM] += tptScore / weights[FidelDecoder.LM];
         
-        return new SolutionImpl(j, Arrays.copyOfRange(buf, 0, pos + candidate.words.length), FidelDecoder.recalcDist(soln.dist, candidate.words.length, d), score, futureCost,features);
+        return new SolutionImpl(j, Arrays.copyOfRange(buf, 0, pos + candidate.words.length), FidelDecoder.recalcDist(soln.dist, candidate.words.length, d), score, futureCost,features, lmState);
     }
 
     public static double tryPutTranslation(PhraseTranslation pt, double[] weights,
@@ -89,7 +102,8 @@ public class LazyDistortedSolution implements Solution, Beam.RemovalListener {
             score -= weights[FidelDecoder.LM] * FidelDecoder.lmScore(buf, pos - i, languageModel, lmN, weights[FidelDecoder.UNK]);
         }
         // shift the n-grams
-        FidelDecoder.rightShiftBuffer(buf, pt.words.length, pos - dist);
+        // Only the solution is kept, so the rest of the buffer need not be shifted
+        FidelDecoder.rightShiftBuffer(buf, pt.words.length, pos - dist, pos + pt.words.length);
 
         //for (int w : pt.p) {
         for (int i = 0; i < pt.words.length; i++) {
@@ -126,6 +140,12 @@ public class LazyDistortedSolution implements Solution, Beam.RemovalListener {
 
     @Override
     public double[] features() {
+        // Only created when needed, as most lazy solutions are never evaluated
+        final double[] features = Arrays.copyOf(soln.features, soln.features.length);
+        features[FidelDecoder.DIST] += ddScore / weights[FidelDecoder.DIST];
+        for (int k = 0; k < candidate.scores.length; k++) {
+            features[FidelDecoder.PT + k] += candidate.scores[k];
+        }
         return features;
     }
     
@@ -0,0 +1,80 @@
+/*********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.fidel;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The translation options of every span of a source sentence that the decoder
+ * may expand, looked up once per sentence. As in the decoder, a span of more
+ * than one word is only considered if all shorter spans from the same start
+ * have options.
+ *
+ * @author John McCrae
+ */
+public class OptionGrid {
+
+    // options[i][k] are the options for src[i, i + k + 1), or null if none
+    private final Collection<PhraseTranslation>[][] options;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public OptionGrid(int[] src, Object2ObjectMap<Phrase, Collection<PhraseTranslation>> phraseTable) {
+        // Arrays of a generic type can only be created raw
+        this.options = new Collection[src.length][];
+        final Collection<PhraseTranslation>[] row = new Collection[src.length];
+        for (int i = 0; i < src.length; i++) {
+            int n = 0;
+            for (int j = i + 1; j <= src.length; j++) {
+                final Collection<PhraseTranslation> candidates = phraseTable.get(new Phrase(src, i, j - i));
+                if (candidates == null || candidates.isEmpty()) {
+                    if (j == i + 1) {
+                        row[n++] = null;
+                        continue;
+                    } else {
+                        break;
+                    }
+                }
+                row[n++] = candidates;
+            }
+            options[i] = Arrays.copyOf(row, n);
+        }
+    }
+
+    /**
+     * Get the translation options of a span
+     *
+     * @param i The start of the span
+     * @param j The end of the span (exclusive)
+     * @return The options or null if there are none or the span is not
+     * considered
+     */
+    public Collection<PhraseTranslation> get(int i, int j) {
+        final int k = j - i - 1;
+        return k < options[i].length ? options[i][k] : null;
+    }
+}
@@ -26,6 +26,7 @@
  */
 package eu.monnetproject.translation.fidel;
 
+import eu.monnetproject.translation.LanguageModelState;
 import java.util.Arrays;
 import static eu.monnetproject.translation.fidel.MurmurHash.*;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
@@ -42,8 +43,14 @@ public class SolutionImpl implements Solution {
     public final double score;
     public final double futureCost;
     public final double[] features;
+    /** The language model state at the end of the solution, or null if not yet known **/
+    LanguageModelState lmState;
 
     public SolutionImpl(int upto, int[] soln, int[] dist, double score, double futureCost, double[] features) {
+        this(upto, soln, dist, score, futureCost, features, null);
+    }
+
+    public SolutionImpl(int upto, int[] soln, int[] dist, double score, double futureCost, double[] features, LanguageModelState lmState) {
         assert (soln.length == dist.length);
         assert (futureCost >= score);
         this.upto = upto;
@@ -52,6 +59,7 @@ public class SolutionImpl implements Solution {
         this.score = score;
         this.futureCost = futureCost;
         this.features = features;
+        this.lmState = lmState;
     }
 
     @Override
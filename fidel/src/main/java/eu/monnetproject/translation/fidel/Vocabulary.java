@@ -0,0 +1,133 @@
+/*********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.fidel;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe mapping of words to ids, which may be shared by any number
+ * of decodes without locking. Ids are minted from an atomic counter, so if
+ * two threads intern the same new word at once, one id is wasted. The words
+ * of the ids are stored in pages that are created on demand, and an id is
+ * only returned after its word is stored.
+ *
+ * @author John McCrae
+ */
+public class Vocabulary {
+
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    /** The greatest number of ids that may be minted */
+    public static final int MAX_IDS = 1 << 24;
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private final AtomicInteger next;
+    private final AtomicReferenceArray<String[]> pages = new AtomicReferenceArray<String[]>(MAX_IDS >>> PAGE_BITS);
+
+    /**
+     * Create a vocabulary whose first id is 1
+     */
+    public Vocabulary() {
+        this(1);
+    }
+
+    /**
+     * Create a vocabulary
+     *
+     * @param firstId The first id to give to a word
+     */
+    public Vocabulary(int firstId) {
+        if (firstId < 0) {
+            throw new IllegalArgumentException("Ids must be non-negative");
+        }
+        this.next = new AtomicInteger(firstId);
+    }
+
+    /**
+     * Get the id of a word, giving it a new id if it does not have one
+     *
+     * @param word The word
+     * @return The id
+     */
+    public int id(String word) {
+        final Integer id = ids.get(word);
+        if (id != null) {
+            return id;
+        }
+        final int newId = next.getAndIncrement();
+        if (newId < 0 || newId >= MAX_IDS) {
+            throw new IllegalStateException("Vocabulary is full");
+        }
+        // Store the word first, so that the id is never seen without it
+        page(newId)[newId & PAGE_MASK] = word;
+        final Integer previous = ids.putIfAbsent(word, newId);
+        return previous == null ? newId : previous;
+    }
+
+    /**
+     * Get the id of a word
+     *
+     * @param word The word
+     * @return The id or -1 if the word has no id
+     */
+    public int get(String word) {
+        final Integer id = ids.get(word);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get the word of an id
+     *
+     * @param id The id, as returned by {@link #id(java.lang.String)}
+     * @return The word or null if this is not an id of this vocabulary
+     */
+    public String word(int id) {
+        if (id < 0 || id >= MAX_IDS) {
+            return null;
+        }
+        final String[] page = pages.get(id >>> PAGE_BITS);
+        return page == null ? null : page[id & PAGE_MASK];
+    }
+
+    /**
+     * The number of words in the vocabulary
+     */
+    public int size() {
+        return ids.size();
+    }
+
+    private String[] page(int id) {
+        final int p = id >>> PAGE_BITS;
+        String[] page = pages.get(p);
+        if (page == null) {
+            pages.compareAndSet(p, null, new String[PAGE_SIZE]);
+            page = pages.get(p);
+        }
+        return page;
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.fidel;
+
+import eu.monnetproject.translation.LanguageModelState;
+
+/**
+ * A language model state that is simply the last words of the context. This
+ * is used for models that can only score whole n-grams, each word is scored
+ * by one query of the n-gram ending at it.
+ *
+ * @author John McCrae
+ */
+public final class WindowLanguageModelState implements LanguageModelState {
+
+    // The context (oldest first) with room for the scored word
+    private final int[] words;
+    private int length;
+
+    public WindowLanguageModelState(int order) {
+        this.words = new int[Math.max(order, 1)];
+    }
+
+    /**
+     * Score a word following a window state
+     *
+     * @param languageModel The model to query
+     * @param state The context, a window state
+     * @param word The word
+     * @param out The state to set to the context following the word
+     * @return The score, or negative infinity if the model has no score
+     */
+    public static double score(IntegerLanguageModel languageModel, LanguageModelState state, int word, LanguageModelState out) {
+        final WindowLanguageModelState in = (WindowLanguageModelState) state;
+        final WindowLanguageModelState o = (WindowLanguageModelState) out;
+        if (in == o) {
+            throw new IllegalArgumentException("Output state must not be the input state");
+        }
+        System.arraycopy(in.words, 0, o.words, 0, in.length);
+        o.words[in.length] = word;
+        final double[] p = languageModel.get(new Phrase(o.words, 0, in.length + 1));
+        if (in.length + 1 < o.words.length) {
+            o.length = in.length + 1;
+        } else {
+            System.arraycopy(o.words, 1, o.words, 0, in.length);
+            o.length = in.length;
+        }
+        return p == null ? Double.NEGATIVE_INFINITY : p[0];
+    }
+
+    @Override
+    public int hashCode() {
+        return MurmurHash.hash32(words, 0, length);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof WindowLanguageModelState)) {
+            return false;
+        }
+        final WindowLanguageModelState other = (WindowLanguageModelState) obj;
+        if (length != other.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (words[i] != other.words[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
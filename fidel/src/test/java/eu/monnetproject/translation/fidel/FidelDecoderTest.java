@@ -1,5 +1,6 @@
 package eu.monnetproject.translation.fidel;
 
+import eu.monnetproject.translation.LanguageModelState;
 import eu.monnetproject.translation.fidel.FidelDecoder;
 import eu.monnetproject.translation.fidel.IntegerLanguageModel;
 import eu.monnetproject.translation.fidel.Phrase;
@@ -294,6 +295,40 @@ public class FidelDecoderTest extends TestCase {
         }
     }
 
+    public void testDecodeWithCachingLanguageModel() {
+        System.out.println("decodeWithCachingLanguageModel");
+        int[] src = {0, 1, 2, 3, 4, 5};
+        int lmN = 2;
+        double[] weights = new double[]{1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0};
+        Solution[] expected = FidelDecoder.decode(src, pt, lm, lmN, weights, 3, 1, 1000, false);
+        final CachingIntegerLanguageModel cachingLM = new CachingIntegerLanguageModel(lm);
+        for (int i = 0; i < 2; i++) {
+            Solution[] result = FidelDecoder.decode(src, pt, cachingLM, lmN, weights, 3, 1, 1000, false);
+            assertArrayEquals(expected[0].soln(), result[0].soln());
+            assertEquals(expected[0].score(), result[0].score(), 0.0001);
+        }
+    }
+
+    public void testDecodeCubePruning() {
+        System.out.println("decodeCubePruning");
+        int[] src = {0, 1, 2, 3, 4, 5};
+        int lmN = 2;
+        double[] weights = new double[]{1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0, 1.0};
+        Solution[] expected = FidelDecoder.decode(src, pt, lm, lmN, weights, 3, 1, 1000, false);
+        // Without pruning, every solution is found
+        Solution[] best = CubePruningDecoder.decode(src, pt, lm, lmN, weights, 3, 1, 1000, 100000, null);
+        assertEquals(1, best.length);
+        assertTrue(best[0].score() >= expected[0].score() - 0.0001);
+        double scoreFromFeats = 0.0;
+        for (int i = 0; i < weights.length; i++) {
+            scoreFromFeats += best[0].features()[i];
+        }
+        assertEquals(best[0].score(), scoreFromFeats, 0.0001);
+        Solution[] result = CubePruningDecoder.decode(src, pt, lm, lmN, weights, 3, 5, 5, 5, null);
+        assertTrue(result.length > 0);
+        assertTrue(result[0].score() <= best[0].score() + 0.0001);
+    }
+
     public void testHash() {
         final HashSet<Phrase> hs = new HashSet<Phrase>();
         hs.add(new Phrase(new int[]{1, 2}));
@@ -343,6 +378,17 @@ public class FidelDecoderTest extends TestCase {
         Assert.assertArrayEquals(new int[]{7, 9, 9}, buf2);
     }
 
+    /**
+     * Test of rightShiftBuffer method with an end, of class FidelDecoder.
+     */
+    @Test
+    public void testRightShiftBufferEnd() {
+        System.out.println("rightShiftBufferEnd");
+        int[] buf = {1, 2, 3, 4, 5, 6, 7, 0, 0, 0, 0};
+        FidelDecoder.rightShiftBuffer(buf, 2, 5, 9);
+        Assert.assertArrayEquals(new int[]{1, 2, 3, 4, 5, 6, 5, 6, 7, 0, 0}, buf);
+    }
+
     /**
      * Test of leftShiftBuffer method, of class FidelDecoder.
      */
@@ -444,6 +490,14 @@ public class FidelDecoderTest extends TestCase {
             return 2;
         }
 
+        public LanguageModelState newState() {
+            return new WindowLanguageModelState(order());
+        }
+
+        public double score(LanguageModelState state, int word, LanguageModelState out) {
+            return WindowLanguageModelState.score(this, state, word, out);
+        }
+
         public Object2IntMap<String> wordMap() {
             throw new UnsupportedOperationException("Not supported yet.");
         }
@@ -0,0 +1,123 @@
+package eu.monnetproject.translation.fidel;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class HeapBeamTest {
+
+    private static final Random r = new Random();
+
+    /**
+     * Test of add method, of class HeapBeam.
+     */
+    @Test
+    public void testAdd() {
+        System.out.println("add");
+        for (int beamSize : new int[]{1, 2, 3, 20, 100}) {
+            final TreeSet<Solution> solns = new TreeSet<Solution>();
+            final HeapBeam beam = new HeapBeam(beamSize);
+            for (int i = 0; i < 1000; i++) {
+                final Solution soln = randomSolution();
+                solns.add(soln);
+                beam.add(soln);
+                if (solns.size() > beamSize) {
+                    solns.remove(solns.last());
+                }
+                assertEquals(solns.size(), beam.size());
+                assertEquals(solns.first().score(), beam.bestScore(), 0.0);
+                assertEquals(solns.last().score(), beam.leastScore(), 0.0);
+            }
+            assertTrue(beam.isFull());
+            assertArrayEquals(solns.toArray(), beam.toArray());
+        }
+    }
+
+    /**
+     * Test of poll method, of class HeapBeam.
+     */
+    @Test
+    public void testPoll() {
+        System.out.println("poll");
+        final TreeSet<Solution> solns = new TreeSet<Solution>();
+        final HeapBeam beam = new HeapBeam(100);
+        for (int i = 0; i < 1000; i++) {
+            final Solution soln = randomSolution();
+            solns.add(soln);
+            beam.add(soln);
+            if (solns.size() > 100) {
+                solns.remove(solns.last());
+            }
+            if (i % 3 == 2) {
+                assertEquals(solns.pollFirst(), beam.poll());
+            }
+        }
+        final Iterator<Solution> expIter = solns.iterator();
+        while (expIter.hasNext()) {
+            assertEquals(expIter.next(), beam.poll());
+        }
+        assertTrue(beam.isEmpty());
+        assertEquals(Double.NEGATIVE_INFINITY, beam.leastScore(), 0.0);
+    }
+
+    /**
+     * Test that equal solutions are only added once
+     */
+    @Test
+    public void testDuplicates() {
+        System.out.println("duplicates");
+        final HeapBeam beam = new HeapBeam(2);
+        assertTrue(beam.add(new SolutionImpl(1, new int[]{1}, new int[]{0}, -1.0, -1.0, new double[0])));
+        assertFalse(beam.add(new SolutionImpl(1, new int[]{1}, new int[]{0}, -1.0, -1.0, new double[0])));
+        assertTrue(beam.add(new SolutionImpl(1, new int[]{2}, new int[]{0}, -1.0, -1.0, new double[0])));
+        assertEquals(2, beam.size());
+    }
+
+    /**
+     * Test that listeners are called when their solution leaves the beam
+     */
+    @Test
+    public void testRemovalListener() {
+        System.out.println("removalListener");
+        final List<Solution> removed = new ArrayList<Solution>();
+        final Beam.RemovalListener listener = new Beam.RemovalListener() {
+            @Override
+            public boolean onRemove(Solution soln) {
+                removed.add(soln);
+                return true;
+            }
+        };
+        final HeapBeam beam = new HeapBeam(2);
+        final Solution a = solution(-1.0), b = solution(-2.0), c = solution(-3.0), d = solution(-0.5);
+        beam.add(a, listener);
+        beam.add(b, listener);
+        assertFalse(beam.add(c, listener));
+        assertTrue(removed.isEmpty());
+        assertTrue(beam.add(d, listener));
+        assertEquals(1, removed.size());
+        assertSame(b, removed.get(0));
+        assertSame(d, beam.poll());
+        assertSame(d, removed.get(1));
+        beam.add(c);
+        assertSame(a, beam.poll());
+        assertSame(c, beam.poll());
+        assertEquals(3, removed.size());
+    }
+
+    private static Solution solution(double s) {
+        return new SolutionImpl(0, new int[0], new int[0], s, s, new double[0]);
+    }
+
+    private static Solution randomSolution() {
+        final double s = r.nextInt(500) / 500.0;
+        return new SolutionImpl(r.nextInt(3), new int[0], new int[0], s, s, new double[0]);
+    }
+}
@@ -0,0 +1,45 @@
+package eu.monnetproject.translation.fidel;
+
+import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class OptionGridTest {
+
+    /**
+     * Test of get method, of class OptionGrid.
+     */
+    @Test
+    public void testGet() {
+        System.out.println("get");
+        final Object2ObjectOpenHashMap<Phrase, Collection<PhraseTranslation>> pt = new Object2ObjectOpenHashMap<Phrase, Collection<PhraseTranslation>>();
+        final Collection<PhraseTranslation> a = Arrays.asList(new PhraseTranslation(new int[]{10}, new double[]{-1.0}));
+        final Collection<PhraseTranslation> ab = Arrays.asList(new PhraseTranslation(new int[]{11}, new double[]{-1.0}));
+        final Collection<PhraseTranslation> abc = Arrays.asList(new PhraseTranslation(new int[]{12}, new double[]{-1.0}));
+        final Collection<PhraseTranslation> cd = Arrays.asList(new PhraseTranslation(new int[]{13}, new double[]{-1.0}));
+        pt.put(new Phrase(new int[]{1}), a);
+        pt.put(new Phrase(new int[]{1, 2}), ab);
+        pt.put(new Phrase(new int[]{1, 2, 3}), abc);
+        pt.put(new Phrase(new int[]{3, 4}), cd);
+        pt.put(new Phrase(new int[]{2}), Collections.<PhraseTranslation>emptyList());
+        final OptionGrid grid = new OptionGrid(new int[]{1, 2, 3, 4, 1}, pt);
+        assertSame(a, grid.get(0, 1));
+        assertSame(ab, grid.get(0, 2));
+        assertSame(abc, grid.get(0, 3));
+        assertNull(grid.get(0, 4));
+        assertNull(grid.get(1, 2));
+        assertNull(grid.get(1, 3));
+        // An unknown word may still start a longer phrase
+        assertNull(grid.get(2, 3));
+        assertSame(cd, grid.get(2, 4));
+        assertNull(grid.get(2, 5));
+        assertSame(a, grid.get(4, 5));
+    }
+}
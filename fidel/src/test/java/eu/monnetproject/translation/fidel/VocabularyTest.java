@@ -0,0 +1,78 @@
+package eu.monnetproject.translation.fidel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class VocabularyTest {
+
+    /**
+     * Test of id method, of class Vocabulary.
+     */
+    @Test
+    public void testId() {
+        System.out.println("id");
+        final Vocabulary vocab = new Vocabulary();
+        assertEquals(1, vocab.id("das"));
+        assertEquals(2, vocab.id("ist"));
+        assertEquals(1, vocab.id("das"));
+        assertEquals(2, vocab.get("ist"));
+        assertEquals(-1, vocab.get("klein"));
+        assertEquals("das", vocab.word(1));
+        assertEquals("ist", vocab.word(2));
+        assertNull(vocab.word(3));
+        assertNull(vocab.word(-1));
+        assertEquals(2, vocab.size());
+        assertEquals(0, new Vocabulary(0).id("das"));
+    }
+
+    /**
+     * Test that threads interning the same words agree on their ids
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        System.out.println("concurrent");
+        final Vocabulary vocab = new Vocabulary();
+        final int words = 10000;
+        final int[][] ids = new int[8][words];
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < ids.length; t++) {
+            final int[] result = ids[t];
+            final int offset = t * 137;
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException x) {
+                        return;
+                    }
+                    for (int i = 0; i < words; i++) {
+                        final int w = (i + offset) % words;
+                        result[w] = vocab.id("w" + w);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(words, vocab.size());
+        for (int w = 0; w < words; w++) {
+            for (int t = 1; t < ids.length; t++) {
+                assertEquals(ids[0][w], ids[t][w]);
+            }
+            assertEquals("w" + w, vocab.word(ids[0][w]));
+        }
+    }
+}
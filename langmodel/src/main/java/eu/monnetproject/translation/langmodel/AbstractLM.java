@@ -26,6 +26,7 @@
  */
 package eu.monnetproject.translation.langmodel;
 
+import eu.monnetproject.translation.LanguageModelState;
 import eu.monnetproject.translation.monitor.Messages;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
@@ -49,6 +50,13 @@ public abstract class AbstractLM implements LanguageModelAndTrueCaser {
     protected final String UNK = "<UNK>";
     protected Object2IntMap<String> str2key = new Object2IntOpenHashMap<String>();
     protected int unkCode;
+    // The buffers of a look up, reused by each thread
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
 
     @Override
     public boolean isRelevantPrefix(List<String> tokens) {
@@ -59,9 +67,9 @@ public abstract class AbstractLM implements LanguageModelAndTrueCaser {
         if (n >= getOrder()) {
             return false;
         }
-        NGram key = toKey(tokens);
-        final double[] p = rawScore(n, key);
-        return p != null && p.length > 1 && !Double.isNaN(p[1]);
+        final NGram key = toKey(tokens);
+        final double[] p = scratch.get().scores;
+        return rawScore(key.data, key.offset, n, p) && !Double.isNaN(p[1]);
     }
 
     @Override
@@ -78,28 +86,115 @@ public abstract class AbstractLM implements LanguageModelAndTrueCaser {
         if (tokens.isEmpty()) {
             return Double.NaN;
         }
-        NGram key = toKey(tokens);
+        final NGram key = toKey(tokens);
+        return backoffScore(key.data, key.offset, n, scratch.get().scores);
+    }
 
-        final double[] p1 = rawScore(n, key);
-        if (p1 != null) {
-            return p1[0];
-        } else {
-            double score = 0.0;
-            while (n > 1) {
-                NGram left = key.dropRight();
-                final double[] p2 = rawScore(n - 1, left);
-                if (p2 != null && p2.length == 2) {
-                    score += Double.isNaN(p2[1]) ? 0.0 : p2[1];
-                }
-                key = key.dropLeft();
-                n--;
-                final double[] p3 = rawScore(n, key);
-                if (p3 != null) {
-                    return score + p3[0];
-                }
+    @Override
+    public int wordId(String token) {
+        return toKey(token, false);
+    }
+
+    @Override
+    public int maxWordId() {
+        // The ARPA reader numbers the vocabulary contiguously from 1
+        return str2key.size();
+    }
+
+    @Override
+    public double score(int[] ids, int offset, int length) {
+        final int order = getOrder();
+        if (length > order) {
+            offset += length - order;
+            length = order;
+        }
+        if (length <= 0) {
+            return Double.NaN;
+        }
+        final int maxWordId = maxWordId();
+        final Scratch s = scratch.get();
+        final int[] ng = s.ngram(length);
+        for (int i = 0; i < length; i++) {
+            final int w = ids[offset + i];
+            ng[i] = w > 0 && w <= maxWordId ? w : unkCode;
+        }
+        return backoffScore(ng, 0, length, s.scores);
+    }
+
+    /**
+     * Score the n-gram {@code ngram[offset..offset+n)}, backing off to shorter
+     * n-grams if it is not in the model
+     *
+     * @param p The array the look ups are made into
+     */
+    private double backoffScore(int[] ngram, int offset, int n, double[] p) {
+        if (rawScore(ngram, offset, n, p)) {
+            return p[0];
+        }
+        double score = 0.0;
+        while (n > 1) {
+            // The back-off of the context
+            if (rawScore(ngram, offset, n - 1, p) && !Double.isNaN(p[1])) {
+                score += p[1];
             }
+            offset++;
+            n--;
+            if (rawScore(ngram, offset, n, p)) {
+                return score + p[0];
+            }
+        }
+        return Double.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    public LanguageModelState newState() {
+        return new NGramState(getOrder());
+    }
+
+    @Override
+    public double score(LanguageModelState state, int word, LanguageModelState out) {
+        final NGramState in = (NGramState) state;
+        final NGramState o = (NGramState) out;
+        if (in == o) {
+            throw new IllegalArgumentException("Output state must not be the input state");
+        }
+        final int order = getOrder();
+        final int[] buf = o.buf;
+        // buf holds the context oldest first and the word last
+        buf[order - 1] = word > 0 && word <= maxWordId() ? word : unkCode;
+        for (int i = 0; i < in.length; i++) {
+            buf[order - 2 - i] = in.words[i];
+        }
+        double prob = Double.NEGATIVE_INFINITY;
+        int matched = 0;
+        final double[] p = o.scores;
+        for (int k = 1; k <= in.length + 1; k++) {
+            if (!rawScore(buf, order - k, k, p)) {
+                break;
+            }
+            prob = p[0];
+            if (k < order) {
+                o.backoff[k - 1] = Double.isNaN(p[1]) ? 0.0 : p[1];
+            }
+            matched = k;
+        }
+        if (matched == 0) {
+            o.length = 0;
             return Double.NEGATIVE_INFINITY;
         }
+        // Back off over the longer contexts, which the ARPA format guarantees
+        // are present only if their suffixes are
+        for (int c = matched; c <= in.length; c++) {
+            prob += in.backoff[c - 1];
+        }
+        o.length = Math.min(matched, order - 1);
+        if (o.length > 0) {
+            o.words[0] = buf[order - 1];
+            for (int i = 1; i < o.length; i++) {
+                o.words[i] = in.words[i - 1];
+            }
+        }
+        return prob;
     }
 
     @Override
@@ -178,30 +273,10 @@ public abstract class AbstractLM implements LanguageModelAndTrueCaser {
         if (tokens.isEmpty()) {
             return 0;
         }
-        NGram key = toKey(tokens);
+        final NGram key = toKey(tokens);
         final double mu = mean(n);
         final double si = sd(n);
-        final double[] ps = rawScore(n, key);
-        double p = Double.NEGATIVE_INFINITY;
-        if (ps != null) {
-            p = ps[0];
-        } else {
-            double score = 0.0;
-            while (n > 1) {
-                NGram left = key.dropRight();
-                final double[] p2 = rawScore(n - 1, left);
-                if (p2 != null && p2.length == 2) {
-                    score += Double.isNaN(p2[1]) ? 0.0 : p2[1];
-                }
-                key = key.dropLeft();
-                n--;
-                final double[] p3 = rawScore(n, key);
-                if (p3 != null) {
-                    p = score + p3[0];
-                    break;
-                }
-            }
-        }
+        final double p = backoffScore(key.data, key.offset, n, scratch.get().scores);
         final double ep = Math.exp(p);
         if (ep < mu - si * ONE_SD) {
             return 1;
@@ -241,19 +316,54 @@ public abstract class AbstractLM implements LanguageModelAndTrueCaser {
 
     protected abstract double[] rawScore(int n, NGram key);
 
+    /**
+     * Look up the n-gram {@code ngram[offset..offset+n)}, by default through
+     * a view of the array
+     */
+    protected double[] rawScore(int[] ngram, int offset, int n) {
+        return rawScore(n, new NGram(ngram, offset, n));
+    }
+
+    /**
+     * Look up the n-gram {@code ngram[offset..offset+n)} into an array, which
+     * models may implement without allocating
+     *
+     * @param scores Set to the probability and back-off (NaN if absent)
+     * @return true if the n-gram was found
+     */
+    protected boolean rawScore(int[] ngram, int offset, int n, double[] scores) {
+        final double[] p = rawScore(ngram, offset, n);
+        if (p == null) {
+            return false;
+        }
+        scores[0] = p[0];
+        scores[1] = p.length > 1 ? p[1] : Double.NaN;
+        return true;
+    }
+
     private double scoreNGram(final NGram nGram) {
-        NGram ng2 = nGram;
-        while (ng2.length() > 0) {
-            final double[] score = rawScore(ng2.length(), ng2);
-            if (score != null) {
-                return score[0];
-            } else {
-                ng2 = ng2.dropLeft();
+        final double[] p = scratch.get().scores;
+        for (int i = 0; i < nGram.length; i++) {
+            if (rawScore(nGram.data, nGram.offset + i, nGram.length - i, p)) {
+                return p[0];
             }
         }
         return Double.NEGATIVE_INFINITY;
     }
 
+    private static final class Scratch {
+
+        final double[] scores = new double[2];
+        private int[] ngram = new int[0];
+
+        int[] ngram(int n) {
+            if (ngram.length < n) {
+                ngram = new int[n];
+            }
+            return ngram;
+        }
+    }
+
     protected static class NGram implements Serializable/*, Comparable<NGram>*/ {
 
         private static final long serialVersionUID = -8900687174528824990L;
@@ -343,6 +453,52 @@ public abstract class AbstractLM implements LanguageModelAndTrueCaser {
         }
     }
 
+    /**
+     * The context of a query, as the last words (most recent first) and their
+     * back-off weights, such that {@code backoff[i]} is the back-off of the 
+     * (i+1)-gram ending at the most recent word
+     */
+    static final class NGramState implements LanguageModelState {
+
+        final int[] words;
+        final double[] backoff;
+        int length;
+        final int[] buf;
+        final double[] scores = new double[2];
+
+        public NGramState(int order) {
+            this.words = new int[Math.max(order - 1, 0)];
+            this.backoff = new double[Math.max(order - 1, 0)];
+            this.buf = new int[order];
+        }
+
+        @Override
+        public int hashCode() {
+            int hashCode = length;
+            for (int i = 0; i < length; i++) {
+                hashCode = 31 * hashCode + words[i];
+            }
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof NGramState)) {
+                return false;
+            }
+            final NGramState other = (NGramState) obj;
+            if (length != other.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (words[i] != other.words[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
     protected abstract static class ARPAReader {
 
         public Object2IntMap<String> str2key;
@@ -29,6 +29,7 @@ package eu.monnetproject.translation.langmodel;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
@@ -70,28 +71,39 @@ public class DirectDataMMap {
 
     private Map<RecordID, long[]> readMap(File base) throws IOException {
         final HashMap<RecordID, long[]> map = new HashMap<RecordID, long[]>();
-        final DataInputStream dis = new DataInputStream(new FileInputStream(new File(base.getPath() + ".map")));
-        while (dis.available() > 0) {
-            try {
-                int key = dis.readInt();
-                int n = dis.readInt();
-                long start = dis.readLong();
-                long end = dis.readLong();
-                map.put(new RecordID(n, key), new long[]{start, end});
-            } catch (EOFException x) {
-                break;
+        final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(base.getPath() + ".map"))));
+        try {
+            while (dis.available() > 0) {
+                try {
+                    int key = dis.readInt();
+                    int n = dis.readInt();
+                    long start = dis.readLong();
+                    long end = dis.readLong();
+                    map.put(new RecordID(n, key), new long[]{start, end});
+                } catch (EOFException x) {
+                    break;
+                }
             }
+        } finally {
+            dis.close();
         }
         return map;
     }
 
     public double[] rawScore(int[] key) {
-        final RecordID rid = new RecordID(key.length, key[0]);
+        return rawScore(key, 0, key.length);
+    }
+
+    /**
+     * Look up the n-gram {@code key[offset..offset+n)}
+     */
+    public double[] rawScore(int[] key, int offset, int n) {
+        final RecordID rid = new RecordID(n, key[offset]);
         final long[] l = dataLocMap.get(rid);
         if (l == null) {
             return null;
         }
-        final int rs = recordSize(key.length);
+        final int rs = recordSize(n);
         int mask = (int) (l[1] - l[0] - 1) / rs;
         try {
             //final byte[] data;
@@ -99,7 +111,7 @@ public class DirectDataMMap {
             //synchronized (this) {
             data = cache.get(rid);
             //}
-            return get(data, key, mask, rs);
+            return get(data, key, offset, n, mask, rs);
         } catch (ExecutionException x) {
             throw new RuntimeException(x);
         }
@@ -120,23 +132,14 @@ public class DirectDataMMap {
         return Double.longBitsToDouble(l);
     }
 
-    private int validateKey(ByteBuffer data, int pos, int[] k, int arrHash) {
-        if (data.get() == 0 && data.get() == 0 && data.get() == 0 && data.get() == 0) {
+    // Only absolute reads are used on the (shared) buffer, so that no thread
+    // changes its position and lookups need no lock
+    private int validateKey(ByteBuffer data, int pos, int[] k, int offset, int n) {
+        if (data.getInt(pos) == 0) {
             return -1;
-        } else {
-            data.position(pos);
         }
-        for (int i = 0; i < k.length; i++) {
-            if (data.get() != ((k[i] & 0xff000000) >>> 24)) {
-                return 0;
-            }
-            if (data.get() != ((k[i] & 0xff0000) >>> 16)) {
-                return 0;
-            }
-            if (data.get() != ((k[i] & 0xff00) >>> 8)) {
-                return 0;
-            }
-            if (data.get() != ((k[i] & 0xff))) {
+        for (int i = 0; i < n; i++) {
+            if (data.getInt(pos + 4 * i) != k[offset + i]) {
                 return 0;
             }
         }
@@ -164,29 +167,24 @@ public class DirectDataMMap {
 //        return 1;
 //    }
 
-    private double[] get(ByteBuffer data, int[] k, int mask, int rs) {
-        synchronized (data) { // Other threads can change the position of the buffer :(
-            int arrHash = MurmurHash.hash32(k);
-            int pos = (arrHash & mask) * rs;
-            data.position(pos);
-            int keyVal = validateKey(data, pos, k, arrHash);
-            pos += 4 * k.length;
-            while (keyVal >= 0) {
-                if (keyVal > 0) {
-                    double p = data.getDouble();//read(data, pos);
-                    double a = data.getDouble();//read(data, pos + 8);
-                    if (a != 0.0) {
-                        return new double[]{p, a};
-                    } else {
-                        return new double[]{p};
-                    }
+    private double[] get(ByteBuffer data, int[] k, int offset, int n, int mask, int rs) {
+        int arrHash = MurmurHash.hash32(k, offset, n);
+        int pos = (arrHash & mask) * rs;
+        int keyVal = validateKey(data, pos, k, offset, n);
+        while (keyVal >= 0) {
+            if (keyVal > 0) {
+                pos += 4 * n;
+                double p = data.getDouble(pos);
+                double a = data.getDouble(pos + 8);
+                if (a != 0.0) {
+                    return new double[]{p, a};
+                } else {
+                    return new double[]{p};
                 }
-                arrHash++;
-                pos = (arrHash & mask) * rs;
-                data.position(pos);
-                keyVal = validateKey(data, pos, k, arrHash);
-                pos += 4 * k.length;
             }
+            arrHash++;
+            pos = (arrHash & mask) * rs;
+            keyVal = validateKey(data, pos, k, offset, n);
         }
         return null;
     }
@@ -70,6 +70,19 @@ public class LMFactory implements LanguageModelFactory {
                             : "");
                     if (method.equals("mem")) {
                         lm = new MemoryLM(language, modelFile);
+                    } else if (method.equals("packed")) {
+                        final int bits;
+                        try {
+                            bits = Integer.parseInt(config.getProperty("bits", "16"));
+                        } catch (NumberFormatException x) {
+                            Messages.componentLoadFail(PackedLM.class, x);
+                            return null;
+                        }
+                        if (bits != 8 && bits != 16) {
+                            Messages.componentLoadFail(PackedLM.class, "Packed model must use 8 or 16 bits, not " + bits);
+                            return null;
+                        }
+                        lm = new PackedLM(language, modelFile, bits);
                     } else if (method.equals("mix") || method.equals("mixp")) {
                         if (!config.containsKey("lambda")) {
                             Messages.componentLoadFail(MixtureLM.class, "Mixture model must specify lambda parameter");
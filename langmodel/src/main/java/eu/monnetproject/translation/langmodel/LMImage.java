@@ -0,0 +1,349 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.langmodel;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.objects.AbstractObject2IntMap;
+import it.unimi.dsi.fastutil.objects.AbstractObjectIterator;
+import it.unimi.dsi.fastutil.objects.AbstractObjectSet;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.ObjectSet;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A memory-mapped image of the vocabulary, unigrams and per-order statistics
+ * of a language model. The image is opened without deserializing any per-entry
+ * objects, all lookups are absolute reads on the mapped file. The layout 
+ * (big-endian) is:
+ * <pre>
+ * int magic, int version, int order, int size, int maxId, int tableSize
+ * order * (double mean, double sd)
+ * (maxId + 1) * (double prob, double backoff)   (NaN if absent)
+ * tableSize * int                               (offset into pool or -1)
+ * size * (int id, int length, char[length])     (the pool)
+ * </pre>
+ * The table is an open-addressed (linear probing) hash table of the words
+ * in the pool.
+ *
+ * @author John McCrae
+ */
+public class LMImage {
+
+    public static final String SUFFIX = ".lmi";
+    public static final int MAGIC = 0x4c4d4931;
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private final MappedByteBuffer data;
+    private final int order, size, maxId, tableMask;
+    private final int statsOffset, unigramOffset, tableOffset, poolOffset;
+    private final Vocabulary vocabulary = new Vocabulary();
+
+    private LMImage(MappedByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a language model image");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException("Unsupported language model image version " + data.getInt(4));
+        }
+        this.order = data.getInt(8);
+        this.size = data.getInt(12);
+        this.maxId = data.getInt(16);
+        this.tableMask = data.getInt(20) - 1;
+        this.statsOffset = HEADER_SIZE;
+        this.unigramOffset = statsOffset + 16 * order;
+        this.tableOffset = unigramOffset + 16 * (maxId + 1);
+        this.poolOffset = tableOffset + 4 * (tableMask + 1);
+    }
+
+    /**
+     * Does an image exist for this model
+     *
+     * @param model The (ARPA) model file
+     */
+    public static boolean exists(File model) {
+        return file(model).exists();
+    }
+
+    private static File file(File model) {
+        return new File(model.getPath() + SUFFIX);
+    }
+
+    /**
+     * Map the image of a model
+     *
+     * @param model The (ARPA) model file
+     * @throws IOException If the image could not be read or is not valid
+     */
+    public static LMImage open(File model) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file(model), "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            return new LMImage(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            // The mapping remains valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Write the image of a model
+     *
+     * @param model The (ARPA) model file
+     * @param mus The mean score of each order
+     * @param sds The standard deviation of each order
+     * @param str2key The vocabulary
+     * @param unigrams The unigram scores by word id
+     */
+    public static void write(File model, double[] mus, double[] sds, Object2IntMap<String> str2key, Int2ObjectMap<double[]> unigrams) throws IOException {
+        if (mus.length != sds.length) {
+            throw new IllegalArgumentException("Statistics are not given for each order");
+        }
+        int maxId = 0;
+        for (Object2IntMap.Entry<String> e : str2key.object2IntEntrySet()) {
+            maxId = Math.max(maxId, e.getIntValue());
+        }
+        int tableSize = 1;
+        while (tableSize < 2 * str2key.size()) {
+            tableSize <<= 1;
+        }
+        final int[] table = new int[tableSize];
+        Arrays.fill(table, -1);
+        final String[] words = new String[str2key.size()];
+        int pos = 0, i = 0;
+        for (Object2IntMap.Entry<String> e : str2key.object2IntEntrySet()) {
+            final String word = e.getKey();
+            int slot = hash(word) & (tableSize - 1);
+            while (table[slot] >= 0) {
+                slot = (slot + 1) & (tableSize - 1);
+            }
+            table[slot] = pos;
+            words[i++] = word;
+            pos += 8 + 2 * word.length();
+        }
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file(model))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(mus.length);
+            out.writeInt(str2key.size());
+            out.writeInt(maxId);
+            out.writeInt(tableSize);
+            for (int n = 0; n < mus.length; n++) {
+                out.writeDouble(mus[n]);
+                out.writeDouble(sds[n]);
+            }
+            for (int w = 0; w <= maxId; w++) {
+                final double[] scores = unigrams.get(w);
+                out.writeDouble(scores == null ? Double.NaN : scores[0]);
+                out.writeDouble(scores == null || scores.length < 2 ? Double.NaN : scores[1]);
+            }
+            for (int slot : table) {
+                out.writeInt(slot);
+            }
+            for (String word : words) {
+                out.writeInt(str2key.getInt(word));
+                out.writeInt(word.length());
+                out.writeChars(word);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int hash(String word) {
+        int h = word.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+
+    /**
+     * The highest order for which statistics are stored
+     */
+    public int order() {
+        return order;
+    }
+
+    public double mean(int n) {
+        return data.getDouble(statsOffset + 16 * (n - 1));
+    }
+
+    public double sd(int n) {
+        return data.getDouble(statsOffset + 16 * (n - 1) + 8);
+    }
+
+    /**
+     * Get the score of a unigram
+     *
+     * @param w The word id
+     * @return The probability and (if present) back-off or null if the word
+     * has no unigram score
+     */
+    public double[] unigram(int w) {
+        final double p = unigramProb(w);
+        if (Double.isNaN(p)) {
+            return null;
+        }
+        final double a = unigramBackoff(w);
+        return Double.isNaN(a) ? new double[]{p} : new double[]{p, a};
+    }
+
+    /**
+     * Get the probability of a unigram
+     *
+     * @param w The word id
+     * @return The probability or NaN if the word has no unigram score
+     */
+    public double unigramProb(int w) {
+        if (w < 0 || w > maxId) {
+            return Double.NaN;
+        }
+        return data.getDouble(unigramOffset + 16 * w);
+    }
+
+    /**
+     * Get the back-off of a unigram
+     *
+     * @param w The word id
+     * @return The back-off or NaN if the word has no back-off
+     */
+    public double unigramBackoff(int w) {
+        if (w < 0 || w > maxId) {
+            return Double.NaN;
+        }
+        return data.getDouble(unigramOffset + 16 * w + 8);
+    }
+
+    /**
+     * The vocabulary as a (read-only) map view of the image
+     */
+    public Object2IntMap<String> vocabulary() {
+        return vocabulary;
+    }
+
+    private int find(String word) {
+        int slot = hash(word) & tableMask;
+        int offset;
+        while ((offset = data.getInt(tableOffset + 4 * slot)) >= 0) {
+            if (matches(poolOffset + offset, word)) {
+                return poolOffset + offset;
+            }
+            slot = (slot + 1) & tableMask;
+        }
+        return -1;
+    }
+
+    private boolean matches(int pos, String word) {
+        final int length = data.getInt(pos + 4);
+        if (length != word.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data.getChar(pos + 8 + 2 * i) != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String word(int pos) {
+        final char[] c = new char[data.getInt(pos + 4)];
+        for (int i = 0; i < c.length; i++) {
+            c[i] = data.getChar(pos + 8 + 2 * i);
+        }
+        return new String(c);
+    }
+
+    private class Vocabulary extends AbstractObject2IntMap<String> {
+
+        private static final long serialVersionUID = 6385174929347581245L;
+
+        @Override
+        public int getInt(Object key) {
+            if (!(key instanceof String)) {
+                return defRetValue;
+            }
+            final int pos = find((String) key);
+            return pos < 0 ? defRetValue : data.getInt(pos);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String && find((String) key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public ObjectSet<Object2IntMap.Entry<String>> object2IntEntrySet() {
+            return new AbstractObjectSet<Object2IntMap.Entry<String>>() {
+
+                @Override
+                public ObjectIterator<Object2IntMap.Entry<String>> iterator() {
+                    return new AbstractObjectIterator<Object2IntMap.Entry<String>>() {
+                        private int pos = poolOffset;
+
+                        @Override
+                        public boolean hasNext() {
+                            return pos < data.limit();
+                        }
+
+                        @Override
+                        public Object2IntMap.Entry<String> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            final Object2IntMap.Entry<String> e = new BasicEntry<String>(word(pos), data.getInt(pos));
+                            pos += 8 + 2 * data.getInt(pos + 4);
+                            return e;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+    }
+}
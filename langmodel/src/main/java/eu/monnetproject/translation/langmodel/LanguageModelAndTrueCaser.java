@@ -26,13 +26,13 @@
  *********************************************************************************/
 package eu.monnetproject.translation.langmodel;
 
-import eu.monnetproject.translation.LanguageModel;
+import eu.monnetproject.translation.IndexedLanguageModel;
 import eu.monnetproject.translation.TrueCaser;
 
 /**
  *
  * @author John McCrae
  */
-public interface LanguageModelAndTrueCaser extends LanguageModel, TrueCaser {
+public interface LanguageModelAndTrueCaser extends IndexedLanguageModel, TrueCaser {
 
 }
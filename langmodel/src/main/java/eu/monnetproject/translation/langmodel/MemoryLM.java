@@ -29,8 +29,8 @@ package eu.monnetproject.translation.langmodel;
 import eu.monnetproject.lang.Language;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 import java.io.File;
@@ -50,11 +50,11 @@ public class MemoryLM extends AbstractLM {
     private final Object2ObjectMap<NGram, float[]> map;
     private final Language language;
     private int order;
-    private final DoubleList mus = new DoubleArrayList(), sis = new DoubleArrayList();
+    private LMImage image;
 
     public MemoryLM(Language language, File model) throws IOException, ClassNotFoundException {
         this.language = language;
-        this.map = new File(model.getPath() + ".mem").exists() ? loadLM(model) : buildLM(model);
+        this.map = new File(model.getPath() + ".mem").exists() && LMImage.exists(model) ? loadLM(model) : buildLM(model);
         if (str2key.containsKey(UNK)) {
             unkCode = str2key.getInt(UNK);
         } else {
@@ -65,6 +65,9 @@ public class MemoryLM extends AbstractLM {
 
     @Override
     protected double[] rawScore(int n, NGram key) {
+        if (n == 1) {
+            return image.unigram(key.data(0));
+        }
         final float[] f = map.get(key);
         if (f == null) {
             return null;
@@ -99,19 +102,20 @@ public class MemoryLM extends AbstractLM {
 
     @Override
     protected double mean(int n) {
-        return (n > 0 && n <= mus.size()) ? mus.get(n-1) : Double.NEGATIVE_INFINITY;
+        return (n > 0 && n <= image.order()) ? image.mean(n) : Double.NEGATIVE_INFINITY;
     }
 
     @Override
     protected double sd(int n) {
-        return (n > 0 && n <= sis.size()) ? mus.get(n-1) : 0;
+        return (n > 0 && n <= image.order()) ? image.sd(n) : 0;
     }
 
-    @SuppressWarnings({"unchecked", "unchecked"})
+    @SuppressWarnings("unchecked")
     private Object2ObjectMap<NGram, float[]> loadLM(File model) throws IOException, ClassNotFoundException {
+        image = LMImage.open(model);
+        order = image.order();
+        str2key = image.vocabulary();
         final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(new File(model.getPath() + ".mem")));
-        order = ois.readInt();
-        str2key = (Object2IntMap<String>) ois.readObject();
         final Object2ObjectMap<NGram, float[]> map2 = (Object2ObjectMap<NGram, float[]>) ois.readObject();
         ois.close();
         return map2;
@@ -119,6 +123,8 @@ public class MemoryLM extends AbstractLM {
 
     private Object2ObjectMap<NGram, float[]> buildLM(File model) throws IOException {
         final Object2ObjectMap<NGram, float[]> map2 = new Object2ObjectOpenHashMap<NGram, float[]>();
+        final DoubleList mus = new DoubleArrayList(), sis = new DoubleArrayList();
+        final Int2ObjectMap<double[]> unigrams = new Int2ObjectOpenHashMap<double[]>();
         final ARPAReader reader = new ARPAReader() {
             @Override
             protected void prepare(int order) throws IOException {
@@ -126,6 +132,10 @@ public class MemoryLM extends AbstractLM {
 
             @Override
             protected void put(int[] ng, double[] scores) throws IOException {
+                if (ng.length == 1) {
+                    unigrams.put(ng[0], scores);
+                    return;
+                }
                 final float[] f = new float[scores.length];
                 for (int i = 0; i < scores.length; i++) {
                     f[i] = (float) scores[i];
@@ -150,11 +160,11 @@ public class MemoryLM extends AbstractLM {
             
         };
         reader.read(model);
-        this.str2key = reader.str2key;
         this.order = reader.order;
+        LMImage.write(model, mus.toDoubleArray(), sis.toDoubleArray(), reader.str2key, unigrams);
+        image = LMImage.open(model);
+        str2key = image.vocabulary();
         final ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(model.getPath() + ".mem"));
-        oos.writeInt(order);
-        oos.writeObject(str2key);
         oos.writeObject(map2);
         oos.flush();
         oos.close();
@@ -26,6 +26,8 @@
 package eu.monnetproject.translation.langmodel;
 
 import eu.monnetproject.lang.Language;
+import eu.monnetproject.translation.LanguageModelState;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import java.util.List;
 
 /**
@@ -35,6 +37,9 @@ import java.util.List;
 public class MixtureLM implements LanguageModelAndTrueCaser {
     private final AbstractLM lm1, lm2;
     private final double lambda;
+    // The mixture's ids are those of lm1, followed by the words only in lm2.
+    // lm2Ids maps the mixture's ids to lm2 and mixIds maps lm2's ids back
+    private final int[] lm2Ids, mixIds;
 
     public MixtureLM(AbstractLM lm1, AbstractLM lm2, double lambda) {
         assert(lm1.getLanguage().equals(lm2.getLanguage()));
@@ -42,6 +47,24 @@ public class MixtureLM implements LanguageModelAndTrueCaser {
         this.lm1 = lm1;
         this.lm2 = lm2;
         this.lambda = lambda;
+        final int max1 = lm1.maxWordId(), max2 = lm2.maxWordId();
+        this.mixIds = new int[max2 + 1];
+        int shared = 0;
+        for (Object2IntMap.Entry<String> e : lm1.str2key.object2IntEntrySet()) {
+            final int id2 = lm2.wordId(e.getKey());
+            if (id2 > 0) {
+                mixIds[id2] = e.getIntValue();
+                shared++;
+            }
+        }
+        this.lm2Ids = new int[max1 + max2 - shared + 1];
+        int w = max1;
+        for (int id2 = 1; id2 <= max2; id2++) {
+            if (mixIds[id2] == 0) {
+                mixIds[id2] = ++w;
+            }
+            lm2Ids[mixIds[id2]] = id2;
+        }
     }
     
     @Override
@@ -82,6 +105,10 @@ public class MixtureLM implements LanguageModelAndTrueCaser {
     public double score(List<String> tokens) {
         double p1 = lm1.score(tokens);
         double p2 = lm2.score(tokens);
+        return mix(p1, p2);
+    }
+
+    private double mix(double p1, double p2) {
         if(Double.isInfinite(p1) || Double.isNaN(p1)) {
             return p2;
         } else if(Double.isInfinite(p2) || Double.isNaN(p2)) {
@@ -91,6 +118,72 @@ public class MixtureLM implements LanguageModelAndTrueCaser {
         }
     }
 
+    @Override
+    public int wordId(String token) {
+        final int id1 = lm1.wordId(token);
+        if (id1 > 0) {
+            return id1;
+        }
+        final int id2 = lm2.wordId(token);
+        return id2 > 0 ? mixIds[id2] : -1;
+    }
+
+    @Override
+    public int maxWordId() {
+        return lm2Ids.length - 1;
+    }
+
+    @Override
+    public double score(int[] ids, int offset, int length) {
+        // Ids after lm1's vocabulary are unknown to lm1
+        double p1 = lm1.score(ids, offset, length);
+        final int[] ids2 = new int[length];
+        for (int i = 0; i < length; i++) {
+            final int w = ids[offset + i];
+            ids2[i] = w > 0 && w < lm2Ids.length ? lm2Ids[w] : -1;
+        }
+        double p2 = lm2.score(ids2, 0, length);
+        return mix(p1, p2);
+    }
+
+    @Override
+    public LanguageModelState newState() {
+        return new MixtureState(lm1.newState(), lm2.newState());
+    }
+
+    @Override
+    public double score(LanguageModelState state, int word, LanguageModelState out) {
+        final MixtureState in = (MixtureState) state;
+        final MixtureState o = (MixtureState) out;
+        double p1 = lm1.score(in.state1, word, o.state1);
+        double p2 = lm2.score(in.state2, word > 0 && word < lm2Ids.length ? lm2Ids[word] : -1, o.state2);
+        return mix(p1, p2);
+    }
+
+    private static final class MixtureState implements LanguageModelState {
+
+        final LanguageModelState state1, state2;
+
+        public MixtureState(LanguageModelState state1, LanguageModelState state2) {
+            this.state1 = state1;
+            this.state2 = state2;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * state1.hashCode() + state2.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof MixtureState)) {
+                return false;
+            }
+            final MixtureState other = (MixtureState) obj;
+            return state1.equals(other.state1) && state2.equals(other.state2);
+        }
+    }
+
     @Override
     public int quartile(List<String> tokens) {
         int q1 = lm1.quartile(tokens);
@@ -33,7 +33,10 @@ package eu.monnetproject.translation.langmodel;
 public class MurmurHash {
 
     public static int hash32(final int[] k) {
-        final int length = k.length;
+        return hash32(k, 0, k.length);
+    }
+
+    public static int hash32(final int[] k, final int offset, final int length) {
         final int seed = 0x9747b28c;
         final int m = 0x5bd1e995;
         final int r = 24;
@@ -42,7 +45,7 @@ public class MurmurHash {
         int h = seed ^ (length * 4);
 
         for (int i = 0; i < length; i++) {
-            int ki = k[i];
+            int ki = k[offset + i];
             ki *= m;
             ki ^= ki >>> r;
             ki *= m;
@@ -56,4 +59,29 @@ public class MurmurHash {
 
         return h;
     }
+
+    /**
+     * A 64-bit hash (after MurmurHash64A) of a range of an int array
+     */
+    public static long hash64(final int[] k, final int offset, final int length) {
+        final long m = 0xc6a4a7935bd1e995L;
+        final int r = 47;
+
+        long h = 0x9747b28cL ^ (length * m);
+
+        for (int i = 0; i < length; i++) {
+            long ki = k[offset + i] & 0xffffffffL;
+            ki *= m;
+            ki ^= ki >>> r;
+            ki *= m;
+            h ^= ki;
+            h *= m;
+        }
+
+        h ^= h >>> r;
+        h *= m;
+        h ^= h >>> r;
+
+        return h;
+    }
 }
@@ -0,0 +1,477 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.langmodel;
+
+import eu.monnetproject.lang.Language;
+import eu.monnetproject.translation.monitor.Messages;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A language model held in memory as packed primitive tables. The n-grams of
+ * each order above one are kept in an open-addressed (linear probing) table
+ * of 64-bit hashes of the n-gram, and their probabilities and back-offs are
+ * quantized to 8 or 16 bits against a codebook of the quantiles of that order.
+ * Unigrams and the vocabulary are read from the {@link LMImage}. Collisions
+ * of the hashes of two n-grams are not detected, but are vanishingly rare. 
+ * Lookups do not allocate. The tables are saved as {@code <model>.pkd}.
+ *
+ * @author John McCrae
+ */
+public class PackedLM extends AbstractLM {
+
+    public static final String SUFFIX = ".pkd";
+    public static final int MAGIC = 0x504b4431;
+    public static final int VERSION = 1;
+    private final Language language;
+    private final int bits;
+    private int order;
+    private LMImage image;
+    // Indexed by order, null below bigrams
+    private Table[] tables;
+
+    public PackedLM(Language language, File model) throws IOException {
+        this(language, model, 16);
+    }
+
+    /**
+     * Create a packed model
+     *
+     * @param language The language
+     * @param model The (ARPA) model file
+     * @param bits The number of bits to quantize scores to, 8 or 16
+     */
+    public PackedLM(Language language, File model, int bits) throws IOException {
+        if (bits != 8 && bits != 16) {
+            throw new IllegalArgumentException("Scores can only be quantized to 8 or 16 bits");
+        }
+        this.language = language;
+        this.bits = bits;
+        Messages.info("Using " + model.getPath() + " for language " + language);
+        if (!(LMImage.exists(model) && new File(model.getPath() + SUFFIX).exists() && loadLM(model))) {
+            buildLM(model);
+        }
+        if (str2key.containsKey(UNK)) {
+            unkCode = str2key.getInt(UNK);
+        } else {
+            unkCode = str2key.size() + 1;
+        }
+    }
+
+    @Override
+    protected double[] rawScore(int n, NGram key) {
+        return rawScore(key.data(), 0, n);
+    }
+
+    @Override
+    protected double[] rawScore(int[] ngram, int offset, int n) {
+        final double[] scores = new double[2];
+        if (!rawScore(ngram, offset, n, scores)) {
+            return null;
+        } else if (Double.isNaN(scores[1])) {
+            return new double[]{scores[0]};
+        } else {
+            return scores;
+        }
+    }
+
+    @Override
+    protected boolean rawScore(int[] ngram, int offset, int n, double[] scores) {
+        if (n == 1) {
+            final double p = image.unigramProb(ngram[offset]);
+            if (Double.isNaN(p)) {
+                return false;
+            }
+            scores[0] = p;
+            scores[1] = image.unigramBackoff(ngram[offset]);
+            return true;
+        } else if (n > 1 && n <= order) {
+            return tables[n].get(key(ngram, offset, n), scores);
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public Language getLanguage() {
+        return language;
+    }
+
+    @Override
+    public int getOrder() {
+        return order;
+    }
+
+    @Override
+    public String getName() {
+        return "PackedLM";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    protected double mean(int n) {
+        return (n > 0 && n <= image.order()) ? image.mean(n) : Double.NEGATIVE_INFINITY;
+    }
+
+    @Override
+    protected double sd(int n) {
+        return (n > 0 && n <= image.order()) ? image.sd(n) : 0;
+    }
+
+    private static long key(int[] ngram, int offset, int n) {
+        final long h = MurmurHash.hash64(ngram, offset, n);
+        // Zero marks an empty slot
+        return h == 0 ? 1 : h;
+    }
+
+    private void buildLM(File model) throws IOException {
+        final DoubleList mus = new DoubleArrayList(), sis = new DoubleArrayList();
+        final Int2ObjectMap<double[]> unigrams = new Int2ObjectOpenHashMap<double[]>();
+        final LongArrayList keys = new LongArrayList();
+        final FloatArrayList probs = new FloatArrayList(), backoffs = new FloatArrayList();
+        final List<Table> built = new ArrayList<Table>();
+        final ARPAReader reader = new ARPAReader() {
+            @Override
+            protected void prepare(int n) throws IOException {
+                keys.clear();
+                probs.clear();
+                backoffs.clear();
+            }
+
+            @Override
+            protected void put(int[] ng, double[] scores) throws IOException {
+                if (ng.length == 1) {
+                    unigrams.put(ng[0], scores);
+                } else {
+                    keys.add(key(ng, 0, ng.length));
+                    probs.add((float) scores[0]);
+                    backoffs.add(scores.length > 1 ? (float) scores[1] : Float.NaN);
+                }
+            }
+
+            @Override
+            protected void end(int n) throws IOException {
+                if (n > 1) {
+                    // The highest order (as read by this reader) has no back-offs
+                    built.add(Table.build(keys, probs, n < this.order ? backoffs : null, bits));
+                }
+                keys.clear();
+                keys.trim();
+                probs.clear();
+                probs.trim();
+                backoffs.clear();
+                backoffs.trim();
+            }
+
+            @Override
+            protected void finished() throws IOException {
+            }
+
+            @Override
+            protected void statistics(int n, double mu, double sd) throws IOException {
+                mus.add(mu);
+                sis.add(sd);
+            }
+        };
+        reader.read(model);
+        this.order = reader.order;
+        this.tables = new Table[order + 1];
+        for (int n = 2; n <= order; n++) {
+            tables[n] = built.get(n - 2);
+        }
+        LMImage.write(model, mus.toDoubleArray(), sis.toDoubleArray(), reader.str2key, unigrams);
+        image = LMImage.open(model);
+        str2key = image.vocabulary();
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(model.getPath() + SUFFIX)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(bits);
+            out.writeInt(order);
+            for (int n = 2; n <= order; n++) {
+                tables[n].write(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private boolean loadLM(File model) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(model.getPath() + SUFFIX, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 20);
+            fill(channel, buf, 16);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                throw new IOException("Not a packed language model");
+            }
+            if (buf.getInt() != bits) {
+                Messages.info("Rebuilding " + model.getPath() + SUFFIX + " with " + bits + "-bit scores");
+                return false;
+            }
+            order = buf.getInt();
+            tables = new Table[order + 1];
+            for (int n = 2; n <= order; n++) {
+                tables[n] = Table.read(channel, buf);
+            }
+        } finally {
+            raf.close();
+        }
+        image = LMImage.open(model);
+        str2key = image.vocabulary();
+        if (image.order() != order) {
+            throw new IOException("Language model image does not match packed model");
+        }
+        return true;
+    }
+
+    // Read exactly bytes (no more than the buffer's capacity) into the buffer
+    private static void fill(FileChannel channel, ByteBuffer buf, int bytes) throws IOException {
+        buf.clear();
+        buf.limit(bytes);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) {
+                throw new EOFException();
+            }
+        }
+        buf.flip();
+    }
+
+    private static void readLongs(FileChannel channel, ByteBuffer buf, long[] data) throws IOException {
+        int i = 0;
+        while (i < data.length) {
+            final int n = Math.min(buf.capacity() / 8, data.length - i);
+            fill(channel, buf, n * 8);
+            buf.asLongBuffer().get(data, i, n);
+            i += n;
+        }
+    }
+
+    private static float[] readFloats(FileChannel channel, ByteBuffer buf) throws IOException {
+        fill(channel, buf, 4);
+        final float[] data = new float[buf.getInt()];
+        fill(channel, buf, 4 * data.length);
+        buf.asFloatBuffer().get(data);
+        return data;
+    }
+
+    /**
+     * The n-grams of one order
+     */
+    private static final class Table {
+
+        final long[] keys;
+        // The codes of each entry, packed as width-bit fields; the probability
+        // is in the low bits and the back-off (if any) in the next bits
+        final long[] values;
+        final int width, bits;
+        final float[] probs, backoffs;
+
+        Table(long[] keys, long[] values, int width, int bits, float[] probs, float[] backoffs) {
+            this.keys = keys;
+            this.values = values;
+            this.width = width;
+            this.bits = bits;
+            this.probs = probs;
+            this.backoffs = backoffs;
+        }
+
+        static Table build(LongArrayList keys, FloatArrayList probs, FloatArrayList backoffs, int bits) {
+            final int size = keys.size();
+            int capacity = 4;
+            while (capacity < size + size / 2) {
+                capacity <<= 1;
+            }
+            final int width = backoffs == null ? bits : 2 * bits;
+            final float[] probCodes = codebook(probs, bits);
+            final float[] backoffCodes = backoffs == null ? null : codebook(backoffs, bits);
+            final Table table = new Table(new long[capacity], new long[(int) (((long) capacity * width + 63) / 64)],
+                    width, bits, probCodes, backoffCodes);
+            for (int i = 0; i < size; i++) {
+                long code = encode(probs.getFloat(i), probCodes);
+                if (backoffs != null) {
+                    code |= (long) encode(backoffs.getFloat(i), backoffCodes) << bits;
+                }
+                table.put(keys.getLong(i), code);
+            }
+            return table;
+        }
+
+        private void put(long key, long code) {
+            final int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            final long bit = (long) slot * width;
+            final int shift = (int) (bit & 63);
+            final long entryMask = (1L << width) - 1;
+            final int i = (int) (bit >>> 6);
+            values[i] = (values[i] & ~(entryMask << shift)) | (code << shift);
+        }
+
+        boolean get(long key, double[] scores) {
+            final int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            long k;
+            while ((k = keys[slot]) != key) {
+                if (k == 0) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            final long bit = (long) slot * width;
+            final long entry = values[(int) (bit >>> 6)] >>> (bit & 63);
+            final int codeMask = (1 << bits) - 1;
+            scores[0] = probs[(int) entry & codeMask];
+            scores[1] = backoffs == null ? Double.NaN : backoffs[(int) (entry >>> bits) & codeMask];
+            return true;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(keys.length);
+            out.writeInt(width);
+            out.writeInt(values.length);
+            out.writeInt(probs.length);
+            for (float f : probs) {
+                out.writeFloat(f);
+            }
+            out.writeInt(backoffs == null ? 0 : backoffs.length);
+            if (backoffs != null) {
+                for (float f : backoffs) {
+                    out.writeFloat(f);
+                }
+            }
+            for (long l : keys) {
+                out.writeLong(l);
+            }
+            for (long l : values) {
+                out.writeLong(l);
+            }
+        }
+
+        static Table read(FileChannel channel, ByteBuffer buf) throws IOException {
+            fill(channel, buf, 12);
+            final long[] keys = new long[buf.getInt()];
+            final int width = buf.getInt();
+            final long[] values = new long[buf.getInt()];
+            final float[] probs = readFloats(channel, buf);
+            final float[] backoffs = readFloats(channel, buf);
+            readLongs(channel, buf, keys);
+            readLongs(channel, buf, values);
+            return new Table(keys, values, width, backoffs.length == 0 ? width : width / 2, probs, backoffs.length == 0 ? null : backoffs);
+        }
+
+        /**
+         * The codebook of a list of scores, code zero is absent (NaN) and the
+         * others are either every distinct score or the means of bins of
+         * (near) equal size of the sorted scores
+         */
+        static float[] codebook(FloatArrayList scores, int bits) {
+            final int levels = (1 << bits) - 1;
+            final float[] sorted = new float[scores.size()];
+            int n = 0;
+            for (int i = 0; i < scores.size(); i++) {
+                final float f = scores.getFloat(i);
+                if (!Float.isNaN(f)) {
+                    sorted[n++] = f;
+                }
+            }
+            Arrays.sort(sorted, 0, n);
+            int distinct = 0;
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[distinct++] = sorted[i];
+                }
+            }
+            if (distinct <= levels) {
+                final float[] codebook = new float[distinct + 1];
+                codebook[0] = Float.NaN;
+                System.arraycopy(sorted, 0, codebook, 1, distinct);
+                return codebook;
+            }
+            // Re-sort with duplicates so the bins are of equal count
+            n = 0;
+            for (int i = 0; i < scores.size(); i++) {
+                final float f = scores.getFloat(i);
+                if (!Float.isNaN(f)) {
+                    sorted[n++] = f;
+                }
+            }
+            Arrays.sort(sorted, 0, n);
+            final float[] codebook = new float[levels + 1];
+            codebook[0] = Float.NaN;
+            for (int b = 0; b < levels; b++) {
+                final int from = (int) ((long) b * n / levels), to = (int) ((long) (b + 1) * n / levels);
+                double sum = 0.0;
+                for (int i = from; i < to; i++) {
+                    sum += sorted[i];
+                }
+                codebook[b + 1] = to > from ? (float) (sum / (to - from)) : sorted[from];
+            }
+            return codebook;
+        }
+
+        static int encode(float score, float[] codebook) {
+            if (Float.isNaN(score)) {
+                return 0;
+            }
+            final int i = Arrays.binarySearch(codebook, 1, codebook.length, score);
+            if (i >= 0) {
+                return i;
+            }
+            final int above = -i - 1;
+            if (above == 1) {
+                return 1;
+            } else if (above == codebook.length) {
+                return codebook.length - 1;
+            } else {
+                return score - codebook[above - 1] <= codebook[above] - score ? above - 1 : above;
+            }
+        }
+    }
+}
@@ -34,13 +34,8 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
 import it.unimi.dsi.fastutil.objects.Object2DoubleMaps;
 import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.Scanner;
 
@@ -53,14 +48,13 @@ public class PagedLM extends AbstractLM {
     private final Object2DoubleMap<NGram> salients = Object2DoubleMaps.synchronize(new Object2DoubleOpenHashMap<NGram>());
     private final Language language;
     private int order;
-    private Int2ObjectMap<double[]> unigrams;
     private DirectDataMMap map;
-    private double[] mus, sds;
+    private LMImage image;
 
     public PagedLM(Language language, File model) throws IOException, ClassNotFoundException {
         this.language = language;
         Messages.info("Using " + model.getPath() + " for language " + language);
-        this.map = new File(model.getPath() + ".static").exists() ? loadLM(model) : buildLM(model);
+        this.map = LMImage.exists(model) ? loadLM(model) : buildLM(model);
         if (str2key.containsKey(UNK)) {
             unkCode = str2key.getInt(UNK);
         } else {
@@ -100,7 +94,6 @@ public class PagedLM extends AbstractLM {
     @Override
     public void close() {
         try {
-            Messages.info("Raw score calls: " + rawScoreCalls);
             map.close();
         } catch (Exception x) {
             Messages.cleanupFailure(x);
@@ -109,8 +102,8 @@ public class PagedLM extends AbstractLM {
 
     @Override
     protected double mean(int n) {
-        if (n > 0 && n <= mus.length) {
-            return mus[n - 1];
+        if (n > 0 && n <= image.order()) {
+            return image.mean(n);
         } else {
             return -Double.NEGATIVE_INFINITY;
         }
@@ -118,37 +111,28 @@ public class PagedLM extends AbstractLM {
 
     @Override
     protected double sd(int n) {
-        if (n > 0 && n <= sds.length) {
-            return sds[n - 1];
+        if (n > 0 && n <= image.order()) {
+            return image.sd(n);
         } else {
             return 0;
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private DirectDataMMap loadLM(File file) throws IOException, ClassNotFoundException {
-
-        final ObjectInputStream ois = new ObjectInputStream(new FileInputStream(new File(file.getPath() + ".static")));
-        order = ois.readInt();
-        mus = (double[]) ois.readObject();
-        sds = (double[]) ois.readObject();
-        unigrams = (Int2ObjectMap<double[]>) ois.readObject();
-        str2key = (Object2IntMap<String>) ois.readObject();
-        ois.close();
+    private DirectDataMMap loadLM(File file) throws IOException {
+        image = LMImage.open(file);
+        order = image.order();
+        str2key = image.vocabulary();
         return new DirectDataMMap(file);
     }
 
     private DirectDataMMap buildLM(File model) throws IOException {
         final DirectDataMMapBuilder builder = new DirectDataMMapBuilder(model);
         final DoubleArrayList mus = new DoubleArrayList(), sds = new DoubleArrayList();
+        // Reduced load factor for speed
+        final Int2ObjectMap<double[]> unigrams = new Int2ObjectOpenHashMap<double[]>(50000, 0.4f);
         final ARPAReader reader = new ARPAReader() {
             @Override
             protected void prepare(int i) {
-                if (i == 1) {
-                    // Reduced load factor for speed
-                    unigrams = new Int2ObjectOpenHashMap<double[]>(50000, 0.4f);
-                }
-
             }
 
             @Override
@@ -177,20 +161,16 @@ public class PagedLM extends AbstractLM {
         };
         reader.read(model);
         this.order = reader.order;
-        this.str2key = reader.str2key;
-
-        final ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(new File(model.getPath() + ".static")));
-        oos.writeInt(order);
-        oos.writeObject(mus.toDoubleArray());
-        oos.writeObject(sds.toDoubleArray());
-        oos.writeObject(unigrams);
-        oos.writeObject(str2key);
-        oos.close();
+
+        LMImage.write(model, mus.toDoubleArray(), sds.toDoubleArray(), reader.str2key, unigrams);
+        // Serve the vocabulary and unigrams from the image, so the maps built
+        // while reading may be collected
+        image = LMImage.open(model);
+        str2key = image.vocabulary();
         // We could use the builder to create the record map, instead of re-reading
         // it from disk
         return new DirectDataMMap(model, builder.dataLocMap);
     }
-    private int rawScoreCalls = 0;
 
     @Override
     protected double[] rawScore(int n, NGram key) {
@@ -204,12 +184,18 @@ public class PagedLM extends AbstractLM {
 //
 //    protected double[] rawScore2(int n, NGram key) {
         if (n == 1) {
-            return unigrams.get(key.data(0));
+            return image.unigram(key.data(0));
         } else {
-            //synchronized (this) {
-            rawScoreCalls++;
             return map.rawScore(key.data());
-            //}
+        }
+    }
+
+    @Override
+    protected double[] rawScore(int[] ngram, int offset, int n) {
+        if (n == 1) {
+            return image.unigram(ngram[offset]);
+        } else {
+            return map.rawScore(ngram, offset, n);
         }
     }
 }
@@ -0,0 +1,156 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.langmodel;
+
+import eu.monnetproject.lang.Language;
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the throughput of {@link PagedLM#rawScore(int, AbstractLM.NGram)}
+ * from 1 to 16 concurrent threads. Usage: PagedLMPerformance [model.arpa],
+ * if no model is given a random trigram model is generated.
+ *
+ * @author John McCrae
+ */
+public class PagedLMPerformance {
+
+    private final static Random r = new Random(1);
+    private static final int VOCAB = 2000;
+    private static final int NGRAMS = 100000;
+    private static final int QUERIES = 1000000;
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+
+    private static File randomModel() throws Exception {
+        final File file = File.createTempFile("paged", ".arpa");
+        file.deleteOnExit();
+        new File(file.getPath() + LMImage.SUFFIX).deleteOnExit();
+        new File(file.getPath() + ".map").deleteOnExit();
+        new File(file.getPath() + ".data").deleteOnExit();
+        // The builder needs n-grams grouped by their first word
+        final List<List<String>> ngrams = new ArrayList<List<String>>();
+        for (int n = 2; n <= 3; n++) {
+            final List<String> l = new ArrayList<String>();
+            for (int w = 0; w < VOCAB; w++) {
+                final Set<String> s = new HashSet<String>();
+                while (s.size() < NGRAMS / VOCAB) {
+                    final StringBuilder sb = new StringBuilder("w" + w);
+                    for (int i = 1; i < n; i++) {
+                        sb.append(" w").append(r.nextInt(VOCAB));
+                    }
+                    s.add(sb.toString());
+                }
+                l.addAll(s);
+            }
+            ngrams.add(l);
+        }
+        final PrintWriter out = new PrintWriter(file);
+        out.println();
+        out.println("\\data\\");
+        out.println("ngram 1=" + VOCAB);
+        out.println("ngram 2=" + NGRAMS);
+        out.println("ngram 3=" + NGRAMS);
+        out.println();
+        out.println("\\1-grams:");
+        for (int i = 0; i < VOCAB; i++) {
+            out.println(-r.nextDouble() * 5 + "\tw" + i + "\t" + -r.nextDouble());
+        }
+        for (int n = 2; n <= 3; n++) {
+            out.println();
+            out.println("\\" + n + "-grams:");
+            for (String ngram : ngrams.get(n - 2)) {
+                out.println(-r.nextDouble() * 5 + "\t" + ngram + (n < 3 ? "\t" + -r.nextDouble() : ""));
+            }
+        }
+        out.println();
+        out.println("\\end\\");
+        out.close();
+        return file;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final File model = args.length > 0 ? new File(args[0]) : randomModel();
+        final PagedLM lm = new PagedLM(Language.ENGLISH, model);
+        final int V = lm.str2key.size();
+        // Random bigrams and trigrams, a mix of hits and misses
+        final AbstractLM.NGram[] keys = new AbstractLM.NGram[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            final int[] k = new int[2 + r.nextInt(2)];
+            for (int j = 0; j < k.length; j++) {
+                k[j] = r.nextInt(V) + 1;
+            }
+            keys[i] = new AbstractLM.NGram(k);
+        }
+        // Warm up the page cache and the JIT
+        run(lm, keys, 4);
+        double base = 0.0;
+        for (int threads : THREADS) {
+            final double throughput = run(lm, keys, threads);
+            if (threads == 1) {
+                base = throughput;
+            }
+            System.err.println(String.format("%2d threads: %.0f lookups/s (x%.2f)", threads, throughput, throughput / base));
+        }
+        lm.close();
+    }
+
+    private static double run(final PagedLM lm, final AbstractLM.NGram[] keys, final int threads) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * (keys.length / threads);
+            new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < keys.length; i++) {
+                            final AbstractLM.NGram key = keys[(i + offset) % keys.length];
+                            lm.rawScore(key.data().length, key);
+                        }
+                    } catch (InterruptedException x) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }.start();
+        }
+        final long begin = System.nanoTime();
+        start.countDown();
+        end.await();
+        final long time = System.nanoTime() - begin;
+        return (double) threads * keys.length * 1e9 / time;
+    }
+}
@@ -0,0 +1,55 @@
+package eu.monnetproject.translation.langmodel;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.io.File;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class LMImageTest {
+
+    public LMImageTest() {
+    }
+
+    /**
+     * Test of write and open methods, of class LMImage.
+     */
+    @Test
+    public void testWriteAndOpen() throws Exception {
+        System.out.println("writeAndOpen");
+        final File model = File.createTempFile("lmimage", "lm");
+        model.deleteOnExit();
+        new File(model.getPath() + LMImage.SUFFIX).deleteOnExit();
+        final Object2IntMap<String> str2key = new Object2IntOpenHashMap<String>();
+        final Int2ObjectMap<double[]> unigrams = new Int2ObjectOpenHashMap<double[]>();
+        final String[] words = {"and", "or", "but", "über", "<UNK>"};
+        for (int i = 0; i < words.length; i++) {
+            str2key.put(words[i], i + 1);
+            unigrams.put(i + 1, i % 2 == 0 ? new double[]{-i, -0.5} : new double[]{-i});
+        }
+        LMImage.write(model, new double[]{-1.0, -2.0}, new double[]{0.1, 0.2}, str2key, unigrams);
+        assertTrue(LMImage.exists(model));
+
+        final LMImage image = LMImage.open(model);
+        assertEquals(2, image.order());
+        assertEquals(-2.0, image.mean(2), 0.0);
+        assertEquals(0.1, image.sd(1), 0.0);
+        final Object2IntMap<String> vocab = image.vocabulary();
+        assertEquals(words.length, vocab.size());
+        for (int i = 0; i < words.length; i++) {
+            assertTrue(vocab.containsKey(words[i]));
+            assertEquals(i + 1, vocab.getInt(words[i]));
+            assertArrayEquals(unigrams.get(i + 1), image.unigram(i + 1), 0.0);
+        }
+        assertFalse(vocab.containsKey("nor"));
+        assertNull(image.unigram(0));
+        assertNull(image.unigram(words.length + 1));
+        assertEquals(str2key, vocab);
+    }
+}
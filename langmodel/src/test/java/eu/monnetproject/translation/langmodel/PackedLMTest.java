@@ -0,0 +1,118 @@
+package eu.monnetproject.translation.langmodel;
+
+import eu.monnetproject.lang.Language;
+import eu.monnetproject.translation.LanguageModelState;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class PackedLMTest {
+
+    private static final String[] WORDS = TestModels.CONJUNCTIONS;
+
+    public PackedLMTest() {
+    }
+
+    private File tmpModel() throws IOException {
+        final File tmpFile = File.createTempFile("packed", "lm");
+        tmpFile.deleteOnExit();
+        new File(tmpFile.getPath() + LMImage.SUFFIX).deleteOnExit();
+        new File(tmpFile.getPath() + PackedLM.SUFFIX).deleteOnExit();
+        new File(tmpFile.getPath() + ".data").deleteOnExit();
+        new File(tmpFile.getPath() + ".map").deleteOnExit();
+        return tmpFile;
+    }
+
+    private File writeModel() throws IOException {
+        final File tmpFile = tmpModel();
+        TestModels.writeConjunctionModel(tmpFile);
+        return tmpFile;
+    }
+
+    /**
+     * Test that a packed model scores as the paged model, when there are few 
+     * enough scores to be quantized without loss
+     */
+    @Test
+    public void testScore() throws Exception {
+        System.out.println("score");
+        final File model = writeModel();
+        final PagedLM paged = new PagedLM(Language.ENGLISH, model);
+        new File(model.getPath() + PackedLM.SUFFIX).delete();
+        final PackedLM packed = new PackedLM(Language.ENGLISH, model);
+        // And again from the saved tables
+        final PackedLM loaded = new PackedLM(Language.ENGLISH, model);
+        assertEquals(3, packed.getOrder());
+        for (int i = 0; i < 125; i++) {
+            final List<String> query = Arrays.asList(WORDS[i % 5], WORDS[i / 5 % 5], WORDS[i / 25]);
+            for (int n = 1; n <= 3; n++) {
+                final List<String> ngram = query.subList(3 - n, 3);
+                assertEquals(ngram.toString(), paged.score(ngram), packed.score(ngram), 1e-6);
+                assertEquals(ngram.toString(), paged.score(ngram), loaded.score(ngram), 1e-6);
+                assertEquals(ngram.toString(), paged.isRelevantPrefix(ngram), packed.isRelevantPrefix(ngram));
+            }
+            LanguageModelState state = packed.newState();
+            for (int j = 0; j < 3; j++) {
+                final LanguageModelState next = packed.newState();
+                final double score = packed.score(state, packed.wordId(query.get(j)), next);
+                assertEquals(paged.score(query.subList(0, j + 1)), score, 1e-6);
+                state = next;
+            }
+        }
+        paged.close();
+    }
+
+    /**
+     * Test 8-bit quantization of many distinct scores
+     */
+    @Test
+    public void testQuantize() throws Exception {
+        System.out.println("quantize");
+        final File model = tmpModel();
+        final Random random = new Random(1);
+        final int V = 100;
+        final double[][] bigrams = new double[V + 1][V + 1];
+        final PrintWriter out = new PrintWriter(model);
+        out.println("\\data\\");
+        out.println("ngram 1=" + V);
+        out.println("ngram 2=" + V * V);
+        out.println("");
+        out.println("\\1-grams:");
+        for (int i = 1; i <= V; i++) {
+            out.println("-2\tw" + i + "\t-0.5");
+        }
+        out.println("");
+        out.println("\\2-grams:");
+        for (int i = 1; i <= V; i++) {
+            for (int j = 1; j <= V; j++) {
+                bigrams[i][j] = -5.0 * random.nextDouble();
+                out.println(bigrams[i][j] + "\tw" + i + " w" + j);
+            }
+        }
+        out.println("");
+        out.println("\\end\\");
+        out.close();
+        final PackedLM packed = new PackedLM(Language.ENGLISH, model, 8);
+        // 255 bins over [-5,0] are around 0.02 wide
+        for (int i = 1; i <= V; i++) {
+            for (int j = 1; j <= V; j++) {
+                final List<String> ngram = Arrays.asList("w" + i, "w" + j);
+                assertEquals(bigrams[i][j], packed.score(ngram), 0.05);
+            }
+        }
+        // Rebuilt at 16 bits from the same model
+        final PackedLM packed16 = new PackedLM(Language.ENGLISH, model, 16);
+        final List<String> ngram = new ArrayList<String>(Arrays.asList("w1", "w2"));
+        assertEquals(bigrams[1][2], packed16.score(ngram), 1e-6);
+    }
+}
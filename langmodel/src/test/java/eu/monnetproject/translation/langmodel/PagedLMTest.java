@@ -2,8 +2,10 @@ package eu.monnetproject.translation.langmodel;
 
 import eu.monnetproject.translation.langmodel.PagedLM;
 import eu.monnetproject.lang.Language;
+import eu.monnetproject.translation.LanguageModelState;
 import java.io.File;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -82,7 +84,7 @@ public class PagedLMTest {
             final File tmpFile = File.createTempFile("enen", "lm");
             tmpFile.deleteOnExit();
             new File(tmpFile.getAbsolutePath()+".data").deleteOnExit();
-            new File(tmpFile.getAbsolutePath()+".static").deleteOnExit();
+            new File(tmpFile.getAbsolutePath()+LMImage.SUFFIX).deleteOnExit();
             new File(tmpFile.getAbsolutePath()+".map").deleteOnExit();
             final PrintWriter out = new PrintWriter(tmpFile);
             out.println("");
@@ -122,7 +124,7 @@ public class PagedLMTest {
             final File tmpFile = File.createTempFile("enen", "lm");
             tmpFile.deleteOnExit();
             new File(tmpFile.getAbsolutePath()+".data").deleteOnExit();
-            new File(tmpFile.getAbsolutePath()+".static").deleteOnExit();
+            new File(tmpFile.getAbsolutePath()+LMImage.SUFFIX).deleteOnExit();
             new File(tmpFile.getAbsolutePath()+".map").deleteOnExit();
             final PrintWriter out = new PrintWriter(tmpFile);
             out.println("");
@@ -156,6 +158,95 @@ public class PagedLMTest {
         }
     }
 
+    @Test
+    public void testScoreIds() throws Exception {
+        PagedLM lm = null;
+        try {
+            System.err.println("scoreIds");
+            final File tmpFile = File.createTempFile("enen", "lm");
+            tmpFile.deleteOnExit();
+            new File(tmpFile.getAbsolutePath()+".data").deleteOnExit();
+            new File(tmpFile.getAbsolutePath()+LMImage.SUFFIX).deleteOnExit();
+            new File(tmpFile.getAbsolutePath()+".map").deleteOnExit();
+            final PrintWriter out = new PrintWriter(tmpFile);
+            out.println("");
+            out.println("\\data\\");
+            out.println("ngram 1=3");
+            out.println("ngram 2=2");
+            out.println("");
+            out.println("\\1-grams:");
+            out.println("-1\tand\t-0.5");
+            out.println("-2\tor");
+            out.println("-3\tbut\t-0.25");
+            out.println("");
+            out.println("\\2-grams:");
+            out.println("-0.1\tand but");
+            out.println("-0.2\tand or");
+            out.println("");
+            out.println("\\end\\");
+            out.flush();
+            out.close();
+            lm = new PagedLM(Language.ENGLISH, tmpFile);
+            assertEquals(3, lm.maxWordId());
+            assertEquals(-1, lm.wordId("nor"));
+            final List<List<String>> queries = Arrays.asList(Arrays.asList("and", "but"),
+                    Arrays.asList("but", "or"), Arrays.asList("nor", "and"), Arrays.asList("or", "and", "but"));
+            for (List<String> query : queries) {
+                final int[] ids = new int[query.size() + 1];
+                for (int i = 0; i < query.size(); i++) {
+                    final int id = lm.wordId(query.get(i));
+                    ids[i + 1] = id > 0 ? id : lm.maxWordId() + 1;
+                }
+                assertEquals(lm.score(query), lm.score(ids, 1, query.size()), 0.0);
+            }
+        } finally {
+            if(lm != null) {
+                lm.close();
+            }
+            clearCache();
+        }
+    }
+
+    @Test
+    public void testScoreState() throws Exception {
+        PagedLM lm = null;
+        try {
+            System.err.println("scoreState");
+            final File tmpFile = File.createTempFile("enen", "lm");
+            tmpFile.deleteOnExit();
+            new File(tmpFile.getAbsolutePath()+".data").deleteOnExit();
+            new File(tmpFile.getAbsolutePath()+LMImage.SUFFIX).deleteOnExit();
+            new File(tmpFile.getAbsolutePath()+".map").deleteOnExit();
+            TestModels.writeConjunctionModel(tmpFile);
+            lm = new PagedLM(Language.ENGLISH, tmpFile);
+            final String[] words = TestModels.CONJUNCTIONS;
+            // Every sentence of five words, each word scored from the state
+            // of the previous words
+            final int[] s = new int[5];
+            for (int i = 0; i < 3125; i++) {
+                for (int j = 0, k = i; j < s.length; j++, k /= words.length) {
+                    s[j] = k % words.length;
+                }
+                LanguageModelState state = lm.newState();
+                for (int j = 0; j < s.length; j++) {
+                    final LanguageModelState next = lm.newState();
+                    final double score = lm.score(state, lm.wordId(words[s[j]]), next);
+                    final List<String> ngram = new ArrayList<String>();
+                    for (int k = Math.max(0, j - 2); k <= j; k++) {
+                        ngram.add(words[s[k]]);
+                    }
+                    assertEquals(ngram.toString(), lm.score(ngram), score, 1e-9);
+                    state = next;
+                }
+            }
+        } finally {
+            if(lm != null) {
+                lm.close();
+            }
+            clearCache();
+        }
+    }
+
     private void clearCache() {
         final File dir = new File("mapDBcache");
         if(dir.exists() && dir.isDirectory()) {
@@ -0,0 +1,53 @@
+package eu.monnetproject.translation.langmodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Small language models shared by the tests
+ *
+ * @author John McCrae
+ */
+final class TestModels {
+
+    /**
+     * The words of the conjunction model, the last of which is unknown
+     */
+    static final String[] CONJUNCTIONS = {"and", "or", "but", "yet", "nor"};
+
+    private TestModels() {
+    }
+
+    /**
+     * Write a trigram ARPA model of four conjunctions, with back-offs for 
+     * some unigrams and bigrams only
+     */
+    static void writeConjunctionModel(File file) throws IOException {
+        final PrintWriter out = new PrintWriter(file);
+        out.println("");
+        out.println("\\data\\");
+        out.println("ngram 1=4");
+        out.println("ngram 2=4");
+        out.println("ngram 3=2");
+        out.println("");
+        out.println("\\1-grams:");
+        out.println("-1\tand\t-0.5");
+        out.println("-2\tor\t-0.75");
+        out.println("-3\tbut\t-0.25");
+        out.println("-4\tyet");
+        out.println("");
+        out.println("\\2-grams:");
+        out.println("-0.1\tand but\t-0.3");
+        out.println("-0.2\tand or\t-0.4");
+        out.println("-0.3\tbut or\t-0.6");
+        out.println("-0.4\tor and");
+        out.println("");
+        out.println("\\3-grams:");
+        out.println("-0.01\tand but or");
+        out.println("-0.02\tbut or and");
+        out.println("");
+        out.println("\\end\\");
+        out.close();
+    }
+}
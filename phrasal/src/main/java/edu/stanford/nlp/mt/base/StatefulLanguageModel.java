@@ -0,0 +1,33 @@
+package edu.stanford.nlp.mt.base;
+
+import eu.monnetproject.translation.LanguageModelState;
+
+/**
+ * A language model that can score a sequence a token at a time, carrying the
+ * context from one token to the next as a state.
+ * 
+ * @author John McCrae
+ * 
+ * @param <T>
+ */
+public interface StatefulLanguageModel<T> extends LanguageModel<T> {
+
+  /**
+   * @return A state with no context, or null if this model cannot be scored
+   *         incrementally
+   */
+  LanguageModelState newState();
+
+  /**
+   * Score a token following a context, as {@link #score(Sequence)} would
+   * score the n-gram ending at the token
+   * 
+   * @param state
+   *          The context
+   * @param token
+   *          The token
+   * @param out
+   *          A state (not the context) set to the context after the token
+   */
+  double score(LanguageModelState state, T token, LanguageModelState out);
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.util.*;
 
 import edu.stanford.nlp.mt.base.*;
+import eu.monnetproject.translation.LanguageModelState;
 
 /**
  * 
@@ -21,6 +22,8 @@ public class NGramLanguageModelFeaturizer<TK> implements
   final boolean ngramReweighting;
   final boolean lengthNorm;
   final WeakHashMap<Featurizable<TK, String>, Double> rawLMScoreHistory = new WeakHashMap<Featurizable<TK, String>, Double>();
+  // The LM state at the end of each partial translation, if the LM is stateful
+  final WeakHashMap<Featurizable<TK, String>, LanguageModelState> lmStateHistory = new WeakHashMap<Featurizable<TK, String>, LanguageModelState>();
   public static final boolean DEBUG = Boolean.parseBoolean(System.getProperty(
       DEBUG_PROPERTY, "false"));
   public static final boolean SVMNORM = Boolean.parseBoolean(System
@@ -144,7 +147,11 @@ public class NGramLanguageModelFeaturizer<TK> implements
     }
     int limit = partialTranslation.size();
 
-    double lmScore = getScore(startPos, limit, partialTranslation);
+    double lmScore = getStateScore(featurizable, startPos, limit,
+        partialTranslation);
+    if (lmScore != lmScore) {
+      lmScore = getScore(startPos, limit, partialTranslation);
+    }
 
     if (DEBUG) {
       System.out.printf("Final score: %f\n", lmScore);
@@ -170,6 +177,56 @@ public class NGramLanguageModelFeaturizer<TK> implements
     }
   }
 
+  /**
+   * Score the new tokens of a partial translation from the LM state at the
+   * end of the prior translation, so each token costs one query of the LM
+   * 
+   * @return The score, or NaN if the LM is not stateful or the prior state is
+   *         not known
+   */
+  @SuppressWarnings("unchecked")
+  private double getStateScore(Featurizable<TK, String> featurizable,
+      int startPos, int limit, Sequence<TK> translation) {
+    if (!(lm instanceof StatefulLanguageModel) || DEBUG) {
+      return Double.NaN;
+    }
+    final StatefulLanguageModel<TK> slm = (StatefulLanguageModel<TK>) lm;
+    LanguageModelState state;
+    if (featurizable.prior == null) {
+      final LanguageModelState empty = slm.newState();
+      if (empty == null) {
+        return Double.NaN;
+      }
+      state = slm.newState();
+      slm.score(empty, translation.get(0), state);
+    } else if (featurizable.translationPosition != featurizable.prior.partialTranslation
+        .size()) {
+      return Double.NaN;
+    } else {
+      synchronized (lmStateHistory) {
+        state = lmStateHistory.get(featurizable.prior);
+      }
+      if (state == null) {
+        return Double.NaN;
+      }
+    }
+    double lmSumScore = 0;
+    for (int pos = startPos; pos < limit; pos++) {
+      final LanguageModelState next = slm.newState();
+      double ngramScore = slm.score(state, translation.get(pos), next);
+      state = next;
+      if (ngramScore == Double.NEGATIVE_INFINITY || ngramScore != ngramScore) {
+        lmSumScore += MOSES_LM_UNKNOWN_WORD_SCORE;
+        continue;
+      }
+      lmSumScore += ngramScore;
+    }
+    synchronized (lmStateHistory) {
+      lmStateHistory.put(featurizable, state);
+    }
+    return lmSumScore;
+  }
+
   /**
 	 * 
 	 */
@@ -279,6 +336,9 @@ public class NGramLanguageModelFeaturizer<TK> implements
   public void initialize(List<ConcreteTranslationOption<TK>> options,
       Sequence<TK> foreign) {
     rawLMScoreHistory.clear();
+    synchronized (lmStateHistory) {
+      lmStateHistory.clear();
+    }
   }
 
   public void reset() {
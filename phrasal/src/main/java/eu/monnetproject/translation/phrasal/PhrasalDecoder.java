@@ -88,8 +88,14 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
+ * Phrasal based decoder. The decoder itself holds only immutable configuration,
+ * all state used in a translation (the wrapped phrase table, featurizers,
+ * heuristic and beams) belongs to a {@link Session}, sessions are pooled and
+ * each call to decode takes one for its exclusive use, so that a single 
+ * decoder may be shared by any number of threads.
  *
  * @author John McCrae
  */
@@ -114,9 +120,13 @@ public class PhrasalDecoder implements eu.monnetproject.translation.Decoder {
     private final boolean mosesMode;
     private final List<String> gapOpts;
     private final String recombinationHeuristic;
-    private final Inferer<IString, String> inferer;
     private final int distortionLimit;
-    private WrappingPhraseTable<String> phraseTableWrapper;
+    private final LanguageModel model;
+    private final Scorer<String> scorer;
+    private final FeaturizerFactory.GapType gapT;
+    private final Boolean useITGConstraints;
+    private final boolean configuredBeamCapacity;
+    private final ConcurrentLinkedQueue<Session> sessions = new ConcurrentLinkedQueue<Session>();
     public int beamCapacity = Inferer.DEFAULT_BEAM_SIZE;
     public int fastBeamCapacity = Integer.parseInt(System.getProperty("fast_stack", "10"));
 
@@ -162,50 +172,96 @@ public class PhrasalDecoder implements eu.monnetproject.translation.Decoder {
         }
 
 
-        final CombinedFeaturizer<IString, String> featurizer = getFeaturizer(model);
-        final Scorer<String> scorer = getScorer(getWeightConfig(weights));
-        final PhraseGenerator<IString> phraseGenerator = getPhraseGenerator(featurizer, scorer);
-        final SearchHeuristic<IString, String> heuristic = getHeuristic(featurizer, scorer);
-        final RecombinationFilter<Hypothesis<IString, String>> filter = getFilter(featurizer);
-        FeaturizerFactory.GapType gapT = !withGaps ? FeaturizerFactory.GapType.none
+        this.model = model;
+        this.scorer = getScorer(getWeightConfig(weights));
+        this.gapT = !withGaps ? FeaturizerFactory.GapType.none
                 : ((gapOpts.size() > 1) ? FeaturizerFactory.GapType.both
                 : FeaturizerFactory.GapType.source);
-        boolean dtuDecoder = (gapT != FeaturizerFactory.GapType.none);
-        // Configure InfererBuilder
-        AbstractBeamInfererBuilder<IString, String> infererBuilder = (AbstractBeamInfererBuilder<IString, String>) InfererBuilderFactory.factory(dtuDecoder ? InfererBuilderFactory.DTU_DECODER
-                : InfererBuilderFactory.MULTIBEAM_DECODER);
-        infererBuilder.setIncrementalFeaturizer((CombinedFeaturizer<IString, String>) featurizer);
-        infererBuilder.setPhraseGenerator((PhraseGenerator<IString>) phraseGenerator);
-        infererBuilder.setScorer(scorer);
-        infererBuilder.setSearchHeuristic((SearchHeuristic<IString, String>) heuristic);
-        infererBuilder.setRecombinationFilter((RecombinationFilter<Hypothesis<IString, String>>) filter);
-
-        infererBuilder.setBeamType(HypothesisBeamFactory.BeamType.sloppybeam);
-
-        if (distortionLimit != -1) {
-            infererBuilder.setMaxDistortion(distortionLimit);
-        }
 
         if (config.containsKey(USE_ITG_CONSTRAINTS)) {
-            infererBuilder.useITGConstraints(Boolean.parseBoolean(config.get(
-                    USE_ITG_CONSTRAINTS).toString()));
+            useITGConstraints = Boolean.parseBoolean(config.get(
+                    USE_ITG_CONSTRAINTS).toString());
+        } else {
+            useITGConstraints = null;
         }
 
         if (config.containsKey(BEAM_SIZE)) {
             try {
                 beamCapacity = Integer.parseInt(config.get(BEAM_SIZE).toString());
                 System.err.println("Beam size: " + beamCapacity);
-                infererBuilder.setBeamCapacity(beamCapacity);
             } catch (NumberFormatException e) {
                 throw new RuntimeException(
                         String.format(
                         "Beam size %s, as specified by argument %s, can not be parsed as an integer value\n",
                         config.get(BEAM_SIZE).toString(), BEAM_SIZE));
             }
+            configuredBeamCapacity = true;
+        } else {
+            configuredBeamCapacity = false;
+        }
+
+        // Build the first session eagerly so that configuration errors are
+        // reported on construction
+        sessions.offer(new Session());
+    }
+
+    /**
+     * The per-call state of the decoder. A session is only ever used by one
+     * thread at a time.
+     */
+    private final class Session {
+
+        private final WrappingPhraseTable<String> phraseTableWrapper;
+        private final Inferer<IString, String> inferer;
+
+        public Session() throws IOException {
+            final CombinedFeaturizer<IString, String> featurizer = getFeaturizer(model);
+            phraseTableWrapper = new WrappingPhraseTable<String>(featurizer, scorer);
+            final PhraseGenerator<IString> phraseGenerator = getPhraseGenerator(phraseTableWrapper, featurizer, scorer);
+            final SearchHeuristic<IString, String> heuristic = getHeuristic(featurizer, scorer);
+            final RecombinationFilter<Hypothesis<IString, String>> filter = getFilter(featurizer);
+            boolean dtuDecoder = (gapT != FeaturizerFactory.GapType.none);
+            // Configure InfererBuilder
+            AbstractBeamInfererBuilder<IString, String> infererBuilder = (AbstractBeamInfererBuilder<IString, String>) InfererBuilderFactory.factory(dtuDecoder ? InfererBuilderFactory.DTU_DECODER
+                    : InfererBuilderFactory.MULTIBEAM_DECODER);
+            infererBuilder.setIncrementalFeaturizer(featurizer);
+            infererBuilder.setPhraseGenerator(phraseGenerator);
+            infererBuilder.setScorer(scorer);
+            infererBuilder.setSearchHeuristic(heuristic);
+            infererBuilder.setRecombinationFilter(filter);
+
+            infererBuilder.setBeamType(HypothesisBeamFactory.BeamType.sloppybeam);
+
+            if (distortionLimit != -1) {
+                infererBuilder.setMaxDistortion(distortionLimit);
+            }
 
+            if (useITGConstraints != null) {
+                infererBuilder.useITGConstraints(useITGConstraints);
+            }
+
+            if (configuredBeamCapacity) {
+                infererBuilder.setBeamCapacity(beamCapacity);
+            }
+
+            inferer = infererBuilder.build();
+        }
+    }
+
+    private Session acquireSession() {
+        final Session session = sessions.poll();
+        if (session != null) {
+            return session;
+        }
+        try {
+            return new Session();
+        } catch (IOException x) {
+            throw new RuntimeException(x);
         }
+    }
 
-        inferer = infererBuilder.build();
+    private void releaseSession(Session session) {
+        sessions.offer(session);
     }
 
     private static String makePair(String label, String value) {
@@ -218,9 +274,6 @@ public class PhrasalDecoder implements eu.monnetproject.translation.Decoder {
         String linearDistortion = withGaps ? DTULinearDistortionFeaturizer.class.getName() : (mosesMode ? LinearDistortionFeaturizer.class.getName()
                 : LinearFutureCostFeaturizer.class.getName());
 
-        FeaturizerFactory.GapType gapT = !withGaps ? FeaturizerFactory.GapType.none
-                : ((gapOpts.size() > 1) ? FeaturizerFactory.GapType.both
-                : FeaturizerFactory.GapType.source);
         String gapType = gapT.name();
         //System.err.println("Gap type: " + gapType);
 
@@ -249,12 +302,12 @@ public class PhrasalDecoder implements eu.monnetproject.translation.Decoder {
 
     }
 
-    private PhraseGenerator<IString> getPhraseGenerator(IsolatedPhraseFeaturizer<IString, String> phraseFeaturizer,
+    private PhraseGenerator<IString> getPhraseGenerator(WrappingPhraseTable<String> phraseTableWrapper,
+            IsolatedPhraseFeaturizer<IString, String> phraseFeaturizer,
             Scorer<String> scorer) throws IOException {
 
         List<PhraseGenerator<IString>> pharoahList = new LinkedList<PhraseGenerator<IString>>();
         List<PhraseGenerator<IString>> finalList = new LinkedList<PhraseGenerator<IString>>();
-        phraseTableWrapper = new WrappingPhraseTable<String>(phraseFeaturizer, scorer);
 
         pharoahList.add(phraseTableWrapper);
 
@@ -392,8 +445,47 @@ public class PhrasalDecoder implements eu.monnetproject.translation.Decoder {
         return decode(phrase, phraseTable, featureNames, nBest, 10);
     }
 
+    @Override
+    public List<List<Translation>> decodeBatch(List<List<String>> phrases, List<PhraseTable> phraseTables, List<String> featureNames, int nBest) {
+        return decodeBatch(phrases, phraseTables, featureNames, nBest, beamCapacity);
+    }
+
+    @Override
+    public List<List<Translation>> decodeBatchFast(List<List<String>> phrases, List<PhraseTable> phraseTables, List<String> featureNames, int nBest) {
+        return decodeBatch(phrases, phraseTables, featureNames, nBest, 10);
+    }
+
+    private List<List<Translation>> decodeBatch(List<List<String>> phrases, List<PhraseTable> phraseTables, List<String> featureNames, int nBest, int beamCapacity) {
+        if (phrases.size() != phraseTables.size()) {
+            throw new IllegalArgumentException("Batch has " + phrases.size() + " phrases but " + phraseTables.size() + " phrase tables");
+        }
+        // The inferer is bound to the wrapped phrase table, so each phrase is
+        // still decoded in turn; the batch saves the per-call dispatch and
+        // holds a single session throughout
+        final List<List<Translation>> translations = new ArrayList<List<Translation>>(phrases.size());
+        final Session session = acquireSession();
+        try {
+            for (int i = 0; i < phrases.size(); i++) {
+                translations.add(decode(session, phrases.get(i), phraseTables.get(i), featureNames, nBest, beamCapacity));
+            }
+        } finally {
+            releaseSession(session);
+        }
+        return translations;
+    }
+
     private List<Translation> decode(List<String> phrase, PhraseTable phraseTable, List<String> featureNames, int nBest, int beamCapacity) {
-        phraseTableWrapper.setPhraseTable(phraseTable,featureNames);
+        final Session session = acquireSession();
+        try {
+            return decode(session, phrase, phraseTable, featureNames, nBest, beamCapacity);
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    private List<Translation> decode(Session session, List<String> phrase, PhraseTable phraseTable, List<String> featureNames, int nBest, int beamCapacity) {
+        final Inferer<IString, String> inferer = session.inferer;
+        session.phraseTableWrapper.setPhraseTable(phraseTable,featureNames);
         Sequence<IString> foreign = new SimpleSequence<IString>(true,
                 IStrings.toSyncIStringArray(phrase.toArray(new String[phrase.size()])));
 
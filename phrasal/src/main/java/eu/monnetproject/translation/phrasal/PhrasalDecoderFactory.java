@@ -31,10 +31,7 @@ import eu.monnetproject.translation.Decoder;
 import eu.monnetproject.translation.DecoderFactory;
 import eu.monnetproject.translation.DecoderWeights;
 import eu.monnetproject.translation.LanguageModel;
-import eu.monnetproject.translation.PhraseTable;
-import eu.monnetproject.translation.Translation;
 import java.io.IOException;
-import java.util.List;
 import java.util.Properties;
 
 /**
@@ -82,48 +79,15 @@ public class PhrasalDecoderFactory implements DecoderFactory {
 
     @Override
     public Decoder getDecoder(final LanguageModel model, final DecoderWeights weights) {
-        //return new PhrasalDecoder(model, weights);
-        return new ThreadLocalDecoder(model, weights);
-    }
-
-    // Some parts of phrasal have memory, therefore we cannot have two threads 
-    // simultaneously using the same decoder... hence we create a decoder for each
-    // thread. The thread local ensures that the same thread always gets the same
-    // decoder
-    private static final class ThreadLocalDecoder implements Decoder {
-
-        private final LanguageModel model;
-        private final DecoderWeights weights;
-
-        public ThreadLocalDecoder(LanguageModel model, DecoderWeights weights) {
-            this.model = model;
-            this.weights = weights;
-        }
-
-        @Override
-        public List<Translation> decode(List<String> phrase, PhraseTable phraseTable, List<String> featureNames, int nBest) {
-            return decoder.get().decode(phrase, phraseTable,featureNames, nBest);
-        }
-
-        @Override
-        public List<Translation> decodeFast(List<String> phrase, PhraseTable phraseTable, List<String> featureNames, int nBest) {
-            return decoder.get().decodeFast(phrase, phraseTable, featureNames, nBest);
+        // Decoding state is held in per-call sessions, so a single decoder
+        // may be shared by all threads
+        try {
+            return new PhrasalDecoder(model, weights);
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        } catch (ClassNotFoundException x) {
+            throw new RuntimeException(x);
         }
-        
-        
-        private final ThreadLocal<Decoder> decoder = new ThreadLocal<Decoder>() {
-
-            @Override
-            protected Decoder initialValue() {
-                try {
-                    return new PhrasalDecoder(model, weights);
-                } catch (IOException x) {
-                    throw new RuntimeException(x);
-                } catch (ClassNotFoundException x) {
-                    throw new RuntimeException(x);
-                }
-            }
-        };
     }
 
     @Override
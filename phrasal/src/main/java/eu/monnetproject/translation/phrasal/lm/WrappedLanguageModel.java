@@ -27,18 +27,23 @@
 package eu.monnetproject.translation.phrasal.lm;
 
 import edu.stanford.nlp.mt.base.IString;
-import edu.stanford.nlp.mt.base.LanguageModel;
 import edu.stanford.nlp.mt.base.Sequence;
+import edu.stanford.nlp.mt.base.StatefulLanguageModel;
+import eu.monnetproject.translation.IndexedLanguageModel;
+import eu.monnetproject.translation.LanguageModelState;
 import java.util.LinkedList;
 import java.util.List;
 
 /**
+ * Wraps a language model for Phrasal. If the model is an {@link 
+ * IndexedLanguageModel} it can be scored incrementally.
  *
  * @author John McCrae
  */
-public class WrappedLanguageModel implements LanguageModel<IString> {
+public class WrappedLanguageModel implements StatefulLanguageModel<IString> {
 
     private final eu.monnetproject.translation.LanguageModel lm;
+    private final IndexedLanguageModel indexedModel;
     public static final IString START_TOKEN = new IString("<s>");
     public static final IString END_TOKEN = new IString("</s>");
 
@@ -47,6 +52,7 @@ public class WrappedLanguageModel implements LanguageModel<IString> {
             throw new IllegalArgumentException("LM cannot be null");
         }
         this.lm = lm;
+        this.indexedModel = lm instanceof IndexedLanguageModel ? (IndexedLanguageModel) lm : null;
     }
 
     @Override
@@ -58,6 +64,16 @@ public class WrappedLanguageModel implements LanguageModel<IString> {
         return lm.score(seq2);
     }
 
+    @Override
+    public LanguageModelState newState() {
+        return indexedModel == null ? null : indexedModel.newState();
+    }
+
+    @Override
+    public double score(LanguageModelState state, IString token, LanguageModelState out) {
+        return indexedModel.score(state, indexedModel.wordId(token.word()), out);
+    }
+
     @Override
     public IString getStartToken() {
         return START_TOKEN;
@@ -48,6 +48,15 @@ public interface MemoryMap<E> {
      */
     long[] get(E key) throws IOException;
 
+    /**
+     * Check if some key in the map may start with a prefix
+     * @param prefix The prefix
+     * @return false if no key starts with the prefix, maps that cannot tell 
+     * return true
+     * @throws IOException If the file could not be read
+     */
+    boolean hasPrefix(E prefix) throws IOException;
+
     /**
      * Add a value in the map
      * @param key The key, must be greater than the previous entered key. If it is equal to the last key the value will not be modified
@@ -0,0 +1,305 @@
+/**********************************************************************************
+ * Copyright (c) 2011, Monnet Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Monnet Project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+package eu.monnetproject.translation.phrasal.mmap;
+
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compile an alphabetically sorted pseudo-Pharaoh phrase table into a binary
+ * table, so that it may be read without any parsing. The file consists of
+ * <ul>
+ * <li>A header: magic number, version, feature count, longest phrase, offset of the index and offset of the vocabulary</li>
+ * <li>The records: for each foreign phrase its length and word ids, the number of translations and then for each 
+ * translation (in descending order of approximate score) its length and word ids, its alignment id and its logged scores as floats</li>
+ * <li>The index: the hash of each foreign phrase and the offset of its record, sorted by hash</li>
+ * <li>The vocabulary: the foreign words, the translation words and the alignments as UTF strings</li>
+ * </ul>
+ * All ints and floats are aligned to four bytes and all longs to eight.
+ * 
+ * @author John McCrae
+ */
+public class PhraseTableCompiler {
+
+    public static final String SUFFIX = ".bin";
+    public static final int MAGIC = 0x50544231;
+    public static final int VERSION = 1;
+    public static final int HEADER = 32;
+    private final Object2IntOpenHashMap<String> srcVocab = new Object2IntOpenHashMap<String>();
+    private final Object2IntOpenHashMap<String> trgVocab = new Object2IntOpenHashMap<String>();
+    private final Object2IntOpenHashMap<String> alignments = new Object2IntOpenHashMap<String>();
+    private final List<String> srcWords = new ArrayList<String>(), trgWords = new ArrayList<String>(), alignmentStrings = new ArrayList<String>();
+    private final LongArrayList hashes = new LongArrayList(), offsets = new LongArrayList();
+    private DataOutputStream out;
+    private long position;
+    private int featureCount = -1;
+    private int longestPhrase = 0;
+
+    public PhraseTableCompiler() {
+        srcVocab.defaultReturnValue(-1);
+        trgVocab.defaultReturnValue(-1);
+        alignments.defaultReturnValue(-1);
+    }
+
+    /**
+     * Hash a phrase as a sequence of word ids
+     */
+    public static long hash(int[] ids, int length) {
+        long h = 0xcbf29ce484222325l;
+        for (int i = 0; i < length; i++) {
+            h ^= ids[i];
+            h *= 0x100000001b3l;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdl;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int id(String word, Object2IntOpenHashMap<String> vocab, List<String> words) {
+        int id = vocab.getInt(word);
+        if (id < 0) {
+            id = words.size();
+            vocab.put(word, id);
+            words.add(word);
+        }
+        return id;
+    }
+
+    private static class Option {
+
+        final int[] translation;
+        final int alignment;
+        final float[] scores;
+        final double approxScore;
+
+        public Option(int[] translation, int alignment, float[] scores) {
+            this.translation = translation;
+            this.alignment = alignment;
+            this.scores = scores;
+            double s = 0.0;
+            for (float f : scores) {
+                s += f;
+            }
+            this.approxScore = s;
+        }
+    }
+
+    private void writeInt(int i) throws IOException {
+        out.writeInt(i);
+        position += 4;
+    }
+
+    private void writeLong(long l) throws IOException {
+        out.writeLong(l);
+        position += 8;
+    }
+
+    private void writeRecord(int[] foreign, List<Option> options) throws IOException {
+        // Records may not cross a 1GB boundary, as the table is mapped in 1GB segments
+        long size = 8 + 4 * foreign.length;
+        for (Option option : options) {
+            size += 8 + 4 * option.translation.length + 4 * featureCount;
+        }
+        if (size > (1 << 30)) {
+            throw new IOException("Record too large");
+        }
+        while ((position >>> 30) != ((position + size - 1) >>> 30)) {
+            writeInt(0);
+        }
+        hashes.add(hash(foreign, foreign.length));
+        offsets.add(position);
+        writeInt(foreign.length);
+        for (int id : foreign) {
+            writeInt(id);
+        }
+        Collections.sort(options, new Comparator<Option>() {
+
+            @Override
+            public int compare(Option o1, Option o2) {
+                return Double.compare(o2.approxScore, o1.approxScore);
+            }
+        });
+        writeInt(options.size());
+        for (Option option : options) {
+            writeInt(option.translation.length);
+            for (int id : option.translation) {
+                writeInt(id);
+            }
+            writeInt(option.alignment);
+            for (float score : option.scores) {
+                out.writeFloat(score);
+                position += 4;
+            }
+        }
+    }
+
+    private Option readOption(PhraseTableLine line, String text) {
+        final double[] logScores = line.scores();
+        if (featureCount < 0) {
+            featureCount = logScores.length;
+        } else if (featureCount != logScores.length) {
+            throw new RuntimeException(String.format("Expected %d scores (line %s)", featureCount, text));
+        }
+        final float[] scores = new float[featureCount];
+        for (int i = 0; i < featureCount; i++) {
+            scores[i] = (float) logScores[i];
+        }
+        final List<String> translationTokens = line.translation();
+        final int[] translation = new int[translationTokens.size()];
+        for (int i = 0; i < translation.length; i++) {
+            translation[i] = id(translationTokens.get(i), trgVocab, trgWords);
+        }
+        final int alignment = line.alignment() == null ? -1 : id(line.alignment(), alignments, alignmentStrings);
+        return new Option(translation, alignment, scores);
+    }
+
+    public void compile(File phraseTable, File binFile) throws IOException {
+        final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(phraseTable), "UTF-8"));
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binFile)));
+        position = 0;
+        try {
+            for (int i = 0; i < HEADER / 4; i++) {
+                writeInt(0);
+            }
+            String line;
+            List<String> lastForeign = null;
+            int[] lastForeignIds = null;
+            List<Option> options = new ArrayList<Option>();
+            int n = 0;
+            while ((line = in.readLine()) != null) {
+                if (++n % 1000000 == 0) {
+                    System.err.print(".");
+                }
+                if (line.trim().length() == 0) {
+                    continue;
+                }
+                final PhraseTableLine parsed = new PhraseTableLine(line);
+                final List<String> foreign = parsed.foreign();
+                final Option option = readOption(parsed, line);
+                if (!foreign.equals(lastForeign)) {
+                    if (lastForeign != null) {
+                        writeRecord(lastForeignIds, options);
+                        options.clear();
+                    }
+                    lastForeign = foreign;
+                    lastForeignIds = new int[foreign.size()];
+                    for (int i = 0; i < lastForeignIds.length; i++) {
+                        lastForeignIds[i] = id(foreign.get(i), srcVocab, srcWords);
+                    }
+                    if (foreign.size() > longestPhrase) {
+                        longestPhrase = foreign.size();
+                    }
+                }
+                options.add(option);
+            }
+            if (lastForeign != null) {
+                writeRecord(lastForeignIds, options);
+            }
+            // The index
+            while (position % 8 != 0) {
+                writeInt(0);
+            }
+            final long indexOffset = position;
+            final long[] h = hashes.elements(), o = offsets.elements();
+            it.unimi.dsi.fastutil.Arrays.quickSort(0, hashes.size(), new AbstractIntComparator() {
+
+                @Override
+                public int compare(int k1, int k2) {
+                    return h[k1] < h[k2] ? -1 : (h[k1] == h[k2] ? 0 : 1);
+                }
+            }, new Swapper() {
+
+                @Override
+                public void swap(int a, int b) {
+                    long t = h[a];
+                    h[a] = h[b];
+                    h[b] = t;
+                    t = o[a];
+                    o[a] = o[b];
+                    o[b] = t;
+                }
+            });
+            for (int i = 0; i < hashes.size(); i++) {
+                writeLong(h[i]);
+                writeLong(o[i]);
+            }
+            final long vocabOffset = position;
+            final List<List<String>> vocabularies = new ArrayList<List<String>>(3);
+            vocabularies.add(srcWords);
+            vocabularies.add(trgWords);
+            vocabularies.add(alignmentStrings);
+            for (List<String> words : vocabularies) {
+                out.writeInt(words.size());
+                for (String word : words) {
+                    out.writeUTF(word);
+                }
+            }
+            out.close();
+            out = null;
+            final RandomAccessFile raf = new RandomAccessFile(binFile, "rw");
+            try {
+                raf.writeInt(MAGIC);
+                raf.writeInt(VERSION);
+                raf.writeInt(Math.max(featureCount, 0));
+                raf.writeInt(longestPhrase);
+                raf.writeLong(indexOffset);
+                raf.writeLong(vocabOffset);
+            } finally {
+                raf.close();
+            }
+        } finally {
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage:\n\t PhraseTableCompiler phrase-table");
+            System.exit(-1);
+        }
+        new PhraseTableCompiler().compile(new File(args[0]), new File(args[0] + SUFFIX));
+    }
+}
@@ -0,0 +1,230 @@
+/**********************************************************************************
+ * Copyright (c) 2011, Monnet Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Monnet Project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+package eu.monnetproject.translation.phrasal.mmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The fields of a line of a Moses phrase table, that is
+ * {@code foreign ||| translation ||| scores ||| ... ||| alignment ||| ...}.
+ * The scores are read as log probabilities and the alignment is the fields 
+ * after the one following the scores, excluding the unterminated last field.
+ * The line may be read from any source of whitespace-separated tokens.
+ *
+ * @author John McCrae
+ */
+public class PhraseTableLine {
+
+    /**
+     * The whitespace-separated tokens of a line
+     */
+    public interface Tokens {
+
+        /**
+         * Are there more tokens on the line
+         */
+        boolean hasMoreTokens();
+
+        /**
+         * Skip the next token if it is a field separator
+         * @param prefix If true any token starting with the separator is accepted
+         */
+        boolean skipSeparator(boolean prefix);
+
+        String nextToken();
+
+        /**
+         * The whole line, for error messages
+         */
+        String line();
+    }
+
+    private final List<String> foreign = new ArrayList<String>();
+    private final List<String> translation = new ArrayList<String>();
+    private double[] scores = new double[5];
+    private int scoreCount;
+    private String alignment;
+
+    /**
+     * Read a line
+     * @throws RuntimeException If the line is not valid
+     */
+    public PhraseTableLine(Tokens tokens) {
+        while (tokens.hasMoreTokens() && !tokens.skipSeparator(false)) {
+            foreign.add(tokens.nextToken());
+        }
+        if (!tokens.hasMoreTokens()) {
+            throw new RuntimeException(String.format(
+                    "Additional fields expected (line %s)", tokens.line()));
+        }
+        while (tokens.hasMoreTokens() && !tokens.skipSeparator(false)) {
+            translation.add(tokens.nextToken());
+        }
+        if (!tokens.hasMoreTokens()) {
+            throw new RuntimeException(String.format(
+                    "Additional fields expected (line %s)", tokens.line()));
+        }
+        while (tokens.hasMoreTokens() && !tokens.skipSeparator(false)) {
+            final String token = tokens.nextToken();
+            if (scoreCount == scores.length) {
+                final double[] newScores = new double[scoreCount * 2];
+                System.arraycopy(scores, 0, newScores, 0, scoreCount);
+                scores = newScores;
+            }
+            try {
+                scores[scoreCount++] = logProb(token);
+            } catch (NumberFormatException x) {
+                throw new RuntimeException(String.format(
+                        "Error on line: '%s' not a list of numbers", tokens.line()));
+            }
+        }
+        final StringBuilder constilation = new StringBuilder();
+        int constilationLength = 0;
+        boolean first = true;
+        while (tokens.hasMoreTokens()) {
+            if (tokens.skipSeparator(true)) {
+                constilationLength = constilation.length();
+                first = false;
+                continue;
+            }
+            final String token = tokens.nextToken();
+            if (!first) {
+                if (constilation.length() > 0) {
+                    constilation.append(";");
+                }
+                constilation.append(token);
+            }
+        }
+        alignment = constilationLength == 0 ? null : constilation.substring(0, constilationLength);
+    }
+
+    /**
+     * Read a line from a string
+     */
+    public PhraseTableLine(String line) {
+        this(new StringTokens(line));
+    }
+
+    /**
+     * The log of a probability in the table, rounded to a float
+     * @throws NumberFormatException If the token is not a number
+     */
+    public static double logProb(String token) {
+        final double f = Double.parseDouble(token);
+        if (f != f) {
+            throw new RuntimeException(String.format(
+                    "Bad phrase table. %s parses as (float) %f", token, f));
+        }
+        return (float) Math.log(f);
+    }
+
+    /**
+     * The tokens of the foreign phrase
+     */
+    public List<String> foreign() {
+        return foreign;
+    }
+
+    /**
+     * The tokens of the translation
+     */
+    public List<String> translation() {
+        return translation;
+    }
+
+    /**
+     * The scores as log probabilities
+     */
+    public double[] scores() {
+        final double[] s = new double[scoreCount];
+        System.arraycopy(scores, 0, s, 0, scoreCount);
+        return s;
+    }
+
+    /**
+     * The alignment, its fields separated by semicolons, or null if there is
+     * none
+     */
+    public String alignment() {
+        return alignment;
+    }
+
+    private static boolean isWhitespace(char c) {
+        // As StringTokenizer
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static final class StringTokens implements Tokens {
+
+        private final String line;
+        private int pos;
+
+        public StringTokens(String line) {
+            this.line = line;
+        }
+
+        @Override
+        public boolean hasMoreTokens() {
+            while (pos < line.length() && isWhitespace(line.charAt(pos))) {
+                pos++;
+            }
+            return pos < line.length();
+        }
+
+        @Override
+        public boolean skipSeparator(boolean prefix) {
+            if (!hasMoreTokens() || !line.startsWith("|||", pos)) {
+                return false;
+            }
+            int e = pos + 3;
+            while (e < line.length() && !isWhitespace(line.charAt(e))) {
+                e++;
+            }
+            if (!prefix && e != pos + 3) {
+                return false;
+            }
+            pos = e;
+            return true;
+        }
+
+        @Override
+        public String nextToken() {
+            hasMoreTokens();
+            final int start = pos;
+            while (pos < line.length() && !isWhitespace(line.charAt(pos))) {
+                pos++;
+            }
+            return line.substring(start, pos);
+        }
+
+        @Override
+        public String line() {
+            return line;
+        }
+    }
+}
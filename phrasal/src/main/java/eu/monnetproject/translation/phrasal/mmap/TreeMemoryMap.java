@@ -72,6 +72,14 @@ public class TreeMemoryMap implements MemoryMap<StableHashByteArray> {
         this.initialOffset = initialOffset;
     }
 
+    /**
+     * Keys are hashes so any key may start with a prefix
+     */
+    @Override
+    public boolean hasPrefix(StableHashByteArray prefix) {
+        return true;
+    }
+
     // unsigned byte <
     private static boolean byteLeq(byte b1, byte b2) {
         return (((int) b1) & 0xff) < (((int) b2) & 0xff);
@@ -55,9 +55,9 @@ public class TrieMemoryMap implements MemoryMap<CharSequence> {
     // The current end of the written data
     private long offset;
     // Size of an entry, 1 char and 3  longs = 2 + 3 * 8 = 26
-    private static final int ENTRY_SIZE = 26;
+    static final int ENTRY_SIZE = 26;
     // Size of a data block, 2 longs = 2 * 8
-    private static final int DATA_SIZE = 16;
+    static final int DATA_SIZE = 16;
 
     public TrieMemoryMap(File file) throws IOException {
         this.channel = new RandomAccessFile(file, "rw").getChannel();
@@ -132,6 +132,30 @@ public class TrieMemoryMap implements MemoryMap<CharSequence> {
         rval[1] = map.getLong();
         return rval;
     }
+    @Override
+    public boolean hasPrefix(CharSequence prefix) throws IOException {
+        long loc = initialOffset;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (i > 0 && loc == 0) {
+                return false;
+            }
+            BufferEntry buffer = read(loc);
+            while (buffer.character < prefix.charAt(i)) {
+                if (buffer.next == 0) {
+                    return false;
+                }
+                buffer = read(buffer.next);
+                if (buffer.character == 0) {
+                    return false;
+                }
+            }
+            if (buffer.character != prefix.charAt(i)) {
+                return false;
+            }
+            loc = buffer.descend;
+        }
+        return true;
+    }
     private long lastIdx;
     private CharSequence lastKeySeq;
     
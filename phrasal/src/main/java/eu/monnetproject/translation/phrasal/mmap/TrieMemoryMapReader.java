@@ -0,0 +1,155 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.phrasal.mmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only view of a map written by {@link TrieMemoryMap}. The file is 
+ * mapped once, in segments of (by default) 1GB, and the trie is walked by 
+ * absolute reads on the mapping, so a look-up creates no buffers and makes no
+ * system calls, and may be made from any number of threads.
+ *
+ * @author John McCrae
+ */
+public class TrieMemoryMapReader implements MemoryMap<CharSequence> {
+
+    // Offsets of the fields of an entry (char, descend, next, data)
+    private static final int DESCEND = 2, NEXT = 10, DATA = 18;
+    private final MappedByteBuffer[] segments;
+    private final int segmentBits;
+    private final long segmentMask;
+    private final int initialOffset;
+
+    public TrieMemoryMapReader(File file, int initialOffset) throws IOException {
+        this(file, initialOffset, 30);
+    }
+
+    TrieMemoryMapReader(File file, int initialOffset, int segmentBits) throws IOException {
+        this.initialOffset = initialOffset;
+        this.segmentBits = segmentBits;
+        this.segmentMask = (1L << segmentBits) - 1;
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            this.segments = new MappedByteBuffer[(int) ((size >>> segmentBits) + 1)];
+            for (int i = 0; i < segments.length; i++) {
+                final long start = (long) i << segmentBits;
+                // Segments overlap by an entry, so no entry is split between two
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(segmentMask + 1 + TrieMemoryMap.ENTRY_SIZE, size - start));
+            }
+        } finally {
+            // The mappings remain valid after the file is closed
+            raf.close();
+        }
+    }
+
+    private char getChar(long loc) {
+        return segments[(int) (loc >>> segmentBits)].getChar((int) (loc & segmentMask));
+    }
+
+    private long getLong(long loc) {
+        return segments[(int) (loc >>> segmentBits)].getLong((int) (loc & segmentMask));
+    }
+
+    /**
+     * Find the entry of the last character of a key
+     * @return The location of the entry or -1 if no key starts with this key
+     */
+    private long find(CharSequence key) {
+        long loc = initialOffset;
+        for (int i = 0; i < key.length(); i++) {
+            if (i > 0) {
+                // If we are not finished and can't descend the key is too long
+                loc = getLong(loc + DESCEND);
+                if (loc == 0) {
+                    return -1;
+                }
+            }
+            final char c = key.charAt(i);
+            char character = getChar(loc);
+            // Traverse nexts until we find the correct character
+            while (character < c) {
+                final long next = getLong(loc + NEXT);
+                if (next == 0) {
+                    return -1;
+                }
+                loc = next;
+                character = getChar(loc);
+                if (character == 0) {
+                    return -1;
+                }
+            }
+            if (character != c) {
+                return -1;
+            }
+        }
+        return loc;
+    }
+
+    @Override
+    public long[] get(CharSequence key) throws IOException {
+        if (key.length() == 0) {
+            throw new IllegalArgumentException("Cannot index empty string");
+        }
+        final long loc = find(key);
+        if (loc < 0) {
+            return null;
+        }
+        // If the entry has no data the key is too short
+        final long data = getLong(loc + DATA);
+        if (data == 0) {
+            return null;
+        }
+        return new long[]{getLong(data), getLong(data + 8)};
+    }
+
+    @Override
+    public boolean hasPrefix(CharSequence prefix) throws IOException {
+        return prefix.length() == 0 || find(prefix) >= 0;
+    }
+
+    @Override
+    public void put(CharSequence key, long idx) throws IOException {
+        throw new AlreadyClosedException("Map is read-only");
+    }
+
+    @Override
+    public void close(long idx) throws IOException {
+        throw new AlreadyClosedException("Map is read-only");
+    }
+
+    @Override
+    public void dispose() throws IOException {
+    }
+}
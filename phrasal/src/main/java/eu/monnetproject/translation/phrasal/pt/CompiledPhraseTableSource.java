@@ -0,0 +1,312 @@
+/**********************************************************************************
+ * Copyright (c) 2011, Monnet Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Monnet Project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+package eu.monnetproject.translation.phrasal.pt;
+
+import edu.stanford.nlp.mt.base.PhraseAlignment;
+import eu.monnetproject.lang.Language;
+import eu.monnetproject.translation.Chunk;
+import eu.monnetproject.translation.Feature;
+import eu.monnetproject.translation.IndexedTranslationSource;
+import eu.monnetproject.translation.PhraseTable;
+import eu.monnetproject.translation.monitor.Messages;
+import eu.monnetproject.translation.phrasal.TokenizedLabelImpl;
+import eu.monnetproject.translation.phrasal.mmap.PhraseTableCompiler;
+import eu.monnetproject.translation.util.TranslationLimit;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A translation source reading a phrase table compiled by {@link PhraseTableCompiler}.
+ * Translations are read as word ids and scores from a mapping of the table, 
+ * so no text is parsed on look-up.
+ *
+ * @author John McCrae
+ */
+public class CompiledPhraseTableSource implements IndexedTranslationSource {
+
+    private final String name;
+    private final int longestPhrase, featureCount;
+    private final Language srcLang, trgLang;
+    private final Object2IntOpenHashMap<String> srcVocab = new Object2IntOpenHashMap<String>();
+    private final String[] trgVocab;
+    private final PhraseAlignment[] alignments;
+    private final String[] featureNames;
+    private final TranslationLimit limit;
+    private final long indexOffset, keyCount;
+    // The table, mapped in segments of 1GB
+    private final MappedByteBuffer[] table;
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    public CompiledPhraseTableSource(String filename, int featureCount, Language srcLang, Language trgLang) throws IOException {
+        final File binFile = new File(filename + PhraseTableCompiler.SUFFIX);
+        if (!binFile.exists()) {
+            final File tableFile = new File(filename);
+            if (!tableFile.exists()) {
+                throw new IOException("Could not locate phrase table at " + tableFile.getPath());
+            }
+            Messages.info("Compiled phrase table does not exist... creating... this may take a very long time");
+            new PhraseTableCompiler().compile(tableFile, binFile);
+        }
+        this.name = String.format("CompiledPhraseTable(%s)", new File(filename).getName());
+        this.srcLang = srcLang;
+        this.trgLang = trgLang;
+        final RandomAccessFile raf = new RandomAccessFile(binFile, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            this.table = new MappedByteBuffer[(int) ((size >>> SEGMENT_BITS) + 1)];
+            for (int i = 0; i < table.length; i++) {
+                final long start = (long) i << SEGMENT_BITS;
+                table[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_MASK + 1, size - start));
+            }
+        } finally {
+            raf.close();
+        }
+        if (size() < PhraseTableCompiler.HEADER || getInt(0) != PhraseTableCompiler.MAGIC) {
+            throw new IOException("Invalid file");
+        }
+        if (getInt(4) != PhraseTableCompiler.VERSION) {
+            throw new IOException("Compiled phrase table is version " + getInt(4) + ", please delete " + binFile.getPath() + " so it may be recompiled");
+        }
+        this.featureCount = getInt(8);
+        if (this.featureCount != featureCount) {
+            throw new IOException("Compiled phrase table has " + this.featureCount + " features, expected " + featureCount);
+        }
+        if (featureCount != 1 && featureCount != 5) {
+            throw new IOException("Bad number of weights in phrase table");
+        }
+        this.featureNames = featureCount == 1 ? MemoryMappedPhraseTableSource.CANONICAL_ONESCORE_SCORE_TYPES : MemoryMappedPhraseTableSource.CANONICAL_FIVESCORE_SCORE_TYPES;
+        this.limit = new TranslationLimit(featureNames, srcLang, trgLang);
+        this.longestPhrase = getInt(12);
+        this.indexOffset = getLong(16);
+        final long vocabOffset = getLong(24);
+        this.keyCount = (vocabOffset - indexOffset) / 16;
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(binFile)));
+        try {
+            long skip = vocabOffset;
+            while (skip > 0) {
+                skip -= in.skip(skip);
+            }
+            srcVocab.defaultReturnValue(-1);
+            final int srcSize = in.readInt();
+            for (int i = 0; i < srcSize; i++) {
+                srcVocab.put(in.readUTF(), i);
+            }
+            this.trgVocab = new String[in.readInt()];
+            for (int i = 0; i < trgVocab.length; i++) {
+                trgVocab[i] = in.readUTF();
+            }
+            this.alignments = new PhraseAlignment[in.readInt()];
+            for (int i = 0; i < alignments.length; i++) {
+                alignments[i] = PhraseAlignment.getPhraseAlignment(in.readUTF());
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private long size() {
+        return ((long) (table.length - 1) << SEGMENT_BITS) + table[table.length - 1].capacity();
+    }
+
+    private int getInt(long pos) {
+        return table[(int) (pos >>> SEGMENT_BITS)].getInt((int) (pos & SEGMENT_MASK));
+    }
+
+    private long getLong(long pos) {
+        return table[(int) (pos >>> SEGMENT_BITS)].getLong((int) (pos & SEGMENT_MASK));
+    }
+
+    private float getFloat(long pos) {
+        return table[(int) (pos >>> SEGMENT_BITS)].getFloat((int) (pos & SEGMENT_MASK));
+    }
+
+    /**
+     * Find the record of a foreign phrase
+     * @return The offset of the record or -1 if the phrase is not in the table
+     */
+    private long find(int[] ids) {
+        final long hash = PhraseTableCompiler.hash(ids, ids.length);
+        long lo = 0, hi = keyCount;
+        while (lo < hi) {
+            final long mid = (lo + hi) >>> 1;
+            if (getLong(indexOffset + 16 * mid) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        KEYS:
+        for (long i = lo; i < keyCount && getLong(indexOffset + 16 * i) == hash; i++) {
+            final long record = getLong(indexOffset + 16 * i + 8);
+            if (getInt(record) != ids.length) {
+                continue;
+            }
+            for (int j = 0; j < ids.length; j++) {
+                if (getInt(record + 4 + 4 * j) != ids[j]) {
+                    continue KEYS;
+                }
+            }
+            return record;
+        }
+        return -1;
+    }
+
+    @Override
+    public PhraseTable candidates(Chunk label) {
+        final String src = label.getSource().trim();
+        final PhraseTableImpl phraseTable = new PhraseTableImpl(srcLang, trgLang, name, longestPhrase);
+        final String[] tokens = src.split("\\s+");
+        if (tokens.length > longestPhrase) {
+            return phraseTable;
+        }
+        final int[] ids = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            ids[i] = srcVocab.getInt(tokens[i]);
+            if (ids[i] < 0) {
+                return phraseTable;
+            }
+        }
+        long pos = find(ids);
+        if (pos < 0) {
+            return phraseTable;
+        }
+        final TokenizedLabelImpl foreign = new TokenizedLabelImpl(Arrays.asList(tokens), srcLang);
+        pos += 4 + 4 * ids.length;
+        final int options = getInt(pos);
+        pos += 4;
+        final boolean[] keep = select(pos, options);
+        for (int i = 0; i < options; i++) {
+            final int length = getInt(pos);
+            if (keep != null && !keep[i]) {
+                pos += 8 + 4 * length + 4 * featureCount;
+                continue;
+            }
+            pos += 4;
+            final List<String> translation = new ArrayList<String>(length);
+            for (int j = 0; j < length; j++) {
+                translation.add(trgVocab[getInt(pos)]);
+                pos += 4;
+            }
+            final int alignment = getInt(pos);
+            pos += 4;
+            final Feature[] features = new Feature[featureCount];
+            for (int j = 0; j < featureCount; j++) {
+                features[j] = new Feature(featureNames[j], getFloat(pos));
+                pos += 4;
+            }
+            phraseTable.add(new PhraseTableEntryImpl(foreign, new TokenizedLabelImpl(translation, trgLang), features, alignment < 0 ? null : alignments[alignment]));
+        }
+        return phraseTable;
+    }
+
+    @Override
+    public int maxPhraseLength() {
+        return longestPhrase;
+    }
+
+    @Override
+    public boolean hasPhrase(String phrase) {
+        final String[] tokens = phrase.trim().split("\\s+");
+        if (tokens.length > longestPhrase) {
+            return false;
+        }
+        final int[] ids = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            ids[i] = srcVocab.getInt(tokens[i]);
+            if (ids[i] < 0) {
+                return false;
+            }
+        }
+        return find(ids) >= 0;
+    }
+
+    /**
+     * Only checks that every token is in the vocabulary of foreign phrases
+     */
+    @Override
+    public boolean hasPrefix(String phrase) {
+        final String[] tokens = phrase.trim().split("\\s+");
+        if (tokens.length > longestPhrase) {
+            return false;
+        }
+        for (String token : tokens) {
+            if (!srcVocab.containsKey(token)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Select the translations of a record that are within the limit
+     * @param pos The offset of the first translation
+     * @param options The number of translations
+     * @return Whether to keep each translation, or null to keep all
+     */
+    private boolean[] select(long pos, int options) {
+        if (!limit.exceeds(options)) {
+            return null;
+        }
+        final double[] approxScores = new double[options];
+        final double[] scores = new double[featureCount];
+        for (int i = 0; i < options; i++) {
+            pos += 8 + 4 * getInt(pos);
+            for (int j = 0; j < featureCount; j++) {
+                scores[j] = getFloat(pos);
+                pos += 4;
+            }
+            approxScores[i] = limit.score(scores);
+        }
+        return limit.select(approxScores, options);
+    }
+
+    @Override
+    public String[] featureNames() {
+        return featureNames;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -31,31 +31,30 @@ import edu.stanford.nlp.mt.base.PhraseAlignment;
 import eu.monnetproject.lang.Language;
 import eu.monnetproject.translation.Chunk;
 import eu.monnetproject.translation.Feature;
+import eu.monnetproject.translation.IndexedTranslationSource;
 import eu.monnetproject.translation.PhraseTable;
 import eu.monnetproject.translation.PhraseTableEntry;
-import eu.monnetproject.translation.TranslationSource;
 import eu.monnetproject.translation.phrasal.mmap.MemoryMap;
+import eu.monnetproject.translation.phrasal.mmap.PhraseTableLine;
 import eu.monnetproject.translation.phrasal.mmap.PhraseTableMapper;
 import eu.monnetproject.translation.phrasal.pt.cache.Cache;
 import eu.monnetproject.translation.monitor.Messages;
-import java.io.BufferedReader;
+import eu.monnetproject.translation.util.TranslationLimit;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.StringTokenizer;
 
 /**
  *
  * @author John McCrae
  */
-public abstract class MemoryMappedPhraseTableSource<Key> implements TranslationSource {
+public abstract class MemoryMappedPhraseTableSource<Key> implements IndexedTranslationSource {
 
     private final String name;
     //   private final FileChannel srcTable;
@@ -66,7 +65,12 @@ public abstract class MemoryMappedPhraseTableSource<Key> implements TranslationS
     private final Language srcLang, trgLang;
     //private final Cache<StableHashByteArray, PhraseTableEntry> cache;
     private final Cache<Key, PhraseTableEntry> cache;
-    private static final int LINE_BYTES = 1;
+    private final TranslationLimit limit;
+    // The phrase table, mapped in segments of 1GB
+    private final MappedByteBuffer[] table;
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
    public static final String FIVESCORE_PHI_t_f = "phi(t|f)";
     public static final String FIVESCORE_LEX_t_f = "lex(t|f)";
@@ -93,11 +97,29 @@ public abstract class MemoryMappedPhraseTableSource<Key> implements TranslationS
         // this.srcTable = new FileInputStream(tableFile).getChannel();
         //this.tmm = new TreeMemoryMap(mapFile, PhraseTableMapper.KEY, PhraseTableMapper.OFFSET);
         this.tmm = tmm;
-        final FileChannel channel = new FileInputStream(mapFile).getChannel();
-        final MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, PhraseTableMapper.OFFSET);
-        check(map.getInt());
-        this.longestPhrase = map.getInt();
+        final RandomAccessFile mapRaf = new RandomAccessFile(mapFile, "r");
+        try {
+            final MappedByteBuffer map = mapRaf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, PhraseTableMapper.OFFSET);
+            check(map.getInt());
+            this.longestPhrase = map.getInt();
+        } finally {
+            mapRaf.close();
+        }
+        // The mappings remain valid after the file is closed
+        final RandomAccessFile tableRaf = new RandomAccessFile(tableFile, "r");
+        try {
+            final FileChannel channel = tableRaf.getChannel();
+            final long size = channel.size();
+            this.table = new MappedByteBuffer[(int) ((size >>> SEGMENT_BITS) + 1)];
+            for (int i = 0; i < table.length; i++) {
+                final long start = (long) i << SEGMENT_BITS;
+                table[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_MASK + 1, size - start));
+            }
+        } finally {
+            tableRaf.close();
+        }
         this.featureCount = featureCount;
+        this.limit = new TranslationLimit(featureNames(), srcLang, trgLang);
         if (longestPhrase < 1 || longestPhrase > 20) {
             throw new IllegalArgumentException("Unexpected phrase length: this is likely caused by the map being invalid");
         }
@@ -141,6 +163,41 @@ public abstract class MemoryMappedPhraseTableSource<Key> implements TranslationS
         }
     }
 
+    @Override
+    public int maxPhraseLength() {
+        return longestPhrase;
+    }
+
+    @Override
+    public boolean hasPhrase(String phrase) {
+        if (phrase.split("\\s+").length > longestPhrase) {
+            return false;
+        }
+        final Key key = key(phrase);
+        final List<PhraseTableEntry> cached = cache.get(key);
+        if (cached != null) {
+            return !cached.isEmpty();
+        }
+        try {
+            return tmm.get(key) != null;
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
+    @Override
+    public boolean hasPrefix(String phrase) {
+        if (phrase.split("\\s+").length > longestPhrase) {
+            return false;
+        }
+        try {
+            // Keys end with a space so this is a prefix of whole tokens
+            return tmm.hasPrefix(key(phrase));
+        } catch (IOException x) {
+            throw new RuntimeException(x);
+        }
+    }
+
     private PhraseTable candidatesFromDisk(String src, final Key key, final List<PhraseTableEntry> cached) throws IOException {
         final List<PhraseTableEntry> newCached = new ArrayList<PhraseTableEntry>();
         final long[] range = tmm.get(key);
@@ -149,20 +206,15 @@ public abstract class MemoryMappedPhraseTableSource<Key> implements TranslationS
             cache.put(key,newCached);
             return new PhraseTableImpl(srcLang, trgLang, name, longestPhrase);
         } else {
-            final long size = range[1] - range[0];
-            final FileInputStream fis = new FileInputStream(tableFile);
-            fis.skip(range[0]);
-            final BufferedReader reader = new BufferedReader(new InputStreamReader(fis));
-            String line;
-            long read = 0;
-
+            final RecordReader reader = new RecordReader(range[0], range[1]);
+            final boolean[] keep = select(range[0], range[1]);
             final PhraseTableImpl phraseTable = new PhraseTableImpl(srcLang, trgLang, name, longestPhrase);
-            while ((line = reader.readLine()) != null) {
-                read += line.getBytes().length + LINE_BYTES;
-                if (read > size) {
-                    break;
+            int line = 0;
+            while (reader.nextLine()) {
+                if (!reader.hasMoreTokens() || (keep != null && !keep[line++])) {
+                    continue;
                 }
-                final PhraseTableEntry pte = read(line);
+                final PhraseTableEntry pte = read(reader);
                 if (pte != null && pte.getForeign().asString().equals(src)) {
                     phraseTable.add(pte);
                 } else {
@@ -175,95 +227,162 @@ public abstract class MemoryMappedPhraseTableSource<Key> implements TranslationS
         }
     }
 
-    private PhraseTableEntry read(String line) {
-
-        StringTokenizer toker = new StringTokenizer(line);
-        StringBuilder src = new StringBuilder();
-        List<String> foreignTokenList = new LinkedList<String>();
-        do {
-            String token = toker.nextToken();
-            if ("|||".equals(token)) {
-                break;
+    /**
+     * Select the translations in a range that are within the limit
+     * @return Whether to keep each (non-empty) line, or null to keep all
+     */
+    private boolean[] select(long start, long end) {
+        RecordReader reader = new RecordReader(start, end);
+        int n = 0;
+        while (reader.nextLine()) {
+            if (reader.hasMoreTokens()) {
+                n++;
+            }
+        }
+        if (!limit.exceeds(n)) {
+            return null;
+        }
+        final double[] approxScores = new double[n];
+        final double[] scores = new double[featureCount];
+        reader = new RecordReader(start, end);
+        int i = 0;
+        while (reader.nextLine()) {
+            if (reader.hasMoreTokens()) {
+                // Skip the foreign and translation fields
+                for (int field = 0; field < 2; field++) {
+                    while (reader.hasMoreTokens() && !reader.skipSeparator(false)) {
+                        reader.skipToken();
+                    }
+                }
+                Arrays.fill(scores, 0.0);
+                int j = 0;
+                while (reader.hasMoreTokens() && !reader.skipSeparator(false)) {
+                    final String token = reader.nextToken();
+                    if (j < scores.length) {
+                        try {
+                            scores[j++] = PhraseTableLine.logProb(token);
+                        } catch (NumberFormatException x) {
+                            throw new RuntimeException(String.format(
+                                    "Error on line: '%s' not a list of numbers", reader.line()));
+                        }
+                    }
+                }
+                approxScores[i++] = limit.score(scores);
             }
-            foreignTokenList.add(token);
-            src.append(token).append(" ");
-        } while (toker.hasMoreTokens());
-
-        if (!toker.hasMoreTokens()) {
-            throw new RuntimeException(String.format(
-                    "Additional fields expected (line %s)", line));
         }
+        return limit.select(approxScores, n);
+    }
 
-        List<String> translationTokenList = new LinkedList<String>();
+    private byte byteAt(long pos) {
+        return table[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK));
+    }
 
-        do {
-            String token = toker.nextToken();
-            if ("|||".equals(token)) {
-                break;
-            }
-            translationTokenList.add(token);
-        } while (toker.hasMoreTokens());
+    private static boolean isWhitespace(byte b) {
+        // As StringTokenizer
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+    }
+
+    /**
+     * Reads the whitespace-separated tokens of the lines in a range of the
+     * mapped phrase table
+     */
+    private final class RecordReader implements PhraseTableLine.Tokens {
 
-        if (!toker.hasMoreTokens()) {
-            throw new RuntimeException(String.format(
-                    "Additional fields expected (line %s)", line));
+        private final long end;
+        private long lineStart, lineEnd, pos;
+        private byte[] buf = new byte[64];
+
+        public RecordReader(long start, long end) {
+            this.end = end;
+            this.lineEnd = start - 1;
         }
-        
-        List<String> scoreList = new LinkedList<String>();
-        do {
-            String  token = toker.nextToken();
-            if("|||".equals(token)) {
-                break;
+
+        /**
+         * Move to the next line
+         * @return false if there are no more lines in the range
+         */
+        public boolean nextLine() {
+            lineStart = pos = lineEnd + 1;
+            if (lineStart >= end) {
+                return false;
             }
-            scoreList.add(token);
-        } while(toker.hasMoreTokens());
-        
-        double[] scores;
-        try {
-            scores = stringProbListToFloatProbArray(scoreList, true);
-        } catch (NumberFormatException e) {
-            throw new RuntimeException(String.format(
-                    "Error on line: '%s' not a list of numbers", scoreList));
+            lineEnd = lineStart;
+            while (lineEnd < end && byteAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            return true;
         }
-        scoreList = new LinkedList<String>();
-        
-        Collection<String> constilationList = new LinkedList<String>();
-        boolean first = true;
-        while(toker.hasMoreTokens()) {
-            String token = toker.nextToken();
-            if (token.startsWith("|||")) {
-                constilationList.addAll(scoreList);
-                scoreList = new LinkedList<String>();
-                first = false;
-                continue;
+
+        @Override
+        public boolean hasMoreTokens() {
+            while (pos < lineEnd && isWhitespace(byteAt(pos))) {
+                pos++;
             }
-            if (!first) {
-                scoreList.add(token);
+            return pos < lineEnd;
+        }
+
+        /**
+         * Skip the next token if it is a field separator
+         * @param prefix If true any token starting with the separator is accepted
+         */
+        @Override
+        public boolean skipSeparator(boolean prefix) {
+            if (!hasMoreTokens() || pos + 3 > lineEnd
+                    || byteAt(pos) != '|' || byteAt(pos + 1) != '|' || byteAt(pos + 2) != '|') {
+                return false;
+            }
+            long e = pos + 3;
+            while (e < lineEnd && !isWhitespace(byteAt(e))) {
+                e++;
+            }
+            if (!prefix && e != pos + 3) {
+                return false;
+            }
+            pos = e;
+            return true;
+        }
+
+        public void skipToken() {
+            hasMoreTokens();
+            while (pos < lineEnd && !isWhitespace(byteAt(pos))) {
+                pos++;
             }
         }
 
-        StringBuilder constilationB = new StringBuilder();
-        {
-            int idx = -1;
-            for (String t : constilationList) {
-                idx++;
-                if (idx > 0) {
-                    constilationB.append(";");
+        @Override
+        public String nextToken() {
+            hasMoreTokens();
+            int n = 0;
+            while (pos < lineEnd && !isWhitespace(byteAt(pos))) {
+                if (n == buf.length) {
+                    final byte[] newBuf = new byte[n * 2];
+                    System.arraycopy(buf, 0, newBuf, 0, n);
+                    buf = newBuf;
                 }
-                constilationB.append(t);
+                buf[n++] = byteAt(pos++);
             }
+            return new String(buf, 0, n, UTF8);
         }
-        final TokenizedLabelImpl foreign = new TokenizedLabelImpl(foreignTokenList, srcLang);
-        final TokenizedLabelImpl translation = new TokenizedLabelImpl(translationTokenList, trgLang);
 
-        String constilationBStr = constilationB.toString();
-        if (constilationBStr.equals("")) {
-            return new PhraseTableEntryImpl(foreign, translation, toFeatures(scores), null);
-        } else {
-            return new PhraseTableEntryImpl(foreign, translation, toFeatures(scores), PhraseAlignment.getPhraseAlignment(constilationBStr));
+        @Override
+        public String line() {
+            final byte[] line = new byte[(int) (lineEnd - lineStart)];
+            for (int i = 0; i < line.length; i++) {
+                line[i] = byteAt(lineStart + i);
+            }
+            return new String(line, UTF8);
         }
     }
 
+    private PhraseTableEntry read(RecordReader reader) {
+        final PhraseTableLine line = new PhraseTableLine(reader);
+        final TokenizedLabelImpl foreign = new TokenizedLabelImpl(line.foreign(), srcLang);
+        final TokenizedLabelImpl translation = new TokenizedLabelImpl(line.translation(), trgLang);
+        final String alignment = line.alignment();
+        return new PhraseTableEntryImpl(foreign, translation, toFeatures(line.scores()),
+                alignment == null ? null : PhraseAlignment.getPhraseAlignment(alignment));
+    }
+
     private static Feature[] toFeatures(double[] scores) {
         if(scores.length == 1) {
             return new Feature[] { new Feature(CANONICAL_ONESCORE_SCORE_TYPES[0],scores[0]) };
@@ -278,20 +397,6 @@ public abstract class MemoryMappedPhraseTableSource<Key> implements TranslationS
             throw new RuntimeException("Bad number of weights in phrase table");
         }
     }
-    
-    private static double[] stringProbListToFloatProbArray(List<String> sList, boolean doLog) {
-        double[] fArray = new double[sList.size()];
-        int i = 0;
-        for (String s : sList) {
-            double f = Double.parseDouble(s);
-            if (f != f) {
-                throw new RuntimeException(String.format(
-                        "Bad phrase table. %s parses as (float) %f", s, f));
-            }
-            fArray[i++] = doLog ? (float) Math.log(f) : f;
-        }
-        return fArray;
-    }
 
 //    @Override
     public int featureCount() {
@@ -51,20 +51,40 @@ public class MemoryMappedPhraseTableSourceFactory implements TranslationSourceFa
     private LangPair lastCache;
     //private Cache<StableHashByteArray, PhraseTableEntry> cache;
     private Cache cache;
-    private final int cacheSize;
+    private final long cacheSize;
+    private final Cache.Policy cachePolicy;
     private final String method;
+    /**
+     * The size of the phrase table cache in kilobytes
+     */
     public static final String CACHE_PROPERTY = "cache";
+    /**
+     * The eviction policy of the phrase table cache, "tinylfu" (default) or "lru"
+     */
+    public static final String CACHE_POLICY_PROPERTY = "cachePolicy";
+    /**
+     * How the phrase table is read, "trie" (default), "tree" or "compiled"
+     */
     public static final String METHOD_PROPERTY = "method";
 
     public MemoryMappedPhraseTableSourceFactory() {
         final Properties config = Configurator.getConfig("eu.monnetproject.translation.phrasal.pt");
-        this.cacheSize = config.getProperty(CACHE_PROPERTY) == null ? 100000 : Integer.parseInt(config.getProperty(CACHE_PROPERTY));
+        this.cacheSize = config.getProperty(CACHE_PROPERTY) == null ? 100000 : Long.parseLong(config.getProperty(CACHE_PROPERTY));
+        final String policy = config.getProperty(CACHE_POLICY_PROPERTY, "tinylfu");
+        if (policy.equalsIgnoreCase("lru")) {
+            this.cachePolicy = Cache.Policy.LRU;
+        } else {
+            if (!policy.equalsIgnoreCase("tinylfu")) {
+                Messages.warning("Unknown cache policy " + policy + " using tinylfu");
+            }
+            this.cachePolicy = Cache.Policy.TINY_LFU;
+        }
         this.method = config.getProperty(METHOD_PROPERTY) == null ? "trie" : config.getProperty(METHOD_PROPERTY);
         final Enumeration propertyNames = config.propertyNames();
         while (propertyNames.hasMoreElements()) {
 
             String langPairStr = propertyNames.nextElement().toString();
-            if (langPairStr.equals(CACHE_PROPERTY) || langPairStr.equals(METHOD_PROPERTY)) {
+            if (langPairStr.equals(CACHE_PROPERTY) || langPairStr.equals(CACHE_POLICY_PROPERTY) || langPairStr.equals(METHOD_PROPERTY)) {
                 continue;
             }
             if (!langPairStr.contains("/")) {
@@ -94,11 +114,13 @@ public class MemoryMappedPhraseTableSourceFactory implements TranslationSourceFa
     public TranslationSource getSource(Language srcLang, Language trgLang) {
         final LangPair lp = new LangPair(srcLang, trgLang);
         if (lastCache == null || !lastCache.equals(lp)) {
-            //cache = new Cache<StableHashByteArray, PhraseTableEntry>(cacheSize);
             if(method.equals("tree")) {
-                cache = new Cache<StableHashByteArray,PhraseTableEntry>(/*cacheSize*/);
+                cache = new Cache<StableHashByteArray,PhraseTableEntry>(cacheSize * 1024, cachePolicy, new PhraseTableEntryWeigher());
             } else if(method.equals("trie")) {
-                cache = new Cache<String, PhraseTableEntry>(/*cacheSize*/);
+                cache = new Cache<String, PhraseTableEntry>(cacheSize * 1024, cachePolicy, new PhraseTableEntryWeigher());
+            } else if(method.equals("compiled")) {
+                // The compiled table is not cached
+                cache = null;
             } else {
                 throw new RuntimeException("Unknown mapping method: " + method);
             }
@@ -108,6 +130,8 @@ public class MemoryMappedPhraseTableSourceFactory implements TranslationSourceFa
             try {
                 if (method.equals("tree")) {
                     return new TreeMemoryMappedPhraseTableSource(cache, ptFiles.get(lp), ptFeatures.get(lp), srcLang, trgLang);
+                } else if (method.equals("compiled")) {
+                    return new CompiledPhraseTableSource(ptFiles.get(lp), ptFeatures.get(lp), srcLang, trgLang);
                 } else {
                     return new TrieMemoryMappedPhraseTableSource(cache, ptFiles.get(lp), ptFeatures.get(lp), srcLang, trgLang);
                 }
@@ -0,0 +1,195 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.phrasal.pt;
+
+import eu.monnetproject.lang.Language;
+import eu.monnetproject.translation.Chunk;
+import eu.monnetproject.translation.PhraseTableEntry;
+import eu.monnetproject.translation.phrasal.ChunkImpl;
+import eu.monnetproject.translation.phrasal.pt.cache.Cache;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Measures the throughput of {@link MemoryMappedPhraseTableSource#candidates(Chunk)}
+ * reading the trie map a node at a time and through a single mapping. Usage:
+ * MemoryMappedPhraseTableSourcePerformance [phrase-table [feature-count]], if no
+ * table is given a random table is generated and queried with random phrases,
+ * otherwise the queries are sampled from the phrases of the table. The cache
+ * is disabled so that every call reads the map.
+ *
+ * @author John McCrae
+ */
+public class MemoryMappedPhraseTableSourcePerformance {
+
+    private final static Random r = new Random(1);
+    private static final int VOCAB = 5000;
+    // Kept small as the map writer and the per-node reader hold a mapping for
+    // every node they touch until it is collected, and so may otherwise exhaust
+    // the process's mapping limit
+    private static final int PHRASES = 2000;
+    private static final int QUERIES = 500;
+    private static final int ROUNDS = 10;
+
+    private static String randomPhrase() {
+        final StringBuilder sb = new StringBuilder("w" + r.nextInt(VOCAB));
+        final int n = r.nextInt(3);
+        for (int i = 0; i < n; i++) {
+            sb.append(" w").append(r.nextInt(VOCAB));
+        }
+        return sb.toString();
+    }
+
+    private static File randomTable() throws Exception {
+        final File file = File.createTempFile("phrase-table", ".sorted");
+        file.deleteOnExit();
+        new File(file.getPath() + ".map").deleteOnExit();
+        // The mapper needs the table sorted by its keys
+        final TreeMap<String, String> phrases = new TreeMap<String, String>();
+        while (phrases.size() < PHRASES) {
+            final String phrase = randomPhrase();
+            phrases.put(phrase + " ", phrase);
+        }
+        final PrintWriter out = new PrintWriter(file);
+        for (Map.Entry<String, String> e : phrases.entrySet()) {
+            final int translations = 1 + r.nextInt(4);
+            for (int i = 0; i < translations; i++) {
+                out.print(e.getValue() + " ||| " + randomPhrase() + " |||");
+                for (int j = 0; j < 5; j++) {
+                    out.print(" " + r.nextDouble());
+                }
+                out.println(" ||| ||| ");
+            }
+        }
+        out.close();
+        return file;
+    }
+
+    /**
+     * Sample the foreign phrases of a table, which is sorted so that the rows
+     * of a phrase are together
+     */
+    private static List<Chunk> sampleTable(String table) throws Exception {
+        final List<Chunk> chunks = new ArrayList<Chunk>(QUERIES);
+        final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(table), "UTF-8"));
+        String line, last = null;
+        int seen = 0;
+        while ((line = in.readLine()) != null) {
+            final int end = line.indexOf("|||");
+            if (end < 0) {
+                continue;
+            }
+            final String foreign = line.substring(0, end).trim();
+            if (foreign.equals(last)) {
+                continue;
+            }
+            last = foreign;
+            // Reservoir sampling
+            if (seen < QUERIES) {
+                chunks.add(new ChunkImpl(foreign));
+            } else {
+                final int i = r.nextInt(seen + 1);
+                if (i < QUERIES) {
+                    chunks.set(i, new ChunkImpl(foreign));
+                }
+            }
+            seen++;
+        }
+        in.close();
+        return chunks;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final String table;
+        final List<Chunk> chunks;
+        if (args.length > 0) {
+            table = args[0];
+            chunks = sampleTable(table);
+        } else {
+            table = randomTable().getPath();
+            // Random phrases, a mix of hits and misses
+            chunks = new ArrayList<Chunk>(QUERIES);
+            for (int i = 0; i < QUERIES; i++) {
+                chunks.add(new ChunkImpl(randomPhrase()));
+            }
+        }
+        final int featureCount = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final MemoryMappedPhraseTableSource<CharSequence> perNode = new TrieMemoryMappedPhraseTableSource(new NoCache(), table, featureCount, Language.GERMAN, Language.ENGLISH, false);
+        final MemoryMappedPhraseTableSource<CharSequence> single = new TrieMemoryMappedPhraseTableSource(new NoCache(), table, featureCount, Language.GERMAN, Language.ENGLISH, true);
+        // Warm up
+        run(perNode, chunks);
+        run(single, chunks);
+        for (int i = 0; i < ROUNDS; i++) {
+            final double perNodeThroughput = run(perNode, chunks);
+            final double singleThroughput = run(single, chunks);
+            System.err.println(String.format("per-node: %.0f calls/s, single mapping: %.0f calls/s (x%.2f)",
+                    perNodeThroughput, singleThroughput, singleThroughput / perNodeThroughput));
+        }
+        perNode.close();
+        single.close();
+    }
+
+    private static double run(MemoryMappedPhraseTableSource<?> source, List<Chunk> chunks) {
+        // Release the mappings of the previous run
+        System.gc();
+        int found = 0;
+        final long begin = System.nanoTime();
+        for (Chunk chunk : chunks) {
+            final Iterator<PhraseTableEntry> candidates = source.candidates(chunk).iterator();
+            while (candidates.hasNext()) {
+                candidates.next();
+                found++;
+            }
+        }
+        final long time = System.nanoTime() - begin;
+        if (found == 0) {
+            System.err.println("No candidates found");
+        }
+        return (double) chunks.size() * 1e9 / time;
+    }
+
+    private static class NoCache extends Cache<CharSequence, PhraseTableEntry> {
+
+        @Override
+        public List<PhraseTableEntry> get(CharSequence e) {
+            return null;
+        }
+
+        @Override
+        public void put(CharSequence e, List<PhraseTableEntry> f) {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/**********************************************************************************
+ * Copyright (c) 2011, Monnet Project
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of the Monnet Project nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *********************************************************************************/
+package eu.monnetproject.translation.phrasal.pt;
+
+import eu.monnetproject.translation.PhraseTableEntry;
+import eu.monnetproject.translation.phrasal.mmap.StableHashByteArray;
+import eu.monnetproject.translation.phrasal.pt.cache.Cache;
+import java.util.List;
+
+/**
+ * Estimates the memory, in bytes, used by a cached list of phrase table entries
+ *
+ * @author John McCrae
+ */
+public class PhraseTableEntryWeigher implements Cache.Weigher<Object, PhraseTableEntry> {
+
+    // Approximate sizes of an object header and reference, of a string or 
+    // token and of a feature
+    private static final int OBJECT = 16, REF = 8, STRING = 40, FEATURE = 40;
+
+    @Override
+    public long weigh(Object key, List<? extends PhraseTableEntry> value) {
+        long weight = OBJECT + 4 * REF;
+        if (key instanceof CharSequence) {
+            weight += STRING + 2 * ((CharSequence) key).length();
+        } else if (key instanceof StableHashByteArray) {
+            weight += OBJECT + ((StableHashByteArray) key).arr.length;
+        }
+        weight += OBJECT + REF * value.size();
+        for (PhraseTableEntry pte : value) {
+            weight += OBJECT + 4 * REF;
+            weight += label(pte.getForeign().asString());
+            weight += label(pte.getTranslation().asString());
+            weight += (REF + FEATURE) * pte.getFeatures().length;
+        }
+        return weight;
+    }
+
+    private static long label(String label) {
+        // A list of tokens and the label string
+        long weight = 3 * OBJECT + 2 * STRING + 4 * label.length();
+        for (int i = 0; i < label.length(); i++) {
+            if (label.charAt(i) == ' ') {
+                weight += STRING + REF;
+            }
+        }
+        return weight;
+    }
+}
@@ -28,8 +28,10 @@ package eu.monnetproject.translation.phrasal.pt;
 
 import eu.monnetproject.lang.Language;
 import eu.monnetproject.translation.PhraseTableEntry;
+import eu.monnetproject.translation.phrasal.mmap.MemoryMap;
 import eu.monnetproject.translation.phrasal.mmap.PhraseTableMapper;
 import eu.monnetproject.translation.phrasal.mmap.TrieMemoryMap;
+import eu.monnetproject.translation.phrasal.mmap.TrieMemoryMapReader;
 import eu.monnetproject.translation.phrasal.pt.cache.Cache;
 import eu.monnetproject.translation.monitor.Messages;
 import java.io.File;
@@ -42,10 +44,20 @@ import java.io.IOException;
 public class TrieMemoryMappedPhraseTableSource extends MemoryMappedPhraseTableSource<CharSequence> {
 
     public TrieMemoryMappedPhraseTableSource(Cache<CharSequence, PhraseTableEntry> cache, String filename, int featureCount, Language srcLang, Language trgLang) throws IOException {
-        super(cache, filename, featureCount, srcLang, trgLang, makeMap(filename));
+        this(cache, filename, featureCount, srcLang, trgLang, true);
     }
 
-    private static TrieMemoryMap makeMap(String filename) throws IOException {
+    /**
+     * Create a phrase table source
+     * @param singleMapping If true the map is read through a single mapping of
+     * the file ({@link TrieMemoryMapReader}), otherwise each node of the trie is
+     * mapped as it is read
+     */
+    public TrieMemoryMappedPhraseTableSource(Cache<CharSequence, PhraseTableEntry> cache, String filename, int featureCount, Language srcLang, Language trgLang, boolean singleMapping) throws IOException {
+        super(cache, filename, featureCount, srcLang, trgLang, makeMap(filename, singleMapping));
+    }
+
+    private static MemoryMap<CharSequence> makeMap(String filename, boolean singleMapping) throws IOException {
         File mapFile = new File(filename + ".map");
         if (!mapFile.exists()) {
             File tableFile = new File(filename);
@@ -55,7 +67,11 @@ public class TrieMemoryMappedPhraseTableSource extends MemoryMappedPhraseTableSo
             Messages.info("Phrase table map does not exist... creating... this may take a very long time");
             new PhraseTableMapper().mapPhraseTable(tableFile, mapFile,"trie");
         }
-        return new TrieMemoryMap(mapFile, PhraseTableMapper.OFFSET);
+        if (singleMapping) {
+            return new TrieMemoryMapReader(mapFile, PhraseTableMapper.OFFSET);
+        } else {
+            return new TrieMemoryMap(mapFile, PhraseTableMapper.OFFSET);
+        }
     }
 
     @Override
@@ -26,32 +26,410 @@
  *********************************************************************************/
 package eu.monnetproject.translation.phrasal.pt.cache;
 
-import java.lang.ref.SoftReference;
 import java.util.HashMap;
 import java.util.List;
 
 /**
- * Very simple caching implementation
- * 
+ * A bounded cache, safe for concurrent use, that evicts entries by their
+ * (estimated) weight. Entries are lists of values, an empty list may be used
+ * to record that a key has no values. The cache is split into segments, each
+ * with its own lock, and evicts either the least recently used entry or, by
+ * default, according to W-TinyLFU, that is a small LRU window in front of a
+ * segmented LRU main area that only admits an entry if it has been requested
+ * more often (as counted by a count-min sketch) than the entry it would evict.
+ *
  * @author John McCrae
  */
 public class Cache<E, F> {
-    private final HashMap<E, SoftReference<List<F>>> cacheObjects = new HashMap<E,SoftReference<List<F>>>();
-    
+
+    /**
+     * The eviction policy of a cache
+     */
+    public static enum Policy {
+
+        LRU, TINY_LFU
+    }
+
+    /**
+     * Calculates the weight of an entry in the cache
+     */
+    public static interface Weigher<E, F> {
+
+        long weigh(E key, List<? extends F> value);
+    }
+    /**
+     * The default capacity, in number of values
+     */
+    public static final long DEFAULT_CAPACITY = 100000;
+    private static final int MAX_SEGMENTS = 16;
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final Policy policy;
+    private final Weigher<? super E, ? super F> weigher;
+
+    /**
+     * Create a W-TinyLFU cache of {@link #DEFAULT_CAPACITY} values
+     */
+    public Cache() {
+        this(DEFAULT_CAPACITY, Policy.TINY_LFU, new Weigher<Object, Object>() {
+
+            @Override
+            public long weigh(Object key, List<? extends Object> value) {
+                return value.size() + 1;
+            }
+        });
+    }
+
+    /**
+     * Create a cache
+     * @param maxWeight The maximum total weight of the entries in the cache
+     * @param policy The eviction policy
+     * @param weigher The weight of each entry
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Cache(long maxWeight, Policy policy, Weigher<? super E, ? super F> weigher) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Cache weight must be positive");
+        }
+        this.policy = policy;
+        this.weigher = weigher;
+        int n = 1, shift = 32;
+        while (n < MAX_SEGMENTS && maxWeight / (n * 2) >= 64) {
+            n *= 2;
+            shift--;
+        }
+        this.segmentShift = shift;
+        // Arrays of the generic inner segment can only be created raw
+        this.segments = new Cache.Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment(maxWeight / n + (i < maxWeight % n ? 1 : 0));
+        }
+    }
+
+    private static int hash(Object key) {
+        // Spread the bits so that the high bits select the segment
+        int h = key.hashCode() * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segment(int hash) {
+        return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+    }
+
+    /**
+     * Get the values cached for a key
+     * @param e The key
+     * @return The values or null if the key is not in the cache
+     */
     public List<F> get(E e) {
-        final SoftReference<List<F>> value = cacheObjects.get(e);
-        if(value != null) {
-            final List<F> f = value.get();
-            if(f == null) {
-                cacheObjects.remove(e);
+        final int h = hash(e);
+        return segment(h).get(e, h);
+    }
+
+    /**
+     * Cache the values of a key. The entry may be evicted immediately if it 
+     * is heavier than the cache can hold or, with W-TinyLFU, is not requested
+     * often enough
+     * @param e The key
+     * @param f The values
+     */
+    public void put(E e, List<F> f) {
+        final int h = hash(e);
+        segment(h).put(e, h, f, weigher.weigh(e, f));
+    }
+
+    /**
+     * The number of requests that found the key in the cache
+     */
+    public long hitCount() {
+        long n = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                n += segment.hits;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The number of requests that did not find the key in the cache
+     */
+    public long missCount() {
+        long n = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                n += segment.misses;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The number of entries removed from, or not admitted to, the cache
+     */
+    public long evictionCount() {
+        long n = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                n += segment.evictions;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The number of entries in the cache
+     */
+    public int size() {
+        int n = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                n += segment.map.size();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * The total weight of the entries in the cache
+     */
+    public long weightedSize() {
+        long n = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                n += segment.window.weight + segment.probation.weight + segment.protectedQueue.weight;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return "Cache{" + "policy=" + policy + ", size=" + size() + ", weight=" + weightedSize() + ", hits=" + hitCount() + ", misses=" + missCount() + ", evictions=" + evictionCount() + '}';
+    }
+
+    private static final class Node<E, F> {
+
+        final E key;
+        final int hash;
+        List<F> value;
+        long weight;
+        int queue;
+        Node<E, F> prev, next;
+
+        public Node(E key, int hash, List<F> value, long weight) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A doubly-linked list of nodes from least to most recently used
+     */
+    private static final class Queue<E, F> {
+
+        Node<E, F> head, tail;
+        long weight;
+
+        void add(Node<E, F> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            weight += node.weight;
+        }
+
+        void remove(Node<E, F> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = node.next = null;
+            weight -= node.weight;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, which are halved after a number 
+     * of increments so that old requests are forgotten
+     */
+    private static final class FrequencySketch {
+
+        private static final int[] SEEDS = {0x97cb3127, 0xb492b66f, 0x9ae16a3b, 0xc3a5c85c};
+        private final byte[] table;
+        private final int shift, sampleSize;
+        private int size;
+
+        public FrequencySketch(long maxWeight) {
+            // About 16 counters for each entry, up to 64K counters
+            int bits = 8;
+            while ((1L << bits) < 16 * maxWeight && bits < 16) {
+                bits++;
+            }
+            this.table = new byte[1 << bits];
+            this.shift = 32 - bits;
+            this.sampleSize = 10 * (table.length / 16);
+        }
+
+        private int index(int hash, int i) {
+            // The high bits of the product depend on all the bits of the hash
+            return (hash * SEEDS[i]) >>> shift;
+        }
+
+        public int frequency(int hash) {
+            int f = 15;
+            for (int i = 0; i < SEEDS.length; i++) {
+                f = Math.min(f, table[index(hash, i)]);
             }
             return f;
-        } else {
-            return null;
+        }
+
+        public void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                final int j = index(hash, i);
+                if (table[j] < 15) {
+                    table[j]++;
+                    added = true;
+                }
+            }
+            if (added && ++size == sampleSize) {
+                for (int j = 0; j < table.length; j++) {
+                    table[j] >>= 1;
+                }
+                size /= 2;
+            }
         }
     }
-    
-    public void put(E e, List<F> f) {
-        cacheObjects.put(e, new SoftReference<List<F>>(f));
+
+    private final class Segment {
+
+        final HashMap<E, Node<E, F>> map = new HashMap<E, Node<E, F>>();
+        final Queue<E, F> window = new Queue<E, F>(), probation = new Queue<E, F>(), protectedQueue = new Queue<E, F>();
+        final long maxWeight, windowMax, mainMax, protectedMax;
+        final FrequencySketch sketch;
+        long hits, misses, evictions;
+
+        public Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+            if (policy == Policy.LRU) {
+                this.windowMax = maxWeight;
+                this.sketch = null;
+            } else {
+                this.windowMax = Math.max(1, maxWeight / 100);
+                this.sketch = new FrequencySketch(maxWeight);
+            }
+            this.mainMax = maxWeight - windowMax;
+            this.protectedMax = mainMax * 8 / 10;
+        }
+
+        private Queue<E, F> queue(Node<E, F> node) {
+            return node.queue == WINDOW ? window : (node.queue == PROBATION ? probation : protectedQueue);
+        }
+
+        public synchronized List<F> get(E key, int hash) {
+            if (sketch != null) {
+                sketch.increment(hash);
+            }
+            final Node<E, F> node = map.get(key);
+            if (node == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            access(node);
+            return node.value;
+        }
+
+        public synchronized void put(E key, int hash, List<F> value, long weight) {
+            Node<E, F> node = map.get(key);
+            if (node != null) {
+                final Queue<E, F> queue = queue(node);
+                queue.weight += weight - node.weight;
+                node.weight = weight;
+                node.value = value;
+                access(node);
+            } else if (weight > (policy == Policy.LRU ? maxWeight : mainMax)) {
+                evictions++;
+                return;
+            } else {
+                node = new Node<E, F>(key, hash, value, weight);
+                map.put(key, node);
+                node.queue = WINDOW;
+                window.add(node);
+            }
+            evict();
+        }
+
+        private void access(Node<E, F> node) {
+            final Queue<E, F> queue = queue(node);
+            queue.remove(node);
+            if (node.queue == WINDOW) {
+                window.add(node);
+            } else {
+                node.queue = PROTECTED;
+                protectedQueue.add(node);
+                // Demote the least recently used protected entries
+                while (protectedQueue.weight > protectedMax && protectedQueue.head != node) {
+                    final Node<E, F> demoted = protectedQueue.head;
+                    protectedQueue.remove(demoted);
+                    demoted.queue = PROBATION;
+                    probation.add(demoted);
+                }
+            }
+        }
+
+        private void remove(Node<E, F> node) {
+            queue(node).remove(node);
+            map.remove(node.key);
+            evictions++;
+        }
+
+        private void evict() {
+            if (policy == Policy.LRU) {
+                while (window.weight > maxWeight) {
+                    remove(window.head);
+                }
+                return;
+            }
+            // Entries leaving the window must win against the main area's victim
+            while (window.weight > windowMax) {
+                final Node<E, F> candidate = window.head;
+                window.remove(candidate);
+                if (candidate.weight > mainMax) {
+                    map.remove(candidate.key);
+                    evictions++;
+                    continue;
+                }
+                candidate.queue = PROBATION;
+                probation.add(candidate);
+                while (probation.weight + protectedQueue.weight > mainMax) {
+                    final Node<E, F> victim = probation.head != candidate ? probation.head : protectedQueue.head;
+                    if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+                        remove(victim);
+                    } else {
+                        remove(candidate);
+                        break;
+                    }
+                }
+            }
+            // Replacing a value may have made the main area too heavy
+            while (probation.weight + protectedQueue.weight > mainMax) {
+                remove(probation.head != null ? probation.head : protectedQueue.head);
+            }
+        }
     }
 }
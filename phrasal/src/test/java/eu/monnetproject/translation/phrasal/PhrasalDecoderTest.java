@@ -13,8 +13,13 @@ import java.io.IOException;
 import java.util.LinkedList;
 import eu.monnetproject.translation.PhraseTable;
 import eu.monnetproject.translation.phrasal.pt.PhraseTableEntryImpl;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -130,6 +135,58 @@ public class PhrasalDecoderTest {
         assertEquals(expResult, result.get(0).getTargetLabel().asString());
     }
 
+    @Test
+    public void testConcurrentDecode() throws Exception {
+        System.out.println("concurrent decode");
+        final List<List<String>> phrases = Arrays.asList(
+                Arrays.asList(new String[]{"das", "ist", "ein", "kleines", "haus"}),
+                Arrays.asList(new String[]{"es", "gibt", "ein", "altes", "haus"}),
+                Arrays.asList(new String[]{"das", "haus", "ist", "klein"}),
+                Arrays.asList(new String[]{"es", "ist", "ein", "haus"}));
+        final PhraseTable phraseTable = makePhraseTable();
+        final int nBest = 5;
+        System.setProperty("eu.monnetproject.translation.phrasal", PhrasalDecoder.DISTORTION_WT_OPT +"=1\n"
+                + PhrasalDecoder.LANGUAGE_MODEL_WT_OPT + "=1\n"
+                + PhrasalDecoder.TRANSLATION_MODEL_WT_OPT + "=1\n"
+                + PhrasalDecoder.WORD_PENALTY_WT_OPT + "=0\n");
+        final PhrasalDecoder instance = new PhrasalDecoder(lm,PhrasalDecoderFactory.oneWeight);
+        final List<List<String>> expected = new ArrayList<List<String>>();
+        for (List<String> phrase : phrases) {
+            expected.add(labels(instance.decode(phrase, phraseTable, features, nBest)));
+        }
+        final int threads = 8, iterations = 25;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            results.add(executor.submit(new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    for (int i = 0; i < iterations; i++) {
+                        final int n = (i + offset) % phrases.size();
+                        if (!expected.get(n).equals(labels(instance.decode(phrases.get(n), phraseTable, features, nBest)))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            }));
+        }
+        executor.shutdown();
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+    }
+
+    private static List<String> labels(List<Translation> translations) {
+        final List<String> labels = new ArrayList<String>(translations.size());
+        for (Translation translation : translations) {
+            labels.add(translation.getTargetLabel().asString() + " " + translation.getScore());
+        }
+        return labels;
+    }
+
     public PhraseTable makePhraseTableWithCase() {
         final MockPhraseTable pt = new MockPhraseTable();
         pt.add(new PhraseTableEntryImpl(new StringLabel("Das ist", Language.GERMAN), new StringLabel("it is", Language.ENGLISH), new Feature[]{ new Feature("p(e|f)",0.2) }, null));
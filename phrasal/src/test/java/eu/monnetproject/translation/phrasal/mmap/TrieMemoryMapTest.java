@@ -116,4 +116,57 @@ public class TrieMemoryMapTest {
         result = tmm.get("aaa");
         assertArrayEquals(null, result);
     }
+
+    /**
+     * Test of get method, of class TrieMemoryMapReader.
+     */
+    @Test
+    public void testReader() throws Exception {
+        System.out.println("trieMemoryMapReader");
+        File tmpFile = File.createTempFile("tmp-reader", "tmp");
+        tmpFile.deleteOnExit();
+        TrieMemoryMap tmm = new TrieMemoryMap(tmpFile);
+        for(int i = 0; i < data2.length; i++) {
+            tmm.put(data2[i], idxs[i]);
+        }
+        tmm.close(idxs[data2.length]);
+        // Segments smaller than an entry, so that entries span segments
+        for(int segmentBits : new int[] { 30, 4 }) {
+            TrieMemoryMapReader reader = new TrieMemoryMapReader(tmpFile, 0, segmentBits);
+            for(int i = 0; i < data2.length; i++) {
+                long[] expected = new long[2];
+                System.arraycopy(idxs, i, expected, 0, 2);
+                assertArrayEquals(expected, reader.get(data2[i]));
+            }
+            assertArrayEquals(null, reader.get("gggg"));
+            assertArrayEquals(null, reader.get("aaaaa"));
+            assertArrayEquals(null, reader.get("aaa"));
+            assertArrayEquals(null, reader.get("bddc"));
+        }
+    }
+
+    /**
+     * Test of hasPrefix method, of class TrieMemoryMap and TrieMemoryMapReader.
+     */
+    @Test
+    public void testHasPrefix() throws Exception {
+        System.out.println("hasPrefix");
+        File tmpFile = File.createTempFile("tmp-prefix", "tmp");
+        tmpFile.deleteOnExit();
+        TrieMemoryMap tmm = new TrieMemoryMap(tmpFile);
+        for(int i = 0; i < data2.length; i++) {
+            tmm.put(data2[i], idxs[i]);
+        }
+        tmm.close(idxs[data2.length]);
+        for(MemoryMap<CharSequence> map : Arrays.<MemoryMap<CharSequence>>asList(tmm, new TrieMemoryMapReader(tmpFile, 0, 4))) {
+            for(String key : data2) {
+                for(int i = 1; i <= key.length(); i++) {
+                    assertTrue(map.hasPrefix(key.substring(0, i)));
+                }
+                assertFalse(map.hasPrefix(key + "z"));
+            }
+            assertFalse(map.hasPrefix("g"));
+            assertFalse(map.hasPrefix("bdc"));
+        }
+    }
 }
@@ -0,0 +1,108 @@
+package eu.monnetproject.translation.phrasal.pt;
+
+import eu.monnetproject.lang.Language;
+import eu.monnetproject.translation.PhraseTable;
+import eu.monnetproject.translation.PhraseTableEntry;
+import eu.monnetproject.translation.phrasal.ChunkImpl;
+import eu.monnetproject.translation.phrasal.mmap.PhraseTableCompiler;
+import eu.monnetproject.translation.phrasal.pt.cache.Cache;
+import eu.monnetproject.translation.util.TranslationLimit;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author John McCrae
+ */
+public class CompiledPhraseTableSourceTest {
+
+    private static final String TABLE = "src/test/resources/sample-models/phrase-model/phrase-table.sorted";
+    private static File tmpFile;
+
+    public CompiledPhraseTableSourceTest() {
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        tmpFile = File.createTempFile("phrase-table", ".sorted");
+        tmpFile.deleteOnExit();
+        new File(tmpFile.getPath() + PhraseTableCompiler.SUFFIX).deleteOnExit();
+        final FileInputStream in = new FileInputStream(TABLE);
+        final FileOutputStream out = new FileOutputStream(tmpFile);
+        final byte[] buf = new byte[4096];
+        int read;
+        while ((read = in.read(buf)) > 0) {
+            out.write(buf, 0, read);
+        }
+        in.close();
+        out.close();
+    }
+
+    /**
+     * Test of candidates method, of class CompiledPhraseTableSource.
+     */
+    @Test
+    public void testCandidates() throws Exception {
+        System.out.println("candidates");
+        final CompiledPhraseTableSource instance = new CompiledPhraseTableSource(tmpFile.getPath(), 1, Language.GERMAN, Language.ENGLISH);
+        final MemoryMappedPhraseTableSource expected = new TrieMemoryMappedPhraseTableSource(new Cache<CharSequence, PhraseTableEntry>(), TABLE, 1, Language.GERMAN, Language.ENGLISH);
+        for (String src : new String[]{"das ist", "das", "es gibt", "klein", "kleine", "das ist klein"}) {
+            final PhraseTable result = instance.candidates(new ChunkImpl(src));
+            final List<PhraseTableEntry> resultList = new ArrayList<PhraseTableEntry>();
+            double lastScore = Double.POSITIVE_INFINITY;
+            for (PhraseTableEntry pte : result) {
+                assertEquals(src, pte.getForeign().asString());
+                assertTrue(pte.getApproxScore() <= lastScore);
+                lastScore = pte.getApproxScore();
+                resultList.add(pte);
+            }
+            final List<PhraseTableEntry> expectedList = new ArrayList<PhraseTableEntry>();
+            for (PhraseTableEntry pte : expected.candidates(new ChunkImpl(src))) {
+                expectedList.add(pte);
+            }
+            assertEquals(expectedList.size(), resultList.size());
+            assertTrue(resultList.containsAll(expectedList));
+        }
+        assertEquals("this is", instance.candidates(new ChunkImpl("das ist")).iterator().next().getTranslation().asString());
+        instance.close();
+    }
+
+    /**
+     * Test that only the best translations are returned
+     */
+    @Test
+    public void testLimit() throws Exception {
+        System.out.println("limit");
+        System.setProperty(TranslationLimit.TOPK_PROPERTY, "1");
+        final CompiledPhraseTableSource instance;
+        try {
+            instance = new CompiledPhraseTableSource(tmpFile.getPath(), 1, Language.GERMAN, Language.ENGLISH);
+        } finally {
+            System.clearProperty(TranslationLimit.TOPK_PROPERTY);
+        }
+        final List<PhraseTableEntry> result = new ArrayList<PhraseTableEntry>();
+        for (PhraseTableEntry pte : instance.candidates(new ChunkImpl("das"))) {
+            result.add(pte);
+        }
+        assertEquals(1, result.size());
+        assertEquals("the", result.get(0).getTranslation().asString());
+    }
+
+    /**
+     * Test of hasPhrase and hasPrefix methods, of class CompiledPhraseTableSource.
+     */
+    @Test
+    public void testHasPhrase() throws Exception {
+        System.out.println("hasPhrase");
+        final CompiledPhraseTableSource instance = new CompiledPhraseTableSource(tmpFile.getPath(), 1, Language.GERMAN, Language.ENGLISH);
+        // Only the vocabulary is checked for prefixes
+        IndexedSourceChecks.checkSampleTable(instance, false);
+        instance.close();
+    }
+}
@@ -0,0 +1,51 @@
+package eu.monnetproject.translation.phrasal.pt;
+
+import eu.monnetproject.translation.IndexedTranslationSource;
+import eu.monnetproject.translation.phrasal.ChunkImpl;
+import static org.junit.Assert.*;
+
+/**
+ * Checks of the index of a source against its candidates
+ *
+ * @author John McCrae
+ */
+final class IndexedSourceChecks {
+
+    private IndexedSourceChecks() {
+    }
+
+    /**
+     * Check the index of a source of the sample phrase table. hasPhrase and 
+     * hasPrefix must be true for every span of a sentence that has candidates
+     * @param instance The source
+     * @param exact If true hasPhrase must also be false for every span without 
+     * candidates, otherwise only for those that are not a prefix
+     */
+    static void checkSampleTable(IndexedTranslationSource instance, boolean exact) {
+        final String[] tokens = "das ist ein kleines haus es gibt".split(" ");
+        for (int i = 0; i < tokens.length; i++) {
+            final StringBuilder phrase = new StringBuilder();
+            for (int j = i; j < tokens.length; j++) {
+                if (j > i) {
+                    phrase.append(" ");
+                }
+                phrase.append(tokens[j]);
+                checkPhrase(instance, phrase.toString(), exact);
+            }
+        }
+        assertTrue(instance.hasPrefix("das"));
+        assertTrue(instance.hasPhrase("das ist"));
+        assertFalse(instance.hasPhrase("hund"));
+        assertFalse(instance.hasPrefix("hund"));
+        assertFalse(instance.hasPrefix("das ist ein kleines haus"));
+    }
+
+    private static void checkPhrase(IndexedTranslationSource instance, String phrase, boolean exact) {
+        if (instance.candidates(new ChunkImpl(phrase)).iterator().hasNext()) {
+            assertTrue(phrase, instance.hasPhrase(phrase));
+            assertTrue(phrase, instance.hasPrefix(phrase));
+        } else if (exact || !instance.hasPrefix(phrase)) {
+            assertFalse(phrase, instance.hasPhrase(phrase));
+        }
+    }
+}
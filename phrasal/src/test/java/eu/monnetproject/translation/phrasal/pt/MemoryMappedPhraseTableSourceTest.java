@@ -10,7 +10,13 @@ import eu.monnetproject.translation.PhraseTable;
 import eu.monnetproject.translation.PhraseTableEntry;
 import eu.monnetproject.translation.phrasal.ChunkImpl;
 import eu.monnetproject.translation.phrasal.pt.cache.Cache;
+import eu.monnetproject.translation.util.TranslationLimit;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -68,6 +74,30 @@ public class MemoryMappedPhraseTableSourceTest {
         assertEquals(expResult, result);
     }
     
+    /**
+     * Test that only the best translations are returned
+     */
+    @Test
+    public void testLimit() throws IOException {
+        System.out.println("limit");
+        System.setProperty(TranslationLimit.TOPK_PROPERTY, "2");
+        final MemoryMappedPhraseTableSource instance;
+        try {
+            instance = new TrieMemoryMappedPhraseTableSource(new Cache<CharSequence, PhraseTableEntry>(), "src/test/resources/sample-models/phrase-model/phrase-table.sorted", 1, Language.GERMAN, Language.ENGLISH);
+        } finally {
+            System.clearProperty(TranslationLimit.TOPK_PROPERTY);
+        }
+        PhraseTable result = instance.candidates(new ChunkImpl("das"));
+        int n = 0;
+        for (PhraseTableEntry pte : result) {
+            n++;
+            if (pte.getTranslation().asString().equals("the")) {
+                n += 10;
+            }
+        }
+        assertEquals(12, n);
+    }
+    
 //    @Test
 //    public void debugTestPleaseDelete() throws IOException {
 //        System.err.println("debug");
@@ -77,4 +107,100 @@ public class MemoryMappedPhraseTableSourceTest {
 //            System.err.println(pte);
 //        }
 //    }
+
+    /**
+     * Test of hasPhrase and hasPrefix methods, of class MemoryMappedPhraseTableSource.
+     */
+    @Test
+    public void testHasPhrase() throws IOException {
+        System.out.println("hasPhrase");
+        final MemoryMappedPhraseTableSource instance = new TrieMemoryMappedPhraseTableSource(cache, "src/test/resources/sample-models/phrase-model/phrase-table.sorted", 5, Language.GERMAN, Language.ENGLISH);
+        IndexedSourceChecks.checkSampleTable(instance, true);
+        instance.close();
+    }
+
+    private static File writeTable(String contents) throws IOException {
+        final File file = File.createTempFile("phrase-table", ".sorted");
+        file.deleteOnExit();
+        new File(file.getPath() + ".map").deleteOnExit();
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(contents.getBytes("UTF-8"));
+        out.close();
+        return file;
+    }
+
+    private static List<String> translations(MemoryMappedPhraseTableSource<?> instance, String foreign) {
+        final List<String> translations = new ArrayList<String>();
+        for (PhraseTableEntry pte : instance.candidates(new ChunkImpl(foreign))) {
+            assertEquals(foreign, pte.getForeign().asString());
+            translations.add(pte.getTranslation().asString());
+        }
+        return translations;
+    }
+
+    /**
+     * Test that the last record is read if the table ends with a new line
+     */
+    @Test
+    public void testLastRecord() throws IOException {
+        System.out.println("lastRecord");
+        final File table = writeTable("das ||| the ||| 0.5 ||| ||| \nhaus ||| house ||| 0.5 ||| ||| \n");
+        final MemoryMappedPhraseTableSource<CharSequence> instance = new TrieMemoryMappedPhraseTableSource(new Cache<CharSequence, PhraseTableEntry>(), table.getPath(), 1, Language.GERMAN, Language.ENGLISH);
+        assertEquals(Arrays.asList("the"), translations(instance, "das"));
+        assertEquals(Arrays.asList("house"), translations(instance, "haus"));
+        instance.close();
+    }
+
+    /**
+     * Test that every line of a phrase is read
+     */
+    @Test
+    public void testRecordRange() throws IOException {
+        System.out.println("recordRange");
+        final File table = writeTable("das ||| the ||| 0.5 ||| ||| \n"
+                + "das haus ||| the house ||| 0.5 ||| ||| \n"
+                + "das haus ||| the home ||| 0.3 ||| ||| \n"
+                + "das haus ||| this house ||| 0.2 ||| ||| \n"
+                + "haus ||| house ||| 0.5 ||| ||| ");
+        final MemoryMappedPhraseTableSource<CharSequence> instance = new TrieMemoryMappedPhraseTableSource(new Cache<CharSequence, PhraseTableEntry>(), table.getPath(), 1, Language.GERMAN, Language.ENGLISH);
+        assertEquals(Arrays.asList("the house", "the home", "this house"), translations(instance, "das haus"));
+        assertEquals(Arrays.asList("the"), translations(instance, "das"));
+        assertEquals(Arrays.asList("house"), translations(instance, "haus"));
+        instance.close();
+    }
+
+    /**
+     * Test that the alignment is read from the field after the one following 
+     * the scores
+     */
+    @Test
+    public void testAlignment() throws IOException {
+        System.out.println("alignment");
+        final File table = writeTable("das ||| the ||| 0.5 ||| ||| \n"
+                + "das haus ||| the house ||| 0.5 ||| (0) (1) ||| (0) (1) ||| 1 1\n");
+        final MemoryMappedPhraseTableSource<CharSequence> instance = new TrieMemoryMappedPhraseTableSource(new Cache<CharSequence, PhraseTableEntry>(), table.getPath(), 1, Language.GERMAN, Language.ENGLISH);
+        final PhraseTableEntryImpl aligned = (PhraseTableEntryImpl) instance.candidates(new ChunkImpl("das haus")).iterator().next();
+        assertEquals("(0);(1)", aligned.getAlignments().toString());
+        final PhraseTableEntryImpl unaligned = (PhraseTableEntryImpl) instance.candidates(new ChunkImpl("das")).iterator().next();
+        assertNull(unaligned.getAlignments());
+        instance.close();
+    }
+
+    /**
+     * Test a table with Windows line endings
+     */
+    @Test
+    public void testCRLF() throws IOException {
+        System.out.println("CRLF");
+        final File table = writeTable("das ||| the ||| 0.5 ||| ||| \r\n"
+                + "das haus ||| the house ||| 0.5 ||| ||| \r\n"
+                + "das haus ||| the home ||| 0.25 ||| ||| \r\n"
+                + "haus ||| house ||| 0.5\r\n");
+        final MemoryMappedPhraseTableSource<CharSequence> instance = new TrieMemoryMappedPhraseTableSource(new Cache<CharSequence, PhraseTableEntry>(), table.getPath(), 1, Language.GERMAN, Language.ENGLISH);
+        assertEquals(Arrays.asList("the house", "the home"), translations(instance, "das haus"));
+        final PhraseTableEntry house = instance.candidates(new ChunkImpl("haus")).iterator().next();
+        assertEquals("house", house.getTranslation().asString());
+        assertEquals(Math.log(0.5), house.getFeatures()[0].score, 1e-6);
+        instance.close();
+    }
 }
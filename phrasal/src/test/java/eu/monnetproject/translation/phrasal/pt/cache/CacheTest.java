@@ -103,4 +103,135 @@ public class CacheTest {
 //        assertEquals(null, instance.get("b"));
 //
 //    }
+
+    private static final Cache.Weigher<Object, Object> UNIT = new Cache.Weigher<Object, Object>() {
+
+        @Override
+        public long weigh(Object key, List<? extends Object> value) {
+            return 1;
+        }
+    };
+
+    /**
+     * Test of eviction by the LRU policy
+     */
+    @Test
+    public void testEvictLRU() {
+        System.out.println("evictLRU");
+        Cache<String, String> instance = new Cache<String, String>(3, Cache.Policy.LRU, UNIT);
+        instance.put("a", Collections.singletonList("b"));
+        instance.put("b", Collections.singletonList("c"));
+        instance.put("c", Collections.singletonList("d"));
+        assertEquals(Collections.singletonList("b"), instance.get("a"));
+        instance.put("d", Collections.singletonList("e"));
+        assertEquals(null, instance.get("b"));
+        assertEquals(Collections.singletonList("b"), instance.get("a"));
+        assertEquals(3, instance.size());
+        assertEquals(1, instance.evictionCount());
+    }
+
+    /**
+     * Test that W-TinyLFU keeps frequently requested entries
+     */
+    @Test
+    public void testEvictTinyLFU() {
+        System.out.println("evictTinyLFU");
+        Cache<String, String> instance = new Cache<String, String>(50, Cache.Policy.TINY_LFU, UNIT);
+        for (int i = 0; i < 50; i++) {
+            instance.get("hot" + i);
+            instance.put("hot" + i, Collections.singletonList("x"));
+            instance.get("hot" + i);
+        }
+        // A scan of keys requested once should not displace the hot keys,
+        // which are still in use
+        for (int i = 0; i < 1000; i++) {
+            instance.get("cold" + i);
+            instance.put("cold" + i, Collections.singletonList("y"));
+            if (instance.get("hot" + (i % 50)) == null) {
+                instance.put("hot" + (i % 50), Collections.singletonList("x"));
+            }
+        }
+        int hot = 0;
+        for (int i = 0; i < 50; i++) {
+            if (instance.get("hot" + i) != null) {
+                hot++;
+            }
+        }
+        assertTrue(hot >= 45);
+        assertTrue(instance.weightedSize() <= 50);
+    }
+
+    /**
+     * Test of negative entries and counters
+     */
+    @Test
+    public void testNegative() {
+        System.out.println("negative");
+        Cache<String, String> instance = new Cache<String, String>();
+        assertEquals(null, instance.get("none"));
+        instance.put("none", Collections.<String>emptyList());
+        assertEquals(Collections.<String>emptyList(), instance.get("none"));
+        assertEquals(1, instance.hitCount());
+        assertEquals(1, instance.missCount());
+        assertEquals(1, instance.weightedSize());
+    }
+
+    /**
+     * Test that entries heavier than the cache are not kept
+     */
+    @Test
+    public void testWeight() {
+        System.out.println("weight");
+        Cache<String, String> instance = new Cache<String, String>(10, Cache.Policy.LRU, new Cache.Weigher<String, String>() {
+
+            @Override
+            public long weigh(String key, List<? extends String> value) {
+                return value.size();
+            }
+        });
+        instance.put("a", Collections.nCopies(6, "x"));
+        instance.put("b", Collections.nCopies(6, "y"));
+        assertEquals(null, instance.get("a"));
+        assertEquals(6, instance.weightedSize());
+        instance.put("c", Collections.nCopies(11, "z"));
+        assertEquals(null, instance.get("c"));
+        assertEquals(Collections.nCopies(6, "y"), instance.get("b"));
+    }
+
+    /**
+     * Test of concurrent use of the cache
+     */
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        System.out.println("concurrent");
+        final Cache<Integer, Integer> instance = new Cache<Integer, Integer>(1000, Cache.Policy.TINY_LFU, UNIT);
+        final Thread[] threads = new Thread[4];
+        final boolean[] failed = new boolean[1];
+        for (int t = 0; t < threads.length; t++) {
+            final int seed = t;
+            threads[t] = new Thread() {
+
+                @Override
+                public void run() {
+                    final java.util.Random r = new java.util.Random(seed);
+                    for (int i = 0; i < 100000; i++) {
+                        final int key = r.nextInt(5000);
+                        final List<Integer> value = instance.get(key);
+                        if (value == null) {
+                            instance.put(key, Collections.singletonList(key));
+                        } else if (value.get(0) != key) {
+                            failed[0] = true;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(failed[0]);
+        assertTrue(instance.weightedSize() <= 1000);
+        assertEquals(400000, instance.hitCount() + instance.missCount());
+    }
 }
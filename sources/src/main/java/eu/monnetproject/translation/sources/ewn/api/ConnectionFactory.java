@@ -9,6 +9,8 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.Map;
 
+import eu.monnetproject.translation.util.ConnectionPool;
+
 
 
 /**
@@ -68,6 +70,21 @@ public class ConnectionFactory {
         return conn;
     }
     
+    /**
+     * Create a pool of database connections
+     * @param language the two-letter code for the language that
+     *                 should be connected
+     * @return the pool of connections to the database of the language
+     */
+    public ConnectionPool getConnectionPool(String language)
+	throws ClassNotFoundException {
+    	
+    	Class.forName("org.sqlite.JDBC");
+    	
+        //	get ewn database in the specific language
+    	return new ConnectionPool("jdbc:sqlite:" + getPathEWNDatabases(language), null);
+    }
+    
     //get the path where are installed the ewn databases  
     private String getPathEWNDatabases (String language) {
     	return ewnPaths.get(language);//System.getProperty("ewn_path");
@@ -6,6 +6,7 @@ import java.util.*;
 import java.sql.*;
 
 import eu.monnetproject.translation.monitor.Messages;
+import eu.monnetproject.translation.util.ConnectionPool;
 
 
 
@@ -30,7 +31,7 @@ import eu.monnetproject.translation.monitor.Messages;
  */
 public class Lexicon {
 
-	protected Connection con;
+	protected ConnectionPool pool;
 	private String partOfSpeech = EuroWordnetAPI.POS_DEFAULT;
 
 	/**
@@ -46,7 +47,7 @@ public class Lexicon {
 			FileNotFoundException, SecurityException,
 			IOException {
 
-		con = new ConnectionFactory(ewnPaths).getConnection(language);
+		pool = new ConnectionFactory(ewnPaths).getConnectionPool(language);
 		// ... there should be also some way to save the language in the
 		// object -> for special cases like missing relations
 		// e.g. hypernyms in Spanish!!
@@ -501,16 +502,11 @@ public class Lexicon {
 	 */
 	public String getGlossByILI(String ili) throws Exception {
 		String result = "";
-		Statement stmt = con.createStatement();
 
-		StringBuffer query = new StringBuffer();
-		query.append("SELECT Gloss FROM synset ");
-		query.append("WHERE Pos LIKE '" + partOfSpeech + "' AND Offset = ");
-		query.append(ili);
-
-		ResultSet rs = stmt.executeQuery(query.toString());
-		if (rs.next()) {
-			result = rs.getString(1);
+		List<String> rs = query("SELECT Gloss FROM synset WHERE Pos LIKE ? AND Offset = ?",
+				partOfSpeech, ili);
+		if (!rs.isEmpty()) {
+			result = rs.get(0);
 		}
 
 		return result.trim();
@@ -529,16 +525,10 @@ public class Lexicon {
 
 	public String getPartOfSpeechByILI(String ili) throws Exception {
 		String result = "";
-		Statement stmt = con.createStatement();
-
-		StringBuffer query = new StringBuffer();
-		query.append("SELECT Pos FROM synset ");
-		query.append("WHERE Offset = ");
-		query.append(ili);
 
-		ResultSet rs = stmt.executeQuery(query.toString());
-		if (rs.next()) {
-			result = rs.getString(1);
+		List<String> rs = query("SELECT Pos FROM synset WHERE Offset = ?", ili);
+		if (!rs.isEmpty()) {
+			result = rs.get(0);
 		}
 
 		return result.trim();
@@ -555,15 +545,8 @@ public class Lexicon {
 	public Set<String> getILIs(String word) throws Exception {
 		TreeSet<String> result = new TreeSet<String>();
 		try {
-			Statement stmt = con.createStatement();
-			StringBuffer query = new StringBuffer();
-			query.append("SELECT Offset FROM synsetword ");
-			query.append("WHERE Word = '");
-			query.append(escapeSQL(new String (word.getBytes("UNICODE"),"UTF-16"))); 
-			query.append("' AND Pos LIKE '" + partOfSpeech + "'");
-			ResultSet rs = stmt.executeQuery(query.toString());			
-			while (rs.next()) 
-				result.add(rs.getString(1));
+			result.addAll(query("SELECT Offset FROM synsetword WHERE Word = ? AND Pos LIKE ?",
+					new String (word.getBytes("UNICODE"),"UTF-16"), partOfSpeech));
 		} catch(SQLException ex) {
 			Messages.warning("Error in querying (SQL) EuroWordNet");
 		//	throw ex;	
@@ -583,15 +566,9 @@ public class Lexicon {
 	private TreeSet<String> getHypernyms(String conceptIli, boolean selfIncluded) {
 		TreeSet<String> result = new TreeSet<String>();
 		try {
-			Statement stmt = con.createStatement();
-			StringBuffer query = new StringBuffer();
-			query.append("SELECT TargetOffset FROM synsetptr ");
-			query.append("WHERE Ptr = '@' AND TargetPos LIKE '" +
-					partOfSpeech + "' and SourceOffset = ");
-			query.append(conceptIli);
-			ResultSet rs = stmt.executeQuery(query.toString());
-			while (rs.next()) 
-				result.add(rs.getString(1));
+			result.addAll(query("SELECT TargetOffset FROM synsetptr " +
+					"WHERE Ptr = '@' AND TargetPos LIKE ? and SourceOffset = ?",
+					partOfSpeech, conceptIli));
 		} catch(SQLException ex) {
 			ex.printStackTrace();	
 		}
@@ -611,17 +588,10 @@ public class Lexicon {
 	private TreeSet<String> getHyponyms(String conceptOffset, boolean selfIncluded)
 			throws Exception {
 		TreeSet<String> result = new TreeSet<String>();
-		Statement stmt = con.createStatement();
-		StringBuffer query = new StringBuffer();
-		query.append("SELECT b.Offset FROM synsetptr a, synsetword b ");
-		query.append("WHERE a.TargetOffset = b.Offset AND a.Ptr = '~' ");
-		query.append("AND b.Pos LIKE '" + partOfSpeech +
-				"' AND a.SourceOffset = ");
-		query.append(conceptOffset);
-		ResultSet rs = stmt.executeQuery(query.toString());
-		while(rs.next()) {
-			result.add(rs.getString(1));
-		}
+		result.addAll(query("SELECT b.Offset FROM synsetptr a, synsetword b " +
+				"WHERE a.TargetOffset = b.Offset AND a.Ptr = '~' " +
+				"AND b.Pos LIKE ? AND a.SourceOffset = ?",
+				partOfSpeech, conceptOffset));
 		if(selfIncluded) {
 			result.add(conceptOffset);
 		}
@@ -657,25 +627,12 @@ public class Lexicon {
 
 		TreeSet<String> result = new TreeSet<String>();
 
-		Statement stmt = con.createStatement();
-
-		StringBuffer query = new StringBuffer();
-		query.append("SELECT Word FROM synsetword ");
-		query.append("WHERE Pos LIKE '" + partOfSpeech + "' " +
+		result.addAll(query("SELECT Word FROM synsetword " +
+				"WHERE Pos LIKE ? " +
 				"AND Suffix IS NULL " +
 				"AND Prefix IS NULL " +
-				"AND Offset = ");
-		query.append(ili);
-
-		ResultSet rs = stmt.executeQuery(query.toString());
-		while(rs.next()) {
-			String s = rs.getString(1);
-			if(!s.endsWith("In")) {
-				result.add (s);
-			} else {
-				result.add (s);
-			}
-		}	
+				"AND Offset = ?",
+				partOfSpeech, ili));
 		return result;
 	}
 
@@ -745,20 +702,14 @@ public class Lexicon {
 		StringBuffer query = new StringBuffer();
 
 		try {
-			Statement stmt = con.createStatement();
-
 			query.append("SELECT TargetOffset FROM synsetptr s, pointer p ");
 
 			query.append("WHERE p.ptr=s.ptr AND ");
-			query.append( (ewnRelation?"p.txt='":"p.Description='wn: ") +
-					escapeSQL(relation) + "' AND ");
-			query.append("s.TargetPos LIKE '" + partOfSpeech + "' AND " +
-					"s.SourceOffset=" + ili);
-
-			ResultSet rs = stmt.executeQuery(query.toString());
-			while(rs.next()) {
-				result.add( rs.getString(1) );
-			}		    
+			query.append(ewnRelation ? "p.txt=? AND " : "p.Description=? AND ");
+			query.append("s.TargetPos LIKE ? AND s.SourceOffset=?");
+
+			result.addAll(query(query.toString(),
+					ewnRelation ? relation : "wn: " + relation, partOfSpeech, ili));
 		} catch(SQLException e) {
 			log(query.toString());
 			throw e;
@@ -769,27 +720,43 @@ public class Lexicon {
 
 
 	/**
-	 * escape a special SQL character (') within a given string
+	 * run a query with a cached statement from the connection pool
 	 * 
-	 * @param input the string to be escaped
-	 * @return the escaped string
+	 * @param sql the query
+	 * @param params the values of the parameters of the query
+	 * @return the first column of each row of the result
 	 */
-	private String escapeSQL(String input) {
-
-		if(input == null) 
-			return null;
-
-		StringTokenizer st = new StringTokenizer(input, "'");
-		StringBuffer buffer = new StringBuffer();
-
-		if(st.countTokens() == 1) 
-			return st.nextToken();
-		buffer.append(st.nextToken());
-		while(st.hasMoreTokens()){
-			buffer.append("\\" + "'" + st.nextToken());
+	private List<String> query(String sql, String... params) throws SQLException {
+		List<String> result = new ArrayList<String>();
+		ConnectionPool.PooledConnection conn = pool.getConnection();
+		try {
+			PreparedStatement stmt = conn.prepareStatement(sql);
+			for (int i = 0; i < params.length; i++) {
+				stmt.setString(i + 1, params[i]);
+			}
+			ResultSet rs = stmt.executeQuery();
+			try {
+				while (rs.next()) {
+					result.add(rs.getString(1));
+				}
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException x) {
+			conn.invalidate();
+			throw x;
+		} finally {
+			conn.close();
 		}
-		return buffer.toString();
-	}  
+		return result;
+	}
+
+	/**
+	 * close the connections to the database
+	 */
+	public void close() {
+		pool.close();
+	}
 
 	private void log(String msg) {
 		System.out.println(msg);
@@ -0,0 +1,236 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.sqlpt;
+
+import eu.monnetproject.translation.monitor.Messages;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Loads a Moses phrase table into the hashed SQL schema. In this schema each 
+ * row is keyed by a hash of its (lower-cased) foreign phrase, and the scores 
+ * are stored already logged in float columns, so that reading a phrase needs
+ * no string parsing. The primary key (forin_hash, id) clusters the rows of a
+ * phrase together, so that it is a covering index for lookups by hash.
+ * <p>
+ * For MySQL, add rewriteBatchedStatements=true to the connection URL so that
+ * the batched inserts are sent as multi-row inserts.
+ *
+ * @author John McCrae
+ */
+public class SQLPhraseTableLoader {
+
+    /**
+     * The column holding the hash of the foreign phrase
+     */
+    public static final String HASH_COLUMN = "forin_hash";
+    /**
+     * The number of (logged) scores in each row
+     */
+    public static final int SCORE_COUNT = 5;
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    private static final int MAX_LENGTH = 255;
+    private static final int REPORT_EVERY = 100000;
+    private static final Pattern FIELD_SEPARATOR = Pattern.compile("\\|\\|\\|");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private final Connection conn;
+    private final String tableName;
+    private final int batchSize;
+
+    /**
+     * Create a loader
+     * @param conn The database connection
+     * @param tableName The table to create and load
+     */
+    public SQLPhraseTableLoader(Connection conn, String tableName) {
+        this(conn, tableName, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Create a loader
+     * @param conn The database connection
+     * @param tableName The table to create and load
+     * @param batchSize The number of rows inserted per batch
+     */
+    public SQLPhraseTableLoader(Connection conn, String tableName, int batchSize) {
+        this.conn = conn;
+        this.tableName = tableName;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * The key by which foreign phrases are matched, i.e., trimmed and in lower
+     * case
+     */
+    public static String key(String foreign) {
+        return foreign.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The hash stored for a foreign phrase. This is the 64-bit FNV-1a hash of
+     * the phrase's key.
+     */
+    public static long hash(String foreign) {
+        final String key = key(foreign);
+        long h = 0xcbf29ce484222325l;
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            h = (h ^ (c & 0xff)) * 0x100000001b3l;
+            h = (h ^ (c >>> 8)) * 0x100000001b3l;
+        }
+        return h;
+    }
+
+    /**
+     * Create the table
+     * @throws SQLException If the table could not be created, e.g., it already exists
+     */
+    public void createTable() throws SQLException {
+        final Statement stat = conn.createStatement();
+        try {
+            final StringBuilder sql = new StringBuilder("create table ").append(tableName).append(" ( ")
+                    .append(HASH_COLUMN).append(" bigint not null, id int not null, forin varchar(255) not null, translation varchar(255) not null, ");
+            for (int i = 0; i < SCORE_COUNT; i++) {
+                sql.append("s").append(i).append(" float not null, ");
+            }
+            sql.append("alignment varchar(255), primary key (").append(HASH_COLUMN).append(", id) )");
+            stat.execute(sql.toString());
+        } finally {
+            stat.close();
+        }
+    }
+
+    /**
+     * Read a phrase table and insert all its rows into the table
+     * @param phraseTableFile The phrase table in Moses format
+     * @return The number of rows inserted
+     */
+    public long load(File phraseTableFile) throws IOException, SQLException {
+        final FileInputStream fis = new FileInputStream(phraseTableFile);
+        final long fileSize = phraseTableFile.length();
+        final BufferedReader in = new BufferedReader(new InputStreamReader(fis, "UTF-8"));
+        final boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        final StringBuilder sql = new StringBuilder("insert into ").append(tableName).append(" (").append(HASH_COLUMN).append(", id, forin, translation, ");
+        for (int i = 0; i < SCORE_COUNT; i++) {
+            sql.append("s").append(i).append(", ");
+        }
+        sql.append("alignment) values (?, ?, ?, ?, ");
+        for (int i = 0; i < SCORE_COUNT; i++) {
+            sql.append("?, ");
+        }
+        sql.append("?)");
+        final PreparedStatement insert = conn.prepareStatement(sql.toString());
+        long lineNo = 0, rows = 0, skipped = 0;
+        int batched = 0;
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lineNo++;
+                final String[] fields = FIELD_SEPARATOR.split(line);
+                if (fields.length < 3) {
+                    throw new IOException("Bad line " + lineNo + " in phrase table: " + line);
+                }
+                final String foreign = fields[0].trim();
+                final String translation = fields[1].trim();
+                if (foreign.length() > MAX_LENGTH || translation.length() > MAX_LENGTH) {
+                    skipped++;
+                    continue;
+                }
+                final String[] scores = WHITESPACE.split(fields[2].trim());
+                if (scores.length != SCORE_COUNT) {
+                    throw new IOException("Expected " + SCORE_COUNT + " scores on line " + lineNo + " of phrase table");
+                }
+                final String alignment = fields.length > 3 ? fields[3].trim() : "";
+                insert.setLong(1, hash(foreign));
+                insert.setInt(2, (int) lineNo);
+                insert.setString(3, foreign);
+                insert.setString(4, translation);
+                for (int i = 0; i < SCORE_COUNT; i++) {
+                    insert.setFloat(5 + i, (float) Math.log(Double.parseDouble(scores[i])));
+                }
+                if (alignment.length() == 0 || alignment.contains("|") || alignment.length() > MAX_LENGTH) {
+                    insert.setNull(5 + SCORE_COUNT, Types.VARCHAR);
+                } else {
+                    insert.setString(5 + SCORE_COUNT, alignment);
+                }
+                insert.addBatch();
+                rows++;
+                if (++batched == batchSize) {
+                    insert.executeBatch();
+                    conn.commit();
+                    batched = 0;
+                }
+                if (lineNo % REPORT_EVERY == 0) {
+                    Messages.info("Loaded " + rows + " phrases into " + tableName + " (" + (100 * fis.getChannel().position() / Math.max(fileSize, 1)) + "%)");
+                }
+            }
+            if (batched > 0) {
+                insert.executeBatch();
+                conn.commit();
+            }
+        } catch (SQLException x) {
+            conn.rollback();
+            throw x;
+        } finally {
+            insert.close();
+            in.close();
+            conn.setAutoCommit(autoCommit);
+        }
+        if (skipped > 0) {
+            Messages.warning("Skipped " + skipped + " phrases longer than " + MAX_LENGTH + " characters");
+        }
+        Messages.info("Loaded " + rows + " phrases into " + tableName);
+        return rows;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3) {
+            System.err.println("Usage:\n\t SQLPhraseTableLoader jdbc-url phrase-table table-name");
+            System.exit(-1);
+        }
+        final Connection conn = DriverManager.getConnection(args[0]);
+        try {
+            final SQLPhraseTableLoader loader = new SQLPhraseTableLoader(conn, args[2]);
+            loader.createTable();
+            loader.load(new File(args[1]));
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -27,20 +27,30 @@
 package eu.monnetproject.translation.sqlpt;
 
 import eu.monnetproject.lang.Language;
+import eu.monnetproject.translation.BatchTranslationSource;
 import eu.monnetproject.translation.Chunk;
 import eu.monnetproject.translation.Decomposer;
 import eu.monnetproject.translation.Label;
 import eu.monnetproject.translation.Feature;
 import eu.monnetproject.translation.PhraseTable;
 import eu.monnetproject.translation.PhraseTableEntry;
-import eu.monnetproject.translation.TranslationSource;
 import eu.monnetproject.translation.monitor.Messages;
+import eu.monnetproject.translation.util.ConnectionPool;
+import eu.monnetproject.translation.util.TranslationLimit;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Arrays;
@@ -50,27 +60,30 @@ import java.util.HashMap;
  *
  * @author John McCrae, Tobias Wunner
  */
-public class SQLPhraseTableSource implements TranslationSource {
+public class SQLPhraseTableSource implements BatchTranslationSource {
 
     private static final int KBEST = 10;
-    private final Connection conn;
+    private final ConnectionPool pool;
     private final String tableName;
     //private final PreparedStatement select;
     private final Language srcLang, trgLang;
     // Careful! May be null
     private final Decomposer decomposer;
-    // Well it turns out a PreparedStatement can only have one result set open at a time
-    // So we make it thread-local so it works for multi-threaded decoding
-    private final ThreadLocal<PreparedStatement> tlSelect = new ThreadLocal<PreparedStatement>() {
-        @Override
-        protected PreparedStatement initialValue() {
-            try {
-                return conn.prepareStatement("select * from " + tableName + " where forin=?");
-            } catch (SQLException x) {
-                throw new RuntimeException(x);
-            }
-        }
-    };
+    private final TranslationLimit limit;
+    private final int batchSize = Math.max(1, Integer.getInteger(BATCH_SIZE_PROPERTY, DEFAULT_BATCH_SIZE));
+    // True if the table is in the schema of SQLPhraseTableLoader
+    private final boolean hashed;
+    private static final String COLUMNS = "forin, translation, scores, alignment";
+    private static final String HASHED_COLUMNS = "forin, translation, s0, s1, s2, s3, s4, alignment";
+    /**
+     * The system property giving the largest number of chunks to look up in
+     * a single query
+     */
+    public static final String BATCH_SIZE_PROPERTY = "eu.monnetproject.translation.sqlpt.batch";
+    /**
+     * The default value of {@link #BATCH_SIZE_PROPERTY}
+     */
+    public static final int DEFAULT_BATCH_SIZE = 64;
     /**
      * The dbType for MySQL databases
      */
@@ -80,13 +93,61 @@ public class SQLPhraseTableSource implements TranslationSource {
      */
     public static final String VIRTUOSO = "virtuoso";
 
-    public SQLPhraseTableSource(Connection conn, String tableName, Language srcLang, Language trgLang, Decomposer decomposer) throws SQLException {
-        this.conn = conn;
+    /**
+     * Create a source. Each thread takes its own connection from the pool
+     * while it is querying
+     * @param pool The connections to the database, closed when this source is closed.
+     * A pool used by several sources should be {@link ConnectionPool#share() shared}
+     * @param tableName The phrase table
+     * @param srcLang The source language
+     * @param trgLang The target language
+     * @param decomposer The compound splitter or null if none
+     */
+    public SQLPhraseTableSource(ConnectionPool pool, String tableName, Language srcLang, Language trgLang, Decomposer decomposer) throws SQLException {
+        this.pool = pool;
         this.tableName = tableName;
         // this.select = conn.prepareStatement("select * from " + tableName + " where forin=?");
         this.srcLang = srcLang;
         this.trgLang = trgLang;
+        this.limit = new TranslationLimit(CANONICAL_FIVESCORE_SCORE_TYPES, srcLang, trgLang);
         this.decomposer = decomposer;
+        this.hashed = hasColumn(SQLPhraseTableLoader.HASH_COLUMN);
+    }
+
+    private boolean hasColumn(String column) throws SQLException {
+        final ConnectionPool.PooledConnection conn = pool.getConnection();
+        try {
+            final Statement stat = conn.getConnection().createStatement();
+            try {
+                final ResultSetMetaData metaData = stat.executeQuery("select * from " + tableName + " where 1=0").getMetaData();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    if (metaData.getColumnName(i).equalsIgnoreCase(column)) {
+                        return true;
+                    }
+                }
+                return false;
+            } finally {
+                stat.close();
+            }
+        } catch (SQLException x) {
+            conn.invalidate();
+            throw x;
+        } finally {
+            conn.close();
+        }
+    }
+
+    private String selectFrom() {
+        return "select " + (hashed ? HASHED_COLUMNS : COLUMNS) + " from " + tableName
+                + " where " + (hashed ? SQLPhraseTableLoader.HASH_COLUMN : "forin");
+    }
+
+    private void setForeign(PreparedStatement select, int i, String foreign) throws SQLException {
+        if (hashed) {
+            select.setLong(i, SQLPhraseTableLoader.hash(foreign));
+        } else {
+            select.setString(i, foreign);
+        }
     }
 
     @Override
@@ -170,51 +231,27 @@ public class SQLPhraseTableSource implements TranslationSource {
 
     private PhraseTableImpl candidatesDefault(Chunk label) {
         ResultSet rs = null;
+        ConnectionPool.PooledConnection conn = null;
         try {
             final String foreign = label.getSource();
-            final PreparedStatement select = tlSelect.get();
-            select.setString(1, foreign);
+            conn = pool.getConnection();
+            final PreparedStatement select = conn.prepareStatement(selectFrom() + "=?");
+            setForeign(select, 1, foreign);
             rs = select.executeQuery();
-            PhraseTableImpl caseMatchingResults = new PhraseTableImpl(srcLang, trgLang, tableName);
-            PhraseTableImpl caseNonmatchingResults = new PhraseTableImpl(srcLang, trgLang, tableName);
-
-            
-            // do
+            final List<Row> rows = new ArrayList<Row>();
+            final String key = SQLPhraseTableLoader.key(foreign);
             while (rs.next()) {
-                // check if case was available and if current foreign is a case match
-                String foreign_res = rs.getString("forin").trim();
-                final boolean caseMatch = foreign_res.equals(label.getSource());
-
-                if (!caseMatch && !caseMatchingResults.isEmpty()) {
-                    continue;
-                }
-
-                final String translation = trimBegin(rs.getString("translation").trim());//new String(rs.getBytes("translation"),"UTF-8");
-                final String[] scoresStrs = trimBegin(rs.getString("scores").trim()).split("\\s+");
-                final double[] scores = new double[scoresStrs.length];
-                for (int i = 0; i < scoresStrs.length; i++) {
-                    try {
-                        scores[i] = Math.log(Double.parseDouble(scoresStrs[i]));
-                    } catch (NumberFormatException x) {
-                        System.err.println("Failed for " + scoresStrs[i] + "(" + rs.getString("scores") + ") forin=" + label.getSource());
-                        throw x;
-                    }
-                }
-                final String alignmentStr = rs.getString("alignment");
-                final Object alignment = (alignmentStr.matches("\\s*") || alignmentStr.contains("|")) ? null : rs.getString("alignment");
-
-                final PhraseTableEntryImpl newPTE = new PhraseTableEntryImpl(
-                        new TokenizedLabelImpl(Arrays.asList(FairlyGoodTokenizer.split(foreign)), srcLang),
-                        new TokenizedLabelImpl(Arrays.asList(translation.split("\\s+")), trgLang),
-                        toFeatures(scores), alignment);
-                if (caseMatch) {
-                    caseMatchingResults.add(newPTE);
-                } else {
-                    caseNonmatchingResults.add(newPTE);
+                final Row row = readRow(rs, foreign);
+                // Rows with the same hash but a different phrase
+                if (!hashed || SQLPhraseTableLoader.key(row.foreign).equals(key)) {
+                    rows.add(row);
                 }
             }
-            return caseMatchingResults.isEmpty() ? caseNonmatchingResults : caseMatchingResults;
+            return toPhraseTable(foreign, rows);
         } catch (SQLException x) {
+            if (conn != null) {
+                conn.invalidate();
+            }
             throw new RuntimeException(x);
             //} catch(UnsupportedEncodingException x) {
             //  throw new RuntimeException("Argh no UTF-8... panic!");
@@ -226,6 +263,158 @@ public class SQLPhraseTableSource implements TranslationSource {
                     x.printStackTrace();
                 }
             }
+            if (conn != null) {
+                conn.close();
+            }
+        }
+    }
+
+    /**
+     * Look up many foreign phrases with as few queries as possible. The rows
+     * are returned keyed by the lower-cased foreign phrase, as the default 
+     * MySQL collation matches the query case-insensitively, as does the hash.
+     * For unhashed tables the collation is not known, so a key may also hold
+     * rows the single query would not match, see {@link #candidates(java.util.List)}
+     * @see SQLPhraseTableLoader#key(java.lang.String) 
+     */
+    private Map<String, List<Row>> rowsDefault(Collection<String> foreigns) {
+        final Map<String, List<Row>> rowsByKey = new HashMap<String, List<Row>>();
+        final List<String> batch = new ArrayList<String>(batchSize);
+        final Iterator<String> iter = foreigns.iterator();
+        final ConnectionPool.PooledConnection conn;
+        try {
+            conn = pool.getConnection();
+        } catch (SQLException x) {
+            throw new RuntimeException(x);
+        }
+        try {
+            while (iter.hasNext()) {
+                batch.add(iter.next());
+                if (batch.size() == batchSize || !iter.hasNext()) {
+                    ResultSet rs = null;
+                    try {
+                        final int params = batchBucket(batch.size());
+                        final PreparedStatement select = batchSelect(conn, params);
+                        for (int i = 0; i < params; i++) {
+                            // Pad with the last phrase so that only a few statements need be prepared
+                            setForeign(select, i + 1, batch.get(Math.min(i, batch.size() - 1)));
+                        }
+                        rs = select.executeQuery();
+                        while (rs.next()) {
+                            final Row row = readRow(rs, null);
+                            final String key = SQLPhraseTableLoader.key(row.foreign);
+                            if (!rowsByKey.containsKey(key)) {
+                                rowsByKey.put(key, new ArrayList<Row>());
+                            }
+                            rowsByKey.get(key).add(row);
+                        }
+                    } catch (SQLException x) {
+                        conn.invalidate();
+                        throw new RuntimeException(x);
+                    } finally {
+                        if (rs != null) {
+                            try {
+                                rs.close();
+                            } catch (Exception x) {
+                                x.printStackTrace();
+                            }
+                        }
+                    }
+                    batch.clear();
+                }
+            }
+        } finally {
+            conn.close();
+        }
+        return rowsByKey;
+    }
+
+    private int batchBucket(int n) {
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        return Math.min(size, batchSize);
+    }
+
+    private PreparedStatement batchSelect(ConnectionPool.PooledConnection conn, int size) throws SQLException {
+        final StringBuilder sql = new StringBuilder(selectFrom()).append(" in (?");
+        for (int i = 1; i < size; i++) {
+            sql.append(",?");
+        }
+        sql.append(")");
+        return conn.prepareStatement(sql.toString());
+    }
+
+    private Row readRow(ResultSet rs, String foreign) throws SQLException {
+        final String foreign_res = rs.getString("forin").trim();
+        final String translation = trimBegin(rs.getString("translation").trim());//new String(rs.getBytes("translation"),"UTF-8");
+        if (hashed) {
+            // Scores are already logged and alignments already cleaned
+            final double[] scores = new double[SQLPhraseTableLoader.SCORE_COUNT];
+            for (int i = 0; i < scores.length; i++) {
+                scores[i] = rs.getFloat(3 + i);
+            }
+            return new Row(foreign_res, translation, scores, rs.getString("alignment"));
+        }
+        final String[] scoresStrs = trimBegin(rs.getString("scores").trim()).split("\\s+");
+        final double[] scores = new double[scoresStrs.length];
+        for (int i = 0; i < scoresStrs.length; i++) {
+            try {
+                scores[i] = Math.log(Double.parseDouble(scoresStrs[i]));
+            } catch (NumberFormatException x) {
+                System.err.println("Failed for " + scoresStrs[i] + "(" + rs.getString("scores") + ") forin=" + (foreign == null ? foreign_res : foreign));
+                throw x;
+            }
+        }
+        final String alignmentStr = rs.getString("alignment");
+        final Object alignment = (alignmentStr.matches("\\s*") || alignmentStr.contains("|")) ? null : alignmentStr;
+        return new Row(foreign_res, translation, scores, alignment);
+    }
+
+    private PhraseTableImpl toPhraseTable(String foreign, List<Row> allRows) {
+        final List<Row> caseMatchingResults = new ArrayList<Row>();
+        final List<Row> caseNonmatchingResults = new ArrayList<Row>();
+        for (Row row : allRows) {
+            // check if case was available and if current foreign is a case match
+            if (row.foreign.equals(foreign)) {
+                caseMatchingResults.add(row);
+            } else if (caseMatchingResults.isEmpty()) {
+                caseNonmatchingResults.add(row);
+            }
+        }
+        // Only create entries for the best rows
+        final List<Row> rows = caseMatchingResults.isEmpty() ? caseNonmatchingResults : caseMatchingResults;
+        final double[] approxScores = new double[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            approxScores[i] = limit.score(rows.get(i).scores);
+        }
+        final boolean[] keep = limit.select(approxScores, rows.size());
+        final PhraseTableImpl results = new PhraseTableImpl(srcLang, trgLang, tableName);
+        for (int i = 0; i < rows.size(); i++) {
+            if (keep == null || keep[i]) {
+                final Row row = rows.get(i);
+                results.add(new PhraseTableEntryImpl(
+                        new TokenizedLabelImpl(Arrays.asList(FairlyGoodTokenizer.split(foreign)), srcLang),
+                        new TokenizedLabelImpl(Arrays.asList(row.translation.split("\\s+")), trgLang),
+                        toFeatures(row.scores), row.alignment));
+            }
+        }
+        return results;
+    }
+
+    private static class Row {
+
+        final String foreign;
+        final String translation;
+        final double[] scores;
+        final Object alignment;
+
+        public Row(String foreign, String translation, double[] scores, Object alignment) {
+            this.foreign = foreign;
+            this.translation = translation;
+            this.scores = scores;
+            this.alignment = alignment;
         }
     }
 
@@ -293,7 +482,49 @@ public class SQLPhraseTableSource implements TranslationSource {
 
     @Override
     public PhraseTable candidates(Chunk label) {
-        final PhraseTableImpl defaultPt = candidatesDefault(label);
+        return candidatesFallback(label, candidatesDefault(label));
+    }
+
+    /**
+     * Find candidate translations for all chunks using batched queries
+     * @param chunks The chunks
+     * @return The candidates for each chunk in order
+     */
+    @Override
+    public List<PhraseTable> candidates(List<Chunk> chunks) {
+        final Set<String> foreigns = new LinkedHashSet<String>();
+        for (Chunk chunk : chunks) {
+            foreigns.add(chunk.getSource());
+        }
+        final Map<String, List<Row>> rowsByKey = rowsDefault(foreigns);
+        final List<PhraseTable> results = new ArrayList<PhraseTable>(chunks.size());
+        for (Chunk chunk : chunks) {
+            final List<Row> rows = rowsByKey.get(SQLPhraseTableLoader.key(chunk.getSource()));
+            final PhraseTableImpl defaultPt;
+            if (rows == null) {
+                defaultPt = toPhraseTable(chunk.getSource(), Collections.<Row>emptyList());
+            } else if (hashed || hasCaseMatch(chunk.getSource(), rows)) {
+                defaultPt = toPhraseTable(chunk.getSource(), rows);
+            } else {
+                // Only other cases of the phrase were found, whether the single
+                // query matches these depends on the collation of the database
+                defaultPt = candidatesDefault(chunk);
+            }
+            results.add(candidatesFallback(chunk, defaultPt));
+        }
+        return results;
+    }
+
+    private static boolean hasCaseMatch(String foreign, List<Row> rows) {
+        for (Row row : rows) {
+            if (row.foreign.equals(foreign)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private PhraseTable candidatesFallback(Chunk label, PhraseTableImpl defaultPt) {
         if (defaultPt.isEmpty()) {
             if (decomposer != null && !label.getSource().contains(" ")) {
                 final String srcLabel = label.getSource();
@@ -353,34 +584,38 @@ public class SQLPhraseTableSource implements TranslationSource {
         if (featureCount >= 0) {
             return featureCount;
         }
+        if (hashed) {
+            return featureCount = SQLPhraseTableLoader.SCORE_COUNT;
+        }
+        ConnectionPool.PooledConnection conn = null;
         try {
-            Statement stat = conn.createStatement();
+            conn = pool.getConnection();
+            final Statement stat = conn.getConnection().createStatement();
             try {
                 final ResultSet rs = stat.executeQuery("select * from " + tableName + " limit 2");
                 rs.next();
                 return featureCount = rs.getString("scores").split("\\s+").length;
-            } catch (SQLException x) {
-                throw new RuntimeException(x);
             } finally {
-                if (stat != null) {
-                    try {
-                        stat.close();
-                    } catch (Exception x) {
-                        throw new RuntimeException(x);
-                    }
+                try {
+                    stat.close();
+                } catch (Exception x) {
+                    throw new RuntimeException(x);
                 }
             }
         } catch (SQLException x) {
+            if (conn != null) {
+                conn.invalidate();
+            }
             throw new RuntimeException(x);
+        } finally {
+            if (conn != null) {
+                conn.close();
+            }
         }
     }
 
     @Override
     public void close() {
-        try {
-            conn.close();
-        } catch (SQLException x) {
-            Messages.severe("Failed to close SQL connection:" + x.getMessage());
-        }
+        pool.close();
     }
 }
@@ -33,6 +33,7 @@ import eu.monnetproject.translation.DecomposerFactory;
 import eu.monnetproject.translation.TranslationSource;
 import eu.monnetproject.translation.TranslationSourceFactory;
 import eu.monnetproject.translation.monitor.Messages;
+import eu.monnetproject.translation.util.ConnectionPool;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
@@ -51,7 +52,10 @@ public class SQLPhraseTableSourceFactory implements TranslationSourceFactory {
     //private final HashMap<LangPair, String> ptFiles = new HashMap<LangPair, String>();
     private final HashMap<LangPair, Integer> ptFeatures = new HashMap<LangPair, Integer>();
     private String server, database, username, password;
+    private int poolSize = Integer.getInteger(ConnectionPool.POOL_SIZE_PROPERTY, ConnectionPool.DEFAULT_POOL_SIZE);
     private final Collection<DecomposerFactory> decomposerFactories;
+    // Shared by all the sources of this factory, created when first needed
+    private ConnectionPool pool;
     // private Connection conn;
 
     public SQLPhraseTableSourceFactory(Collection<DecomposerFactory> decomposerFactories) {
@@ -74,6 +78,9 @@ public class SQLPhraseTableSourceFactory implements TranslationSourceFactory {
             this.database = dbConfig.getProperty("database");
             this.username = dbConfig.getProperty("username");
             this.password = dbConfig.getProperty("password");
+            if (dbConfig.containsKey("poolSize")) {
+                this.poolSize = Integer.parseInt(dbConfig.getProperty("poolSize"));
+            }
             try {
                 // Check we can connect
                 checkForTables();
@@ -87,8 +94,12 @@ public class SQLPhraseTableSourceFactory implements TranslationSourceFactory {
         }
     }
 
+    private String url() {
+        return "jdbc:mysql://" + server + "/" + database + "?user=" + username + "&password=" + password + "&useUnicode=yes&characterEncoding=UTF-8";
+    }
+
     private Connection connect() throws SQLException {
-        return DriverManager.getConnection("jdbc:mysql://" + server + "/" + database + "?user=" + username + "&password=" + password + "&useUnicode=yes&characterEncoding=UTF-8");
+        return DriverManager.getConnection(url());
     }
 
     private void checkForTables() throws SQLException {
@@ -115,6 +126,25 @@ public class SQLPhraseTableSourceFactory implements TranslationSourceFactory {
         connection.close();
     }
 
+    /**
+     * Get the pool shared by the sources of this factory, the caller must close
+     * it when done. A new pool is opened if all sources have closed the last one
+     */
+    private synchronized ConnectionPool sharedPool() throws SQLException {
+        if (pool == null || !pool.share()) {
+            final ConnectionPool newPool = new ConnectionPool(url(), null, poolSize, Integer.getInteger(ConnectionPool.STATEMENT_CACHE_PROPERTY, ConnectionPool.DEFAULT_STATEMENT_CACHE));
+            // Check we can connect
+            try {
+                newPool.getConnection().close();
+            } catch (SQLException x) {
+                newPool.close();
+                throw x;
+            }
+            pool = newPool;
+        }
+        return pool;
+    }
+
     @Override
     public TranslationSource getSource(Language srcLang, Language trgLang) {
         if (server == null || database == null || username == null || password == null) {
@@ -122,7 +152,6 @@ public class SQLPhraseTableSourceFactory implements TranslationSourceFactory {
             return null;
         }
         try {
-            final Connection conn = connect();
             final LangPair lp = new LangPair(srcLang, trgLang);
             Decomposer decomposer = null;
             for(DecomposerFactory decomposerFactory : decomposerFactories) {
@@ -138,7 +167,13 @@ public class SQLPhraseTableSourceFactory implements TranslationSourceFactory {
             if (ptFeatures.containsKey(lp)) {
                 final String tableName = "pt_" + srcLang + "_" + trgLang;
                 //SQLPhraseTableSource.createTableIfNotExists(conn, new File(ptFiles.get(lp)), tableName, SQLPhraseTableSource.MYSQL);
-                return new SQLPhraseTableSource(conn, tableName, srcLang, trgLang,decomposer);
+                final ConnectionPool pool = sharedPool();
+                try {
+                    return new SQLPhraseTableSource(pool, tableName, srcLang, trgLang,decomposer);
+                } catch (SQLException x) {
+                    pool.close();
+                    throw x;
+                }
             } else {
                 Messages.componentLoadFail(this.getClass(),"No phrase table from " + srcLang + " to " + trgLang);
                 return null;
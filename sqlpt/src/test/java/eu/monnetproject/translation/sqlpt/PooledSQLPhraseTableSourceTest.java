@@ -0,0 +1,237 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.sqlpt;
+
+import eu.monnetproject.lang.Language;
+import eu.monnetproject.translation.Chunk;
+import eu.monnetproject.translation.PhraseTable;
+import eu.monnetproject.translation.PhraseTableEntry;
+import eu.monnetproject.translation.util.ConnectionPool;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of SQLPhraseTableSource using a pool of connections to an in-memory 
+ * database
+ *
+ * @author John McCrae
+ */
+public class PooledSQLPhraseTableSourceTest {
+
+    private static final String URL = "jdbc:h2:mem:pooledpt;DB_CLOSE_DELAY=-1";
+    private static final String[][] ROWS = {
+        {"das", "the", "0.4 0.5 0.3 0.2 2.718"},
+        {"das", "it", "0.1 0.2 0.1 0.1 2.718"},
+        {"Haus", "house", "0.8 0.7 0.6 0.5 2.718"},
+        {"haus", "home", "0.2 0.3 0.2 0.1 2.718"},
+        {"das Haus", "the house", "0.9 0.8 0.7 0.6 2.718"}
+    };
+    private Connection conn;
+    private ConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        // Keep one connection open so the database lives for the test
+        conn = DriverManager.getConnection(URL);
+        conn.createStatement().execute("create table pt ( forin varchar(255), translation varchar(255), scores varchar(255), alignment varchar(255), extra varchar(255) )");
+        final PreparedStatement insert = conn.prepareStatement("insert into pt values (?,?,?,'','')");
+        for (String[] row : ROWS) {
+            insert.setString(1, row[0]);
+            insert.setString(2, row[1]);
+            insert.setString(3, row[2]);
+            insert.execute();
+        }
+        insert.close();
+        pool = new ConnectionPool(URL, null, 2, 8);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        conn.createStatement().execute("drop table pt");
+        conn.close();
+    }
+
+    private static int size(PhraseTable pt) {
+        int size = 0;
+        for (Object pte : pt) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Test of candidates method, of class SQLPhraseTableSource.
+     */
+    @Test
+    public void testCandidates() throws SQLException {
+        System.out.println("candidates");
+        final SQLPhraseTableSource instance = new SQLPhraseTableSource(pool, "pt", Language.GERMAN, Language.ENGLISH, null);
+        assertEquals(2, size(instance.candidates(new ChunkImpl("das"))));
+        assertEquals(1, size(instance.candidates(new ChunkImpl("Haus"))));
+        assertEquals(0, size(instance.candidates(new ChunkImpl("Baum"))));
+        final List<PhraseTable> batch = instance.candidates(Arrays.<Chunk>asList(new ChunkImpl("das"), new ChunkImpl("Baum"), new ChunkImpl("Haus"), new ChunkImpl("das Haus")));
+        assertEquals(4, batch.size());
+        assertEquals(2, size(batch.get(0)));
+        assertEquals(0, size(batch.get(1)));
+        assertEquals(1, size(batch.get(2)));
+        assertEquals(1, size(batch.get(3)));
+        assertEquals(0, pool.getWaitCount());
+        assertEquals(1, pool.getCreateCount());
+        assertTrue(pool.getStatementHitCount() > 0);
+    }
+
+    /**
+     * Test that batched candidates match single lookups whatever the case, of class SQLPhraseTableSource.
+     */
+    @Test
+    public void testCandidatesBatchCase() throws SQLException {
+        System.out.println("candidatesBatchCase");
+        final SQLPhraseTableSource instance = new SQLPhraseTableSource(pool, "pt", Language.GERMAN, Language.ENGLISH, null);
+        final List<Chunk> chunks = Arrays.<Chunk>asList(new ChunkImpl("Haus"), new ChunkImpl("haus"), new ChunkImpl("HAUS"), new ChunkImpl("DAS"));
+        final List<PhraseTable> batch = instance.candidates(chunks);
+        assertEquals(chunks.size(), batch.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            final List<String> expected = translations(instance.candidates(chunks.get(i)));
+            assertEquals(chunks.get(i).getSource(), expected, translations(batch.get(i)));
+        }
+        assertEquals(Arrays.asList("house"), translations(batch.get(0)));
+        assertEquals(Arrays.asList("home"), translations(batch.get(1)));
+    }
+
+    private static List<String> translations(PhraseTable pt) {
+        final List<String> translations = new ArrayList<String>();
+        for (PhraseTableEntry pte : pt) {
+            translations.add(pte.getTranslation().asString());
+        }
+        return translations;
+    }
+
+    /**
+     * Test of candidates method from many threads, of class SQLPhraseTableSource.
+     */
+    @Test
+    public void testConcurrent() throws Exception {
+        System.out.println("concurrent");
+        final SQLPhraseTableSource instance = new SQLPhraseTableSource(pool, "pt", Language.GERMAN, Language.ENGLISH, null);
+        final AtomicInteger failures = new AtomicInteger();
+        final long borrowed = pool.getBorrowCount();
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 100; j++) {
+                        try {
+                            if (size(instance.candidates(new ChunkImpl("das"))) != 2) {
+                                failures.incrementAndGet();
+                            }
+                        } catch (RuntimeException x) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(borrowed + 800, pool.getBorrowCount());
+        assertTrue(pool.getCreateCount() <= 2);
+        assertEquals(pool.getOpenCount(), pool.getIdleCount());
+    }
+
+    /**
+     * Test that waiting for a connection of an exhausted pool times out, of class ConnectionPool.
+     */
+    @Test
+    public void testWaitTimeout() throws SQLException {
+        System.out.println("waitTimeout");
+        final ConnectionPool small = new ConnectionPool(URL, null, 1, 8, 100);
+        final ConnectionPool.PooledConnection held = small.getConnection();
+        try {
+            small.getConnection();
+            fail("Pool should time out");
+        } catch (SQLException x) {
+        } finally {
+            held.close();
+        }
+        assertEquals(1, small.getWaitCount());
+        small.getConnection().close();
+        small.close();
+    }
+
+    /**
+     * Test of close method, of class SQLPhraseTableSource.
+     */
+    @Test
+    public void testClose() throws SQLException {
+        System.out.println("close");
+        final SQLPhraseTableSource instance = new SQLPhraseTableSource(pool, "pt", Language.GERMAN, Language.ENGLISH, null);
+        instance.candidates(new ChunkImpl("das"));
+        assertEquals(1, pool.getIdleCount());
+        instance.close();
+        assertEquals(0, pool.getOpenCount());
+        try {
+            pool.getConnection();
+            fail("Pool should be closed");
+        } catch (SQLException x) {
+        }
+    }
+
+    /**
+     * Test of close method with a shared pool, of class SQLPhraseTableSource.
+     */
+    @Test
+    public void testCloseShared() throws SQLException {
+        System.out.println("closeShared");
+        final SQLPhraseTableSource instance1 = new SQLPhraseTableSource(pool, "pt", Language.GERMAN, Language.ENGLISH, null);
+        assertTrue(pool.share());
+        final SQLPhraseTableSource instance2 = new SQLPhraseTableSource(pool, "pt", Language.ENGLISH, Language.GERMAN, null);
+        instance1.close();
+        assertEquals(2, size(instance2.candidates(new ChunkImpl("das"))));
+        assertEquals(1, pool.getCreateCount());
+        instance2.close();
+        assertEquals(0, pool.getOpenCount());
+        assertFalse(pool.share());
+    }
+}
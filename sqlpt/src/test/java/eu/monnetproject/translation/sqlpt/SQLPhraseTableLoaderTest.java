@@ -0,0 +1,154 @@
+/**
+ * ********************************************************************************
+ * Copyright (c) 2011, Monnet Project All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met: *
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer. * Redistributions in binary
+ * form must reproduce the above copyright notice, this list of conditions and
+ * the following disclaimer in the documentation and/or other materials provided
+ * with the distribution. * Neither the name of the Monnet Project nor the names
+ * of its contributors may be used to endorse or promote products derived from
+ * this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE MONNET PROJECT BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ * *******************************************************************************
+ */
+package eu.monnetproject.translation.sqlpt;
+
+import eu.monnetproject.lang.Language;
+import eu.monnetproject.translation.Chunk;
+import eu.monnetproject.translation.Feature;
+import eu.monnetproject.translation.PhraseTable;
+import eu.monnetproject.translation.PhraseTableEntry;
+import eu.monnetproject.translation.util.ConnectionPool;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test of SQLPhraseTableLoader using an in-memory database
+ *
+ * @author John McCrae
+ */
+public class SQLPhraseTableLoaderTest {
+
+    private static final String URL = "jdbc:h2:mem:loaderpt;DB_CLOSE_DELAY=-1";
+    private static final String[] PHRASE_TABLE = {
+        "das ||| the ||| 0.4 0.5 0.3 0.2 2.718 ||| 0-0 ||| 1 1",
+        "das ||| it ||| 0.1 0.2 0.1 0.1 2.718 ||| ||| 1 1",
+        "Haus ||| house ||| 0.8 0.7 0.6 0.5 2.718 ||| 0-0 ||| 1 1",
+        "haus ||| home ||| 0.2 0.3 0.2 0.1 2.718 ||| 0-0 ||| 1 1",
+        "das Haus ||| the house ||| 0.9 0.8 0.7 0.6 2.718 ||| 0-0 1-1 ||| 1 1",
+        "Größe ||| size ||| 0.5 0.5 0.5 0.5 2.718 ||| 0-0 ||| 1 1"
+    };
+    private Connection conn;
+    private File phraseTableFile;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        conn = DriverManager.getConnection(URL);
+        phraseTableFile = File.createTempFile("phrase-table", "");
+        phraseTableFile.deleteOnExit();
+        final PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(phraseTableFile), "UTF-8"));
+        for (String line : PHRASE_TABLE) {
+            out.println(line);
+        }
+        out.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        conn.createStatement().execute("drop table if exists pt");
+        conn.close();
+        phraseTableFile.delete();
+    }
+
+    /**
+     * Test of load method, of class SQLPhraseTableLoader.
+     */
+    @Test
+    public void testLoad() throws Exception {
+        System.out.println("load");
+        final SQLPhraseTableLoader instance = new SQLPhraseTableLoader(conn, "pt", 4);
+        instance.createTable();
+        assertEquals(PHRASE_TABLE.length, instance.load(phraseTableFile));
+        final ResultSet rs = conn.createStatement().executeQuery("select count(*) from pt where forin_hash=" + SQLPhraseTableLoader.hash("das"));
+        rs.next();
+        assertEquals(2, rs.getInt(1));
+        rs.close();
+    }
+
+    /**
+     * Test of hash method, of class SQLPhraseTableLoader.
+     */
+    @Test
+    public void testHash() {
+        System.out.println("hash");
+        assertEquals(SQLPhraseTableLoader.hash("Haus"), SQLPhraseTableLoader.hash("haus "));
+        assertFalse(SQLPhraseTableLoader.hash("Haus") == SQLPhraseTableLoader.hash("Maus"));
+    }
+
+    /**
+     * Test that SQLPhraseTableSource reads the loaded table
+     */
+    @Test
+    public void testCandidates() throws Exception {
+        System.out.println("candidates");
+        final SQLPhraseTableLoader loader = new SQLPhraseTableLoader(conn, "pt");
+        loader.createTable();
+        loader.load(phraseTableFile);
+        final SQLPhraseTableSource instance = new SQLPhraseTableSource(new ConnectionPool(URL, null), "pt", Language.GERMAN, Language.ENGLISH, null);
+        assertEquals(5, instance.featureCount());
+        final PhraseTable das = instance.candidates(new ChunkImpl("das"));
+        int size = 0;
+        for (PhraseTableEntry pte : das) {
+            size++;
+            final Feature[] features = pte.getFeatures();
+            assertEquals(5, features.length);
+            if (pte.getTranslation().asString().equals("the")) {
+                assertEquals(Math.log(0.4), features[0].score, 1e-6);
+                assertEquals(1.0, features[4].score, 1e-3);
+            }
+        }
+        assertEquals(2, size);
+        // Exact case is preferred, other cases are used if there are none
+        final List<PhraseTable> batch = instance.candidates(Arrays.<Chunk>asList(new ChunkImpl("Haus"), new ChunkImpl("HAUS"), new ChunkImpl("größe"), new ChunkImpl("Baum")));
+        assertEquals("house", batch.get(0).iterator().next().getTranslation().asString());
+        assertEquals(1, count(instance.candidates(new ChunkImpl("Haus"))));
+        assertEquals(2, count(batch.get(1)));
+        assertEquals(2, count(instance.candidates(new ChunkImpl("HAUS"))));
+        assertEquals(1, count(batch.get(2)));
+        assertEquals(0, count(batch.get(3)));
+        instance.close();
+    }
+
+    private static int count(PhraseTable pt) {
+        int size = 0;
+        for (Object pte : pt) {
+            size++;
+        }
+        return size;
+    }
+}
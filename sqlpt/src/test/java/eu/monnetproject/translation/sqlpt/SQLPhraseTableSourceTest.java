@@ -6,8 +6,10 @@ package eu.monnetproject.translation.sqlpt;
 
 import eu.monnetproject.lang.Language;
 import eu.monnetproject.config.Configurator;
+import eu.monnetproject.translation.Chunk;
 import eu.monnetproject.translation.Label;
 import eu.monnetproject.translation.PhraseTable;
+import eu.monnetproject.translation.util.ConnectionPool;
 import java.io.File;
 import java.io.IOException;
 import java.io.FileInputStream;
@@ -16,6 +18,7 @@ import java.io.BufferedReader;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
@@ -34,6 +37,7 @@ public class SQLPhraseTableSourceTest {
     public SQLPhraseTableSourceTest() {
     }
     private static Connection conn;
+    private static ConnectionPool pool;
 
     @BeforeClass
     public static void setUpClass() throws Exception {
@@ -47,7 +51,9 @@ public class SQLPhraseTableSourceTest {
             }
             try {
 System.out.println("connect to "+config.getProperty("database"));
-                conn = DriverManager.getConnection("jdbc:mysql://localhost/" + config.getProperty("database") + "?user=" + config.getProperty("username") + "&password=" + config.getProperty("password"));
+                final String url = "jdbc:mysql://localhost/" + config.getProperty("database") + "?user=" + config.getProperty("username") + "&password=" + config.getProperty("password");
+                conn = DriverManager.getConnection(url);
+                pool = new ConnectionPool(url, null);
                 File phraseTableFile = new File("src/test/resources/sample-models/phrase-model/phrase-table");
                 String name = "test";
                 SQLPhraseTableSource.createTableIfNotExists(conn, phraseTableFile, name, SQLPhraseTableSource.MYSQL);
@@ -89,7 +95,7 @@ System.out.println("connect to "+config.getProperty("database"));
         if (conn != null) {
             System.out.println("candidates");
             String dbtablename = "test";
-            SQLPhraseTableSource instance = new SQLPhraseTableSource(conn, dbtablename, Language.GERMAN, Language.ENGLISH,null);
+            SQLPhraseTableSource instance = new SQLPhraseTableSource(pool, dbtablename, Language.GERMAN, Language.ENGLISH,null);
             String foreign = "Digital";
             PhraseTable result = instance.candidates(new ChunkImpl(foreign));
             int size = 0;
@@ -100,6 +106,32 @@ System.out.println("connect to "+config.getProperty("database"));
         }
     }
 
+    /**
+     * Test of batched candidates method, of class MySQLPhraseTableSource.
+     */
+    @Test
+    public void testCandidatesBatch() throws SQLException {
+        if (conn != null) {
+            System.out.println("candidatesBatch");
+            String dbtablename = "test";
+            SQLPhraseTableSource instance = new SQLPhraseTableSource(pool, dbtablename, Language.GERMAN, Language.ENGLISH,null);
+            List<Chunk> chunks = Arrays.<Chunk>asList(new ChunkImpl("Digital"), new ChunkImpl("das"), new ChunkImpl("not in the table"), new ChunkImpl("Digital"));
+            List<PhraseTable> result = instance.candidates(chunks);
+            assertEquals(chunks.size(), result.size());
+            for (int i = 0; i < chunks.size(); i++) {
+                int expSize = 0;
+                for (Object pte : instance.candidates(chunks.get(i))) {
+                    expSize++;
+                }
+                int size = 0;
+                for (Object pte : result.get(i)) {
+                    size++;
+                }
+                assertEquals(expSize, size);
+            }
+        }
+    }
+
     /**
      * Test of featureCount method, of class MySQLPhraseTableSource.
      */
@@ -108,7 +140,7 @@ System.out.println("connect to "+config.getProperty("database"));
         if (conn != null) {
             System.out.println("featureCount");
             String dbtablename = "test";
-            SQLPhraseTableSource instance = new SQLPhraseTableSource(conn, dbtablename, Language.GERMAN, Language.ENGLISH,null);
+            SQLPhraseTableSource instance = new SQLPhraseTableSource(pool, dbtablename, Language.GERMAN, Language.ENGLISH,null);
             int expResult = 1;
             int result = instance.featureCount();
             assertEquals(expResult, result);
@@ -124,7 +156,7 @@ System.out.println("connect to "+config.getProperty("database"));
         if (conn != null) {
             System.out.println("candidatesFallbackCase");
             String dbtablename = "test";
-            SQLPhraseTableSource instance = new SQLPhraseTableSource(conn, dbtablename, Language.GERMAN, Language.ENGLISH,null);
+            SQLPhraseTableSource instance = new SQLPhraseTableSource(pool, dbtablename, Language.GERMAN, Language.ENGLISH,null);
             String foreign = "Digital";
             PhraseTable result = instance.candidates(new ChunkImpl(foreign));
             int size = 0;
@@ -159,7 +191,7 @@ System.out.println("connect to "+config.getProperty("database"));
         if (conn != null) {
             System.out.println("candidatesFallbackGermanCompound");
             String dbtablename = "pt_de_en";
-            SQLPhraseTableSource instance = new SQLPhraseTableSource(conn, dbtablename, Language.GERMAN, Language.ENGLISH,null);
+            SQLPhraseTableSource instance = new SQLPhraseTableSource(pool, dbtablename, Language.GERMAN, Language.ENGLISH,null);
             List<String> foreigns = readFile("src/test/resources/sample-translations/compounds.de.txt");
             for(String foreign:foreigns) {
               System.out.println("translate: "+foreign);
@@ -186,7 +218,7 @@ System.out.println("connect to "+config.getProperty("database"));
         if (conn != null) {
             System.out.println("candidatesFallbackDutchCompound");
             String dbtablename = "pt_nl_en";
-            SQLPhraseTableSource instance = new SQLPhraseTableSource(conn, dbtablename, Language.DUTCH, Language.ENGLISH,null);
+            SQLPhraseTableSource instance = new SQLPhraseTableSource(pool, dbtablename, Language.DUTCH, Language.ENGLISH,null);
             List<String> foreigns = readFile("src/test/resources/sample-translations/compounds.nl.txt");
             for(String foreign:foreigns) {
               System.out.println("translate: "+foreign);